@@ -0,0 +1,706 @@
+package daikon;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.checkerframework.checker.interning.qual.Interned;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.plumelib.util.Intern;
+
+/**
+ * Reading and writing of the binary data trace format. A binary data trace contains the same
+ * information as a textual {@code .dtrace} file, but each sample is a length-prefixed record that
+ * identifies its program point by a small integer and lists its values, in a fixed variable order,
+ * as typed primitives rather than text. Declarations are carried verbatim in their textual form.
+ *
+ * <p>The file starts with the 32-bit {@link #MAGIC} number and a 32-bit {@link #VERSION}. Each
+ * record that follows is a one-byte tag, a 32-bit payload length, and the payload:
+ *
+ * <dl>
+ *   <dt>{@link #REC_DECLS}
+ *   <dd>UTF-8 text in the ordinary declaration format (decl-version, ppt declarations, etc.).
+ *   <dt>{@link #REC_PPT}
+ *   <dd>a ppt id, the ppt name, the number of variables, and the name and type code of each
+ *       variable, in the order in which their values appear in samples.
+ *   <dt>{@link #REC_SAMPLE}
+ *   <dd>a ppt id, a nonce flag (and the nonce, if the flag is set), then one mod bit per variable,
+ *       each followed by the value unless the mod bit is {@link ValueTuple#MISSING_NONSENSICAL}.
+ *   <dt>{@link #REC_EOF}
+ *   <dd>an empty payload marking the end of the trace.
+ * </dl>
+ *
+ * Scalars are written as 64-bit longs or doubles; strings as a 32-bit length (-1 for null) and UTF-8
+ * bytes; arrays as a 32-bit length followed by their elements. All numbers are big-endian. The
+ * format does no compression of its own; a binary trace may be gzipped like a textual one.
+ *
+ * @see FileIO#read_data_trace_file(String,PptMap,FileIO.Processor,boolean,boolean)
+ * @see daikon.tools.DtraceToBinary
+ */
+public final class BinaryDtrace {
+
+  private BinaryDtrace() {
+    throw new Error("do not instantiate");
+  }
+
+  /** First four bytes of every binary data trace ("DKBT"). */
+  public static final int MAGIC = 0x444B4254;
+  /** Version of the binary format written by this class. */
+  public static final int VERSION = 1;
+
+  /** Record tag for declaration text. */
+  public static final byte REC_DECLS = 1;
+  /** Record tag for a program point definition. */
+  public static final byte REC_PPT = 2;
+  /** Record tag for a sample. */
+  public static final byte REC_SAMPLE = 3;
+  /** Record tag for the end of the trace. */
+  public static final byte REC_EOF = 4;
+
+  /** Type code for an integral scalar (int, boolean, hashcode, etc.). */
+  public static final byte TYPE_INT = 0;
+  /** Type code for a floating-point scalar. */
+  public static final byte TYPE_DOUBLE = 1;
+  /** Type code for a string. */
+  public static final byte TYPE_STRING = 2;
+  /** Type code for an array of integral values. */
+  public static final byte TYPE_INT_ARRAY = 3;
+  /** Type code for an array of floating-point values. */
+  public static final byte TYPE_DOUBLE_ARRAY = 4;
+  /** Type code for an array of strings. */
+  public static final byte TYPE_STRING_ARRAY = 5;
+
+  /** Returns the type code used to encode values of the given representation type. */
+  public static byte type_code(ProglangType rep_type) {
+    if (rep_type.dimensions() == 0) {
+      if (rep_type.baseIsFloat()) {
+        return TYPE_DOUBLE;
+      } else if (rep_type.baseIsString()) {
+        return TYPE_STRING;
+      } else {
+        return TYPE_INT;
+      }
+    } else if (rep_type.dimensions() == 1) {
+      if (rep_type.baseIsFloat()) {
+        return TYPE_DOUBLE_ARRAY;
+      } else if (rep_type.baseIsString()) {
+        return TYPE_STRING_ARRAY;
+      } else {
+        return TYPE_INT_ARRAY;
+      }
+    } else {
+      throw new IllegalArgumentException("No binary encoding for type " + rep_type.format());
+    }
+  }
+
+  /**
+   * Returns true if the named file is a binary data trace (possibly gzipped). Standard input, the
+   * Chicory socket, and URLs are never treated as binary.
+   */
+  public static boolean is_binary_dtrace(String filename) {
+    if (filename.equals("-")
+        || filename.equals("+")
+        || filename.startsWith("file:")
+        || filename.startsWith("jar:")) {
+      return false;
+    }
+    File file = new File(filename);
+    if (!file.isFile() || file.length() < 8) {
+      return false;
+    }
+    try (InputStream is = open_stream(filename)) {
+      int magic = 0;
+      for (int i = 0; i < 4; i++) {
+        int b = is.read();
+        if (b < 0) {
+          return false;
+        }
+        magic = (magic << 8) | b;
+      }
+      return magic == MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /** Opens the file for reading, decompressing it if its name ends in ".gz". */
+  private static InputStream open_stream(String filename) throws IOException {
+    InputStream is = new FileInputStream(filename);
+    if (filename.endsWith(".gz")) {
+      is = new GZIPInputStream(is, 65536);
+    }
+    return is;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Writing
+  ///
+
+  /**
+   * Writes a binary data trace. Program points are assigned ids the first time a sample is written
+   * for them, and their variable names and types are written only once.
+   */
+  public static class Writer implements Closeable {
+
+    /** Where the trace is written. */
+    private final DataOutputStream out;
+
+    /** Holds the payload of the record under construction, so its length can be written first. */
+    private final ByteArrayOutputStream payload_bytes = new ByteArrayOutputStream(4096);
+
+    /** Output stream over {@link #payload_bytes}. */
+    private final DataOutputStream payload = new DataOutputStream(payload_bytes);
+
+    /** Maps a ppt name to its id. */
+    private final Map<String, Integer> ppt_ids = new HashMap<String, Integer>();
+
+    /** The variable type codes of each ppt, indexed by ppt id. */
+    private final List<byte[]> ppt_types = new ArrayList<byte[]>();
+
+    /** Creates a writer and writes the file header. */
+    public Writer(OutputStream os) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(os, 65536));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+    }
+
+    /** Writes declarations (in the textual declaration format) to the trace. */
+    public void write_decls(String decls) throws IOException {
+      byte[] bytes = decls.getBytes(UTF_8);
+      out.writeByte(REC_DECLS);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    /** Returns the id of the named ppt, or -1 if it has not been defined yet. */
+    public int ppt_id(String ppt_name) {
+      Integer id = ppt_ids.get(ppt_name);
+      return (id == null) ? -1 : id.intValue();
+    }
+
+    /**
+     * Defines a new ppt and returns its id. Samples for the ppt must supply values for exactly the
+     * given variables, in the given order.
+     *
+     * @param ppt_name name of the program point
+     * @param var_names names of the variables whose values appear in samples
+     * @param rep_types representation types of those variables
+     */
+    public int define_ppt(String ppt_name, List<String> var_names, List<ProglangType> rep_types)
+        throws IOException {
+      byte[] types = new byte[rep_types.size()];
+      for (int i = 0; i < types.length; i++) {
+        types[i] = type_code(rep_types.get(i));
+      }
+      return define_ppt(ppt_name, var_names, types);
+    }
+
+    /**
+     * Defines a new ppt and returns its id. This variant is for front ends (such as Chicory) that
+     * must not load Daikon's own classes, such as {@link ProglangType}.
+     *
+     * @param ppt_name name of the program point
+     * @param var_names names of the variables whose values appear in samples
+     * @param types type codes ({@link #TYPE_INT}, etc.) of those variables
+     */
+    public int define_ppt(String ppt_name, List<String> var_names, byte[] types)
+        throws IOException {
+      assert !ppt_ids.containsKey(ppt_name) : ppt_name;
+      assert var_names.size() == types.length;
+      int id = ppt_types.size();
+      ppt_ids.put(ppt_name, id);
+      ppt_types.add(types);
+
+      payload.writeInt(id);
+      write_string(payload, ppt_name);
+      payload.writeInt(types.length);
+      for (int i = 0; i < types.length; i++) {
+        write_string(payload, var_names.get(i));
+        payload.writeByte(types[i]);
+      }
+      flush_record(REC_PPT);
+      return id;
+    }
+
+    /**
+     * Writes one sample. Values are the parsed (ProglangType.parse_value) form of each variable's
+     * value; a null value is written as nonsensical regardless of its mod bit.
+     *
+     * @param ppt_id id returned by {@link #define_ppt}
+     * @param nonce the invocation nonce, or null if none
+     * @param vals the value of each variable, in the order given to {@link #define_ppt}
+     * @param mods the mod bit of each variable
+     */
+    public void write_sample(
+        int ppt_id, @Nullable Integer nonce, @Nullable Object[] vals, int[] mods)
+        throws IOException {
+      byte[] types = ppt_types.get(ppt_id);
+      payload.writeInt(ppt_id);
+      if (nonce == null) {
+        payload.writeByte(0);
+      } else {
+        payload.writeByte(1);
+        payload.writeInt(nonce.intValue());
+      }
+      for (int i = 0; i < types.length; i++) {
+        Object val = vals[i];
+        int mod = mods[i];
+        if (val == null || mod == ValueTuple.MISSING_NONSENSICAL) {
+          payload.writeByte(ValueTuple.MISSING_NONSENSICAL);
+          continue;
+        }
+        payload.writeByte(mod);
+        write_value(types[i], val);
+      }
+      flush_record(REC_SAMPLE);
+    }
+
+    /** Writes the end-of-trace record and closes the underlying stream. */
+    @Override
+    public void close() throws IOException {
+      out.writeByte(REC_EOF);
+      out.writeInt(0);
+      out.close();
+    }
+
+    /** Flushes buffered output to the underlying stream. */
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    /** Writes the record under construction with the given tag, then clears it. */
+    private void flush_record(byte tag) throws IOException {
+      out.writeByte(tag);
+      out.writeInt(payload_bytes.size());
+      payload_bytes.writeTo(out);
+      payload_bytes.reset();
+    }
+
+    /** Writes one non-null value of the given type to the record under construction. */
+    private void write_value(byte type, Object val) throws IOException {
+      switch (type) {
+        case TYPE_INT:
+          payload.writeLong(((Long) val).longValue());
+          break;
+        case TYPE_DOUBLE:
+          payload.writeDouble(((Double) val).doubleValue());
+          break;
+        case TYPE_STRING:
+          write_string(payload, (String) val);
+          break;
+        case TYPE_INT_ARRAY:
+          {
+            long[] arr = (long[]) val;
+            payload.writeInt(arr.length);
+            for (long elt : arr) {
+              payload.writeLong(elt);
+            }
+            break;
+          }
+        case TYPE_DOUBLE_ARRAY:
+          {
+            double[] arr = (double[]) val;
+            payload.writeInt(arr.length);
+            for (double elt : arr) {
+              payload.writeDouble(elt);
+            }
+            break;
+          }
+        case TYPE_STRING_ARRAY:
+          {
+            String[] arr = (String[]) val;
+            payload.writeInt(arr.length);
+            for (String elt : arr) {
+              write_string(payload, elt);
+            }
+            break;
+          }
+        default:
+          throw new Error("Unknown type code " + type);
+      }
+    }
+
+    /** Writes a length-prefixed UTF-8 string, or -1 for null. */
+    private static void write_string(DataOutputStream dos, @Nullable String s) throws IOException {
+      if (s == null) {
+        dos.writeInt(-1);
+      } else {
+        byte[] bytes = s.getBytes(UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+      }
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Reading
+  ///
+
+  /** A program point definition read from a {@link #REC_PPT} record. */
+  public static final class PptDef {
+    /** The id by which samples refer to this ppt. */
+    public final int id;
+    /** Program point name. */
+    public final String name;
+    /** Names of the variables, in sample order. */
+    public final String[] var_names;
+    /** Type codes of the variables, in sample order. */
+    public final byte[] types;
+
+    /** Creates a new PptDef. */
+    PptDef(int id, String name, String[] var_names, byte[] types) {
+      this.id = id;
+      this.name = name;
+      this.var_names = var_names;
+      this.types = types;
+    }
+  }
+
+  /**
+   * Reads a binary data trace record by record. Uncompressed files are read through a {@link
+   * MappedByteBuffer} window that is moved along the file; gzipped files are read through a {@link
+   * ReadableByteChannel} into a reusable buffer. Either way, each record is wholly buffered before
+   * it is decoded, so decoding never parses text and never copies a record twice.
+   */
+  public static final class Reader implements Closeable {
+
+    /** Size of the mapped window, or of the buffer for compressed input. */
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /** Size of the initial buffer for compressed input. */
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+
+    /** Name of the file, for error messages. */
+    public final String filename;
+
+    /** The channel of an uncompressed file, or null if the input is compressed. */
+    private final @Nullable FileChannel file_channel;
+
+    /** The channel of a compressed file, or null if the input is uncompressed. */
+    private final @Nullable ReadableByteChannel stream_channel;
+
+    /** Size of the uncompressed file. */
+    private final long file_size;
+
+    /** File offset of the start of {@link #buf}, for an uncompressed file. */
+    private long window_start = 0;
+
+    /** The current window or buffer. Its position is the read position. */
+    private ByteBuffer buf;
+
+    /** The definitions read so far, indexed by ppt id. */
+    private final List<@Nullable PptDef> ppt_defs = new ArrayList<@Nullable PptDef>();
+
+    /** Position in {@link #buf} just past the payload of the current record. */
+    private int record_end = 0;
+
+    /** Number of records read so far. */
+    private long record_count = 0;
+
+    /** Opens the file and checks its header. */
+    @SuppressWarnings("resource") // the channel is closed by close()
+    public Reader(String filename) throws IOException {
+      this.filename = filename;
+      if (filename.endsWith(".gz")) {
+        file_channel = null;
+        stream_channel = Channels.newChannel(open_stream(filename));
+        file_size = -1;
+        buf = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        buf.limit(0);
+      } else {
+        file_channel = new FileInputStream(filename).getChannel();
+        stream_channel = null;
+        file_size = file_channel.size();
+        buf = file_channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW_SIZE, file_size));
+      }
+      ensure(8);
+      int magic = buf.getInt();
+      int version = buf.getInt();
+      if (magic != MAGIC) {
+        throw new IOException(filename + " is not a binary data trace file");
+      }
+      if (version != VERSION) {
+        throw new IOException(
+            String.format(
+                "%s has binary trace format version %d; expected %d", filename, version, VERSION));
+      }
+    }
+
+    /** Returns the number of records read so far. */
+    public long record_count() {
+      return record_count;
+    }
+
+    /**
+     * Reads the header of the next record and makes its whole payload available. Returns the record
+     * tag, or -1 at the end of the file.
+     */
+    public byte next_record() throws IOException {
+      if (!has_remaining()) {
+        return -1;
+      }
+      ensure(5);
+      byte tag = buf.get();
+      int length = buf.getInt();
+      ensure(length);
+      record_end = buf.position() + length;
+      record_count++;
+      return tag;
+    }
+
+    /** Reads a {@link #REC_DECLS} record whose header has just been read, and returns its text. */
+    public String read_decls() {
+      return read_utf8(record_end - buf.position());
+    }
+
+    /** Reads a {@link #REC_PPT} record whose header has just been read, and returns it. */
+    public PptDef read_ppt() throws IOException {
+      int id = buf.getInt();
+      String name = read_string();
+      if (name == null) {
+        throw new IOException("Null ppt name in " + filename);
+      }
+      int nvars = buf.getInt();
+      String[] var_names = new String[nvars];
+      byte[] types = new byte[nvars];
+      for (int i = 0; i < nvars; i++) {
+        String var_name = read_string();
+        if (var_name == null) {
+          throw new IOException("Null variable name for ppt " + name + " in " + filename);
+        }
+        var_names[i] = var_name;
+        types[i] = buf.get();
+      }
+      PptDef def = new PptDef(id, name, var_names, types);
+      while (ppt_defs.size() <= id) {
+        ppt_defs.add(null);
+      }
+      ppt_defs.set(id, def);
+      return def;
+    }
+
+    /** Reads the ppt id at the start of a {@link #REC_SAMPLE} record. */
+    public int read_sample_ppt_id() {
+      return buf.getInt();
+    }
+
+    /** Returns the definition of the given ppt id. */
+    public PptDef ppt_def(int id) throws IOException {
+      PptDef def = (id < ppt_defs.size()) ? ppt_defs.get(id) : null;
+      if (def == null) {
+        throw new IOException("Sample for undefined ppt id " + id + " in " + filename);
+      }
+      return def;
+    }
+
+    /** Reads the nonce of a sample, after its ppt id. Returns null if the sample has none. */
+    public @Nullable Integer read_sample_nonce() {
+      if (buf.get() == 0) {
+        return null;
+      }
+      return buf.getInt();
+    }
+
+    /** Reads the mod bit of the next value of a sample. */
+    public int read_mod() {
+      return buf.get();
+    }
+
+    /**
+     * Reads the next value of a sample, which has the given type code. The result is interned, just
+     * like the result of {@link ProglangType#parse_value}.
+     */
+    public @Interned Object read_value(byte type) throws IOException {
+      switch (type) {
+        case TYPE_INT:
+          return Intern.internedLong(buf.getLong());
+        case TYPE_DOUBLE:
+          return Intern.internedDouble(buf.getDouble());
+        case TYPE_STRING:
+          {
+            String s = read_string();
+            if (s == null) {
+              // The writer encodes a null string as a nonsensical value.
+              throw new IOException("Null string value in " + filename);
+            }
+            return s.intern();
+          }
+        case TYPE_INT_ARRAY:
+          {
+            long[] arr = new long[buf.getInt()];
+            buf.asLongBuffer().get(arr);
+            buf.position(buf.position() + arr.length * 8);
+            return Intern.intern(arr);
+          }
+        case TYPE_DOUBLE_ARRAY:
+          {
+            double[] arr = new double[buf.getInt()];
+            buf.asDoubleBuffer().get(arr);
+            buf.position(buf.position() + arr.length * 8);
+            return Intern.intern(arr);
+          }
+        case TYPE_STRING_ARRAY:
+          {
+            @Nullable String[] arr = new @Nullable String[buf.getInt()];
+            for (int i = 0; i < arr.length; i++) {
+              arr[i] = read_string();
+            }
+            @SuppressWarnings("nullness") // Intern.internStrings permits null elements
+            @Interned String[] interned = Intern.internStrings(arr);
+            return Intern.intern(interned);
+          }
+        default:
+          throw new IOException("Unknown type code " + type + " in " + filename);
+      }
+    }
+
+    /** Skips over the next value of a sample, which has the given type code. */
+    public void skip_value(byte type) throws IOException {
+      switch (type) {
+        case TYPE_INT:
+        case TYPE_DOUBLE:
+          buf.position(buf.position() + 8);
+          break;
+        case TYPE_STRING:
+          skip_string();
+          break;
+        case TYPE_INT_ARRAY:
+        case TYPE_DOUBLE_ARRAY:
+          buf.position(buf.position() + buf.getInt() * 8);
+          break;
+        case TYPE_STRING_ARRAY:
+          {
+            int len = buf.getInt();
+            for (int i = 0; i < len; i++) {
+              skip_string();
+            }
+            break;
+          }
+        default:
+          throw new IOException("Unknown type code " + type + " in " + filename);
+      }
+    }
+
+    /** Skips the remainder of the current record. */
+    public void skip_record() {
+      buf.position(record_end);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (file_channel != null) {
+        file_channel.close();
+      }
+      if (stream_channel != null) {
+        stream_channel.close();
+      }
+    }
+
+    /** Reads a length-prefixed UTF-8 string, or null. */
+    private @Nullable String read_string() {
+      int len = buf.getInt();
+      if (len < 0) {
+        return null;
+      }
+      return read_utf8(len);
+    }
+
+    /** Skips a length-prefixed string. */
+    private void skip_string() {
+      int len = buf.getInt();
+      if (len > 0) {
+        buf.position(buf.position() + len);
+      }
+    }
+
+    /** Decodes the next len bytes as UTF-8. */
+    private String read_utf8(int len) {
+      String result;
+      if (buf.hasArray()) {
+        result = new String(buf.array(), buf.arrayOffset() + buf.position(), len, UTF_8);
+        buf.position(buf.position() + len);
+      } else {
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        result = new String(bytes, UTF_8);
+      }
+      return result;
+    }
+
+    /** Returns true if any input remains. */
+    private boolean has_remaining() throws IOException {
+      if (buf.hasRemaining()) {
+        return true;
+      }
+      if (file_channel != null) {
+        return window_start + buf.position() < file_size;
+      }
+      fill(1);
+      return buf.hasRemaining();
+    }
+
+    /**
+     * Makes sure that at least n bytes are available in {@link #buf}, moving the mapped window or
+     * reading more compressed input as necessary.
+     */
+    private void ensure(int n) throws IOException {
+      if (buf.remaining() >= n) {
+        return;
+      }
+      if (file_channel != null) {
+        window_start += buf.position();
+        long available = file_size - window_start;
+        if (available < n) {
+          throw new EOFException("Unexpected end of binary trace file " + filename);
+        }
+        buf =
+            file_channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                window_start,
+                Math.min(available, Math.max(WINDOW_SIZE, n)));
+      } else {
+        fill(n);
+        if (buf.remaining() < n) {
+          throw new EOFException("Unexpected end of binary trace file " + filename);
+        }
+      }
+    }
+
+    /** Reads compressed input until at least n bytes are buffered or the input is exhausted. */
+    private void fill(int n) throws IOException {
+      assert stream_channel != null;
+      if (buf.capacity() < n) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(n, buf.capacity() * 2));
+        bigger.put(buf);
+        buf = bigger;
+      } else {
+        buf.compact();
+      }
+      // buf is now in write mode
+      while (buf.position() < n) {
+        if (stream_channel.read(buf) < 0) {
+          break;
+        }
+      }
+      buf.flip();
+    }
+  }
+}
@@ -93,6 +93,44 @@ public class Chicory {
   @Option("Create the new declaration record format")
   public static boolean new_decl_format = true;
 
+  /**
+   * If true, write the data trace in the binary format of {@link daikon.BinaryDtrace} instead of
+   * as text. Daikon reads either format. Ignored with {@code --daikon-online}.
+   */
+  @Option("Write the data trace in binary format")
+  public static boolean binary_dtrace = false;
+
+  /**
+   * If true, each thread of the target program buffers its own trace records, and a background
+   * thread writes them to the data trace, so that threads do not wait for each other on every
+   * method call. The records of different threads are interleaved differently than without this
+   * option, and the DTRACELIMIT limit on the number of records may be exceeded by a few records.
+   * Ignored with {@code --binary-dtrace}.
+   */
+  @Option("Buffer trace records per thread")
+  public static boolean thread_buffers = false;
+
+  /**
+   * If true, the data trace is compressed and written by a background thread, so that the target
+   * program does not wait for the disk or for Daikon. The trace records are still formatted by
+   * the thread that makes them, because they describe the values at the time of the call.
+   */
+  @Option("Compress and write the data trace in a background thread")
+  public static boolean async_dtrace = false;
+
+  /** With {@code --async-dtrace}, the number of kilobytes of trace that may await writing. */
+  @Option("Kilobytes of trace that may await the background thread")
+  public static int async_dtrace_limit = 16 * 1024;
+
+  /**
+   * With {@code --async-dtrace}, what to do with a call when {@code --async-dtrace-limit} kilobytes
+   * await writing: "block" traces it, waiting for the background thread to catch up; "drop" does
+   * not trace it; and "sample" traces one such call in ten, waiting for those, and not the rest.
+   * The entry and exit of a call are traced or not together.
+   */
+  @Option("When the background thread falls behind: block, drop, or sample")
+  public static String async_dtrace_full = "block";
+
   /**
    * Path to java agent jar file that performs the transformation. The "main" procedure is {@link
    * daikon.chicory.ChicoryPremain#premain}.
@@ -134,6 +172,16 @@ public class Chicory {
   @Option("Number of calls after which sampling will begin")
   public static int sample_start = 0;
 
+  /**
+   * When this option is chosen, Chicory records each call of a method with probability
+   * sample-target/n, where n is the number of times that method has been called. The first
+   * sample-target calls of each method are recorded, and the number recorded afterward grows only
+   * with the logarithm of the number of calls, so hot methods no longer dominate the trace. The
+   * entry and exit of a call are recorded or not together. Overrides {@code --sample-start}.
+   */
+  @Option("Number of calls per method before adaptive sampling begins")
+  public static int sample_target = 0;
+
   /** Daikon port number. Daikon writes this to stdout when it is started in online mode. */
   private static int daikon_port = -1;
 
@@ -215,6 +263,24 @@ public class Chicory {
       options.printUsage();
       return false;
     }
+    if (sample_target < 0) {
+      System.out.printf("sample target (%d) must not be negative%n", sample_target);
+      options.printUsage();
+      return false;
+    }
+    if (async_dtrace_limit <= 0) {
+      System.out.printf("async dtrace limit (%d) must be positive%n", async_dtrace_limit);
+      options.printUsage();
+      return false;
+    }
+    if (!(async_dtrace_full.equals("block")
+        || async_dtrace_full.equals("drop")
+        || async_dtrace_full.equals("sample"))) {
+      System.out.printf(
+          "async dtrace full policy (%s) must be block, drop, or sample%n", async_dtrace_full);
+      options.printUsage();
+      return false;
+    }
     if (target_args.length == 0) {
       System.out.println("target program must be specified");
       options.printUsage();
@@ -0,0 +1,199 @@
+package daikon;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.plumelib.util.UtilPlume;
+
+/**
+ * An append-only sequence of bits, used by {@link ModBitTracker} to record for each sample whether
+ * the variables of an equivalence set were present. Modbits usually change rarely from one sample
+ * to the next, so the bits are stored as the positions at which their value changes (run-length
+ * encoding). If the value changes so often that the runs would be larger than a bitmap, the bits
+ * are converted to a {@link BitSet}.
+ *
+ * <p>{@link #share} copies a CompactBitSet without copying its storage. The storage is copied only
+ * when one of the copies next changes it; appending bits with the same value as the last one
+ * changes only the size, so an equivalence set that is split is usually copied late or never.
+ */
+final class CompactBitSet implements Serializable {
+  // We are Serializable, so we specify a version to allow changes to
+  // method signatures without breaking serialization.  If you add or
+  // remove fields, you should change this number to the current date.
+  static final long serialVersionUID = 20261018L;
+
+  /**
+   * The minimum number of runs before the bits are converted to a BitSet. Below it, the runs are
+   * small no matter how few bits there are.
+   */
+  private static final int MIN_RUNS_FOR_BITMAP = 64;
+
+  /** The number of bits. */
+  private int size = 0;
+
+  /** The number of bits that are set. */
+  private int cardinality = 0;
+
+  /**
+   * The positions at which the value of the bits changes, in increasing order; the bits before
+   * runs[0] are clear. Only the first num_runs elements are meaningful. Null if the bits are stored
+   * in {@link #bits} instead.
+   */
+  private int @Nullable [] runs = new int[4];
+
+  /** The number of meaningful elements of {@link #runs}. */
+  private int num_runs = 0;
+
+  /** The bits, if they are not run-length encoded; otherwise null. */
+  private @Nullable BitSet bits = null;
+
+  /**
+   * True if {@link #runs} or {@link #bits} may be shared with another CompactBitSet, so it must be
+   * copied before it is modified.
+   */
+  private boolean shared = false;
+
+  /** Returns the number of bits. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the number of bits that are set. */
+  public int cardinality() {
+    return cardinality;
+  }
+
+  /** Returns the bit at the given position, which must be less than {@link #size}. */
+  public boolean get(int pos) {
+    if (bits != null) {
+      return bits.get(pos);
+    }
+    assert runs != null : "@AssumeAssertion(nullness): exactly one of runs and bits is null";
+    // The number of changes at or before pos determines the value at pos.
+    int changes = Arrays.binarySearch(runs, 0, num_runs, pos);
+    changes = (changes >= 0) ? changes + 1 : -changes - 1;
+    return (changes % 2) == 1;
+  }
+
+  /** Appends count bits with the given value. */
+  public void append(int count, boolean value) {
+    if (count == 0) {
+      return;
+    }
+    if (value) {
+      cardinality += count;
+    }
+    if (bits != null) {
+      if (value) {
+        if (shared) {
+          bits = (BitSet) bits.clone();
+          shared = false;
+        }
+        bits.set(size, size + count);
+      }
+      size += count;
+      return;
+    }
+    assert runs != null : "@AssumeAssertion(nullness): exactly one of runs and bits is null";
+    boolean last = (num_runs % 2) == 1;
+    if (last != value) {
+      if (shared || num_runs == runs.length) {
+        runs = Arrays.copyOf(runs, Math.max(4, 2 * num_runs));
+        shared = false;
+      }
+      runs[num_runs++] = size;
+    }
+    size += count;
+    if (num_runs >= MIN_RUNS_FOR_BITMAP && 32L * num_runs > size) {
+      bits = toBitSet();
+      runs = null;
+      num_runs = 0;
+      shared = false;
+    }
+  }
+
+  /**
+   * Returns a copy of this that shares its storage with this. Each is copied when it is next
+   * modified.
+   */
+  public CompactBitSet share() {
+    CompactBitSet result = new CompactBitSet();
+    result.size = size;
+    result.cardinality = cardinality;
+    result.runs = runs;
+    result.num_runs = num_runs;
+    result.bits = bits;
+    result.shared = true;
+    shared = true;
+    return result;
+  }
+
+  /**
+   * Returns the bits as a BitSet. If this is not run-length encoded, the result is the BitSet that
+   * holds the bits, so the caller must not modify it.
+   */
+  public BitSet toBitSet() {
+    if (bits != null) {
+      return bits;
+    }
+    assert runs != null : "@AssumeAssertion(nullness): exactly one of runs and bits is null";
+    BitSet result = new BitSet(size);
+    for (int i = 0; i < num_runs; i += 2) {
+      result.set(runs[i], (i + 1 < num_runs) ? runs[i + 1] : size);
+    }
+    return result;
+  }
+
+  /** Returns the number of positions at which all of the given sets have a set bit. */
+  public static int intersectionCardinality(CompactBitSet... sets) {
+    for (CompactBitSet cbs : sets) {
+      if (cbs.bits != null) {
+        BitSet[] bitsets = new BitSet[sets.length];
+        for (int i = 0; i < sets.length; i++) {
+          bitsets[i] = sets[i].toBitSet();
+        }
+        if (bitsets.length == 2) {
+          return UtilPlume.intersectionCardinality(bitsets[0], bitsets[1]);
+        } else if (bitsets.length == 3) {
+          return UtilPlume.intersectionCardinality(bitsets[0], bitsets[1], bitsets[2]);
+        }
+        BitSet result = (BitSet) bitsets[0].clone();
+        for (int i = 1; i < bitsets.length; i++) {
+          result.and(bitsets[i]);
+        }
+        return result.cardinality();
+      }
+    }
+
+    // All of the sets are run-length encoded.  Sweep over the positions at which any of them
+    // changes, counting the positions at which all of them are set.
+    int end = Integer.MAX_VALUE;
+    for (CompactBitSet cbs : sets) {
+      end = Math.min(end, cbs.size);
+    }
+    int[] next = new int[sets.length];
+    int result = 0;
+    int pos = 0;
+    while (pos < end) {
+      boolean all_set = true;
+      int change = end;
+      for (int i = 0; i < sets.length; i++) {
+        int[] set_runs = sets[i].runs;
+        assert set_runs != null : "@AssumeAssertion(nullness): all sets are run-length encoded";
+        if (next[i] < sets[i].num_runs && set_runs[next[i]] == pos) {
+          next[i]++;
+        }
+        all_set &= (next[i] % 2) == 1;
+        if (next[i] < sets[i].num_runs) {
+          change = Math.min(change, set_runs[next[i]]);
+        }
+      }
+      if (all_set) {
+        result += change - pos;
+      }
+      pos = change;
+    }
+    return result;
+  }
+}
@@ -151,6 +151,8 @@ import daikon.inv.unary.string.PrintableString;
 import daikon.inv.unary.stringsequence.CommonStringSequence;
 import daikon.inv.unary.stringsequence.EltOneOfString;
 import daikon.inv.unary.stringsequence.OneOfStringSequence;
+import daikon.simplify.CheckCache;
+import daikon.simplify.LemmaStackPool;
 import daikon.split.ContextSplitterFactory;
 import daikon.split.PptSplitter;
 import daikon.split.SpinfoFile;
@@ -245,6 +247,16 @@ public final class Daikon {
    */
   public static int dkconfig_ppt_perc = 100;
 
+  /**
+   * Integer. The number of threads that post-process the program points after the data trace files
+   * are read: merging invariants up the program point hierarchy, post-processing equality sets, and
+   * adding implications, and, with {@code --suppress_redundant}, checking the invariants with one
+   * Simplify process per thread. A program point is merged once all of its children are merged,
+   * and program points that depend on each other are processed in the same order as with one
+   * thread, so the invariants do not depend on the number of threads.
+   */
+  public static int dkconfig_postprocess_threads = 1;
+
   /**
    * Boolean. Controls whether or not the total samples read and processed are printed at the end of
    * processing.
@@ -373,9 +385,25 @@ public final class Daikon {
   // file.
   public static @Nullable File inv_file;
 
+  /**
+   * If non-null, the inference state is written to this file after the data trace files have been
+   * read and before any post-processing. See {@link #resume_file}.
+   */
+  public static @Nullable File checkpoint_file;
+
+  /**
+   * If non-null, inference resumes from the state in this checkpoint file (written by an earlier run
+   * with {@code --checkpoint}) instead of starting from scratch. The data trace files of this run
+   * are added to the samples already seen.
+   */
+  public static @Nullable File resume_file;
+
   // Whether we want the memory monitor activated
   private static boolean use_mem_monitor = false;
 
+  /** If non-null, a profile of the run is written to this file. See {@link Profile}. */
+  public static @Nullable File profile_file = null;
+
   /** Whether Daikon should print its version number and date. */
   public static boolean noversion_output = false;
 
@@ -415,6 +443,8 @@ public final class Daikon {
   public static final String output_num_samples_SWITCH = "output_num_samples";
   public static final String files_from_SWITCH = "files_from";
   public static final String omit_from_output_SWITCH = "omit_from_output";
+  public static final String checkpoint_SWITCH = "checkpoint";
+  public static final String resume_SWITCH = "resume";
   // Control invariant detection
   public static final String conf_limit_SWITCH = "conf_limit";
   public static final String list_type_SWITCH = "list_type";
@@ -438,6 +468,7 @@ public final class Daikon {
   public static final String track_SWITCH = "track";
   public static final String disc_reason_SWITCH = "disc_reason";
   public static final String mem_stat_SWITCH = "mem_stat";
+  public static final String profile_SWITCH = "profile";
   public static final String wrap_xml_SWITCH = "wrap_xml";
 
   /**
@@ -709,7 +740,10 @@ public final class Daikon {
     Set<String> dtrace_files = files.dtrace;
     Set<File> spinfo_files = files.spinfo;
     Set<File> map_files = files.map;
-    if (server_dir == null && (decls_files.size() == 0) && (dtrace_files.size() == 0)) {
+    if (server_dir == null
+        && resume_file == null
+        && (decls_files.size() == 0)
+        && (dtrace_files.size() == 0)) {
       System.out.println("No .decls or .dtrace files specified");
       throw new Daikon.UserError("No .decls or .dtrace files specified");
     }
@@ -730,6 +764,10 @@ public final class Daikon {
     // Set up debug traces; note this comes after reading command line options.
     LogHelper.setupLogs(Global.debugAll ? LogHelper.FINE : LogHelper.INFO);
 
+    if (profile_file != null) {
+      Profile.enable();
+    }
+
     if (!noversion_output) {
       if (!Daikon.dkconfig_quiet) System.out.println(release_string);
     }
@@ -758,9 +796,22 @@ public final class Daikon {
     fileio_progress = new FileIOProgress();
     fileio_progress.start();
 
+    // The splitters of conditional program points are compiled at run time
+    // and cannot be saved in a checkpoint.
+    if ((checkpoint_file != null || resume_file != null) && !spinfo_files.isEmpty()) {
+      throw new Daikon.UserError(
+          "--" + checkpoint_SWITCH + " and --" + resume_SWITCH + " cannot be used with .spinfo files");
+    }
+
     // Load declarations and splitters
     load_spinfo_files(spinfo_files);
-    all_ppts = load_decls_files(decls_files);
+    Profile.Mark mark = Profile.start();
+    if (resume_file != null) {
+      all_ppts = load_checkpoint(resume_file, decls_files);
+    } else {
+      all_ppts = load_decls_files(decls_files);
+    }
+    Profile.stop(Profile.Phase.DECL_LOAD, mark);
     load_map_files(all_ppts, map_files);
 
     all_ppts.trimToSize();
@@ -795,7 +846,9 @@ public final class Daikon {
     }
 
     if (suppress_redundant_invariants_with_simplify) {
+      mark = Profile.start();
       suppressWithSimplify(all_ppts);
+      Profile.stop(Profile.Phase.SIMPLIFY, mark);
     }
 
     // Check that PptMap created was correct
@@ -873,11 +926,13 @@ public final class Daikon {
 
     // If they want to see discarded invariants, they probably don't
     // want to see the true ones.
+    mark = Profile.start();
     if (!PrintInvariants.print_discarded_invariants) {
       PrintInvariants.print_invariants(all_ppts);
     } else {
       PrintInvariants.print_reasons(all_ppts);
     }
+    Profile.stop(Profile.Phase.PRINT, mark);
 
     if (output_num_samples) {
       Global.output_statistics();
@@ -893,6 +948,14 @@ public final class Daikon {
       }
     }
 
+    if (profile_file != null) {
+      try {
+        Profile.write(profile_file, all_ppts);
+      } catch (IOException e) {
+        throw new RuntimeException("Error while writing profile file: " + profile_file, e);
+      }
+    }
+
     // Done
     if (!Daikon.dkconfig_quiet) {
       System.out.println("Exiting Daikon.");
@@ -920,6 +983,8 @@ public final class Daikon {
     // Reset statics.  Unfortunately, these must match the settings where
     // these are declared and I don't know how to do that automatically.
     inv_file = null;
+    checkpoint_file = null;
+    resume_file = null;
     no_text_output = false;
     show_progress = false;
     output_format = OutputFormat.DAIKON;
@@ -935,6 +1000,8 @@ public final class Daikon {
     var_omit_regexp = null;
     server_dir = null;
     use_mem_monitor = false;
+    profile_file = null;
+    Profile.reset();
 
     proto_invs.clear();
   }
@@ -985,6 +1052,8 @@ public final class Daikon {
           new LongOpt(output_num_samples_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(files_from_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(omit_from_output_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt(checkpoint_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt(resume_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           // Control invariant detection
           new LongOpt(conf_limit_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(list_type_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
@@ -1007,6 +1076,7 @@ public final class Daikon {
           new LongOpt(track_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(disc_reason_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(mem_stat_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
+          new LongOpt(profile_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
         };
     Getopt g = new Getopt("daikon.Daikon", args, "ho:", longopts);
     int c;
@@ -1080,6 +1150,16 @@ public final class Daikon {
               omit_types[f.charAt(i)] = true;
             }
             omit_from_output = true;
+          } else if (checkpoint_SWITCH.equals(option_name)) {
+            checkpoint_file = new File(getOptarg(g));
+            if (!UtilPlume.canCreateAndWrite(checkpoint_file)) {
+              throw new Daikon.UserError("Cannot write to checkpoint file " + checkpoint_file);
+            }
+          } else if (resume_SWITCH.equals(option_name)) {
+            resume_file = new File(getOptarg(g));
+            if (!resume_file.exists()) {
+              throw new Daikon.UserError("Checkpoint file " + resume_file + " not found.");
+            }
           }
           // Control invariant detection
           else if (conf_limit_SWITCH.equals(option_name)) {
@@ -1310,6 +1390,11 @@ public final class Daikon {
             }
           } else if (mem_stat_SWITCH.equals(option_name)) {
             use_mem_monitor = true;
+          } else if (profile_SWITCH.equals(option_name)) {
+            profile_file = new File(getOptarg(g));
+            if (!UtilPlume.canCreateAndWrite(profile_file)) {
+              throw new Daikon.UserError("Cannot write to profile file " + profile_file);
+            }
           } else {
             throw new Daikon.UserError("Unknown option " + option_name + " on command line");
           }
@@ -1728,6 +1813,11 @@ public final class Daikon {
    */
   public static void createUpperPpts(PptMap all_ppts) {
 
+    if (dkconfig_postprocess_threads > 1) {
+      PostProcessScheduler.merge_hierarchy(all_ppts, dkconfig_postprocess_threads);
+      return;
+    }
+
     // Process each ppt that doesn't have a parent
     // (mergeInvs is called on a root, and recursively processes children)
     for (PptTopLevel ppt : all_ppts.pptIterable()) {
@@ -2010,6 +2100,42 @@ public final class Daikon {
     }
   }
 
+  /**
+   * Reads the inference state saved by an earlier run with {@code --checkpoint}, and adds any new
+   * program points declared in decl_files. The configuration saved in the checkpoint is restored.
+   */
+  private static PptMap load_checkpoint(File checkpoint, Set<File> decl_files) {
+    long startTime = System.nanoTime();
+    try {
+      if (!Daikon.dkconfig_quiet) {
+        System.out.println("Resuming from checkpoint " + checkpoint);
+      }
+      PptMap all_ppts = FileIO.read_checkpoint(checkpoint);
+      for (PptTopLevel ppt : all_ppts.all_ppts()) {
+        if (ppt.has_splitters()) {
+          assert ppt.splitters != null; // guaranteed by call to has_splitters
+          Splitter[] prototypes =
+              SplitterList.dkconfig_all_splitters
+                  ? SplitterList.get_all()
+                  : SplitterList.get(ppt.name());
+          for (PptSplitter ppt_split : ppt.splitters) {
+            ppt_split.restore_splitter(prototypes);
+          }
+        }
+      }
+      for (File file : decl_files) {
+        FileIO.read_declaration_file(file, all_ppts);
+      }
+      return all_ppts;
+    } catch (IOException e) {
+      throw new Daikon.UserError(e, "Error reading checkpoint file " + checkpoint);
+    } finally {
+      long duration = System.nanoTime() - startTime;
+      debugProgress.fine(
+          "Time spent on load_checkpoint: " + TimeUnit.NANOSECONDS.toSeconds(duration));
+    }
+  }
+
   private static void load_spinfo_files(Set<File> spinfo_files) {
     if (PptSplitter.dkconfig_disable_splitting || spinfo_files.isEmpty()) {
       return;
@@ -2216,7 +2342,9 @@ public final class Daikon {
                 + UtilPlume.nplural(dtrace_files.size(), "dtrace file")
                 + ":");
       }
+      Profile.Mark mark = Profile.start();
       FileIO.read_data_trace_files(dtrace_files, all_ppts);
+      Profile.stop(Profile.Phase.TRACE_READ, mark);
       // Final update, so "100%", not "99.70%", is the last thing printed.
       // (This doesn't seem to achieve that, though...)
       fileio_progress.display();
@@ -2266,9 +2394,11 @@ public final class Daikon {
 
     // System.out.println("samples processed: " + FileIO.samples_processed);
 
+    // A resumed run may add no new samples to those in the checkpoint.
     int unmatched_count = FileIO.call_stack.size() + FileIO.call_hashmap.size();
-    if ((use_dataflow_hierarchy && FileIO.samples_processed == unmatched_count)
-        || (FileIO.samples_processed == 0)) {
+    if (resume_file == null
+        && ((use_dataflow_hierarchy && FileIO.samples_processed == unmatched_count)
+            || (FileIO.samples_processed == 0))) {
       throw new Daikon.UserError(
           "No samples found for any of " + UtilPlume.nplural(all_ppts.size(), "program point"));
     }
@@ -2294,6 +2424,21 @@ public final class Daikon {
     // PrintInvariants.print_all_ternary_invs (all_ppts);
     // System.exit(0);
 
+    // Save the state before postprocessing changes it, so that a later run
+    // can add more samples.
+    if (checkpoint_file != null) {
+      debugProgress.fine("Writing checkpoint ... ");
+      startTime = System.nanoTime();
+      try {
+        FileIO.write_checkpoint(all_ppts, checkpoint_file);
+      } catch (IOException e) {
+        throw new RuntimeException("Error while writing checkpoint file: " + checkpoint_file, e);
+      }
+      long duration = System.nanoTime() - startTime;
+      debugProgress.fine(
+          "Writing checkpoint ... done [" + TimeUnit.NANOSECONDS.toSeconds(duration) + "]");
+    }
+
     // Postprocessing
 
     debugProgress.fine("Create Combined Exits ... ");
@@ -2334,7 +2479,9 @@ public final class Daikon {
       debugProgress.fine("createUpperPpts ... ");
       startTime = System.nanoTime();
       // calculates invariants; does not actually create any ppts
+      Profile.Mark mark = Profile.start();
       createUpperPpts(all_ppts);
+      Profile.stop(Profile.Phase.CREATE_UPPER_PPTS, mark);
       duration = System.nanoTime() - startTime;
       debugProgress.fine(
           "createUpperPpts ... done [" + TimeUnit.NANOSECONDS.toSeconds(duration) + "]");
@@ -2344,10 +2491,16 @@ public final class Daikon {
     if (Daikon.use_equality_optimization && !Daikon.dkconfig_undo_opts) {
       debugProgress.fine("Equality Post Process ... ");
       startTime = System.nanoTime();
-      for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
-        // ppt.equality_view can be null here
-        ppt.postProcessEquality();
-      }
+      PostProcessScheduler.for_each(
+          all_ppts.ppt_all_iterable(),
+          dkconfig_postprocess_threads,
+          new PostProcessScheduler.PptTask() {
+            @Override
+            public void run(PptTopLevel ppt) {
+              // ppt.equality_view can be null here
+              ppt.postProcessEquality();
+            }
+          });
       duration = System.nanoTime() - startTime;
       debugProgress.fine(
           "Equality Post Process ... done [" + TimeUnit.NANOSECONDS.toSeconds(duration) + "]");
@@ -2375,9 +2528,33 @@ public final class Daikon {
     fileio_progress.clear();
     if (!PptSplitter.dkconfig_disable_splitting) {
       debugProgress.fine("Adding Implications ... ");
-      for (PptTopLevel ppt : all_ppts.pptIterable()) {
-        // debugProgress.fine ("  Adding implications for " + ppt.name);
-        ppt.addImplications();
+      PostProcessScheduler.PptTask add_implications =
+          new PostProcessScheduler.PptTask() {
+            @Override
+            public void run(PptTopLevel ppt) {
+              // debugProgress.fine ("  Adding implications for " + ppt.name);
+              ppt.addImplications();
+            }
+          };
+      if (dkconfig_postprocess_threads <= 1) {
+        for (PptTopLevel ppt : all_ppts.pptIterable()) {
+          add_implications.run(ppt);
+        }
+      } else {
+        // A combined exit point creates implications from its EXITnn children, so (as in name
+        // order) it is done before the EXITnn points add their own implications.
+        List<PptTopLevel> combined_exits = new ArrayList<PptTopLevel>();
+        List<PptTopLevel> others = new ArrayList<PptTopLevel>();
+        for (PptTopLevel ppt : all_ppts.pptIterable()) {
+          if (ppt.ppt_name.isCombinedExitPoint()) {
+            combined_exits.add(ppt);
+          } else {
+            others.add(ppt);
+          }
+        }
+        PostProcessScheduler.for_each(
+            combined_exits, dkconfig_postprocess_threads, add_implications);
+        PostProcessScheduler.for_each(others, dkconfig_postprocess_threads, add_implications);
       }
       duration = System.nanoTime() - startTime;
       debugProgress.fine(
@@ -2435,10 +2612,14 @@ public final class Daikon {
     System.out.print("Invoking Simplify to identify redundant invariants");
     System.out.flush();
     long startTime = System.nanoTime();
-    for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
-      ppt.mark_implied_via_simplify(all_ppts);
-      System.out.print(".");
-      System.out.flush();
+    if (dkconfig_postprocess_threads > 1) {
+      suppressWithSimplifyPool(all_ppts, dkconfig_postprocess_threads);
+    } else {
+      for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
+        ppt.mark_implied_via_simplify(all_ppts);
+        System.out.print(".");
+        System.out.flush();
+      }
     }
     long duration = System.nanoTime() - startTime;
     System.out.println(TimeUnit.NANOSECONDS.toSeconds(duration));
@@ -2447,6 +2628,43 @@ public final class Daikon {
     if (PptTopLevel.getProverStack() != null) {
       PptTopLevel.getProverStack().closeSession();
     }
+    CheckCache.save();
+  }
+
+  /**
+   * Like the loop in {@link #suppressWithSimplify}, but checks the program points concurrently,
+   * each thread with its own Simplify process. The lemmas of every program point are formatted
+   * first, by this thread, since formatting uses caches shared by all program points.
+   */
+  private static void suppressWithSimplifyPool(PptMap all_ppts, int threads) {
+    final Map<PptTopLevel, PptTopLevel.SimplifyLemmas> lemmas =
+        new LinkedHashMap<PptTopLevel, PptTopLevel.SimplifyLemmas>();
+    for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
+      PptTopLevel.SimplifyLemmas ppt_lemmas = ppt.simplifyLemmas(all_ppts);
+      if (ppt_lemmas != null) {
+        lemmas.put(ppt, ppt_lemmas);
+      } else {
+        System.out.print(".");
+      }
+    }
+    System.out.flush();
+
+    final LemmaStackPool provers = new LemmaStackPool(threads);
+    try {
+      PostProcessScheduler.for_each(
+          lemmas.keySet(),
+          threads,
+          new PostProcessScheduler.PptTask() {
+            @Override
+            public void run(PptTopLevel ppt) {
+              ppt.mark_implied_via_simplify(lemmas.get(ppt), provers);
+              System.out.print(".");
+              System.out.flush();
+            }
+          });
+    } finally {
+      provers.close();
+    }
   }
 
   /** Initialize NIS suppression. */
@@ -13,6 +13,8 @@ import daikon.inv.unary.sequence.OneOfSequence;
 import daikon.inv.unary.string.OneOfString;
 import daikon.inv.unary.stringsequence.OneOfStringSequence;
 import daikon.suppress.NIS;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -33,6 +35,7 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
+import org.plumelib.util.Intern;
 
 /**
  * Class that implements dynamic constants optimization. This optimization doesn't instantiate
@@ -180,6 +183,17 @@ public class DynamicConstants implements Serializable {
       this.vi = vi;
     }
 
+    // Interning is lost when an object is serialized and deserialized.
+    // Manually re-intern any interned fields upon deserialization.
+    // add() compares val to sample values by identity.
+    @SuppressWarnings("interning") // readObject re-interns
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      if (val != null) {
+        val = Intern.intern(val);
+      }
+    }
+
     /**
      * Returns whether the specified variable is currently a constant OR was a constant at the
      * beginning of constants processing.
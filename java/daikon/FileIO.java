@@ -14,6 +14,7 @@ import daikon.config.Configuration;
 import daikon.derive.ValueAndModified;
 import daikon.diff.InvMap;
 import daikon.inv.Invariant;
+import daikon.split.PptSplitter;
 import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.File;
@@ -26,6 +27,7 @@ import java.io.ObjectInputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.Serializable;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -46,6 +48,7 @@ import java.util.Scanner;
 import java.util.StringJoiner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 import org.checkerframework.checker.interning.qual.Interned;
 import org.checkerframework.checker.interning.qual.UsesObjectEquals;
@@ -60,6 +63,7 @@ import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
 import org.plumelib.util.CollectionsPlume;
+import org.plumelib.util.Intern;
 import org.plumelib.util.UtilPlume;
 
 public final class FileIO {
@@ -158,6 +162,18 @@ public final class FileIO {
    */
   public static long dkconfig_dtrace_line_count = 0;
 
+  /**
+   * Integer. The number of threads that apply samples to program points. If greater than 1, the
+   * thread that reads the data trace files only parses each sample and matches it to its procedure
+   * entry; worker threads then compute the derived variables and check the invariants, each
+   * program point seeing its samples in order while different program points are processed
+   * concurrently. Only used with the dataflow hierarchy (that is, without {@code --nohierarchy}).
+   * Parsing the samples, computing derived variables, and the few invariant checks that intern
+   * values all hold {@link Global#intern_lock}, so they still run one at a time; that part of the
+   * work does not speed up with more threads.
+   */
+  public static int dkconfig_inference_threads = 1;
+
   /** True if declaration records are in the new format -- that is, decl-version 2.0. */
   // Set by read_decl_version; by read_data_trace_record if the file is non-empty;
   // by read_serialized_pptmap; and by InvMap.readObject.
@@ -181,6 +197,15 @@ public final class FileIO {
    */
   public static boolean dkconfig_rm_stack_dups = false;
 
+  /**
+   * Boolean. If true, {@code .inv} files are written in the indexed format of {@link InvFile},
+   * whose program points can be read one at a time. If false, they are written as a single
+   * serialized object, as by earlier versions of Daikon. Both formats can be read. The indexed
+   * format is slower to write and to read in full, but a tool that needs only some of the
+   * program points can read just those.
+   */
+  public static boolean dkconfig_indexed_inv_files = false;
+
   /// Variables
 
   // This hashmap maps every program point to an array, which contains the
@@ -189,6 +214,13 @@ public final class FileIO {
   // modified since this program point was last executed.
   static HashMap<PptTopLevel, String[]> ppt_to_value_reps = new HashMap<PptTopLevel, String[]>();
 
+  // Like ppt_to_value_reps, but for binary data trace files: maps every
+  // program point to the interned values of its trace variables the last
+  // time it was executed.  Like ppt_to_value_reps, it is kept from one
+  // file to the next.
+  static HashMap<PptTopLevel, @Nullable Object[]> ppt_to_binary_values =
+      new HashMap<PptTopLevel, @Nullable Object[]>();
+
   // For debugging purposes: printing out a modified trace file with
   // changed modbits.
   private static boolean to_write_nonce = false;
@@ -931,6 +963,14 @@ public final class FileIO {
   static HashMap<Integer, Invocation> call_hashmap = new HashMap<Integer, Invocation>();
   // call_stack is for procedures without nonces.
   static Deque<Invocation> call_stack = new ArrayDeque<Invocation>();
+  // The call_hashmap and call_stack are only used by the thread that reads the
+  // data trace, even when inference_pipeline is non-null.
+
+  /**
+   * Applies samples to program points in worker threads, or null if samples are applied by the
+   * thread that reads them. See {@link #dkconfig_inference_threads}.
+   */
+  private static @Nullable InferencePipeline inference_pipeline = null;
 
   /**
    * Reads data from {@code .dtrace} files. For each record in the files, calls the appropriate
@@ -958,6 +998,41 @@ public final class FileIO {
       Collection<String> files, PptMap all_ppts, Processor processor, boolean ppts_may_be_new)
       throws IOException {
 
+    if (dkconfig_inference_threads > 1
+        && processor.getClass() == Processor.class
+        && Daikon.use_dataflow_hierarchy
+        && !dkconfig_read_samples_only) {
+      inference_pipeline = new InferencePipeline(dkconfig_inference_threads);
+      try {
+        read_data_trace_files_helper(files, all_ppts, processor, ppts_may_be_new);
+        inference_pipeline.finish();
+      } finally {
+        inference_pipeline.abort();
+        inference_pipeline = null;
+      }
+    } else {
+      read_data_trace_files_helper(files, all_ppts, processor, ppts_may_be_new);
+    }
+
+    process_unmatched_procedure_entries();
+
+    if (PptSplitter.dkconfig_batch_size > 1 && !dkconfig_read_samples_only) {
+      for (PptTopLevel ppt : all_ppts.pptIterable()) {
+        ppt.flush_split_batch();
+      }
+    }
+
+    warn_if_hierarchy_mismatch(all_ppts);
+  }
+
+  /**
+   * Does the work of {@link #read_data_trace_files(Collection,PptMap,Processor,boolean)}, except
+   * for the checks made after all of the files have been read.
+   */
+  private static void read_data_trace_files_helper(
+      Collection<String> files, PptMap all_ppts, Processor processor, boolean ppts_may_be_new)
+      throws IOException {
+
     for (String filename : files) {
       // System.out.printf("processing filename %s%n", filename);
       try {
@@ -1013,10 +1088,6 @@ public final class FileIO {
         }
       }
     }
-
-    process_unmatched_procedure_entries();
-
-    warn_if_hierarchy_mismatch(all_ppts);
   }
 
   // Determine if dataflow hierarchy should have been used, and print
@@ -1325,6 +1396,27 @@ public final class FileIO {
       ppt = null;
     }
 
+    /**
+     * Start parsing with the given reader, which is not associated with a file on disk. Used for
+     * declarations that are embedded in a binary data trace.
+     */
+    public ParseState(
+        String filename,
+        LineNumberReader reader,
+        boolean decl_file_p,
+        boolean ppts_may_be_new,
+        PptMap ppts) {
+      this.filename = filename;
+      this.reader = reader;
+      is_decl_file = decl_file_p;
+      this.ppts_may_be_new = ppts_may_be_new;
+      all_ppts = ppts;
+      total_lines = 0;
+      varcomp_format = VarComparability.IMPLICIT;
+      rtype = RecordType.NULL;
+      ppt = null;
+    }
+
     /** Returns the current line number in the input file, or -1 if not available. */
     public int get_linenum() {
       return reader.getLineNumber();
@@ -1412,6 +1504,11 @@ public final class FileIO {
               + ((Daikon.ppt_omit_regexp != null) ? " " + Daikon.ppt_omit_regexp.pattern() : ""));
     }
 
+    if (BinaryDtrace.is_binary_dtrace(filename)) {
+      read_binary_data_trace_file(filename, all_ppts, processor, is_decl_file, ppts_may_be_new);
+      return;
+    }
+
     ParseState data_trace_state = new ParseState(filename, is_decl_file, ppts_may_be_new, all_ppts);
     FileIO.data_trace_state = data_trace_state;
 
@@ -1422,35 +1519,13 @@ public final class FileIO {
     }
 
     while (true) {
-      read_data_trace_record(data_trace_state);
+      // Parsing interns the values, possibly while worker threads are running.
+      synchronized (Global.intern_lock) {
+        read_data_trace_record(data_trace_state);
+      }
 
       if (data_trace_state.rtype == RecordType.SAMPLE) {
-        assert data_trace_state.ppt != null
-            : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
-        assert data_trace_state.vt != null
-            : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
-        // Nonce may be null
-        samples_processed++;
-        // Add orig and derived variables; pass to inference (add_and_flow)
-        try {
-          processor.process_sample(
-              data_trace_state.all_ppts,
-              data_trace_state.ppt,
-              data_trace_state.vt,
-              data_trace_state.nonce);
-        } catch (Error e) {
-          // e.printStackTrace();
-          if (!dkconfig_continue_after_file_exception) {
-            throw new Daikon.UserError(e, data_trace_state);
-          } else {
-            System.out.println();
-            System.out.println(
-                "WARNING: Error while processing trace file; subsequent records ignored.");
-            System.out.print("Ignored backtrace:");
-            e.printStackTrace(System.out);
-            System.out.println();
-          }
-        }
+        process_sample_record(data_trace_state, processor);
       } else if ((data_trace_state.rtype == RecordType.EOF)
           || (data_trace_state.rtype == RecordType.TRUNCATED)) {
         break;
@@ -1468,6 +1543,267 @@ public final class FileIO {
     clear_data_trace_state();
   }
 
+  /**
+   * Passes the sample that was just read into state to the processor. Errors are reported with
+   * the file position, or ignored if dkconfig_continue_after_file_exception is set.
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private static void process_sample_record(ParseState state, Processor processor) {
+    assert state.ppt != null : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+    assert state.vt != null : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+    // Nonce may be null
+    samples_processed++;
+    // Add orig and derived variables; pass to inference (add_and_flow)
+    try {
+      processor.process_sample(state.all_ppts, state.ppt, state.vt, state.nonce);
+    } catch (Error e) {
+      // e.printStackTrace();
+      if (!dkconfig_continue_after_file_exception) {
+        throw new Daikon.UserError(e, state);
+      } else {
+        System.out.println();
+        System.out.println(
+            "WARNING: Error while processing trace file; subsequent records ignored.");
+        System.out.print("Ignored backtrace:");
+        e.printStackTrace(System.out);
+        System.out.println();
+      }
+    }
+  }
+
+  /**
+   * How the values of a binary sample record are stored into the ValueTuple of its ppt. One is
+   * built for each ppt id in a binary data trace, the first time a sample for that id is read.
+   */
+  private static final class BinarySampleLayout {
+    /** The ppt, or null if samples for it are skipped because of --ppt-select-pattern etc. */
+    final @Nullable PptTopLevel ppt;
+    /** The type code of each value in the record. */
+    final byte[] types;
+    /** For each value in the record, the variable it belongs to, or null to skip the value. */
+    final @Nullable VarInfo[] vis;
+    /**
+     * The previous value of each trace variable at the ppt, to compute mod bits; indexed by
+     * value_index. It is the ppt's entry in {@link #ppt_to_binary_values}.
+     */
+    final @Nullable Object[] previous;
+
+    /** Creates a layout that skips every sample. */
+    BinarySampleLayout() {
+      ppt = null;
+      types = new byte[0];
+      vis = new VarInfo[0];
+      previous = new Object[0];
+    }
+
+    /** Creates a layout that maps the variables of def onto those of ppt. */
+    BinarySampleLayout(PptTopLevel ppt, BinaryDtrace.PptDef def) {
+      this.ppt = ppt;
+      types = def.types;
+      vis = new VarInfo[def.var_names.length];
+      @Nullable Object[] values = ppt_to_binary_values.get(ppt);
+      if (values == null) {
+        // The nulls compare non-equal to every value in the trace, as in ppt_to_value_reps.
+        values = new @Nullable Object[ppt.num_tracevars];
+        ppt_to_binary_values.put(ppt, values);
+      }
+      previous = values;
+
+      Map<String, VarInfo> name_to_var = new HashMap<>();
+      for (VarInfo vi : ppt.var_infos) {
+        if (!vi.is_static_constant && vi.value_index < ppt.num_tracevars) {
+          name_to_var.put(vi.str_name(), vi);
+        }
+      }
+      boolean[] found = new boolean[ppt.num_tracevars];
+      for (int i = 0; i < vis.length; i++) {
+        VarInfo vi = name_to_var.get(def.var_names[i]);
+        if (vi == null) {
+          // The variable was omitted by --var-omit-pattern, or was not declared.
+          continue;
+        }
+        if (BinaryDtrace.type_code(vi.rep_type) != types[i]) {
+          throw new Daikon.UserError(
+              String.format(
+                  "Mismatch between declaration and trace.  Variable %s for program point %s"
+                      + " has type %s, but the trace encodes it with type code %d",
+                  vi.name(), ppt.name(), vi.rep_type, types[i]));
+        }
+        vis[i] = vi;
+        found[vi.value_index] = true;
+      }
+      for (VarInfo vi : name_to_var.values()) {
+        if (!found[vi.value_index]) {
+          throw new Daikon.UserError(
+              "Mismatch between declaration and trace.  Variable "
+                  + vi.name()
+                  + " has no value in the trace for program point "
+                  + ppt.name());
+        }
+      }
+    }
+  }
+
+  /**
+   * Like {@link #read_data_trace_file(String,PptMap,Processor,boolean,boolean)}, but for a file in
+   * the binary format of {@link BinaryDtrace}. Declarations embedded in the file are parsed exactly
+   * as in a textual file. Each sample is decoded straight into a ValueTuple, with no per-line or
+   * per-value text parsing, and passed to the processor.
+   */
+  private static void read_binary_data_trace_file(
+      String filename,
+      PptMap all_ppts,
+      Processor processor,
+      boolean is_decl_file,
+      boolean ppts_may_be_new)
+      throws IOException {
+
+    try (BinaryDtrace.Reader reader = new BinaryDtrace.Reader(filename)) {
+      ParseState state =
+          new ParseState(
+              filename,
+              new LineNumberReader(new StringReader("")),
+              is_decl_file,
+              ppts_may_be_new,
+              all_ppts);
+      FileIO.data_trace_state = state;
+
+      // Indexed by ppt id.
+      List<@Nullable BinarySampleLayout> layouts = new ArrayList<>();
+
+      read_loop:
+      while (true) {
+        byte tag = reader.next_record();
+        switch (tag) {
+          case BinaryDtrace.REC_DECLS:
+            state.reader = new LineNumberReader(new StringReader(reader.read_decls()));
+            do {
+              synchronized (Global.intern_lock) {
+                read_data_trace_record(state);
+              }
+              if (state.rtype == RecordType.SAMPLE) {
+                throw new Daikon.UserError(
+                    "Declarations in binary trace file " + filename + " contain a sample", state);
+              }
+            } while (state.rtype != RecordType.EOF && state.rtype != RecordType.TRUNCATED);
+            break;
+          case BinaryDtrace.REC_PPT:
+            {
+              int id = reader.read_ppt().id;
+              while (layouts.size() <= id) {
+                layouts.add(null);
+              }
+              layouts.set(id, null);
+              break;
+            }
+          case BinaryDtrace.REC_SAMPLE:
+            {
+              int id = reader.read_sample_ppt_id();
+              BinarySampleLayout layout = (id < layouts.size()) ? layouts.get(id) : null;
+              if (layout == null) {
+                layout = binary_sample_layout(state, reader.ppt_def(id));
+                layouts.set(id, layout);
+              }
+              PptTopLevel ppt = layout.ppt;
+              if (ppt == null) {
+                reader.skip_record();
+                break;
+              }
+              if (state.is_decl_file) {
+                throw new Daikon.UserError(
+                    String.format(
+                        "Declaration files should not contain samples, but file %s does: %s",
+                        filename, ppt.name()));
+              }
+              state.nonce = reader.read_sample_nonce();
+              state.ppt = ppt;
+              synchronized (Global.intern_lock) {
+                state.vt = read_binary_sample(reader, layout);
+              }
+              state.rtype = RecordType.SAMPLE;
+              process_sample_record(state, processor);
+              break;
+            }
+          case BinaryDtrace.REC_EOF:
+          case -1:
+            break read_loop;
+          default:
+            throw new IOException("Unknown record type " + tag + " in binary trace file " + filename);
+        }
+      }
+
+      state.rtype = RecordType.EOF;
+      Daikon.progress = "Finished reading " + state.filename;
+      clear_data_trace_state();
+    }
+  }
+
+  /** Creates the layout for samples of the given ppt definition. */
+  private static BinarySampleLayout binary_sample_layout(
+      ParseState state, BinaryDtrace.PptDef def) {
+    String ppt_name = user_mod_ppt_name(def.name);
+    if (!ppt_included(ppt_name)) {
+      return new BinarySampleLayout();
+    }
+    PptTopLevel ppt = state.all_ppts.get(ppt_name);
+    if (ppt == null) {
+      throw new Daikon.UserError(
+          "No declaration was provided for program point " + ppt_name, state);
+    }
+    return new BinarySampleLayout(ppt, def);
+  }
+
+  /**
+   * Decodes the values of the current binary sample record (after its ppt id and nonce) into a new
+   * uninterned ValueTuple. Mod bits are computed just as for a textual trace: a value that differs
+   * from the variable's previous value at the ppt is modified.
+   */
+  private static ValueTuple read_binary_sample(
+      BinaryDtrace.Reader reader, BinarySampleLayout layout) throws IOException {
+    PptTopLevel ppt = layout.ppt;
+    assert ppt != null;
+    int vals_array_size = ppt.var_infos.length - ppt.num_static_constant_vars;
+    @Nullable Object[] vals = new @Nullable Object[vals_array_size];
+    int[] mods = new int[vals_array_size];
+
+    for (int i = 0; i < layout.vis.length; i++) {
+      VarInfo vi = layout.vis[i];
+      int mod = reader.read_mod();
+      if (vi == null) {
+        if (mod != ValueTuple.MISSING_NONSENSICAL) {
+          reader.skip_value(layout.types[i]);
+        }
+        continue;
+      }
+      if (mod < ValueTuple.UNMODIFIED || mod > ValueTuple.MISSING_NONSENSICAL) {
+        throw new Daikon.UserError(
+            "Bad modbit " + mod + " for variable " + vi.name() + " for program point " + ppt.name(),
+            data_trace_state);
+      }
+      int val_index = vi.value_index;
+      if (mod == ValueTuple.MISSING_NONSENSICAL) {
+        vals[val_index] = null;
+        vi.canBeMissing = true;
+        // Like no previous value, this compares non-equal to the next value of the variable.
+        layout.previous[val_index] = null;
+      } else {
+        Object val = reader.read_value(layout.types[i]);
+        // Values are interned, so == is equivalent to comparing their textual forms.
+        if (val == layout.previous[val_index]) {
+          if (!dkconfig_add_changed) {
+            mod = ValueTuple.UNMODIFIED;
+          }
+        } else {
+          mod = ValueTuple.MODIFIED;
+        }
+        vals[val_index] = val;
+        layout.previous[val_index] = val;
+      }
+      mods[val_index] = mod;
+    }
+    return ValueTuple.makeUninterned(vals, mods);
+  }
+
   /**
    * Like read_data_trace_record, but sets global FileIO.data_trace_state for the duration of the
    * call then clears it before returning. Intended for most external callers.
@@ -1760,10 +2096,28 @@ public final class FileIO {
       }
     }
 
-    // Add derived variables
-    compute_derived_variables(ppt, vt.vals, vt.mods);
+    if (inference_pipeline != null) {
+      inference_pipeline.add(ppt, vt);
+      return;
+    }
 
-    // Causes interning
+    add_sample(ppt, vt);
+  }
+
+  /**
+   * Adds derived variables to vt, then supplies it to the program point for flowing. Called by
+   * {@link #process_sample}, or by a worker thread of the {@link InferencePipeline}.
+   *
+   * @param vt trace data and orig variables only; modified by side effect to add derived vars
+   */
+  static void add_sample(PptTopLevel ppt, ValueTuple vt) {
+
+    // Add derived variables.  Derivations intern their values.
+    synchronized (Global.intern_lock) {
+      compute_derived_variables(ppt, vt.vals, vt.mods);
+    }
+
+    // All of the values, including those of derived variables, are now interned.
     vt = new ValueTuple(vt.vals, vt.mods);
 
     if (debugRead.isLoggable(Level.FINE)) {
@@ -1776,8 +2130,10 @@ public final class FileIO {
       return;
     }
 
+    Profile.Mark mark = Profile.start();
     @SuppressWarnings("flowexpr.parse.error") // https://tinyurl.com/cfissue/862
     Object dummy = ppt.add_bottom_up(vt, 1);
+    Profile.stop(Profile.Phase.ADD_BOTTOM_UP, mark, ppt, 1);
 
     if (debugVars.isLoggable(Level.FINE)) {
       debugVars.fine(ppt.name() + " vars: " + Debug.int_vars(ppt, vt));
@@ -2299,7 +2655,7 @@ public final class FileIO {
       assert ppt.var_infos[i].derived != null : "variable not derived: " + ppt.var_infos[i].repr();
       assert ppt.var_infos[i].derived != null : "@AssumeAssertion(nullness): application invariant";
       // Add this derived variable's value
-      ValueAndModified vm = ppt.var_infos[i].derived.computeValueAndModified(partial_vt);
+      ValueAndModified vm = ppt.var_infos[i].derived.computeValueAndModifiedMemo(partial_vt);
       vals[i - num_const] = vm.value;
       mods[i - num_const] = vm.modified;
     }
@@ -2332,19 +2688,129 @@ public final class FileIO {
     public boolean new_decl_format = false;
   }
 
+  /**
+   * Writes map, and the current configuration, to file. The format is that of {@link InvFile} if
+   * {@link #dkconfig_indexed_inv_files} is true, and a serialized {@link SerialFormat} otherwise.
+   */
   public static void write_serialized_pptmap(PptMap map, File file) throws IOException {
+    if (dkconfig_indexed_inv_files) {
+      InvFile.write(map, file);
+      return;
+    }
     SerialFormat record = new SerialFormat(map, Configuration.getInstance());
     UtilPlume.writeObject(record, file);
   }
 
   /**
-   * Read either a serialized PptMap or a InvMap and return a PptMap. If an InvMap is specified, it
-   * is converted to a PptMap.
+   * The inference state saved by {@code --checkpoint}: the program points as they are after the
+   * data trace files have been read and before any post-processing. Unlike a {@link SerialFormat},
+   * it is not a valid {@code .inv} file.
+   */
+  static final class Checkpoint implements Serializable {
+    // We are Serializable, so we specify a version to allow changes to
+    // method signatures without breaking serialization.  If you add or
+    // remove fields, you should change this number to the current date.
+    static final long serialVersionUID = 20261018L;
+
+    @RequiresNonNull("FileIO.new_decl_format")
+    public Checkpoint(PptMap map, Configuration config) {
+      this.map = map;
+      this.config = config;
+      this.new_decl_format = FileIO.new_decl_format;
+      for (PptTopLevel ppt : map.all_ppts()) {
+        String[] reps = ppt_to_value_reps.get(ppt);
+        if (reps != null) {
+          value_reps.put(ppt, reps);
+        }
+        @Nullable Object[] values = ppt_to_binary_values.get(ppt);
+        if (values != null) {
+          binary_values.put(ppt, values);
+        }
+      }
+    }
+
+    public PptMap map;
+    public Configuration config;
+    public boolean new_decl_format = false;
+
+    // The mod bits of the samples read after resuming depend on the values
+    // that the variables had before the checkpoint.
+
+    /** The entries of {@link #ppt_to_value_reps} for the program points of map. */
+    public HashMap<PptTopLevel, String[]> value_reps = new HashMap<PptTopLevel, String[]>();
+
+    /** The entries of {@link #ppt_to_binary_values} for the program points of map. */
+    public HashMap<PptTopLevel, @Nullable Object[]> binary_values =
+        new HashMap<PptTopLevel, @Nullable Object[]>();
+  }
+
+  /**
+   * Writes the inference state of all_ppts, so that a later run can add more samples to it. Must be
+   * called before post-processing (such as creating the upper program points).
+   */
+  @RequiresNonNull("FileIO.new_decl_format")
+  public static void write_checkpoint(PptMap all_ppts, File file) throws IOException {
+    Checkpoint record = new Checkpoint(all_ppts, Configuration.getInstance());
+    UtilPlume.writeObject(record, file);
+  }
+
+  /**
+   * Reads a checkpoint written by {@link #write_checkpoint} and returns its program points. Also
+   * restores the configuration that was in effect when the checkpoint was written, and the previous
+   * values of the variables that the mod bits of later samples are computed from.
+   */
+  @EnsuresNonNull("FileIO.new_decl_format")
+  public static PptMap read_checkpoint(File file) throws IOException {
+    Object obj;
+    try {
+      obj = UtilPlume.readObject(file);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Error while loading checkpoint file " + file, e);
+    } catch (InvalidClassException e) {
+      throw new IOException(
+          "The checkpoint file "
+              + file
+              + " was written by a different version of Daikon.  Please regenerate it.");
+    }
+    if (!(obj instanceof Checkpoint)) {
+      throw new IOException(file + " is not a checkpoint file");
+    }
+    Checkpoint record = (Checkpoint) obj;
+    Configuration.getInstance().overlap(record.config);
+    FileIO.new_decl_format = record.new_decl_format;
+    ppt_to_value_reps.putAll(record.value_reps);
+    for (Map.Entry<PptTopLevel, @Nullable Object[]> entry : record.binary_values.entrySet()) {
+      // Interning is lost when the values are serialized and deserialized, and the binary reader
+      // compares them by identity.
+      @Nullable Object[] values = entry.getValue();
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != null) {
+          values[i] = Intern.intern(values[i]);
+        }
+      }
+      ppt_to_binary_values.put(entry.getKey(), values);
+    }
+    return record.map;
+  }
+
+  /**
+   * Read either an indexed invariant file ({@link InvFile}), a serialized PptMap, or a InvMap and
+   * return a PptMap. If an InvMap is specified, it is converted to a PptMap.
    */
   @EnsuresNonNull("FileIO.new_decl_format")
   public static PptMap read_serialized_pptmap(File file, boolean use_saved_config)
       throws IOException {
 
+    if (InvFile.is_inv_file(file)) {
+      try (InvFile inv_file = new InvFile(file)) {
+        if (use_saved_config) {
+          Configuration.getInstance().overlap(inv_file.config());
+        }
+        FileIO.new_decl_format = inv_file.new_decl_format();
+        return inv_file.read_map();
+      }
+    }
+
     try {
       Object obj = UtilPlume.readObject(file);
       if (obj instanceof FileIO.SerialFormat) {
@@ -2389,6 +2855,44 @@ public final class FileIO {
     // } catch (OptionalDataException e) {    // already extends IOException
   }
 
+  /**
+   * Like {@link #read_serialized_pptmap(File, boolean)}, but if file is an indexed invariant file,
+   * returns a {@link LazyPptMap} of the program points whose names match ppt_select, and their
+   * ancestors, which reads each program point when it is first used. Other formats are read in
+   * full. If ppt_select is null, the map contains all program points, but they are still read only
+   * when used.
+   */
+  @EnsuresNonNull("FileIO.new_decl_format")
+  public static PptMap read_serialized_pptmap(
+      File file, boolean use_saved_config, @Nullable Pattern ppt_select) throws IOException {
+
+    if (InvFile.is_inv_file(file)) {
+      InvFile inv_file = new InvFile(file);
+      try {
+        if (use_saved_config) {
+          Configuration.getInstance().overlap(inv_file.config());
+        }
+        FileIO.new_decl_format = inv_file.new_decl_format();
+        if (ppt_select == null) {
+          return inv_file.lazy_map(inv_file.ppt_names());
+        }
+        // Include the ancestors, so that the parents of each selected program point are complete.
+        List<String> names = new ArrayList<String>();
+        for (String name : inv_file.ppt_names()) {
+          if (ppt_select.matcher(name).find()) {
+            names.add(name);
+          }
+        }
+        return inv_file.lazy_map(inv_file.with_ancestors(names));
+      } catch (IOException e) {
+        inv_file.close();
+        throw e;
+      }
+    }
+
+    return read_serialized_pptmap(file, use_saved_config);
+  }
+
   /**
    * Returns whether or not the specified ppt name should be included in processing. Ppts can be
    * excluded because they match the omit_regexp, don't match ppt_regexp, or are greater than
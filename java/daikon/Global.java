@@ -11,7 +11,9 @@ import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.plumelib.util.FuzzyFloat;
+import org.plumelib.util.Intern;
 
 public final class Global {
 
@@ -52,6 +54,27 @@ public final class Global {
   // Perhaps I shouldn't have anything in this category (i.e., no global
   // variables)?
 
+  /**
+   * Lock to hold around calls to {@link Intern}, whose tables are not thread-safe, on code paths
+   * that may run in several threads at once. Samples for different program points are processed
+   * concurrently when {@link FileIO#dkconfig_inference_threads} is greater than 1, but work done
+   * while holding this lock is still serialized: one thread at a time parses a sample, computes
+   * derived variables, constructs a ValueTuple, or interns in an invariant's add_modified.
+   */
+  public static final Object intern_lock = new Object();
+
+  /**
+   * Like {@link Intern#isInterned}, but holds {@link #intern_lock}; for use in assertions.
+   *
+   * @param value the value to test
+   * @return true if value is interned
+   */
+  public static boolean isInterned(@Nullable Object value) {
+    synchronized (intern_lock) {
+      return Intern.isInterned(value);
+    }
+  }
+
   ///////////////////////////////////////////////////////////////////////////
   /// Statistics-gathering
   ///
@@ -0,0 +1,179 @@
+package daikon;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Applies samples to their program points in a pool of worker threads. The thread that reads the
+ * data trace passes each sample to {@link #add}, which appends it to a bounded queue for its
+ * program point. A program point's queue is drained by at most one worker at a time, so each
+ * program point sees its samples in trace order, while different program points are processed
+ * concurrently.
+ *
+ * <p>Only leaf program points are given samples, and only when the dataflow hierarchy is used, so
+ * processing a sample never touches another program point's invariants (except those of its own
+ * conditional program points). Matching of procedure entries and exits ({@link
+ * FileIO#compute_orig_variables}) is done by the reading thread before a sample is queued.
+ *
+ * <p>Interning is not thread-safe, so the reader's parsing and the workers' derivation of variables
+ * (and the invariants that intern values) hold {@link Global#intern_lock}. That work is still done
+ * by one thread at a time; only the rest of invariant checking runs in parallel.
+ *
+ * @see FileIO#dkconfig_inference_threads
+ */
+final class InferencePipeline {
+
+  /** The maximum number of samples queued for one program point before the reader blocks. */
+  static final int queue_capacity = 1024;
+
+  /** The worker threads. */
+  private final ExecutorService workers;
+
+  /** The queue for each program point. Only accessed by the reading thread. */
+  private final Map<PptTopLevel, PptQueue> queues = new IdentityHashMap<PptTopLevel, PptQueue>();
+
+  /**
+   * The first exception thrown by a worker, or null if none has been thrown. It is either a {@link
+   * Daikon.DaikonTerminationException} or an Error that names the program point.
+   */
+  private volatile @Nullable Throwable failure = null;
+
+  /** The samples of one program point that have not yet been processed. */
+  private final class PptQueue implements Runnable {
+    /** The program point. */
+    final PptTopLevel ppt;
+
+    /** The samples, in trace order. Guarded by this. */
+    final ArrayDeque<ValueTuple> samples = new ArrayDeque<ValueTuple>();
+
+    /** True if a worker is draining this queue, or has been asked to. Guarded by this. */
+    boolean scheduled = false;
+
+    PptQueue(PptTopLevel ppt) {
+      this.ppt = ppt;
+    }
+
+    /** Processes samples until the queue is empty. */
+    @Override
+    public void run() {
+      while (true) {
+        ValueTuple vt;
+        synchronized (this) {
+          vt = samples.poll();
+          if (vt == null || failure != null) {
+            samples.clear();
+            scheduled = false;
+            notifyAll();
+            return;
+          }
+          // Wake up the reader if it is waiting for room in this queue.
+          notifyAll();
+        }
+        try {
+          FileIO.add_sample(ppt, vt);
+        } catch (Throwable e) {
+          synchronized (InferencePipeline.this) {
+            if (failure == null) {
+              failure =
+                  (e instanceof Daikon.DaikonTerminationException)
+                      ? e
+                      : new Error("Error while processing a sample for " + ppt.name(), e);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a pipeline with the given number of worker threads.
+   *
+   * @param threads the number of worker threads
+   */
+  InferencePipeline(int threads) {
+    final AtomicInteger thread_count = new AtomicInteger(0);
+    workers =
+        Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "daikon-inference-" + thread_count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+              }
+            });
+  }
+
+  /**
+   * Queues a sample for its program point, waiting if the program point's queue is full. Throws an
+   * exception if a worker has failed.
+   *
+   * @param ppt a leaf program point
+   * @param vt the sample, including orig variables but not derived variables
+   */
+  void add(PptTopLevel ppt, ValueTuple vt) {
+    check_failure();
+    PptQueue queue = queues.get(ppt);
+    if (queue == null) {
+      queue = new PptQueue(ppt);
+      queues.put(ppt, queue);
+    }
+    synchronized (queue) {
+      while (queue.samples.size() >= queue_capacity && failure == null) {
+        try {
+          queue.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new Error("Interrupted while queueing a sample for " + ppt.name(), e);
+        }
+      }
+      check_failure();
+      queue.samples.add(vt);
+      if (!queue.scheduled) {
+        queue.scheduled = true;
+        workers.execute(queue);
+      }
+    }
+  }
+
+  /**
+   * Waits until every queued sample has been processed, then stops the workers. Throws an exception
+   * if a worker failed.
+   */
+  void finish() {
+    workers.shutdown();
+    try {
+      while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+        // keep waiting
+      }
+    } catch (InterruptedException e) {
+      workers.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new Error("Interrupted while waiting for inference to finish", e);
+    }
+    check_failure();
+  }
+
+  /** Stops the workers without processing the remaining samples. */
+  void abort() {
+    workers.shutdownNow();
+  }
+
+  /** Throws an exception if a worker has failed. */
+  private void check_failure() {
+    Throwable e = failure;
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    } else if (e != null) {
+      throw (Error) e;
+    }
+  }
+}
@@ -0,0 +1,903 @@
+package daikon;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.PptRelation.PptRelationType;
+import daikon.config.Configuration;
+import daikon.inv.Invariant;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Reading and writing of the indexed invariant file format. Like a serialized {@link PptMap}, an
+ * indexed {@code .inv} file holds the program points and their invariants, but each program point
+ * (together with its conditional program points) is a separate compressed record, and an index
+ * maps program point names to records. A reader can therefore list the program points without
+ * reading any of them, and load only the ones it needs.
+ *
+ * <p>The file starts with the 32-bit {@link #MAGIC} number, a 32-bit {@link #VERSION}, and the
+ * 64-bit offset of the index. The index, at the end of the file, contains:
+ *
+ * <ul>
+ *   <li>the value of {@link FileIO#new_decl_format},
+ *   <li>the offset and length of the configuration record, a serialized {@link Configuration},
+ *   <li>the offset and length of the hierarchy record, which lists the {@link PptRelation}s by the
+ *       names of their program points and the varinfo_index of their variables, and
+ *   <li>the number of program points, then the name, offset, and length of each program point
+ *       record.
+ * </ul>
+ *
+ * Each program point record is a serialized {@link PptTopLevel} whose parents and children have
+ * been omitted; they are restored from the hierarchy record for the program points that are
+ * loaded. A few objects refer to other program points (for example, the equality sets of a
+ * combined exit point may contain variables of the numbered exit points, and its implications
+ * refer to their invariants). A reference to another program point, or to one of its variables,
+ * slices, or invariants, is written as a {@link PptRef}, and reading it loads the other program
+ * point. Every record is compressed on its own, so the file as a whole is not gzipped, whatever
+ * its name. Strings are a 32-bit length and UTF-8 bytes; all numbers are big-endian.
+ *
+ * <p>In the serialized records, a class is identified by its name and the names and types of its
+ * serialized fields, not by its serialVersionUID. A file therefore stays readable when a class
+ * changes, unless the fields that it serializes change; then the error names the class. Changes to
+ * the data written by a writeObject method are not detected.
+ *
+ * @see FileIO#read_serialized_pptmap
+ * @see daikon.tools.InvToIndexed
+ */
+public final class InvFile implements Closeable {
+
+  /** First four bytes of every indexed invariant file ("DKIV"). */
+  public static final int MAGIC = 0x444B4956;
+  /** Version of the format written by this class. */
+  public static final int VERSION = 2;
+
+  /** The file being read. */
+  private final File file;
+
+  /** Random access to {@link #file}. */
+  private final RandomAccessFile raf;
+
+  /** The value of {@link FileIO#new_decl_format} when the file was written. */
+  private final boolean new_decl_format;
+
+  /** Offset of the configuration record. */
+  private final long config_offset;
+  /** Length of the configuration record. */
+  private final int config_length;
+
+  /** Offset of the hierarchy record. */
+  private final long relations_offset;
+  /** Length of the hierarchy record. */
+  private final int relations_length;
+
+  /** Maps each program point name to the offset and length of its record, in file order. */
+  private final Map<String, long[]> index = new LinkedHashMap<String, long[]>();
+
+  /** The program points that have been read, by name. */
+  private final Map<String, PptTopLevel> loaded = new HashMap<String, PptTopLevel>();
+
+  /** The names of the program points being read, to detect circular references. */
+  private final Set<String> loading = new HashSet<String>();
+
+  /**
+   * The program points read by {@link #read_connected}, and their conditional program points, by
+   * name.
+   */
+  private final Map<String, PptTopLevel> connected = new HashMap<String, PptTopLevel>();
+
+  /** The hierarchy record, or null if it has not been read yet. */
+  private @Nullable Map<String, List<RelationRecord>> relations = null;
+
+  /** The relations of the hierarchy record that have been added to the program points. */
+  private final Set<RelationRecord> restored =
+      Collections.newSetFromMap(new IdentityHashMap<RelationRecord, Boolean>());
+
+  /**
+   * The position of each restored relation in its parent's children, or -1 if it is not in that
+   * list.
+   */
+  private final Map<PptRelation, Integer> child_pos = new IdentityHashMap<PptRelation, Integer>();
+
+  /**
+   * The position of each restored relation in its child's parents, or -1 if it is not in that
+   * list.
+   */
+  private final Map<PptRelation, Integer> parent_pos = new IdentityHashMap<PptRelation, Integer>();
+
+  /**
+   * A reference, in one program point record, to another program point or to one of its
+   * variables, slices, or invariants.
+   */
+  static final class PptRef implements Serializable {
+    // We are Serializable, so we specify a version to allow changes to
+    // method signatures without breaking serialization.  If you add or
+    // remove fields, you should change this number to the current date.
+    static final long serialVersionUID = 20261018L;
+
+    /** The name of the record that contains the program point. */
+    final String record;
+    /** The name of the program point; differs from record for a conditional program point. */
+    final String ppt_name;
+    /** The varinfo_index of the variable, or -1 for anything else. */
+    final int varinfo_index;
+    /**
+     * The varinfo_index of each variable of the slice, or null for a program point or variable. An
+     * empty array stands for the equality view.
+     */
+    final int @Nullable [] slice_vars;
+    /** The index of the invariant in the invs of the slice, or -1 for anything else. */
+    final int inv_index;
+
+    private PptRef(PptTopLevel ppt, int varinfo_index, int @Nullable [] slice_vars, int inv_index) {
+      this.record =
+          (ppt instanceof PptConditional) ? ((PptConditional) ppt).parent.name() : ppt.name();
+      this.ppt_name = ppt.name();
+      this.varinfo_index = varinfo_index;
+      this.slice_vars = slice_vars;
+      this.inv_index = inv_index;
+    }
+
+    /** Returns a reference to a program point. */
+    static PptRef of(PptTopLevel ppt) {
+      return new PptRef(ppt, -1, null, -1);
+    }
+
+    /** Returns a reference to a variable. */
+    static PptRef of(VarInfo vi) {
+      return new PptRef(vi.ppt, vi.varinfo_index, null, -1);
+    }
+
+    /**
+     * Returns a reference to a slice, or null if the slice is not one of the views of its program
+     * point and so cannot be found when reading.
+     */
+    static @Nullable PptRef of(PptSlice slice) {
+      int[] slice_vars = slice_vars(slice);
+      return (slice_vars == null) ? null : new PptRef(slice.parent, -1, slice_vars, -1);
+    }
+
+    /**
+     * Returns a reference to an invariant, or null if it is not in the invs of a slice that is one
+     * of the views of its program point and so cannot be found when reading.
+     */
+    static @Nullable PptRef of(Invariant inv) {
+      int[] slice_vars = slice_vars(inv.ppt);
+      if (slice_vars == null) {
+        return null;
+      }
+      List<Invariant> invs = inv.ppt.invs;
+      for (int i = 0; i < invs.size(); i++) {
+        if (invs.get(i) == inv) {
+          return new PptRef(inv.ppt.parent, -1, slice_vars, i);
+        }
+      }
+      return null;
+    }
+
+    /** Returns the slice_vars that identify slice, or null if it is not a view of its parent. */
+    private static int @Nullable [] slice_vars(PptSlice slice) {
+      if (slice == slice.parent.equality_view) {
+        return new int[0];
+      }
+      if (slice.var_infos.length == 0 || slice.parent.findSlice(slice.var_infos) != slice) {
+        return null;
+      }
+      int[] result = new int[slice.var_infos.length];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = slice.var_infos[i].varinfo_index;
+      }
+      return result;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Writing
+  ///
+
+  /**
+   * Writes the program points of map, and the current configuration, to file.
+   *
+   * @param map the program points to write
+   * @param file the file to create
+   */
+  public static void write(PptMap map, File file) throws IOException {
+    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+      out.setLength(0);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(0); // offset of the index, filled in below
+
+      ByteArrayOutputStream index_bytes = new ByteArrayOutputStream();
+      DataOutputStream index = new DataOutputStream(index_bytes);
+      index.writeBoolean(FileIO.new_decl_format != null && FileIO.new_decl_format);
+
+      byte[] config = serialize(Configuration.getInstance(), null);
+      index.writeLong(out.getFilePointer());
+      index.writeInt(config.length);
+      out.write(config);
+
+      byte[] relations = write_relations(map);
+      index.writeLong(out.getFilePointer());
+      index.writeInt(relations.length);
+      out.write(relations);
+
+      index.writeInt(map.size());
+      for (PptTopLevel ppt : map.all_ppts()) {
+        byte[] record = serialize(ppt, ppt);
+        write_string(index, ppt.name());
+        index.writeLong(out.getFilePointer());
+        index.writeInt(record.length);
+        out.write(record);
+      }
+
+      index.flush();
+      long index_offset = out.getFilePointer();
+      out.write(index_bytes.toByteArray());
+      out.seek(8);
+      out.writeLong(index_offset);
+    }
+  }
+
+  /**
+   * Returns the compressed serialized form of obj. If ppt is non-null, obj is (or contains) ppt,
+   * and ppt's parents and children, and those of its conditional program points, are omitted.
+   */
+  private static byte[] serialize(Object obj, @Nullable PptTopLevel ppt) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new PptOutputStream(new DeflaterOutputStream(bytes), ppt)) {
+      out.writeObject(obj);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Serializes one program point, replacing its lists of parents and children (and those of its
+   * conditional program points) by empty lists, and any other program point or its variables,
+   * slices, or invariants by a {@link PptRef}. Throws an exception if a relation is reachable in
+   * any other way.
+   */
+  private static final class PptOutputStream extends ObjectOutputStream {
+    /** The program point being written, or null if none. */
+    private final @Nullable PptTopLevel root;
+    /** The program point being written and its conditional program points. */
+    private final Set<Object> own =
+        Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    /** The lists of parents and children to omit. */
+    private final Set<Object> relation_lists =
+        Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+    PptOutputStream(OutputStream out, @Nullable PptTopLevel ppt) throws IOException {
+      super(out);
+      root = ppt;
+      if (ppt != null) {
+        enableReplaceObject(true);
+        add_own(ppt);
+        for (PptConditional pcond : ppt.cond_iterable()) {
+          add_own(pcond);
+        }
+      }
+    }
+
+    /**
+     * Writes a class descriptor as the name of the class and a description of its serialized form,
+     * rather than its serialVersionUID, so that a record remains readable after a change to a class
+     * that does not change the serialized form of its instances.
+     */
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+      writeUTF(desc.getName());
+      writeUTF(serialized_form(desc));
+    }
+
+    private void add_own(PptTopLevel ppt) {
+      own.add(ppt);
+      relation_lists.add(ppt.parents);
+      relation_lists.add(ppt.children);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) throws IOException {
+      if (relation_lists.contains(obj)) {
+        return new ArrayList<PptRelation>();
+      }
+      if (obj instanceof VarInfo && !own.contains(((VarInfo) obj).ppt)) {
+        return PptRef.of((VarInfo) obj);
+      }
+      if (obj instanceof PptTopLevel && !own.contains(obj)) {
+        return PptRef.of((PptTopLevel) obj);
+      }
+      // An invariant or slice of another program point is written by value only if it cannot be
+      // found when reading; a copy would not be the one that the other program point holds.
+      if (obj instanceof PptSlice && !own.contains(((PptSlice) obj).parent)) {
+        PptRef ref = PptRef.of((PptSlice) obj);
+        if (ref != null) {
+          return ref;
+        }
+      }
+      if (obj instanceof Invariant && !own.contains(((Invariant) obj).ppt.parent)) {
+        PptRef ref = PptRef.of((Invariant) obj);
+        if (ref != null) {
+          return ref;
+        }
+      }
+      if (obj instanceof PptRelation) {
+        throw new NotSerializableException("relation " + obj + " reachable from " + root);
+      }
+      return obj;
+    }
+  }
+
+  /** Returns the compressed hierarchy record for map. */
+  private static byte[] write_relations(PptMap map) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+      // A relation is usually in both its parent's children and its child's parents, but some
+      // (such as those of conditional program points) are only in one of them.
+      List<PptRelation> rels = new ArrayList<PptRelation>();
+      Set<PptRelation> seen =
+          Collections.newSetFromMap(new IdentityHashMap<PptRelation, Boolean>());
+      for (PptTopLevel ppt : map.ppt_all_iterable()) {
+        for (PptRelation rel : ppt.children) {
+          if (seen.add(rel)) {
+            rels.add(rel);
+          }
+        }
+        for (PptRelation rel : ppt.parents) {
+          if (seen.add(rel)) {
+            rels.add(rel);
+          }
+        }
+      }
+      out.writeInt(rels.size());
+      for (PptRelation rel : rels) {
+        write_string(out, rel.parent.name());
+        write_string(out, rel.child.name());
+        write_string(out, rel.relationship.name());
+        out.writeInt(rel.parent.children.indexOf(rel));
+        out.writeInt(rel.child.parents.indexOf(rel));
+        write_var_map(out, rel.child_to_parent_map);
+        write_var_map(out, rel.parent_to_child_map);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Writes the varinfo_index of each key and value of var_map. */
+  private static void write_var_map(DataOutputStream out, Map<VarInfo, VarInfo> var_map)
+      throws IOException {
+    out.writeInt(var_map.size());
+    for (Map.Entry<VarInfo, VarInfo> e : var_map.entrySet()) {
+      out.writeInt(e.getKey().varinfo_index);
+      out.writeInt(e.getValue().varinfo_index);
+    }
+  }
+
+  private static void write_string(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Reading
+  ///
+
+  /** Returns true if the given file is an indexed invariant file. */
+  public static boolean is_inv_file(File file) {
+    if (!file.isFile() || file.length() < 16) {
+      return false;
+    }
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      return in.readInt() == MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Opens an indexed invariant file and reads its index. No program points are read until they
+   * are requested.
+   *
+   * @param file an indexed invariant file
+   */
+  public InvFile(File file) throws IOException {
+    this.file = file;
+    raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.readInt() != MAGIC) {
+        throw new IOException(file + " is not an indexed invariant file");
+      }
+      int version = raf.readInt();
+      if (version != VERSION) {
+        throw new IOException(
+            file + " has version " + version + " of the indexed invariant format, not " + VERSION);
+      }
+      raf.seek(raf.readLong());
+      new_decl_format = raf.readBoolean();
+      config_offset = raf.readLong();
+      config_length = raf.readInt();
+      relations_offset = raf.readLong();
+      relations_length = raf.readInt();
+      int count = raf.readInt();
+      for (int i = 0; i < count; i++) {
+        String name = read_string(raf);
+        long offset = raf.readLong();
+        int length = raf.readInt();
+        index.put(name, new long[] {offset, length});
+      }
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    raf.close();
+  }
+
+  /** Returns the names of the program points in the file (not including conditional ones). */
+  public Set<String> ppt_names() {
+    return Collections.unmodifiableSet(index.keySet());
+  }
+
+  /** Returns true if the named program point has been read. */
+  public boolean is_read(String name) {
+    return loaded.containsKey(name);
+  }
+
+  /** Returns the value of {@link FileIO#new_decl_format} when the file was written. */
+  public boolean new_decl_format() {
+    return new_decl_format;
+  }
+
+  /** Returns the configuration that was in effect when the file was written. */
+  public Configuration config() throws IOException {
+    return (Configuration) read_object(config_offset, config_length);
+  }
+
+  /**
+   * Reads one program point, with its conditional program points, unless it has already been read.
+   * Its parents and children are empty; use {@link #read_map} to obtain a hierarchy.
+   *
+   * @param name the name of a program point
+   * @return the program point, or null if there is none with that name
+   */
+  public @Nullable PptTopLevel read_ppt(String name) throws IOException {
+    PptTopLevel ppt = loaded.get(name);
+    if (ppt != null) {
+      return ppt;
+    }
+    long[] entry = index.get(name);
+    if (entry == null) {
+      return null;
+    }
+    if (!loading.add(name)) {
+      throw new IOException("Circular reference to " + name + " in " + file);
+    }
+    try {
+      ppt = (PptTopLevel) read_object(entry[0], (int) entry[1]);
+    } finally {
+      loading.remove(name);
+    }
+    loaded.put(name, ppt);
+    return ppt;
+  }
+
+  /**
+   * Returns the program point, variable, slice, or invariant that ref refers to, reading its
+   * program point if necessary.
+   */
+  private Object resolve(PptRef ref) throws IOException {
+    PptTopLevel ppt = read_ppt(ref.record);
+    if (ppt == null) {
+      throw new IOException("Reference to missing program point " + ref.record + " in " + file);
+    }
+    if (!ref.ppt_name.equals(ref.record)) {
+      PptTopLevel cond = null;
+      for (PptConditional pcond : ppt.cond_iterable()) {
+        if (pcond.name().equals(ref.ppt_name)) {
+          cond = pcond;
+        }
+      }
+      if (cond == null) {
+        throw new IOException("Reference to missing program point " + ref.ppt_name + " in " + file);
+      }
+      ppt = cond;
+    }
+    if (ref.varinfo_index >= 0) {
+      return ppt.var_infos[ref.varinfo_index];
+    }
+    if (ref.slice_vars == null) {
+      return ppt;
+    }
+    PptSlice slice;
+    if (ref.slice_vars.length == 0) {
+      slice = ppt.equality_view;
+    } else {
+      VarInfo[] vis = new VarInfo[ref.slice_vars.length];
+      for (int i = 0; i < vis.length; i++) {
+        vis[i] = ppt.var_infos[ref.slice_vars[i]];
+      }
+      slice = ppt.findSlice(vis);
+    }
+    if (slice == null) {
+      throw new IOException("Reference to missing slice of " + ref.ppt_name + " in " + file);
+    }
+    if (ref.inv_index < 0) {
+      return slice;
+    }
+    if (ref.inv_index >= slice.invs.size()) {
+      throw new IOException("Reference to missing invariant of " + ref.ppt_name + " in " + file);
+    }
+    return slice.invs.get(ref.inv_index);
+  }
+
+  /**
+   * Reads every program point in the file.
+   *
+   * @return the program points, including the relations between them
+   */
+  public PptMap read_map() throws IOException {
+    return read_map(index.keySet());
+  }
+
+  /**
+   * Reads the named program points. The result contains the relations between the program points
+   * that are read (and their conditional program points), but not relations to any program point
+   * that has not been read by {@link #read_connected}, which this uses.
+   *
+   * @param names the names of the program points to read; names that are not in the file are
+   *     ignored
+   * @return the program points
+   */
+  public PptMap read_map(Iterable<String> names) throws IOException {
+    PptMap map = new PptMap();
+    for (String name : names) {
+      PptTopLevel ppt = read_connected(name);
+      if (ppt != null) {
+        map.add(ppt);
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Returns a map of the named program points that reads each of them when it is first requested.
+   * The map takes over this file: closing the map closes the file.
+   *
+   * @param names the names of the program points in the map; names that are not in the file are
+   *     ignored
+   * @return a map of the named program points
+   */
+  public LazyPptMap lazy_map(Iterable<String> names) {
+    List<String> present = new ArrayList<String>();
+    for (String name : names) {
+      if (index.containsKey(name)) {
+        present.add(name);
+      }
+    }
+    return new LazyPptMap(this, present);
+  }
+
+  /**
+   * Reads one program point, like {@link #read_ppt}, and adds the relations between it (and its
+   * conditional program points) and the program points that have already been read by this method.
+   * Relations to program points that are read later are added when they are read.
+   *
+   * @param name the name of a program point
+   * @return the program point, or null if there is none with that name
+   */
+  public @Nullable PptTopLevel read_connected(String name) throws IOException {
+    PptTopLevel ppt = read_ppt(name);
+    if (ppt == null || connected.containsKey(name)) {
+      return ppt;
+    }
+    List<PptTopLevel> group = new ArrayList<PptTopLevel>();
+    group.add(ppt);
+    for (PptConditional pcond : ppt.cond_iterable()) {
+      group.add(pcond);
+    }
+    for (PptTopLevel member : group) {
+      connected.put(member.name(), member);
+    }
+    Map<String, List<RelationRecord>> relations = relations();
+    Set<PptTopLevel> related = new LinkedHashSet<PptTopLevel>();
+    for (PptTopLevel member : group) {
+      List<RelationRecord> recs = relations.get(member.name());
+      if (recs == null) {
+        continue;
+      }
+      for (RelationRecord rec : recs) {
+        PptTopLevel parent = connected.get(rec.parent);
+        PptTopLevel child = connected.get(rec.child);
+        if (parent == null || child == null || !restored.add(rec)) {
+          continue;
+        }
+        PptRelation rel =
+            PptRelation.restore(
+                parent, child, rec.rel_type, rec.child_to_parent, rec.parent_to_child);
+        child_pos.put(rel, rec.child_pos);
+        parent_pos.put(rel, rec.parent_pos);
+        related.add(parent);
+        related.add(child);
+      }
+    }
+    // Creating a relation adds it to both lists; restore the original contents and order.
+    for (PptTopLevel rel_ppt : related) {
+      restore_order(rel_ppt.children, child_pos);
+      restore_order(rel_ppt.parents, parent_pos);
+    }
+    return ppt;
+  }
+
+  /**
+   * Returns the given program point names, together with the names of all of their ancestors in
+   * the program point hierarchy, without reading any program point. Passing the result to {@link
+   * #read_map(Iterable)} yields the given program points with all the relations above them.
+   *
+   * @param names names of program points in the file
+   * @return names and the names of their ancestors, in no particular order
+   */
+  public Set<String> with_ancestors(Iterable<String> names) throws IOException {
+    Map<String, List<RelationRecord>> relations = relations();
+    Set<String> result = new LinkedHashSet<String>();
+    List<String> worklist = new ArrayList<String>();
+    for (String name : names) {
+      if (result.add(name)) {
+        worklist.add(name);
+      }
+    }
+    while (!worklist.isEmpty()) {
+      String name = worklist.remove(worklist.size() - 1);
+      List<RelationRecord> recs = relations.get(name);
+      if (recs == null) {
+        continue;
+      }
+      for (RelationRecord rec : recs) {
+        if (rec.child.equals(name) && result.add(rec.parent)) {
+          worklist.add(rec.parent);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the hierarchy record, reading it if necessary. Each relation is listed under the names
+   * of both its parent and its child.
+   */
+  private Map<String, List<RelationRecord>> relations() throws IOException {
+    if (relations != null) {
+      return relations;
+    }
+    Map<String, List<RelationRecord>> result = new HashMap<String, List<RelationRecord>>();
+    byte[] record = read_record(relations_offset, relations_length);
+    try (DataInputStream in =
+        new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(record)))) {
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        RelationRecord rec = new RelationRecord(in);
+        add_relation(result, rec.parent, rec);
+        add_relation(result, rec.child, rec);
+      }
+    }
+    relations = result;
+    return result;
+  }
+
+  private static void add_relation(
+      Map<String, List<RelationRecord>> relations, String name, RelationRecord rec) {
+    List<RelationRecord> recs = relations.get(name);
+    if (recs == null) {
+      recs = new ArrayList<RelationRecord>();
+      relations.put(name, recs);
+    }
+    recs.add(rec);
+  }
+
+  /** One relation of the hierarchy record, as written by {@link #write_relations}. */
+  private static final class RelationRecord {
+    /** The name of the parent program point. */
+    final String parent;
+    /** The name of the child program point. */
+    final String child;
+    /** The type of the relation. */
+    final PptRelationType rel_type;
+    /** The position of the relation in the parent's children, or -1 if it is not there. */
+    final int child_pos;
+    /** The position of the relation in the child's parents, or -1 if it is not there. */
+    final int parent_pos;
+    /** The child-to-parent variable map, as alternating keys and values. */
+    final int[] child_to_parent;
+    /** The parent-to-child variable map, as alternating keys and values. */
+    final int[] parent_to_child;
+
+    RelationRecord(DataInputStream in) throws IOException {
+      parent = read_string(in);
+      child = read_string(in);
+      rel_type = PptRelationType.valueOf(read_string(in));
+      child_pos = in.readInt();
+      parent_pos = in.readInt();
+      child_to_parent = read_var_map(in);
+      parent_to_child = read_var_map(in);
+    }
+  }
+
+  /** Removes the relations whose position is -1 from rels, and sorts the rest by position. */
+  private static void restore_order(
+      List<PptRelation> rels, final Map<PptRelation, Integer> positions) {
+    for (Iterator<PptRelation> i = rels.iterator(); i.hasNext(); ) {
+      if (positions.get(i.next()) == -1) {
+        i.remove();
+      }
+    }
+    Collections.sort(
+        rels,
+        new Comparator<PptRelation>() {
+          @Override
+          public int compare(PptRelation r1, PptRelation r2) {
+            return Integer.compare(positions.get(r1), positions.get(r2));
+          }
+        });
+  }
+
+  /** Reads a map written by {@link #write_var_map}, as alternating keys and values. */
+  private static int[] read_var_map(DataInputStream in) throws IOException {
+    int[] result = new int[2 * in.readInt()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = in.readInt();
+    }
+    return result;
+  }
+
+  /** Reads and deserializes the record at the given offset. */
+  private Object read_object(long offset, int length) throws IOException {
+    byte[] record = read_record(offset, length);
+    try (ObjectInputStream in =
+        new PptInputStream(new InflaterInputStream(new ByteArrayInputStream(record)))) {
+      return in.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Error while loading " + file, e);
+    } catch (InvalidClassException e) {
+      throw new IOException(
+          "Class "
+              + e.classname
+              + " has changed since "
+              + file
+              + " was written, so it is no longer readable.  Please regenerate it.",
+          e);
+    }
+  }
+
+  /** Deserializes a record, resolving each {@link PptRef}. */
+  private final class PptInputStream extends ObjectInputStream {
+    PptInputStream(InputStream in) throws IOException {
+      super(in);
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected Object resolveObject(Object obj) throws IOException {
+      return (obj instanceof PptRef) ? resolve((PptRef) obj) : obj;
+    }
+
+    /**
+     * Reads a class descriptor written by {@link PptOutputStream#writeClassDescriptor}, and
+     * returns that of the current class, which has the same serialized form.
+     */
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+      String name = readUTF();
+      String written = readUTF();
+      Class<?> cls = PRIMITIVE_CLASSES.get(name);
+      if (cls == null) {
+        cls = Class.forName(name, false, InvFile.class.getClassLoader());
+      }
+      ObjectStreamClass desc = ObjectStreamClass.lookupAny(cls);
+      String current = serialized_form(desc);
+      if (!written.equals(current)) {
+        throw new InvalidClassException(
+            name, "serialized form was \"" + written + "\" but is now \"" + current + "\"");
+      }
+      return desc;
+    }
+  }
+
+  /** The primitive classes, by name, which Class.forName does not find. */
+  private static final Map<String, Class<?>> PRIMITIVE_CLASSES = new HashMap<String, Class<?>>();
+
+  static {
+    for (Class<?> cls :
+        new Class<?>[] {
+          boolean.class,
+          byte.class,
+          char.class,
+          short.class,
+          int.class,
+          long.class,
+          float.class,
+          double.class,
+          void.class
+        }) {
+      PRIMITIVE_CLASSES.put(cls.getName(), cls);
+    }
+  }
+
+  /**
+   * Returns a description of the serialized form of the instances of a class: whether they are
+   * serialized at all, whether by writeExternal or by a writeObject method, and the name and type of
+   * each field that is written by default. Unlike the serialVersionUID, it does not change when
+   * only methods or transient fields do.
+   */
+  private static String serialized_form(ObjectStreamClass desc) {
+    Class<?> cls = desc.forClass();
+    StringBuilder sb = new StringBuilder();
+    if (cls == null || !Serializable.class.isAssignableFrom(cls)) {
+      sb.append("none");
+    } else if (cls.isEnum()) {
+      sb.append("enum");
+    } else if (Externalizable.class.isAssignableFrom(cls)) {
+      sb.append("external");
+    } else {
+      sb.append("serial");
+      try {
+        cls.getDeclaredMethod("writeObject", ObjectOutputStream.class);
+        sb.append(" writeObject");
+      } catch (NoSuchMethodException e) {
+        // default serialization of this class's fields
+      }
+    }
+    for (ObjectStreamField field : desc.getFields()) {
+      sb.append(' ').append(field.getName()).append(':');
+      sb.append(field.isPrimitive() ? String.valueOf(field.getTypeCode()) : field.getTypeString());
+    }
+    return sb.toString();
+  }
+
+  /** Returns the (compressed) bytes of the record at the given offset. */
+  private byte[] read_record(long offset, int length) throws IOException {
+    byte[] record = new byte[length];
+    raf.seek(offset);
+    raf.readFully(record);
+    return record;
+  }
+
+  private static String read_string(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+}
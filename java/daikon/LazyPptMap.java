@@ -0,0 +1,239 @@
+package daikon;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.checkerframework.checker.lock.qual.GuardSatisfied;
+import org.checkerframework.checker.nullness.qual.EnsuresNonNullIf;
+import org.checkerframework.checker.nullness.qual.KeyFor;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.dataflow.qual.Pure;
+import org.checkerframework.dataflow.qual.SideEffectFree;
+
+/**
+ * A PptMap whose program points are read from an indexed invariant file ({@link InvFile}) when they
+ * are first requested. The names of the program points are known without reading any of them, so
+ * {@link #get(String)} of a few program points reads only those, and iterating over the map reads
+ * the program points one at a time.
+ *
+ * <p>Before a program point is returned, all of its ancestors in the program point hierarchy are
+ * read, so its parents are complete. Its children include only those that have been read so far.
+ * Methods that return all of the program points at once, such as {@link #all_ppts}, read every
+ * program point.
+ *
+ * <p>The map keeps its file open; {@link #close} closes it once no more program points are needed.
+ */
+public class LazyPptMap extends PptMap implements Closeable {
+  // We are Serializable, so we specify a version to allow changes to
+  // method signatures without breaking serialization.  If you add or
+  // remove fields, you should change this number to the current date.
+  static final long serialVersionUID = 20261018L;
+
+  /** The file from which program points are read. */
+  private final transient InvFile inv_file;
+
+  /** The names of the program points in this map, whether or not they have been read. */
+  private final Set<String> names;
+
+  /**
+   * Creates a map of the named program points of inv_file.
+   *
+   * @param inv_file the file from which program points are read
+   * @param names the names of the program points in the map; each must be in inv_file
+   */
+  LazyPptMap(InvFile inv_file, Collection<String> names) {
+    this.inv_file = inv_file;
+    this.names = new LinkedHashSet<String>(names);
+  }
+
+  /**
+   * Returns the named program point, reading it and its ancestors if it has not been read.
+   *
+   * @param name the name of a program point in this map
+   * @return the program point
+   */
+  private PptTopLevel materialize(String name) {
+    PptTopLevel ppt = super.get(name);
+    if (ppt != null) {
+      return ppt;
+    }
+    try {
+      for (String ancestor : inv_file.with_ancestors(Collections.singleton(name))) {
+        PptTopLevel read = inv_file.read_connected(ancestor);
+        if (read != null && names.contains(ancestor) && !super.containsName(ancestor)) {
+          super.add(read);
+        }
+      }
+    } catch (IOException e) {
+      throw new Error("Problem reading program point " + name, e);
+    }
+    ppt = super.get(name);
+    assert ppt != null : "@AssumeAssertion(nullness): names contains only ppts in inv_file";
+    return ppt;
+  }
+
+  /** Reads every program point of this map that has not been read. */
+  private void materialize_all() {
+    for (String name : names) {
+      materialize(name);
+    }
+  }
+
+  @Override
+  public void add(PptTopLevel ppt) {
+    names.add(ppt.name());
+    super.add(ppt);
+  }
+
+  @Pure
+  @Override
+  public @Nullable PptTopLevel get(String name) {
+    return names.contains(name) ? materialize(name) : null;
+  }
+
+  @Pure
+  @SuppressWarnings("nullness") // postcondition: get(#1) reads the ppt when it is in names
+  @EnsuresNonNullIf(result = true, expression = "get(#1)")
+  @Override
+  public boolean containsName(String name) {
+    return names.contains(name);
+  }
+
+  @Override
+  public Collection<PptTopLevel> all_ppts() {
+    materialize_all();
+    return super.all_ppts();
+  }
+
+  @Override
+  public Collection<PptTopLevel> asCollection() {
+    materialize_all();
+    return super.asCollection();
+  }
+
+  @SuppressWarnings("keyfor") // the names of this map, not of the superclass's field
+  @Override
+  public Collection<@KeyFor("nameToPpt") String> nameStringSet() {
+    return Collections.unmodifiableSet(names);
+  }
+
+  /**
+   * @return an iterator over the PptTopLevels in this, sorted by Ppt.NameComparator on their names.
+   *     Each program point is read when the iterator reaches it.
+   */
+  @SuppressWarnings("lock") // JLS bug: can't write receiver annotation on method of anonymous class
+  @Override
+  public Iterator<PptTopLevel> pptIterator() {
+    List<String> sorted = new ArrayList<String>(names);
+    Collections.sort(
+        sorted,
+        new Comparator<String>() {
+          @Override
+          public int compare(String name1, String name2) {
+            return Ppt.NameComparator.swap(name1, '.', ':')
+                .compareTo(Ppt.NameComparator.swap(name2, '.', ':'));
+          }
+        });
+    final Iterator<String> iter_names = sorted.iterator();
+    return new Iterator<PptTopLevel>() {
+      @Override
+      public boolean hasNext(/*! >>>@GuardSatisfied Iterator<PptTopLevel> this*/ ) {
+        return iter_names.hasNext();
+      }
+
+      @Override
+      public PptTopLevel next(/*! >>>@GuardSatisfied Iterator<PptTopLevel> this*/ ) {
+        return materialize(iter_names.next());
+      }
+
+      @Override
+      public void remove(/*! >>>@GuardSatisfied Iterator<PptTopLevel> this*/ ) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * @return an iterator over the PptTopLevels in this, sorted by Ppt.NameComparator on their names,
+   *     each followed by its conditional program points. Each program point is read when the
+   *     iterator reaches it.
+   */
+  @SuppressWarnings("lock") // JLS bug: can't write receiver annotation on method of anonymous class
+  @Override
+  public Iterator<PptTopLevel> ppt_all_iterator() {
+    final Iterator<PptTopLevel> iter_ppts = pptIterator();
+    return new Iterator<PptTopLevel>() {
+      @Nullable Iterator<PptConditional> cond_iterator = null;
+
+      @Override
+      public boolean hasNext(/*! >>>@GuardSatisfied Iterator<PptTopLevel> this*/ ) {
+        return ((cond_iterator != null) && cond_iterator.hasNext()) || iter_ppts.hasNext();
+      }
+
+      @Override
+      public PptTopLevel next(/*! >>>@GuardSatisfied Iterator<PptTopLevel> this*/ ) {
+        if ((cond_iterator != null) && cond_iterator.hasNext()) {
+          return cond_iterator.next();
+        }
+        if (!iter_ppts.hasNext()) {
+          throw new NoSuchElementException();
+        }
+        PptTopLevel ppt = iter_ppts.next();
+        if (ppt.has_splitters()) cond_iterator = ppt.cond_iterator();
+        return ppt;
+      }
+
+      @Override
+      public void remove(/*! >>>@GuardSatisfied Iterator<PptTopLevel> this*/ ) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public void trimToSize() {
+    materialize_all();
+    super.trimToSize();
+  }
+
+  @Pure
+  @Override
+  public int size() {
+    return names.size();
+  }
+
+  @SideEffectFree
+  @Override
+  public String toString(@GuardSatisfied LazyPptMap this) {
+    return "LazyPptMap: " + names.toString();
+  }
+
+  @Override
+  public void removeUnsampled() {
+    materialize_all();
+    super.removeUnsampled();
+    names.retainAll(super.nameStringSet());
+  }
+
+  @Override
+  public void close() throws IOException {
+    inv_file.close();
+  }
+
+  /** Serializes this as an ordinary PptMap that contains every program point. */
+  private Object writeReplace() {
+    PptMap result = new PptMap();
+    for (String name : names) {
+      result.add(materialize(name));
+    }
+    return result;
+  }
+}
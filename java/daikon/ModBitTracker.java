@@ -11,39 +11,38 @@ import org.checkerframework.checker.nullness.qual.Raw;
 // "ModBitTracker" is a poor name for this class, since it tracks
 // whether a value is missing, not whether it is modified.
 /**
- * ModBitTracker maintains a BitSet for each variable at a program point. The BitSet indicates, for
- * each sample seen in order, whether that variable was present or not.
+ * ModBitTracker maintains a set of bits for each variable at a program point. The bits indicate, for
+ * each sample seen in order, whether that variable was present or not. The bits are stored in a
+ * {@link CompactBitSet}, which is run-length encoded while that is smaller than a bitmap.
  */
 public class ModBitTracker implements Serializable, Cloneable {
   // We are Serializable, so we specify a version to allow changes to
   // method signatures without breaking serialization.  If you add or
   // remove fields, you should change this number to the current date.
-  static final long serialVersionUID = 20031014L;
+  static final long serialVersionUID = 20261018L;
 
   // Should make this a configuration option.
   private static boolean debug = false;
 
-  /** The maximum number of BitSets; the size of modbits_arrays. */
+  /** The maximum number of bit sets; the size of modbits_arrays. */
   private int num_vars;
-  /** The size of each BitSet in modbits_arrays. */
+  /** The size of each bit set in modbits_arrays. */
   private int num_samples;
 
-  /** The BitSets themselves. */
-  // In the future, I could imagine trying to optimize this with (say)
-  // run-length encoding; but it's probably not worth it.
+  /** The bit sets themselves. */
   // All elements of modbits_arrays at or past num_sets are null.
-  private @Nullable BitSet[] modbits_arrays;
+  private @Nullable CompactBitSet[] modbits_arrays;
 
   /**
-   * Conceptually, there is a BitSet per variable. In actuality, when two different variables have
-   * the same modbits, they can share a single BitSet; we say the variables are in an equivalence
-   * set. "index" indicates, for each variable, which BitSet it should use; it is the identifier of
+   * Conceptually, there is a bit set per variable. In actuality, when two different variables have
+   * the same modbits, they can share a single bit set; we say the variables are in an equivalence
+   * set. "index" indicates, for each variable, which bit set it should use; it is the identifier of
    * the variable's equivalence set.
    */
   private int[] index;
 
   /**
-   * The number of BitSets (equivalence sets) in use. All elements of modbits_arrays before this
+   * The number of bit sets (equivalence sets) in use. All elements of modbits_arrays before this
    * index are non-null, and all elements at or past this index are null.
    */
   private int num_sets;
@@ -62,9 +61,9 @@ public class ModBitTracker implements Serializable, Cloneable {
   public ModBitTracker(int num_vars) {
     assert num_vars >= 0;
     this.num_vars = num_vars;
-    modbits_arrays = new @Nullable BitSet[num_vars];
+    modbits_arrays = new @Nullable CompactBitSet[num_vars];
     if (num_vars > 0) {
-      modbits_arrays[0] = new BitSet();
+      modbits_arrays[0] = new CompactBitSet();
       num_sets = 1;
     } else {
       num_sets = 0;
@@ -104,39 +103,67 @@ public class ModBitTracker implements Serializable, Cloneable {
     for (int i = 0; i < num_vars; i++) {
       if (i < num_sets) {
         assert modbits_arrays[i] != null;
-        // Can't make this assertion, as there is no method that tells
-        // the highest index that has been used in the BitSet.  (size()
-        // gives physical size.)
-        // assert modbits_arrays[i].size() == num_samples
-        //                   : "modbits_arrays.[" + i + "].size() == "
-        //                   + modbits_arrays[i].size()
-        //                   + ", num_samples == " + num_samples;
+        assert modbits_arrays[i].size() == num_samples
+            : "modbits_arrays.["
+                + i
+                + "].size() == "
+                + modbits_arrays[i].size()
+                + ", num_samples == "
+                + num_samples;
       } else {
         assert modbits_arrays[i] == null;
       }
     }
   }
 
+  /** Returns the bit set of the given variable. */
+  @SuppressWarnings(
+      "nullness") // application invariant: index[varindex] is an index for a non-null bit set in
+  // modbits_arrays
+  private CompactBitSet bits(int varindex) {
+    return modbits_arrays[index[varindex]];
+  }
+
   /**
    * Returns a BitSet of modbit values for the given variable. The caller must not modify the
-   * returned value!
+   * returned value! This may create the BitSet, so {@link #get(int, int)}, {@link #cardinality},
+   * and {@link #intersection_cardinality(int, int)} are preferable.
    */
-  @SuppressWarnings(
-      "nullness") // application invariant: index[varindex] is an index for a non-null BitSet in
-  // modbits_arrays
   public BitSet get(int varindex) {
-    return modbits_arrays[index[varindex]];
+    return bits(varindex).toBitSet();
   }
 
   /** Returns the modbit for the given variable and sample number. */
   public boolean get(int varindex, int sampleno) {
-    return get(varindex).get(sampleno);
+    return bits(varindex).get(sampleno);
   }
 
-  /** Split the specified equivalence set into two pieces. Returns the index of the copy. */
+  /** Returns the number of samples in which the given variable is present. */
+  public int cardinality(int varindex) {
+    return bits(varindex).cardinality();
+  }
+
+  /** Returns the number of samples in which both of the given variables are present. */
+  public int intersection_cardinality(int varindex1, int varindex2) {
+    if (index[varindex1] == index[varindex2]) {
+      return cardinality(varindex1);
+    }
+    return CompactBitSet.intersectionCardinality(bits(varindex1), bits(varindex2));
+  }
+
+  /** Returns the number of samples in which all three of the given variables are present. */
+  public int intersection_cardinality(int varindex1, int varindex2, int varindex3) {
+    return CompactBitSet.intersectionCardinality(
+        bits(varindex1), bits(varindex2), bits(varindex3));
+  }
+
+  /**
+   * Split the specified equivalence set into two pieces. Returns the index of the copy. The copy
+   * shares its storage with the original until one of them changes.
+   */
   private int split(int split_index) {
     @SuppressWarnings("nullness") // application invariant: split_index is in range
-    @NonNull BitSet bs = (BitSet) modbits_arrays[split_index].clone();
+    @NonNull CompactBitSet bs = modbits_arrays[split_index].share();
     modbits_arrays[num_sets] = bs;
     num_sets++;
     return num_sets - 1;
@@ -183,8 +210,8 @@ public class ModBitTracker implements Serializable, Cloneable {
     }
     for (int i = 0; i < num_sets; i++) {
       @SuppressWarnings("nullness") // application invariant: non-null up to index=num_sets
-      @NonNull BitSet bs = modbits_arrays[i];
-      bs.set(num_samples, num_samples + count, this_bits[i]);
+      @NonNull CompactBitSet bs = modbits_arrays[i];
+      bs.append(count, this_bits[i]);
     }
     num_samples += count;
 
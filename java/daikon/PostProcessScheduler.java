@@ -0,0 +1,297 @@
+package daikon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Runs the post-processing passes over the program points (those done after the data trace files
+ * are read) in a pool of worker threads.
+ *
+ * <p>Merging invariants up the program point hierarchy ({@link #merge_hierarchy}) is scheduled
+ * over the hierarchy: a program point is merged once every child is merged. Program points that
+ * touch each other while being merged (a parent and its child, and two parents of the same child,
+ * since merging removes invariants from the children and may temporarily change them) are merged
+ * in the same order as the sequential traversal of {@link Daikon#createUpperPpts}, so the result
+ * does not depend on the number of threads. The other passes ({@link #for_each}) work on each
+ * program point independently.
+ *
+ * @see Daikon#dkconfig_postprocess_threads
+ */
+final class PostProcessScheduler {
+
+  /** An operation on one program point. */
+  interface PptTask {
+    /**
+     * Performs the operation.
+     *
+     * @param ppt the program point
+     */
+    void run(PptTopLevel ppt);
+  }
+
+  /** The worker threads. */
+  private final ExecutorService workers;
+
+  /** Counts down as each program point finishes. */
+  private final CountDownLatch remaining;
+
+  /** The operation done on each program point. */
+  private final PptTask task;
+
+  /**
+   * For each program point, the program points that must wait for it. Program points that wait for
+   * none are absent.
+   */
+  private final Map<PptTopLevel, List<PptTopLevel>> successors;
+
+  /** For each program point, the number of program points it is still waiting for. */
+  private final Map<PptTopLevel, AtomicInteger> waiting_for =
+      new IdentityHashMap<PptTopLevel, AtomicInteger>();
+
+  /**
+   * The first exception thrown by a worker, or null if none has been thrown. It is either a {@link
+   * Daikon.DaikonTerminationException} or an Error that names the program point.
+   */
+  private volatile @Nullable Throwable failure = null;
+
+  /**
+   * Creates a scheduler for the given program points.
+   *
+   * @param ppts the program points, in the order in which those that are ready are started
+   * @param successors for each program point, the program points that must wait for it
+   * @param threads the number of worker threads
+   * @param task the operation done on each program point
+   */
+  private PostProcessScheduler(
+      List<PptTopLevel> ppts,
+      Map<PptTopLevel, List<PptTopLevel>> successors,
+      int threads,
+      PptTask task) {
+    this.successors = successors;
+    this.task = task;
+    remaining = new CountDownLatch(ppts.size());
+    for (PptTopLevel ppt : ppts) {
+      waiting_for.put(ppt, new AtomicInteger(0));
+    }
+    for (List<PptTopLevel> succs : successors.values()) {
+      for (PptTopLevel succ : succs) {
+        waiting_for.get(succ).incrementAndGet();
+      }
+    }
+    final AtomicInteger thread_count = new AtomicInteger(0);
+    workers =
+        Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "daikon-postprocess-" + thread_count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+              }
+            });
+  }
+
+  /**
+   * Merges the invariants of every non-leaf program point from its children, as {@link
+   * Daikon#createUpperPpts} does, using the given number of threads.
+   *
+   * @param all_ppts the program points, with their hierarchy
+   * @param threads the number of worker threads
+   */
+  static void merge_hierarchy(PptMap all_ppts, int threads) {
+
+    // Find the order in which the sequential traversal merges the program points.
+    List<PptTopLevel> order = new ArrayList<PptTopLevel>();
+    Set<PptTopLevel> visited =
+        Collections.newSetFromMap(new IdentityHashMap<PptTopLevel, Boolean>());
+    Set<PptTopLevel> active =
+        Collections.newSetFromMap(new IdentityHashMap<PptTopLevel, Boolean>());
+    for (PptTopLevel ppt : all_ppts.pptIterable()) {
+      if (ppt.parents.size() == 0) {
+        merge_order(ppt, order, visited, active);
+      }
+    }
+
+    Map<PptTopLevel, Integer> position = new IdentityHashMap<PptTopLevel, Integer>();
+    for (int i = 0; i < order.size(); i++) {
+      position.put(order.get(i), i);
+    }
+
+    // A parent and a child are merged in their sequential order: usually the child first, but
+    // the other way around for a loop in the hierarchy.  The parents of each child are also
+    // merged in their sequential order.
+    Map<PptTopLevel, List<PptTopLevel>> successors =
+        new IdentityHashMap<PptTopLevel, List<PptTopLevel>>();
+    Map<PptTopLevel, PptTopLevel> last_parent = new IdentityHashMap<PptTopLevel, PptTopLevel>();
+    for (PptTopLevel ppt : order) {
+      int ppt_pos = position.get(ppt);
+      for (PptRelation rel : ppt.children) {
+        Integer child_pos = position.get(rel.child);
+        if (child_pos != null) {
+          if (child_pos < ppt_pos) {
+            add_edge(successors, rel.child, ppt);
+          } else {
+            add_edge(successors, ppt, rel.child);
+          }
+        }
+      }
+    }
+    for (PptTopLevel ppt : order) {
+      for (PptRelation rel : ppt.children) {
+        PptTopLevel previous = last_parent.put(rel.child, ppt);
+        if (previous != null && previous != ppt) {
+          add_edge(successors, previous, ppt);
+        }
+      }
+    }
+
+    new PostProcessScheduler(
+            order,
+            successors,
+            threads,
+            new PptTask() {
+              @Override
+              public void run(PptTopLevel ppt) {
+                ppt.mergeInvs(false);
+              }
+            })
+        .run(order);
+  }
+
+  /**
+   * Adds to order, in the order in which {@link PptTopLevel#mergeInvs()} merges them, the program
+   * points that are merged by calling it on ppt.
+   *
+   * @param ppt a program point
+   * @param order the program points found so far, in merge order
+   * @param visited the program points in order
+   * @param active the program points whose traversal has started but not finished
+   */
+  private static void merge_order(
+      PptTopLevel ppt, List<PptTopLevel> order, Set<PptTopLevel> visited, Set<PptTopLevel> active) {
+    if (ppt.children.size() == 0 || ppt.invariants_merged || visited.contains(ppt)) {
+      return;
+    }
+    active.add(ppt);
+    for (PptRelation rel : ppt.children) {
+      if (!active.contains(rel.child)) {
+        merge_order(rel.child, order, visited, active);
+      }
+    }
+    active.remove(ppt);
+    visited.add(ppt);
+    order.add(ppt);
+  }
+
+  /** Records that succ must wait for ppt. */
+  private static void add_edge(
+      Map<PptTopLevel, List<PptTopLevel>> successors, PptTopLevel ppt, PptTopLevel succ) {
+    List<PptTopLevel> succs = successors.get(ppt);
+    if (succs == null) {
+      succs = new ArrayList<PptTopLevel>();
+      successors.put(ppt, succs);
+    }
+    succs.add(succ);
+  }
+
+  /**
+   * Does task on each program point, using the given number of threads. The program points must
+   * be independent of one another. If threads is 1, the program points are processed in order by
+   * the calling thread.
+   *
+   * @param ppts the program points
+   * @param threads the number of worker threads
+   * @param task the operation done on each program point
+   */
+  static void for_each(Iterable<PptTopLevel> ppts, int threads, PptTask task) {
+    if (threads <= 1) {
+      for (PptTopLevel ppt : ppts) {
+        task.run(ppt);
+      }
+      return;
+    }
+    List<PptTopLevel> list = new ArrayList<PptTopLevel>();
+    for (PptTopLevel ppt : ppts) {
+      list.add(ppt);
+    }
+    new PostProcessScheduler(
+            list, new IdentityHashMap<PptTopLevel, List<PptTopLevel>>(), threads, task)
+        .run(list);
+  }
+
+  /**
+   * Runs the task on every program point, starting those that wait for no other, then waits until
+   * all are done and stops the workers. Throws an exception if a worker failed.
+   *
+   * @param ppts every program point, in the order in which those that are ready are started
+   */
+  private void run(List<PptTopLevel> ppts) {
+    try {
+      for (PptTopLevel ppt : ppts) {
+        if (waiting_for.get(ppt).get() == 0) {
+          schedule(ppt);
+        }
+      }
+      remaining.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new Error("Interrupted while waiting for post-processing to finish", e);
+    } finally {
+      workers.shutdownNow();
+    }
+    Throwable e = failure;
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    } else if (e != null) {
+      throw (Error) e;
+    }
+  }
+
+  /**
+   * Runs the task on a program point in a worker thread, then schedules each program point that
+   * was waiting only for it. After a failure, the remaining program points are skipped.
+   */
+  private void schedule(final PptTopLevel ppt) {
+    workers.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              if (failure == null) {
+                task.run(ppt);
+              }
+            } catch (Throwable e) {
+              synchronized (PostProcessScheduler.this) {
+                if (failure == null) {
+                  failure =
+                      (e instanceof Daikon.DaikonTerminationException)
+                          ? e
+                          : new Error("Error while post-processing " + ppt.name(), e);
+                }
+              }
+            } finally {
+              List<PptTopLevel> succs = successors.get(ppt);
+              if (succs != null) {
+                for (PptTopLevel succ : succs) {
+                  if (waiting_for.get(succ).decrementAndGet() == 0) {
+                    schedule(succ);
+                  }
+                }
+              }
+              remaining.countDown();
+            }
+          }
+        });
+  }
+}
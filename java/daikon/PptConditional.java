@@ -59,6 +59,22 @@ public final class PptConditional extends PptTopLevel {
     return (VarInfo.arrayclone_simple(parent.var_infos));
   }
 
+  /**
+   * Returns true if this program point was created, on the given side, by the given prototype
+   * splitter.
+   */
+  public boolean created_by(Splitter prototype) {
+    return name.equals(ctor_name_helper(parent, prototype, splitter_inverse));
+  }
+
+  /**
+   * Re-instantiates the splitter, which is not serialized, from its prototype. Used when resuming
+   * from a checkpoint.
+   */
+  public void restore_splitter(Splitter prototype) {
+    splitter = prototype.instantiateSplitter(this);
+  }
+
   // This is tested after constructing a PptConditional but before
   // installing it on any lists.  It should perhaps be checked earlier, but
   // it's convenient (for the Splitter writer) to do so after instantiating.
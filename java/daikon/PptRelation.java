@@ -635,6 +635,30 @@ public class PptRelation implements Serializable {
     return rel;
   }
 
+  /**
+   * Creates a relation of the given type between parent and child, and connects it to them. The
+   * variable maps are given as alternating keys and values, each the varinfo_index of a variable.
+   * Used to restore the hierarchy when reading an {@link InvFile}.
+   */
+  static PptRelation restore(
+      PptTopLevel parent,
+      PptTopLevel child,
+      PptRelationType rel_type,
+      int[] child_to_parent,
+      int[] parent_to_child) {
+
+    PptRelation rel = new PptRelation(parent, child, rel_type);
+    for (int i = 0; i < child_to_parent.length; i += 2) {
+      rel.child_to_parent_map.put(
+          child.var_infos[child_to_parent[i]], parent.var_infos[child_to_parent[i + 1]]);
+    }
+    for (int i = 0; i < parent_to_child.length; i += 2) {
+      rel.parent_to_child_map.put(
+          parent.var_infos[parent_to_child[i]], child.var_infos[parent_to_child[i + 1]]);
+    }
+    return rel;
+  }
+
   // used by init_hierarchy below
   private static class SplitChild {
     public PptRelation rel;
@@ -65,6 +65,7 @@ import daikon.inv.unary.stringsequence.OneOfStringSequence;
 import daikon.simplify.InvariantLemma;
 import daikon.simplify.Lemma;
 import daikon.simplify.LemmaStack;
+import daikon.simplify.LemmaStackPool;
 import daikon.simplify.SessionManager;
 import daikon.simplify.SimplifyError;
 import daikon.split.PptSplitter;
@@ -79,7 +80,6 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -142,7 +142,7 @@ public class PptTopLevel extends Ppt {
   // We are Serializable, so we specify a version to allow changes to
   // method signatures without breaking serialization.  If you add or
   // remove fields, you should change this number to the current date.
-  static final long serialVersionUID = 20071129L;
+  static final long serialVersionUID = 20261018L;
 
   // Variables starting with dkconfig_ should only be set via the
   // daikon.config.Configuration interface.
@@ -159,13 +159,6 @@ public class PptTopLevel extends Ppt {
    */
   public static boolean dkconfig_remove_merged_invs = false;
 
-  /**
-   * Boolean. Needed by the NIS.falsified method when keeping stats to figure out how many falsified
-   * invariants are antecedents. Only the first pass of processing with the sample is counted toward
-   * the stats.
-   */
-  public static boolean first_pass_with_sample = true;
-
   /** Ppt attributes (specified in decl records) */
   public enum PptFlags {
     STATIC,
@@ -265,18 +258,25 @@ public class PptTopLevel extends Ppt {
   ValueSet[] value_sets;
 
   /**
-   * All the Views (that is, slices) on this are stored as values in the HashMap. Indexed by a
-   * Arrays.asList array list of Integers holding varinfo_index values.
+   * All the Views (that is, slices) on this, indexed by the varinfo_index values of their
+   * variables.
    *
    * <p>For a client to access this private variable, it should use {@link #viewsAsCollection},
    * {@link #views_iterable}, or {@link #views_iterator}.
    */
-  private Map<List<Integer>, PptSlice> views;
+  private SliceMap views;
 
   /** List of all of the splitters for this ppt. */
   // Not List because List doesn't support the trimToSize() method.
   public @MonotonicNonNull ArrayList<PptSplitter> splitters = null;
 
+  /**
+   * The samples not yet given to the splitters, when {@link PptSplitter#dkconfig_batch_size} is
+   * greater than 1; null if none have been buffered. It is empty whenever the data trace files are
+   * not being read.
+   */
+  private transient PptSplitter.@Nullable SampleBatch split_batch = null;
+
   /**
    * Iterator for all of the conditional ppts. Returns each PptConditional from each entry in
    * splitters.
@@ -339,6 +339,22 @@ public class PptTopLevel extends Ppt {
     return CollectionsPlume.iteratorToIterable(new CondIterator());
   }
 
+  /**
+   * Gives the samples buffered for the splitters (see {@link PptSplitter#dkconfig_batch_size}) to
+   * the conditional program points.
+   */
+  @SuppressWarnings("flowexpr.parse.error") // private field
+  @RequiresNonNull({
+    "NIS.suppressor_map",
+    "NIS.suppressor_map_suppression_count",
+    "NIS.all_suppressions"
+  })
+  public void flush_split_batch() {
+    if (split_batch != null && splitters != null) {
+      split_batch.flush(splitters);
+    }
+  }
+
   /** Returns whether or not this ppt has any splitters. */
   @SuppressWarnings(
       "contracts.conditional.postcondition.not.satisfied") // Checker Framework bug: "splitters"
@@ -372,6 +388,12 @@ public class PptTopLevel extends Ppt {
   // PPT hierarchy.
   public boolean in_merge = false;
 
+  /**
+   * The invariants falsified by the sample that {@link #add_bottom_up} is processing, or null
+   * outside of add_bottom_up. {@link Invariant#falsify} adds to it.
+   */
+  public transient NIS.@Nullable FalsificationLog falsification_log = null;
+
   /**
    * Flag that indicates whether or not invariants that are duplicated at the parent have been
    * removed..
@@ -464,7 +486,7 @@ public class PptTopLevel extends Ppt {
       assert (vi.value_index == -1) || (!vi.is_static_constant);
     }
 
-    views = new LinkedHashMap<List<Integer>, PptSlice>();
+    views = new SliceMap();
 
     num_declvars = var_infos.length;
     num_tracevars = val_idx;
@@ -549,9 +571,7 @@ public class PptTopLevel extends Ppt {
     if (vi1.is_static_constant) {
       return mbtracker.num_samples();
     }
-    BitSet b1 = mbtracker.get(vi1.value_index);
-    int num_slice_samples = b1.cardinality();
-    return num_slice_samples;
+    return mbtracker.cardinality(vi1.value_index);
   }
 
   /** Return the number of samples where vi1 and vi2 are both present (not missing). */
@@ -562,10 +582,7 @@ public class PptTopLevel extends Ppt {
     if (vi2.is_static_constant) {
       return num_samples(vi1);
     }
-    BitSet b1 = mbtracker.get(vi1.value_index);
-    BitSet b2 = mbtracker.get(vi2.value_index);
-    int num_slice_samples = UtilPlume.intersectionCardinality(b1, b2);
-    return num_slice_samples;
+    return mbtracker.intersection_cardinality(vi1.value_index, vi2.value_index);
   }
 
   /** Return the number of samples where vi1, vi2, and vi3 are all present (not missing). */
@@ -579,11 +596,8 @@ public class PptTopLevel extends Ppt {
     if (vi3.is_static_constant) {
       return num_samples(vi1, vi2);
     }
-    BitSet b1 = mbtracker.get(vi1.value_index);
-    BitSet b2 = mbtracker.get(vi2.value_index);
-    BitSet b3 = mbtracker.get(vi3.value_index);
-    int num_slice_samples = UtilPlume.intersectionCardinality(b1, b2, b3);
-    return num_slice_samples;
+    return mbtracker.intersection_cardinality(
+        vi1.value_index, vi2.value_index, vi3.value_index);
   }
 
   /** The number of distinct values that have been seen. */
@@ -1034,8 +1048,18 @@ public class PptTopLevel extends Ppt {
     // If there are conditional program points, add the sample there instead
     if (has_splitters()) {
       assert splitters != null; // guaranteed by call to has_splitters
-      for (PptSplitter ppt_split : splitters) {
-        ppt_split.add_bottom_up(vt, count);
+      if (PptSplitter.dkconfig_batch_size > 1) {
+        if (split_batch == null) {
+          split_batch = new PptSplitter.SampleBatch(this);
+        }
+        split_batch.add(vt, count);
+        if (split_batch.size() >= PptSplitter.dkconfig_batch_size) {
+          split_batch.flush(splitters);
+        }
+      } else {
+        for (PptSplitter ppt_split : splitters) {
+          ppt_split.add_bottom_up(vt, count);
+        }
       }
       if (Daikon.use_dataflow_hierarchy) {
         return null;
@@ -1058,6 +1082,9 @@ public class PptTopLevel extends Ppt {
 
     if (debugNISStats.isLoggable(Level.FINE)) NIS.clear_stats();
 
+    // Record the invariants falsified by this sample, for NIS.process_falsified_invs
+    falsification_log = new NIS.FalsificationLog();
+
     // Set of invariants weakened by this sample
     Set<Invariant> weakened_invs = new LinkedHashSet<Invariant>();
 
@@ -1073,13 +1100,17 @@ public class PptTopLevel extends Ppt {
     if (Daikon.use_equality_optimization) {
       assert equality_view != null
           : "@AssumeAssertion(nullness): dependent: non-null if use_equality_optimization==true";
+      Profile.Mark mark = Profile.start();
       weakened_invs.addAll(equality_view.add(vt, count));
+      Profile.stop(Profile.Phase.EQUALITY, mark, this, count);
     }
 
     // Add samples to constants, adding new invariants as required
     if (DynamicConstants.dkconfig_use_dynamic_constant_optimization) {
+      Profile.Mark mark = Profile.start();
       if (constants == null) constants = new DynamicConstants(this);
       constants.add(vt, count);
+      Profile.stop(Profile.Phase.DYNAMIC_CONSTANTS, mark, this, count);
     }
 
     instantiated_inv_cnt = invariant_cnt();
@@ -1165,9 +1196,10 @@ public class PptTopLevel extends Ppt {
     }
 
     // Create any newly unsuppressed invariants
+    Profile.Mark nis_mark = Profile.start();
     NIS.process_falsified_invs(this, vt);
 
-    // NIS.newly_falsified is a list of invariants that are falsified by
+    // NIS.apply_samples returns true if some invariants are falsified by
     // the current sample when using the falsified method of processing
     // suppressions.  The newly falsified invariants are added back to
     // the slices so that they can be processed.  Thus, the falsified method
@@ -1177,8 +1209,9 @@ public class PptTopLevel extends Ppt {
     // ordered.  This loop should be executed at least once, regardless of
     // the algorithm for processing suppressions, hence the do loop.  For,
     // the antecedents method, the loop is executed only once because
-    // the NIS.newly_falsified list will be empty.
+    // no new invariants will be falsified.
 
+    boolean newly_falsified;
     do {
       // Remove any falsified invariants.  Make a copy of the original slices
       // since NISuppressions will add new slices/invariants as others are
@@ -1191,11 +1224,10 @@ public class PptTopLevel extends Ppt {
       // Apply the sample to any invariants created by non-instantiating
       // suppressions. This must happen before we remove slices without
       // invariants below.
-      NIS.apply_samples(vt, count);
-      first_pass_with_sample = false;
-    } while (NIS.newly_falsified.size() != 0);
-
-    first_pass_with_sample = true;
+      newly_falsified = NIS.apply_samples(vt, count);
+    } while (newly_falsified);
+    falsification_log = null;
+    Profile.stop(Profile.Phase.NIS, nis_mark, this, count);
 
     // Remove slices from the list if all of their invariants have died.
     // (Removal requires use of old-style for loop and Iterator.)
@@ -1545,18 +1577,6 @@ public class PptTopLevel extends Ppt {
     }
   }
 
-  /**
-   * Given an array of VarInfos, return a List representing that array, to be used as an index in
-   * the views hashtable.
-   */
-  private List<Integer> sliceIndex(VarInfo[] vis) {
-    List<Integer> result = new ArrayList<Integer>(vis.length);
-    for (int i = 0; i < vis.length; i++) {
-      result.add(vis[i].varinfo_index);
-    }
-    return result;
-  }
-
   /** Add a single slice to the views variable. */
   public void addSlice(PptSlice slice) {
 
@@ -1576,13 +1596,14 @@ public class PptTopLevel extends Ppt {
     // Make sure that the slice is valid (they are not always valid)
     // slice.repCheck();
 
-    views.put(sliceIndex(slice.var_infos), slice);
+    views.put(slice);
+    Profile.slice_created(this);
     if (Debug.logOn()) slice.log("Adding slice");
   }
 
   /** Remove a slice from this PptTopLevel. */
   public void removeSlice(PptSlice slice) {
-    Object o = views.remove(sliceIndex(slice.var_infos));
+    Object o = views.remove(slice.var_infos);
     assert o != null;
   }
 
@@ -1598,7 +1619,7 @@ public class PptTopLevel extends Ppt {
    * of its invariants were falsified).
    */
   public @Nullable PptSlice1 findSlice(VarInfo v) {
-    return (PptSlice1) findSlice(new VarInfo[] {v});
+    return (PptSlice1) views.get(SliceMap.key(v.varinfo_index));
   }
 
   /**
@@ -1607,7 +1628,7 @@ public class PptTopLevel extends Ppt {
    */
   public @Nullable PptSlice2 findSlice(VarInfo v1, VarInfo v2) {
     assert v1.varinfo_index <= v2.varinfo_index;
-    return (PptSlice2) findSlice(new VarInfo[] {v1, v2});
+    return (PptSlice2) views.get(SliceMap.key(v1.varinfo_index, v2.varinfo_index));
   }
 
   /**
@@ -1630,7 +1651,8 @@ public class PptTopLevel extends Ppt {
   public @Nullable PptSlice3 findSlice(VarInfo v1, VarInfo v2, VarInfo v3) {
     assert v1.varinfo_index <= v2.varinfo_index;
     assert v2.varinfo_index <= v3.varinfo_index;
-    return (PptSlice3) findSlice(new VarInfo[] {v1, v2, v3});
+    return (PptSlice3)
+        views.get(SliceMap.key(v1.varinfo_index, v2.varinfo_index, v3.varinfo_index));
   }
 
   /**
@@ -1677,7 +1699,7 @@ public class PptTopLevel extends Ppt {
     if (vis.length > 3) {
       throw new RuntimeException("Bad length " + vis.length);
     }
-    return views.get(sliceIndex(vis));
+    return views.get(vis);
   }
 
   /**
@@ -2796,6 +2818,32 @@ public class PptTopLevel extends Ppt {
     public boolean include(Invariant inv);
   }
 
+  /** Includes the invariants that pass the default filters, as they would be printed. */
+  private static final SimplifyInclusionTester printedInvariantsTester =
+      new SimplifyInclusionTester() {
+        @Override
+        public boolean include(Invariant inv) {
+          return InvariantFilters.defaultFilters().shouldKeep(inv) == null;
+        }
+      };
+
+  /**
+   * The lemmas given to Simplify to find the redundant invariants of one program point: the
+   * background, which is assumed, and the invariants, which are checked.
+   */
+  static final class SimplifyLemmas {
+    /** The lemmas that are assumed while checking the invariants. */
+    final List<Lemma> background;
+
+    /** The invariants that are checked, from the most desirable to the least desirable. */
+    final InvariantLemma[] lemmas;
+
+    SimplifyLemmas(List<Lemma> background, InvariantLemma[] lemmas) {
+      this.background = background;
+      this.lemmas = lemmas;
+    }
+  }
+
   /**
    * Use the Simplify theorem prover to flag invariants that are logically implied by others.
    * Considers only invariants that pass isWorthPrinting.
@@ -2804,19 +2852,56 @@ public class PptTopLevel extends Ppt {
   public void mark_implied_via_simplify(PptMap all_ppts) {
     try {
       if (proverStack == null) proverStack = new LemmaStack();
-      markImpliedViaSimplify_int(
-          all_ppts,
-          new SimplifyInclusionTester() {
-            @Override
-            public boolean include(Invariant inv) {
-              return InvariantFilters.defaultFilters().shouldKeep(inv) == null;
-            }
-          });
+      SimplifyLemmas lemmas = simplifyLemmas(all_ppts, printedInvariantsTester);
+      if (lemmas != null) {
+        markImpliedViaSimplify_int(lemmas, proverStack);
+      }
     } catch (SimplifyError e) {
       proverStack = null;
     }
   }
 
+  /**
+   * Returns the lemmas with which {@link #mark_implied_via_simplify(SimplifyLemmas,
+   * LemmaStackPool)} finds the redundant invariants of this program point, or null if there are no
+   * invariants to check. Formatting the invariants uses caches shared by all program points, so
+   * this must not run concurrently with itself.
+   */
+  /* package */ @Nullable SimplifyLemmas simplifyLemmas(PptMap all_ppts) {
+    return simplifyLemmas(all_ppts, printedInvariantsTester);
+  }
+
+  /**
+   * Like {@link #mark_implied_via_simplify(PptMap)}, but checks the given lemmas with a Simplify
+   * process from the pool. Program points that use different processes can be checked
+   * concurrently.
+   *
+   * @param lemmas the lemmas returned by {@link #simplifyLemmas(PptMap)}
+   * @param provers the Simplify processes
+   */
+  /* package */ void mark_implied_via_simplify(SimplifyLemmas lemmas, LemmaStackPool provers) {
+    LemmaStack prover;
+    try {
+      prover = provers.take();
+    } catch (SimplifyError e) {
+      return;
+    }
+    // Only a prover whose stack markImpliedViaSimplify_int cleared may be used again.
+    boolean cleared = false;
+    try {
+      markImpliedViaSimplify_int(lemmas, prover);
+      cleared = true;
+    } catch (SimplifyError e) {
+      // This program point is left unchecked.
+    } finally {
+      if (cleared) {
+        provers.release(prover);
+      } else {
+        provers.discard(prover);
+      }
+    }
+  }
+
   /**
    * Returns true if there was a problem with Simplify formatting (such as the invariant not having
    * a Simplify representation).
@@ -2828,13 +2913,11 @@ public class PptTopLevel extends Ppt {
   }
 
   /**
-   * Use the Simplify theorem prover to flag invariants that are logically implied by others. Uses
-   * the provided test interface to determine if an invariant is within the domain of inspection.
+   * Returns the lemmas to give Simplify to flag the invariants of this program point that are
+   * logically implied by others, or null if there are none to check. Uses the provided test
+   * interface to determine if an invariant is within the domain of inspection.
    */
-  @RequiresNonNull("proverStack")
-  private void markImpliedViaSimplify_int(PptMap all_ppts, SimplifyInclusionTester test)
-      throws SimplifyError {
-    SessionManager.debugln("Simplify checking " + ppt_name);
+  private @Nullable SimplifyLemmas simplifyLemmas(PptMap all_ppts, SimplifyInclusionTester test) {
 
     // Create the list of invariants from this ppt which are
     // expressible in Simplify
@@ -2861,7 +2944,7 @@ public class PptTopLevel extends Ppt {
 
     // For efficiency, bail if we don't have any invariants to mark as implied
     if (invs.length == 0) {
-      return;
+      return null;
     }
 
     // Come up with a "desirability" ordering of the printing and
@@ -2907,6 +2990,7 @@ public class PptTopLevel extends Ppt {
     // since in the current scheme, implications came from controlled
     // program points, and we don't necessarily want to lose the
     // unconditional version of the invariant at the conditional ppt.
+    List<Lemma> background = new ArrayList<Lemma>();
     for (PptTopLevel ppt : closure) {
       List<Invariant> invs_vec = ppt.invariants_vector();
       Collections.sort(invs_vec, icfp);
@@ -2926,41 +3010,26 @@ public class PptTopLevel extends Ppt {
         // We could also consider testing if the controlling invariant
         // was removed by Simplify, but what would the point be?  Also,
         // these "intermediate goals" might help out Simplify.
-        proverStack.pushLemma(new InvariantLemma(inv));
+        background.add(new InvariantLemma(inv));
 
         // If this is the :::OBJECT ppt, also restate all of them in
         // orig terms, since the conditions also held upon entry.
         if (ppt.ppt_name.isObjectInstanceSynthetic()) {
-          proverStack.pushLemma(InvariantLemma.makeLemmaAddOrig(inv));
+          background.add(InvariantLemma.makeLemmaAddOrig(inv));
         }
       }
     }
 
-    if (proverStack.checkForContradiction() == 'T') {
-      if (LemmaStack.dkconfig_remove_contradictions) {
-        System.err.println(
-            "Warning: " + ppt_name + " background is contradictory, removing some parts");
-        proverStack.removeContradiction();
-      } else {
-        System.err.println("Warning: " + ppt_name + " background is contradictory, giving up");
-        return;
-      }
-    }
-
-    int backgroundMark = proverStack.markLevel();
-
     /*NNC:@MonotonicNonNull*/ InvariantLemma[] lemmas = new InvariantLemma[invs.length];
     for (int i = 0; i < invs.length; i++) {
       lemmas[i] = new InvariantLemma(invs[i]);
     }
     lemmas = castNonNullDeep(lemmas); // https://tinyurl.com/cfissue/986
-    boolean[] present = new boolean[lemmas.length];
-    Arrays.fill(present, 0, present.length, true);
     for (int checking = invs.length - 1; checking >= 0; checking--) {
       Invariant inv = invs[checking];
       StringBuilder bg = new StringBuilder("(AND ");
-      for (int i = 0; i < present.length; i++) {
-        if (present[i] && (i != checking)) {
+      for (int i = 0; i < invs.length; i++) {
+        if (i != checking) {
           bg.append(" ");
           // format_using(OutputFormat.SIMPLIFY) is guaranteed to return
           // a sensible result for invariants in invs[].
@@ -2972,15 +3041,51 @@ public class PptTopLevel extends Ppt {
       // Debugging
       if (Global.debugSimplify.isLoggable(Level.FINE)) {
         SessionManager.debugln("Background:");
-        for (int i = 0; i < present.length; i++) {
-          if (present[i] && (i != checking)) {
+        for (int i = 0; i < invs.length; i++) {
+          if (i != checking) {
             SessionManager.debugln("    " + invs[i].format());
           }
         }
       }
     }
+    return new SimplifyLemmas(background, lemmas);
+  }
 
-    for (int i = 0; i < invs.length; i++) {
+  /**
+   * Use the Simplify theorem prover to flag invariants that are logically implied by others.
+   *
+   * @param simplifyLemmas the lemmas returned by {@link #simplifyLemmas(PptMap,
+   *     SimplifyInclusionTester)}
+   * @param proverStack the Simplify process; its stack is cleared before returning normally, but
+   *     not if an exception is thrown
+   */
+  private void markImpliedViaSimplify_int(SimplifyLemmas simplifyLemmas, LemmaStack proverStack)
+      throws SimplifyError {
+    SessionManager.debugln("Simplify checking " + ppt_name);
+
+    for (Lemma lem : simplifyLemmas.background) {
+      proverStack.pushLemma(lem);
+    }
+
+    if (proverStack.checkForContradiction() == 'T') {
+      if (LemmaStack.dkconfig_remove_contradictions) {
+        System.err.println(
+            "Warning: " + ppt_name + " background is contradictory, removing some parts");
+        proverStack.removeContradiction();
+      } else {
+        System.err.println("Warning: " + ppt_name + " background is contradictory, giving up");
+        proverStack.clear();
+        return;
+      }
+    }
+
+    int backgroundMark = proverStack.markLevel();
+
+    InvariantLemma[] lemmas = simplifyLemmas.lemmas;
+    boolean[] present = new boolean[lemmas.length];
+    Arrays.fill(present, 0, present.length, true);
+
+    for (int i = 0; i < lemmas.length; i++) {
       proverStack.pushLemma(lemmas[i]);
     }
 
@@ -3006,6 +3111,7 @@ public class PptTopLevel extends Ppt {
         }
         if (problems.size() == 0) {
           System.err.println("Warning: removal failed, punting");
+          proverStack.clear();
           return;
         }
         for (Lemma problem : problems) {
@@ -3055,7 +3161,7 @@ public class PptTopLevel extends Ppt {
 
     proverStack.popToMark(backgroundMark);
 
-    flagRedundantRecursive(lemmas, present, 0, lemmas.length - 1);
+    flagRedundantRecursive(proverStack, lemmas, present, 0, lemmas.length - 1);
 
     proverStack.clear();
   }
@@ -3064,12 +3170,13 @@ public class PptTopLevel extends Ppt {
    * Go though an array of invariants, marking those that can be proved as consequences of others as
    * redundant.
    *
+   * @param proverStack the Simplify process
    * @param start first index to check, inclusive
    * @param end last index to check, inclusive
    */
-  @RequiresNonNull("proverStack")
   private void flagRedundantRecursive(
-      InvariantLemma[] lemmas, boolean[] present, int start, int end) throws SimplifyError {
+      LemmaStack proverStack, InvariantLemma[] lemmas, boolean[] present, int start, int end)
+      throws SimplifyError {
     assert start <= end;
 
     if (start == end) {
@@ -3095,14 +3202,14 @@ public class PptTopLevel extends Ppt {
       for (int i = start; i <= first_half_end; i++) {
         if (present[i]) proverStack.pushLemma(lemmas[i]);
       }
-      flagRedundantRecursive(lemmas, present, second_half_start, end);
+      flagRedundantRecursive(proverStack, lemmas, present, second_half_start, end);
       proverStack.popToMark(mark);
       // Now, assume what's left of the second half, and check the
       // first half.
       for (int i = second_half_start; i <= end; i++) {
         if (present[i]) proverStack.pushLemma(lemmas[i]);
       }
-      flagRedundantRecursive(lemmas, present, start, first_half_end);
+      flagRedundantRecursive(proverStack, lemmas, present, start, first_half_end);
       proverStack.popToMark(mark);
     }
   }
@@ -3310,9 +3417,7 @@ public class PptTopLevel extends Ppt {
     // they should. When the VarInfo was fully unserialized, the key's
     // hashCode then changed to the correct one, messing up the
     // indexing in a hard-to-debug way. -SMcC
-    for (List<Integer> this_key : views.keySet()) {
-      assert views.containsKey(this_key);
-    }
+    views.repCheck();
 
     // System.out.printf("equality for %s = %s%n", this, equality_view);
 
@@ -3434,6 +3539,18 @@ public class PptTopLevel extends Ppt {
    * equality sets and build the invariants for each slice.
    */
   public void mergeInvs() {
+    mergeInvs(true);
+  }
+
+  /**
+   * Merge invariants from children to create an invariant list at this ppt.
+   *
+   * @param merge_children if true, first merge the invariants of each child that is not already
+   *     being merged; if false, the caller has already merged the children that it wants merged
+   *     first
+   * @see #mergeInvs()
+   */
+  void mergeInvs(boolean merge_children) {
 
     Daikon.debugProgress.fine(
         String.format(
@@ -3460,11 +3577,13 @@ public class PptTopLevel extends Ppt {
     in_merge = true;
 
     // First do this for any children.
-    for (PptRelation rel : children) {
-      // System.out.printf("merging child %s[%08X], in_merge = %b%n",
-      //                   rel.child, System.identityHashCode(rel.child),
-      //                   rel.child.in_merge);
-      if (!rel.child.in_merge) rel.child.mergeInvs();
+    if (merge_children) {
+      for (PptRelation rel : children) {
+        // System.out.printf("merging child %s[%08X], in_merge = %b%n",
+        //                   rel.child, System.identityHashCode(rel.child),
+        //                   rel.child.in_merge);
+        if (!rel.child.in_merge) rel.child.mergeInvs();
+      }
     }
 
     if (debugMerge.isLoggable(Level.FINE)) debugMerge.fine("Processing ppt " + name());
@@ -3981,7 +4100,7 @@ public class PptTopLevel extends Ppt {
     for (int i = 0; i < var_infos.length; i++) {
       var_infos[i].equalitySet = null;
     }
-    views = new HashMap<List<Integer>, PptSlice>();
+    views = new SliceMap();
     // parents = new ArrayList();
     // children = new ArrayList();
     invariants_merged = false;
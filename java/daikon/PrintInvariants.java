@@ -443,8 +443,8 @@ public final class PrintInvariants {
     String filename = args[fileIndex];
     PptMap ppts =
         FileIO.read_serialized_pptmap(
-            new File(filename), true // use saved config
-            );
+            new File(filename), true, // use saved config
+            ppt_regexp);
     // Setup the list of prototype invariants and initialize NIS suppressions
     Daikon.setup_proto_invs();
     Daikon.setup_NISuppression();
@@ -479,6 +479,9 @@ public final class PrintInvariants {
       out_stream.flush();
       out_stream.close();
     }
+    if (ppts instanceof LazyPptMap) {
+      ((LazyPptMap) ppts).close();
+    }
   }
 
   // To avoid the leading "UtilPlume." on all calls.
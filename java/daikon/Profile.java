@@ -0,0 +1,372 @@
+package daikon;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.inv.Invariant;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Records, for each phase of a Daikon run, the time spent in it and the memory allocated by it, and
+ * for each program point, the work done on it and the invariants created, falsified, and suppressed
+ * there. Enabled by the {@code --profile} command-line option, which names the file to which {@link
+ * #write} writes the results, as JSON.
+ *
+ * <p>Phases nest: the time of {@link Phase#TRACE_READ} includes that of {@link
+ * Phase#ADD_BOTTOM_UP}, which includes that of {@link Phase#EQUALITY}, {@link
+ * Phase#DYNAMIC_CONSTANTS}, and {@link Phase#NIS}. CPU time and allocated bytes are those of the
+ * thread that did the work, so they are correct when samples are processed by several threads (see
+ * {@link FileIO#dkconfig_inference_threads}); wall time is then summed over the threads.
+ *
+ * <p>When profiling is not enabled, {@link #start} returns null and the other methods do nothing.
+ */
+public final class Profile {
+
+  /** A phase of a Daikon run. */
+  public enum Phase {
+    /** Reading the declaration files, or a checkpoint. */
+    DECL_LOAD,
+    /** Reading the data trace files, including processing the samples. */
+    TRACE_READ,
+    /** Processing one sample at a leaf program point, including its conditional program points. */
+    ADD_BOTTOM_UP,
+    /** Adding a sample to the equality sets of a program point. */
+    EQUALITY,
+    /** Adding a sample to the dynamic constants of a program point. */
+    DYNAMIC_CONSTANTS,
+    /** Processing falsified invariants and the invariants they no longer suppress. */
+    NIS,
+    /** Merging invariants up the program point hierarchy. */
+    CREATE_UPPER_PPTS,
+    /** Suppressing invariants that Simplify can prove from others. */
+    SIMPLIFY,
+    /** Printing the invariants. */
+    PRINT;
+
+    /** The name of the phase in the JSON output. */
+    String json_name() {
+      return name().toLowerCase();
+    }
+  }
+
+  /** The indices of the measurements of a phase in an {@link AtomicLongArray} or long[]. */
+  private static final int CALLS = 0, WALL_NS = 1, CPU_NS = 2, ALLOCATED_BYTES = 3, SAMPLES = 4;
+
+  /** The names of the measurements, by index, in the JSON output. */
+  private static final String[] MEASUREMENT_NAMES = {
+    "calls", "wall_ns", "cpu_ns", "allocated_bytes", "samples"
+  };
+
+  /** The indices of the invariant counts of a class in a long[]. */
+  private static final int CREATED = 0, FALSIFIED = 1, SUPPRESSED = 2;
+
+  /** The names of the invariant counts, by index, in the JSON output. */
+  private static final String[] INVARIANT_COUNT_NAMES = {"created", "falsified", "suppressed"};
+
+  /** True if profiling is enabled. Set by {@link #enable} and {@link #reset}. */
+  public static boolean enabled = false;
+
+  /** The wall time at which profiling was enabled, in nanoseconds. */
+  private static long enabled_at;
+
+  /** The totals of each phase, indexed by ordinal and then by measurement. */
+  private static AtomicLongArray[] phase_totals = new_phase_totals();
+
+  /** The statistics of each program point, by name. */
+  private static final ConcurrentHashMap<String, PptStats> ppt_stats =
+      new ConcurrentHashMap<String, PptStats>();
+
+  /** The source of CPU times and allocated bytes. */
+  private static final ThreadMXBean thread_bean = ManagementFactory.getThreadMXBean();
+
+  /** True if CPU times are measured. */
+  private static final boolean measure_cpu =
+      thread_bean.isThreadCpuTimeSupported() && thread_bean.isThreadCpuTimeEnabled();
+
+  /** Non-null if allocated bytes are measured. */
+  private static final com.sun.management.@Nullable ThreadMXBean allocation_bean =
+      (thread_bean instanceof com.sun.management.ThreadMXBean
+              && ((com.sun.management.ThreadMXBean) thread_bean).isThreadAllocatedMemorySupported()
+              && ((com.sun.management.ThreadMXBean) thread_bean).isThreadAllocatedMemoryEnabled())
+          ? (com.sun.management.ThreadMXBean) thread_bean
+          : null;
+
+  private Profile() {
+    throw new Error("do not instantiate");
+  }
+
+  /** The measurements at the start of a phase, returned by {@link #start}. */
+  public static final class Mark {
+    /** The wall time, in nanoseconds. */
+    final long wall_ns = System.nanoTime();
+    /** The CPU time of the current thread, in nanoseconds. */
+    final long cpu_ns = measure_cpu ? thread_bean.getCurrentThreadCpuTime() : 0;
+    /** The number of bytes allocated by the current thread. */
+    final long allocated_bytes = allocated_bytes();
+  }
+
+  /** The statistics of one program point. Guarded by itself. */
+  private static final class PptStats {
+    /** The measurements of each phase at this program point, indexed as {@link #phase_totals}. */
+    final long[][] phases = new long[Phase.values().length][MEASUREMENT_NAMES.length];
+    /** The number of slices added to this program point. */
+    long slices_created = 0;
+    /** The invariant counts of each invariant class, indexed by CREATED, FALSIFIED, SUPPRESSED. */
+    final Map<String, long[]> invariants = new TreeMap<String, long[]>();
+  }
+
+  /** Returns a new array of phase totals. */
+  private static AtomicLongArray[] new_phase_totals() {
+    AtomicLongArray[] result = new AtomicLongArray[Phase.values().length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = new AtomicLongArray(MEASUREMENT_NAMES.length);
+    }
+    return result;
+  }
+
+  /** Enables profiling, discarding any earlier results. */
+  public static void enable() {
+    reset();
+    enabled_at = System.nanoTime();
+    enabled = true;
+  }
+
+  /** Disables profiling and discards the results. */
+  public static void reset() {
+    enabled = false;
+    phase_totals = new_phase_totals();
+    ppt_stats.clear();
+  }
+
+  /** Returns the number of bytes allocated by the current thread, or 0 if it is not measured. */
+  private static long allocated_bytes() {
+    return (allocation_bean == null)
+        ? 0
+        : allocation_bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Returns the measurements at the start of a phase, to be passed to {@link #stop}, or null if
+   * profiling is not enabled.
+   */
+  public static @Nullable Mark start() {
+    return enabled ? new Mark() : null;
+  }
+
+  /**
+   * Records the end of a phase that is not specific to a program point.
+   *
+   * @param phase the phase
+   * @param mark the result of {@link #start} at the start of the phase
+   */
+  public static void stop(Phase phase, @Nullable Mark mark) {
+    stop(phase, mark, null, 0);
+  }
+
+  /**
+   * Records the end of a phase.
+   *
+   * @param phase the phase
+   * @param mark the result of {@link #start} at the start of the phase
+   * @param ppt the program point the phase worked on, or null
+   * @param samples the number of samples processed by the phase
+   */
+  public static void stop(
+      Phase phase, @Nullable Mark mark, @Nullable PptTopLevel ppt, int samples) {
+    if (mark == null) {
+      return;
+    }
+    long[] measurements = new long[MEASUREMENT_NAMES.length];
+    measurements[CALLS] = 1;
+    measurements[WALL_NS] = System.nanoTime() - mark.wall_ns;
+    if (measure_cpu) {
+      measurements[CPU_NS] = thread_bean.getCurrentThreadCpuTime() - mark.cpu_ns;
+    }
+    measurements[ALLOCATED_BYTES] = allocated_bytes() - mark.allocated_bytes;
+    measurements[SAMPLES] = samples;
+
+    AtomicLongArray totals = phase_totals[phase.ordinal()];
+    for (int i = 0; i < measurements.length; i++) {
+      totals.addAndGet(i, measurements[i]);
+    }
+    if (ppt != null) {
+      PptStats stats = stats(ppt);
+      synchronized (stats) {
+        long[] ppt_measurements = stats.phases[phase.ordinal()];
+        for (int i = 0; i < measurements.length; i++) {
+          ppt_measurements[i] += measurements[i];
+        }
+      }
+    }
+  }
+
+  /** Returns the statistics of the given program point, creating them if necessary. */
+  private static PptStats stats(PptTopLevel ppt) {
+    PptStats stats = ppt_stats.get(ppt.name());
+    if (stats == null) {
+      stats = new PptStats();
+      PptStats previous = ppt_stats.putIfAbsent(ppt.name(), stats);
+      if (previous != null) {
+        stats = previous;
+      }
+    }
+    return stats;
+  }
+
+  /** Records that a slice was added to ppt. */
+  public static void slice_created(PptTopLevel ppt) {
+    if (!enabled) {
+      return;
+    }
+    PptStats stats = stats(ppt);
+    synchronized (stats) {
+      stats.slices_created++;
+    }
+  }
+
+  /** Records that inv was created. */
+  public static void invariant_created(Invariant inv) {
+    count_invariant(inv.ppt.parent, inv.getClass(), CREATED);
+  }
+
+  /** Records that inv was falsified. */
+  public static void invariant_falsified(Invariant inv) {
+    count_invariant(inv.ppt.parent, inv.getClass(), FALSIFIED);
+  }
+
+  /**
+   * Records that an invariant of the given class was suppressed at ppt: either it was not created
+   * or it was removed, because other invariants imply it.
+   */
+  public static void invariant_suppressed(PptTopLevel ppt, Class<? extends Invariant> inv_class) {
+    count_invariant(ppt, inv_class, SUPPRESSED);
+  }
+
+  /** Adds one to the given invariant count of inv_class at ppt. */
+  private static void count_invariant(
+      PptTopLevel ppt, Class<? extends Invariant> inv_class, int which) {
+    if (!enabled) {
+      return;
+    }
+    PptStats stats = stats(ppt);
+    synchronized (stats) {
+      long[] counts = stats.invariants.get(inv_class.getName());
+      if (counts == null) {
+        counts = new long[INVARIANT_COUNT_NAMES.length];
+        stats.invariants.put(inv_class.getName(), counts);
+      }
+      counts[which]++;
+    }
+  }
+
+  /**
+   * Writes the results as JSON: the total wall time, the totals of each phase, and the statistics
+   * of each program point, in name order.
+   *
+   * @param file the file to write
+   * @param all_ppts the program points, whose final numbers of samples and invariants are written
+   */
+  public static void write(File file, PptMap all_ppts) throws IOException {
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), UTF_8))) {
+      out.println("{");
+      out.println("  \"wall_ns\": " + (System.nanoTime() - enabled_at) + ",");
+      out.println("  \"cpu_time_measured\": " + measure_cpu + ",");
+      out.println("  \"allocated_bytes_measured\": " + (allocation_bean != null) + ",");
+      out.println("  \"phases\": {");
+      List<String> phases = new ArrayList<String>();
+      for (Phase phase : Phase.values()) {
+        AtomicLongArray totals = phase_totals[phase.ordinal()];
+        long[] measurements = new long[totals.length()];
+        for (int i = 0; i < measurements.length; i++) {
+          measurements[i] = totals.get(i);
+        }
+        phases.add("    " + quote(phase.json_name()) + ": " + measurements_json(measurements));
+      }
+      out.println(String.join("," + System.lineSeparator(), phases));
+      out.println("  },");
+
+      out.println("  \"ppts\": [");
+      List<String> names = new ArrayList<String>(ppt_stats.keySet());
+      Collections.sort(names);
+      List<String> ppts = new ArrayList<String>();
+      for (String name : names) {
+        PptStats stats = ppt_stats.get(name);
+        PptTopLevel ppt = all_ppts.get(name);
+        StringBuilder sb = new StringBuilder();
+        sb.append("    {\"name\": ").append(quote(name));
+        if (ppt != null) {
+          sb.append(", \"samples\": ").append(ppt.num_samples());
+          sb.append(", \"invariants\": ").append(ppt.invariant_cnt());
+        }
+        synchronized (stats) {
+          sb.append(", \"slices_created\": ").append(stats.slices_created);
+          sb.append(", \"phases\": {");
+          String sep = "";
+          for (Phase phase : Phase.values()) {
+            long[] measurements = stats.phases[phase.ordinal()];
+            if (measurements[CALLS] != 0) {
+              sb.append(sep).append(quote(phase.json_name())).append(": ");
+              sb.append(measurements_json(measurements));
+              sep = ", ";
+            }
+          }
+          sb.append("}, \"invariant_classes\": {");
+          sep = "";
+          for (Map.Entry<String, long[]> e : stats.invariants.entrySet()) {
+            sb.append(sep).append(quote(e.getKey())).append(": {");
+            long[] counts = e.getValue();
+            for (int i = 0; i < counts.length; i++) {
+              sb.append(i == 0 ? "" : ", ").append(quote(INVARIANT_COUNT_NAMES[i]));
+              sb.append(": ").append(counts[i]);
+            }
+            sb.append("}");
+            sep = ", ";
+          }
+          sb.append("}}");
+        }
+        ppts.add(sb.toString());
+      }
+      out.println(String.join("," + System.lineSeparator(), ppts));
+      out.println("  ]");
+      out.println("}");
+    }
+  }
+
+  /** Returns the given measurements as a JSON object. */
+  private static String measurements_json(long[] measurements) {
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < measurements.length; i++) {
+      sb.append(i == 0 ? "" : ", ").append(quote(MEASUREMENT_NAMES[i]));
+      sb.append(": ").append(measurements[i]);
+    }
+    return sb.append("}").toString();
+  }
+
+  /** Returns s as a JSON string literal. */
+  static String quote(String s) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < ' ') {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append("\"").toString();
+  }
+}
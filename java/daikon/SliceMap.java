@@ -0,0 +1,337 @@
+package daikon;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Maps a set of up to three variables to the slice over those variables. This is the type of the
+ * views of a {@link PptTopLevel}.
+ *
+ * <p>A key packs the {@code varinfo_index} of each variable, in order, into a single long, so
+ * lookups allocate nothing. The map uses open addressing over arrays of primitives, which takes
+ * much less space than a HashMap whose keys are lists of Integers; some program points have tens of
+ * thousands of slices. Iteration is in insertion order, like a LinkedHashMap.
+ */
+public final class SliceMap implements Serializable {
+  // We are Serializable, so we specify a version to allow changes to
+  // method signatures without breaking serialization.  If you add or
+  // remove fields, you should change this number to the current date.
+  static final long serialVersionUID = 20261018L;
+
+  /** The number of bits used for each varinfo_index in a key. */
+  private static final int INDEX_BITS = 21;
+
+  /** One more than the largest varinfo_index that a key can hold. */
+  public static final int MAX_VARINFO_INDEX = (1 << INDEX_BITS) - 1;
+
+  /** Value of an element of {@link #table} that has never been used. */
+  private static final int EMPTY = -1;
+
+  /** Value of an element of {@link #table} whose entry has been removed. */
+  private static final int DELETED = -2;
+
+  /**
+   * The keys of the entries, in insertion order. Only the first {@link #end} elements are in use.
+   */
+  private long[] keys;
+
+  /**
+   * The slices, parallel to {@link #keys}. An element is null if its entry has been removed and
+   * the arrays have not yet been compacted.
+   */
+  private @Nullable PptSlice[] slices;
+
+  /** The number of elements of {@link #keys} and {@link #slices} in use, including removed ones. */
+  private int end = 0;
+
+  /** The number of entries in the map. */
+  private int size = 0;
+
+  /**
+   * The hash table. Each element is an index into {@link #keys} and {@link #slices}, or is {@link
+   * #EMPTY} or {@link #DELETED}. Its length is a power of two, and at least twice {@link #end}.
+   */
+  private int[] table;
+
+  /** Incremented on each change that is not made through an iterator. */
+  private transient int mod_count = 0;
+
+  /** Creates an empty map. */
+  public SliceMap() {
+    keys = new long[8];
+    slices = new @Nullable PptSlice[8];
+    table = new int[16];
+    Arrays.fill(table, EMPTY);
+  }
+
+  /**
+   * Returns the key for the given variables.
+   *
+   * @param vis the variables of a slice, in order of varinfo_index
+   * @return the key for vis
+   */
+  public static long key(VarInfo[] vis) {
+    switch (vis.length) {
+      case 0:
+        return 0;
+      case 1:
+        return key(vis[0].varinfo_index);
+      case 2:
+        return key(vis[0].varinfo_index, vis[1].varinfo_index);
+      case 3:
+        return key(vis[0].varinfo_index, vis[1].varinfo_index, vis[2].varinfo_index);
+      default:
+        throw new RuntimeException("Bad length " + vis.length);
+    }
+  }
+
+  /** Returns the key for a unary slice over the variable with the given varinfo_index. */
+  public static long key(int index1) {
+    return pack(index1) << (2 * INDEX_BITS);
+  }
+
+  /** Returns the key for a binary slice over the variables with the given varinfo_index values. */
+  public static long key(int index1, int index2) {
+    return key(index1) | (pack(index2) << INDEX_BITS);
+  }
+
+  /** Returns the key for a ternary slice over the variables with the given varinfo_index values. */
+  public static long key(int index1, int index2, int index3) {
+    return key(index1, index2) | pack(index3);
+  }
+
+  /**
+   * Returns one more than index, so that keys of different arities differ. The result fits in
+   * INDEX_BITS bits.
+   */
+  private static long pack(int index) {
+    assert index >= 0 && index < MAX_VARINFO_INDEX : index;
+    return index + 1;
+  }
+
+  /** Returns the initial probe position in {@link #table} for the given key. */
+  private int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h >>> 32) & (table.length - 1);
+  }
+
+  /**
+   * Returns the index into {@link #keys} of the entry with the given key, or -1 if there is none.
+   */
+  private int find(long key) {
+    int mask = table.length - 1;
+    for (int i = hash(key); ; i = (i + 1) & mask) {
+      int pos = table[i];
+      if (pos == EMPTY) {
+        return -1;
+      }
+      if (pos != DELETED && keys[pos] == key) {
+        return pos;
+      }
+    }
+  }
+
+  /** Returns the number of slices in the map. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the slice with the given key, or null if there is none. */
+  public @Nullable PptSlice get(long key) {
+    int pos = find(key);
+    return (pos == -1) ? null : slices[pos];
+  }
+
+  /** Returns the slice over the given variables, or null if there is none. */
+  public @Nullable PptSlice get(VarInfo[] vis) {
+    return get(key(vis));
+  }
+
+  /**
+   * Adds a slice to the map, keyed by its variables, replacing any slice over the same variables.
+   *
+   * @param slice the slice to add
+   * @return the slice that was replaced, or null if there was none
+   */
+  public @Nullable PptSlice put(PptSlice slice) {
+    long key = key(slice.var_infos);
+    int pos = find(key);
+    if (pos != -1) {
+      PptSlice old = slices[pos];
+      slices[pos] = slice;
+      return old;
+    }
+
+    if (end == keys.length) {
+      if (size <= end / 2) {
+        compact();
+      } else {
+        keys = Arrays.copyOf(keys, keys.length * 2);
+        slices = Arrays.copyOf(slices, slices.length * 2);
+      }
+    }
+    if (2 * (end + 1) > table.length) {
+      rehash(table.length * 2);
+    }
+    keys[end] = key;
+    slices[end] = slice;
+    insert(key, end);
+    end++;
+    size++;
+    mod_count++;
+    return null;
+  }
+
+  /** Records in {@link #table} that the entry at pos in {@link #keys} has the given key. */
+  private void insert(long key, int pos) {
+    int mask = table.length - 1;
+    int i = hash(key);
+    while (table[i] >= 0) {
+      i = (i + 1) & mask;
+    }
+    table[i] = pos;
+  }
+
+  /**
+   * Removes the slice with the given key.
+   *
+   * @param key the key of the slice to remove
+   * @return the slice that was removed, or null if there was none
+   */
+  public @Nullable PptSlice remove(long key) {
+    int pos = find(key);
+    if (pos == -1) {
+      return null;
+    }
+    PptSlice old = slices[pos];
+    remove_at(pos);
+    mod_count++;
+    return old;
+  }
+
+  /** Removes the slice over the given variables, returning it, or null if there was none. */
+  public @Nullable PptSlice remove(VarInfo[] vis) {
+    return remove(key(vis));
+  }
+
+  /** Removes the entry at pos in {@link #keys}, leaving a hole that {@link #compact} removes. */
+  private void remove_at(int pos) {
+    int mask = table.length - 1;
+    int i = hash(keys[pos]);
+    while (table[i] != pos) {
+      i = (i + 1) & mask;
+    }
+    table[i] = DELETED;
+    slices[pos] = null;
+    size--;
+  }
+
+  /** Removes the holes left by removed entries, preserving the order of the others. */
+  private void compact() {
+    int dst = 0;
+    for (int src = 0; src < end; src++) {
+      if (slices[src] != null) {
+        keys[dst] = keys[src];
+        slices[dst] = slices[src];
+        dst++;
+      }
+    }
+    Arrays.fill(slices, dst, end, null);
+    end = dst;
+    rehash(table.length);
+  }
+
+  /** Rebuilds {@link #table} with the given length, dropping DELETED markers. */
+  private void rehash(int length) {
+    table = new int[length];
+    Arrays.fill(table, EMPTY);
+    for (int pos = 0; pos < end; pos++) {
+      if (slices[pos] != null) {
+        insert(keys[pos], pos);
+      }
+    }
+  }
+
+  /**
+   * Returns the slices, in the order they were added. The collection is a view of the map: its
+   * iterator supports removal, and adding a slice to the map during iteration makes the iterator
+   * throw ConcurrentModificationException.
+   */
+  public Collection<PptSlice> values() {
+    return new AbstractCollection<PptSlice>() {
+      @Override
+      public Iterator<PptSlice> iterator() {
+        return new SliceIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /** Iterates over the slices in insertion order. */
+  private final class SliceIterator implements Iterator<PptSlice> {
+    /** The index in {@link #keys} of the next entry to return, or of a hole before it. */
+    int next_pos = 0;
+    /** The index in {@link #keys} of the entry last returned, or -1. */
+    int last_pos = -1;
+    /** The mod_count that this iterator expects. */
+    int expected_mod_count = mod_count;
+
+    @Override
+    public boolean hasNext() {
+      while (next_pos < end && slices[next_pos] == null) {
+        next_pos++;
+      }
+      return next_pos < end;
+    }
+
+    @Override
+    public PptSlice next() {
+      if (mod_count != expected_mod_count) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last_pos = next_pos++;
+      @SuppressWarnings("nullness") // hasNext skipped the holes
+      PptSlice result = slices[last_pos];
+      return result;
+    }
+
+    @Override
+    public void remove() {
+      if (last_pos == -1) {
+        throw new IllegalStateException();
+      }
+      if (mod_count != expected_mod_count) {
+        throw new ConcurrentModificationException();
+      }
+      remove_at(last_pos);
+      last_pos = -1;
+    }
+  }
+
+  /** Checks that every slice can be found by its variables. Throws an Error if not. */
+  public void repCheck() {
+    int count = 0;
+    for (int pos = 0; pos < end; pos++) {
+      PptSlice slice = slices[pos];
+      if (slice != null) {
+        count++;
+        assert keys[pos] == key(slice.var_infos) : slice;
+        assert find(keys[pos]) == pos : slice;
+      }
+    }
+    assert count == size;
+  }
+}
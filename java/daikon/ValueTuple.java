@@ -12,24 +12,24 @@ import org.checkerframework.checker.nullness.qual.Raw;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
 import org.plumelib.util.ArraysPlume;
-import org.plumelib.util.Intern;
 import org.plumelib.util.MathPlume;
 
 /**
  * This data structure holds a tuple of values for a particular program point. VarInfo objects can
  * use this to get the values of the variables they represent.
  *
- * <p>It has two fields: vals and mods. While the arrays and their elements are interned, the
- * ValueTuple objects themselves are not interned.
+ * <p>It has two fields: vals and mods. The elements of vals are interned, but the arrays and the
+ * ValueTuple objects themselves are not. (Interning the arrays cost a hash table lookup per
+ * sample, and no client compares samples.)
  */
 public final class ValueTuple implements Cloneable {
 
   /** Debug tracer. */
   public static Logger debug = Logger.getLogger("daikon.ValueTuple");
 
-  // These arrays are interned, and so are their elements.
+  // The elements of this array are interned.
   // Each element is null only if it is missing (according to the mods array).
-  public @Nullable @Interned Object @Interned [] vals;
+  public @Nullable @Interned Object[] vals;
 
   // Could consider putting the mods array in the first slot of "vals", to
   // avoid the Object overhead of a pair of val and mods.
@@ -38,7 +38,7 @@ public final class ValueTuple implements Cloneable {
    * Modification bit per value, possibly packed into fewer ints than the vals field. Don't use a
    * single int because that won't scale to (say) more than 32 values.
    */
-  public int @Interned [] mods;
+  public int[] mods;
 
   // Right now there are only three meaningful values for a mod:
   /** Not modified. */
@@ -332,18 +332,11 @@ public final class ValueTuple implements Cloneable {
     }
   }
 
-  /** Default constructor that interns its argument. */
+  /**
+   * Default constructor. The elements of vals must be interned. The arrays are not copied, so the
+   * caller must not modify them afterward.
+   */
   public ValueTuple(@Nullable @Interned Object[] vals, int[] mods) {
-    this.vals = Intern.intern(vals);
-    this.mods = Intern.intern(mods);
-    checkRep();
-  }
-
-  // Private constructor that doesn't perform interning.
-  @SuppressWarnings("interning") // interning constructor
-  private ValueTuple(@Nullable Object[] vals, int[] mods, boolean check) {
-    assert (!check) || Intern.isInterned(vals);
-    assert (!check) || Intern.isInterned(mods);
     this.vals = vals;
     this.mods = mods;
     checkRep();
@@ -358,27 +351,22 @@ public final class ValueTuple implements Cloneable {
   }
 
   /**
-   * More convenient name for the constructor that doesn't intern. That is, the result is an
-   * <b>uninterned</b> ValueTuple.
+   * Constructor whose vals argument may contain uninterned elements.
    *
    * <p>This is not private because it is used (only) by read_data_trace_file, which makes a partial
-   * ValueTuple, fills it in with derived variables, and only then interns it; the alternative would
-   * be for derived variables to take separate vals and mods arguments. No one else should use it!
+   * ValueTuple, fills it in with derived variables, and only then makes the final ValueTuple; the
+   * alternative would be for derived variables to take separate vals and mods arguments. No one
+   * else should use it!
    */
-  @SuppressWarnings("interning") // interning constructor
+  @SuppressWarnings("interning") // elements are interned before the ValueTuple is used
   public static ValueTuple makeUninterned(@Nullable Object[] vals, int[] mods) {
-    return new ValueTuple(vals, mods, false);
-  }
-
-  /** Constructor that takes already-interned arguments. */
-  static ValueTuple makeFromInterned(@Nullable @Interned Object @Interned [] vals, int[] mods) {
-    return new ValueTuple(vals, mods, true);
+    return new ValueTuple(vals, mods);
   }
 
   // Like clone(), but avoids its problems of default access and returning
   // an Object.
   public ValueTuple shallowcopy() {
-    return ValueTuple.makeFromInterned(vals, mods);
+    return new ValueTuple(vals, mods);
   }
 
   // These definitions are intended to make different ValueTuples with the
@@ -389,7 +377,16 @@ public final class ValueTuple implements Cloneable {
   public boolean equals(@GuardSatisfied ValueTuple this, @GuardSatisfied @Nullable Object obj) {
     if (!(obj instanceof ValueTuple)) return false;
     ValueTuple other = (ValueTuple) obj;
-    return (vals == other.vals) && (mods == other.mods);
+    // The elements of vals are interned, so they can be compared by identity.
+    if (!Arrays.equals(mods, other.mods) || (vals.length != other.vals.length)) {
+      return false;
+    }
+    for (int i = 0; i < vals.length; i++) {
+      if (vals[i] != other.vals[i]) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Pure
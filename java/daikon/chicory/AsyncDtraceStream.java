@@ -0,0 +1,284 @@
+package daikon.chicory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.checkerframework.checker.lock.qual.GuardedBy;
+import org.checkerframework.checker.lock.qual.Holding;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * An output stream that hands what is written to it to a background thread, which writes it to
+ * another stream. Used by Chicory's {@code --async-dtrace} option, so that the compression and
+ * writing of the data trace are not done by the threads of the target program.
+ *
+ * <p>At most {@link #limit} bytes wait for the background thread. When that many are waiting, the
+ * {@link WhenFull} policy decides whether the next invocation is traced: see {@link #admit}.
+ */
+final class AsyncDtraceStream extends OutputStream {
+
+  /** What to do with an invocation when the background thread has fallen behind. */
+  enum WhenFull {
+    /** Trace it, waiting until the background thread catches up. */
+    BLOCK,
+    /** Do not trace it. */
+    DROP,
+    /** Trace one invocation in {@link #SAMPLE_RATE}, waiting as for BLOCK, and not the rest. */
+    SAMPLE
+  }
+
+  /** With {@link WhenFull#SAMPLE}, one invocation in this many is traced. */
+  static final int SAMPLE_RATE = 10;
+
+  /** The number of bytes collected before they are handed to the background thread. */
+  static final int CHUNK_SIZE = 64 * 1024;
+
+  /** The stream to which the background thread writes. */
+  private final OutputStream out;
+
+  /** The number of bytes that may wait for the background thread. */
+  private final long limit;
+
+  /** What to do when {@link #limit} bytes are waiting. */
+  private final WhenFull when_full;
+
+  /** The bytes written since the last chunk was handed to the background thread. */
+  private @GuardedBy("this") byte[] chunk = new byte[CHUNK_SIZE];
+
+  /** The number of bytes used in {@link #chunk}. */
+  private @GuardedBy("this") int chunk_len = 0;
+
+  /** The chunks that the background thread has not yet written, oldest first. */
+  private final @GuardedBy("this") Deque<byte[]> queue = new ArrayDeque<byte[]>();
+
+  /** The number of bytes in {@link #queue}, plus those being written by the background thread. */
+  private @GuardedBy("this") long queued_bytes = 0;
+
+  /** True if the background thread should flush {@link #out} once the queue is empty. */
+  private @GuardedBy("this") boolean flush_requested = false;
+
+  /** True once {@link #close} has been called. */
+  private @GuardedBy("this") boolean closed = false;
+
+  /** The error with which the background thread stopped, or null if it has not failed. */
+  private @GuardedBy("this") @Nullable IOException failure = null;
+
+  /** The number of invocations that were not traced because the background thread fell behind. */
+  private @GuardedBy("this") long dropped = 0;
+
+  /** Counts the invocations that arrive while full, for {@link WhenFull#SAMPLE}. */
+  private @GuardedBy("this") long arrived_while_full = 0;
+
+  /** The background thread. */
+  private final Thread writer;
+
+  /**
+   * Creates a stream and starts its background thread.
+   *
+   * @param out the stream to which the background thread writes
+   * @param limit the number of bytes that may wait for the background thread
+   * @param when_full what to do with an invocation when that many are waiting
+   */
+  AsyncDtraceStream(OutputStream out, long limit, WhenFull when_full) {
+    this.out = out;
+    this.limit = limit;
+    this.when_full = when_full;
+    writer =
+        new Thread("chicory-dtrace-writer") {
+          @Override
+          public void run() {
+            write_chunks();
+          }
+        };
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Returns true if the next invocation should be traced, and false if it should not be because
+   * the background thread has fallen behind. If this returns false, neither the entry nor the exit
+   * of the invocation should be written, so that every exit in the trace matches an entry.
+   */
+  synchronized boolean admit() {
+    if (queued_bytes < limit) {
+      return true;
+    }
+    switch (when_full) {
+      case BLOCK:
+        return true;
+      case SAMPLE:
+        if (arrived_while_full++ % SAMPLE_RATE == 0) {
+          return true;
+        }
+        break;
+      default:
+        break;
+    }
+    dropped++;
+    return false;
+  }
+
+  /** Returns the number of invocations for which {@link #admit} returned false. */
+  synchronized long dropped() {
+    return dropped;
+  }
+
+  @Override
+  public synchronized void write(int b) throws IOException {
+    check_open();
+    if (chunk_len == chunk.length) {
+      hand_off();
+    }
+    chunk[chunk_len++] = (byte) b;
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    check_open();
+    while (len > 0) {
+      if (chunk_len == chunk.length) {
+        hand_off();
+      }
+      int n = Math.min(len, chunk.length - chunk_len);
+      System.arraycopy(b, off, chunk, chunk_len, n);
+      chunk_len += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /** Hands what was written so far to the background thread, which flushes the other stream. */
+  @Override
+  public synchronized void flush() throws IOException {
+    check_open();
+    hand_off();
+    flush_requested = true;
+    notifyAll();
+  }
+
+  /**
+   * Waits until the background thread has written everything, then closes the other stream.
+   *
+   * @throws IOException if the background thread could not write to the other stream
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    if (failure == null) {
+      hand_off();
+    }
+    closed = true;
+    notifyAll();
+    while (queued_bytes > 0 && failure == null) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    try {
+      out.close();
+    } finally {
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  /** Throws an exception if the stream is closed or the background thread has failed. */
+  @Holding("this")
+  private void check_open() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    if (closed) {
+      throw new IOException("stream closed");
+    }
+  }
+
+  /**
+   * Hands {@link #chunk} to the background thread. Unless the policy is {@link WhenFull#DROP},
+   * first waits until fewer than {@link #limit} bytes are waiting; with DROP, {@link #admit} keeps
+   * the queue from growing much beyond the limit.
+   */
+  @Holding("this")
+  private void hand_off() throws IOException {
+    if (chunk_len == 0) {
+      return;
+    }
+    while (when_full != WhenFull.DROP && queued_bytes >= limit && failure == null) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    byte[] full;
+    if (chunk_len == chunk.length) {
+      full = chunk;
+      chunk = new byte[CHUNK_SIZE];
+    } else {
+      full = new byte[chunk_len];
+      System.arraycopy(chunk, 0, full, 0, chunk_len);
+    }
+    queue.add(full);
+    queued_bytes += full.length;
+    chunk_len = 0;
+    notifyAll();
+  }
+
+  /** The body of the background thread. */
+  private void write_chunks() {
+    while (true) {
+      byte[] next;
+      boolean flush;
+      synchronized (this) {
+        while (queue.isEmpty() && !flush_requested && !closed) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            // Keep going: the trace must still be written.
+          }
+        }
+        if (queue.isEmpty() && closed) {
+          return;
+        }
+        next = queue.poll();
+        flush = (next == null) || (queue.isEmpty() && flush_requested);
+        if (flush) {
+          flush_requested = false;
+        }
+      }
+      try {
+        if (next != null) {
+          out.write(next);
+        }
+        if (flush) {
+          out.flush();
+        }
+      } catch (IOException e) {
+        synchronized (this) {
+          failure = e;
+          queue.clear();
+          queued_bytes = 0;
+          notifyAll();
+        }
+        return;
+      }
+      if (next != null) {
+        synchronized (this) {
+          queued_bytes -= next.length;
+          notifyAll();
+        }
+      }
+    }
+  }
+}
@@ -9,9 +9,11 @@ import daikon.Chicory;
 import daikon.util.UtilPlume;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.lang.reflect.Member;
@@ -23,6 +25,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.jar.JarFile;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNullIf;
@@ -81,6 +84,12 @@ public class ChicoryPremain {
       Runtime.debug = true;
     }
 
+    if (Chicory.async_dtrace) {
+      Runtime.async_dtrace_limit = 1024L * Chicory.async_dtrace_limit;
+      Runtime.async_dtrace_when_full =
+          AsyncDtraceStream.WhenFull.valueOf(Chicory.async_dtrace_full.toUpperCase(Locale.ROOT));
+    }
+
     // Open the dtrace file
     if (Chicory.daikon_online) {
       Runtime.setDtraceOnlineMode(daikon_port);
@@ -97,6 +106,7 @@ public class ChicoryPremain {
     Runtime.ppt_omit_pattern = Chicory.ppt_omit_pattern;
     Runtime.ppt_select_pattern = Chicory.ppt_select_pattern;
     Runtime.sample_start = Chicory.sample_start;
+    Runtime.sample_target = Chicory.sample_target;
     DaikonVariableInfo.std_visibility = Chicory.std_visibility;
     DaikonVariableInfo.debug_vars.enabled = Chicory.debug_decl_print;
     if (Chicory.comparability_file != null) {
@@ -159,12 +169,20 @@ public class ChicoryPremain {
   // of synchronization and their references to dtrace do not need to
   // be annotated with @GuardedBy("<self>").
   @SuppressWarnings("lock:argument.type.incompatible")
-  private static void initializeDeclAndDTraceWriters() {
+  private static void initializeDeclAndDTraceWriters() throws IOException {
     // The include/exclude filter are implemented in the transform,
     // so they don't need to be handled here.
     // (It looks like these can be called even if Runtime.dtrace is null...)
-    Runtime.decl_writer = new DeclWriter(Runtime.dtrace);
-    Runtime.dtrace_writer = new DTraceWriter(Runtime.dtrace);
+    if (Chicory.binary_dtrace && !Chicory.daikon_online && (Runtime.dtrace != null)) {
+      // Declarations are collected as text and written as records of the binary trace.
+      Runtime.decl_buffer = new ByteArrayOutputStream();
+      Runtime.decl_writer = new DeclWriter(new PrintStream(Runtime.decl_buffer, true, "UTF-8"));
+      Runtime.dtrace_writer = new DTraceWriter(Runtime.dtrace, true);
+    } else {
+      Runtime.decl_writer = new DeclWriter(Runtime.dtrace);
+      Runtime.dtrace_writer = new DTraceWriter(Runtime.dtrace);
+      Runtime.thread_buffers = Chicory.thread_buffers && (Runtime.dtrace != null);
+    }
   }
 
   /**
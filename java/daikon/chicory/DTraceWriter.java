@@ -1,12 +1,20 @@
 package daikon.chicory;
 
+import daikon.BinaryDtrace;
 import daikon.Chicory;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Member;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -36,6 +44,21 @@ public class DTraceWriter extends DaikonWriter {
   /** instance of a nonsensical list */
   private static List<Object> nonsenseList = NonsensicalList.getInstance();
 
+  /** Maps each primitive type to the class that {@link #getter} wraps its values in. */
+  private static final Map<Class<?>, Class<?>> primitiveWrappers =
+      new HashMap<Class<?>, Class<?>>();
+
+  static {
+    primitiveWrappers.put(int.class, Runtime.IntWrap.class);
+    primitiveWrappers.put(long.class, Runtime.LongWrap.class);
+    primitiveWrappers.put(boolean.class, Runtime.BooleanWrap.class);
+    primitiveWrappers.put(float.class, Runtime.FloatWrap.class);
+    primitiveWrappers.put(byte.class, Runtime.ByteWrap.class);
+    primitiveWrappers.put(char.class, Runtime.CharWrap.class);
+    primitiveWrappers.put(short.class, Runtime.ShortWrap.class);
+    primitiveWrappers.put(double.class, Runtime.DoubleWrap.class);
+  }
+
   // certain class names
   protected static final String classClassName = "java.lang.Class";
   protected static final String stringClassName = "java.lang.String";
@@ -43,6 +66,24 @@ public class DTraceWriter extends DaikonWriter {
   /** Where to print output. */
   private PrintStream outFile;
 
+  /** Where to write binary output, or null if the trace is written as text. */
+  private BinaryDtrace.@Nullable Writer binaryOut = null;
+
+  /** The program point of the binary record being collected. */
+  private String binaryPptName;
+
+  /** The nonce of the binary record being collected. */
+  private int binaryNonce;
+
+  /** The variables of the binary record being collected. */
+  private final List<DaikonVariableInfo> binaryVars = new ArrayList<DaikonVariableInfo>();
+
+  /** The runtime values of binaryVars; they are encoded without being formatted as text. */
+  private final List<@Nullable Object> binaryValues = new ArrayList<@Nullable Object>();
+
+  /** The binary type codes of the variables of each program point written in binary. */
+  private final Map<String, byte[]> binaryTypes = new HashMap<String, byte[]>();
+
   /** debug information about daikon variables */
   private boolean debug_vars = false;
 
@@ -56,6 +97,46 @@ public class DTraceWriter extends DaikonWriter {
     outFile = writer;
   }
 
+  /**
+   * Initializes the DTraceWriter.
+   *
+   * @param writer stream to write to
+   * @param binary if true, write the binary format of {@link BinaryDtrace} instead of text
+   */
+  public DTraceWriter(PrintStream writer, boolean binary) throws IOException {
+    this(writer);
+    if (binary) {
+      binaryOut = new BinaryDtrace.Writer(writer);
+    }
+  }
+
+  /** Returns true if this writes the binary trace format. */
+  public boolean isBinary(@GuardSatisfied DTraceWriter this) {
+    return binaryOut != null;
+  }
+
+  /**
+   * Writes declarations (in the textual format of {@link DeclWriter}) to a binary trace.
+   *
+   * @param decls the text of one or more declaration records
+   */
+  public void writeDecls(@GuardSatisfied DTraceWriter this, String decls) {
+    try {
+      binaryOut.write_decls(decls);
+    } catch (IOException e) {
+      throw new Error("Problem writing declarations to binary trace", e);
+    }
+  }
+
+  /** Ends a binary trace and closes the underlying stream. */
+  public void closeBinary(@GuardSatisfied DTraceWriter this) {
+    try {
+      binaryOut.close();
+    } catch (IOException e) {
+      throw new Error("Problem closing binary trace", e);
+    }
+  }
+
   /** Prints the method entry program point in the dtrace file. */
   public void methodEntry(
       @GuardSatisfied DTraceWriter this,
@@ -82,11 +163,9 @@ public class DTraceWriter extends DaikonWriter {
       stack.fillInStackTrace();
       stack.printStackTrace(System.out);
     }
-    outFile.println(DaikonWriter.methodEntryName(member));
-    printNonce(nonceVal);
+    beginRecord(DaikonWriter.methodEntryName(member), nonceVal);
     traverse(mi, root, args, obj, nonsenseValue);
-
-    outFile.println();
+    endRecord();
 
     Runtime.incrementRecords();
   }
@@ -97,9 +176,8 @@ public class DTraceWriter extends DaikonWriter {
     if (Runtime.dtrace_closed) {
       return;
     }
-    outFile.println(pptname);
-    printNonce(nonceVal);
-    outFile.println();
+    beginRecord(pptname, nonceVal);
+    endRecord();
     Runtime.incrementRecords();
   }
 
@@ -137,11 +215,9 @@ public class DTraceWriter extends DaikonWriter {
               + "No exit locations found in exit_locations set!");
     }
 
-    outFile.println(DaikonWriter.methodExitName(member, lineNum));
-    printNonce(nonceVal);
+    beginRecord(DaikonWriter.methodExitName(member, lineNum), nonceVal);
     traverse(mi, root, args, obj, ret_val);
-
-    outFile.println();
+    endRecord();
 
     Runtime.incrementRecords();
   }
@@ -152,9 +228,8 @@ public class DTraceWriter extends DaikonWriter {
     if (Runtime.dtrace_closed) {
       return;
     }
-    outFile.println(pptname);
-    printNonce(nonceVal);
-    outFile.println();
+    beginRecord(pptname, nonceVal);
+    endRecord();
     Runtime.incrementRecords();
   }
 
@@ -164,6 +239,218 @@ public class DTraceWriter extends DaikonWriter {
     outFile.println(val);
   }
 
+  /** Starts a record for the given program point; its variables follow. */
+  private void beginRecord(@GuardSatisfied DTraceWriter this, String pptname, int nonceVal) {
+    if (binaryOut == null) {
+      outFile.println(pptname);
+      printNonce(nonceVal);
+    } else {
+      binaryPptName = pptname;
+      binaryNonce = nonceVal;
+      binaryVars.clear();
+      binaryValues.clear();
+    }
+  }
+
+  /** Prints one variable of the current record. */
+  private void printVariable(
+      @GuardSatisfied DTraceWriter this, DaikonVariableInfo curInfo, Object val) {
+    if (binaryOut == null) {
+      outFile.println(curInfo.getName());
+      outFile.println(curInfo.getDTraceValueString(val));
+    } else {
+      binaryVars.add(curInfo);
+      binaryValues.add(val);
+    }
+  }
+
+  /** Ends the current record. */
+  private void endRecord(@GuardSatisfied DTraceWriter this) {
+    if (binaryOut == null) {
+      outFile.println();
+    } else {
+      try {
+        writeBinaryRecord();
+      } catch (IOException e) {
+        throw new Error("Problem writing binary trace record for " + binaryPptName, e);
+      }
+    }
+  }
+
+  /**
+   * Writes the record collected since {@link #beginRecord} to the binary trace, defining its
+   * program point the first time it is seen. Each value is encoded directly from its runtime
+   * value, as the value that Daikon reads from the text of a textual trace, so both formats yield
+   * identical samples.
+   */
+  private void writeBinaryRecord(@GuardSatisfied DTraceWriter this) throws IOException {
+    int id = binaryOut.ppt_id(binaryPptName);
+    byte[] types;
+    if (id == -1) {
+      List<String> names = new ArrayList<String>(binaryVars.size());
+      types = new byte[binaryVars.size()];
+      for (int i = 0; i < types.length; i++) {
+        DaikonVariableInfo vi = binaryVars.get(i);
+        names.add(vi.getName());
+        types[i] = binaryTypeCode(vi.getRepTypeNameOnly());
+      }
+      id = binaryOut.define_ppt(binaryPptName, names, types);
+      binaryTypes.put(binaryPptName, types);
+    } else {
+      types = binaryTypes.get(binaryPptName);
+    }
+
+    @Nullable Object[] vals = new @Nullable Object[types.length];
+    int[] mods = new int[types.length];
+    for (int i = 0; i < types.length; i++) {
+      Object val = binaryValue(binaryVars.get(i), types[i], binaryValues.get(i));
+      if (val == nonsenseValue) {
+        mods[i] = 2;
+      } else {
+        vals[i] = val;
+        mods[i] = 1;
+      }
+    }
+    binaryOut.write_sample(id, binaryNonce, vals, mods);
+  }
+
+  // The methods below duplicate parts of daikon.ProglangType, because Chicory must not load
+  // Daikon's own classes into the instrumented program.
+
+  /** Returns the binary type code for a rep type as written in a declaration. */
+  private static byte binaryTypeCode(String repType) {
+    boolean isArray = repType.endsWith("[]");
+    String base = isArray ? repType.substring(0, repType.length() - 2) : repType;
+    if (base.endsWith("[]")) {
+      throw new Error("No binary encoding for type " + repType);
+    }
+    if (base.equals("double") || base.equals("float")) {
+      return isArray ? BinaryDtrace.TYPE_DOUBLE_ARRAY : BinaryDtrace.TYPE_DOUBLE;
+    } else if (base.equals(stringClassName)) {
+      return isArray ? BinaryDtrace.TYPE_STRING_ARRAY : BinaryDtrace.TYPE_STRING;
+    } else {
+      return isArray ? BinaryDtrace.TYPE_INT_ARRAY : BinaryDtrace.TYPE_INT;
+    }
+  }
+
+  /**
+   * Returns the value of a variable in the form expected by {@link
+   * BinaryDtrace.Writer#write_sample}: the value that Daikon reads from the text that {@link
+   * DaikonVariableInfo#getDTraceValueString} prints for it, without formatting that text. Returns
+   * {@link #nonsenseValue} if the variable is nonsensical (modbit 2), and null for a missing value.
+   *
+   * @param vi the variable
+   * @param type the binary type code of vi
+   * @param val the runtime value of vi, as passed to getDTraceValueString
+   */
+  @SuppressWarnings("unchecked")
+  private static @Nullable Object binaryValue(
+      DaikonVariableInfo vi, byte type, @Nullable Object val) {
+    if (vi instanceof DaikonClassInfo) {
+      // Mirrors DaikonClassInfo.getDTraceValueString.
+      if (val == null || val instanceof NonsensicalObject) {
+        return nonsenseValue;
+      } else if (!vi.isArray) {
+        return stdClassName(val.getClass());
+      }
+      List<String> names = getTypeNameList((List<Object>) val);
+      return (names == null) ? nonsenseValue : binaryStringArray(names);
+    } else if (vi instanceof StringInfo) {
+      // Mirrors StringInfo.getDTraceValueString.
+      if (vi.isArray) {
+        return binaryStringArray((List<?>) val);
+      }
+      return (val instanceof NonsensicalObject) ? nonsenseValue : val;
+    } else if (type == BinaryDtrace.TYPE_STRING || type == BinaryDtrace.TYPE_STRING_ARRAY) {
+      throw new Error("No binary encoding for variable " + vi.getName() + " of type " + type);
+    }
+
+    // Mirrors DaikonVariableInfo.getDTraceValueString, which prints primitives and hash codes.
+    if (!vi.isArray) {
+      return (val instanceof NonsensicalObject) ? nonsenseValue : binaryNumber(type, val);
+    } else if (val == null) {
+      return null;
+    } else if (val instanceof NonsensicalList) {
+      return nonsenseValue;
+    }
+    List<Object> elts = (List<Object>) val;
+    if (type == BinaryDtrace.TYPE_INT_ARRAY) {
+      long[] result = new long[elts.size()];
+      for (int i = 0; i < result.length; i++) {
+        Object elt = elts.get(i);
+        if (elt instanceof NonsensicalObject) {
+          return null;
+        }
+        result[i] = (Long) binaryNumber(BinaryDtrace.TYPE_INT, elt);
+      }
+      return result;
+    } else {
+      double[] result = new double[elts.size()];
+      for (int i = 0; i < result.length; i++) {
+        Object elt = elts.get(i);
+        if (elt instanceof NonsensicalObject) {
+          return null;
+        }
+        result[i] = (Double) binaryNumber(BinaryDtrace.TYPE_DOUBLE, elt);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Returns the value of a variable or element that {@link DaikonVariableInfo} prints as a number,
+   * as a Long or a Double according to type. Booleans are 0 or 1, a null reference is 0, and any
+   * other object is its hash code.
+   */
+  private static Object binaryNumber(byte type, @Nullable Object val) {
+    long l;
+    if (val == null) {
+      l = 0;
+    } else if (val instanceof Runtime.PrimitiveWrapper) {
+      Object wrapped = ((Runtime.PrimitiveWrapper) val).getJavaWrapper();
+      if (wrapped instanceof Float) {
+        // The text is Float.toString, which Daikon reads as the nearest double.
+        return Double.valueOf(wrapped.toString());
+      } else if (wrapped instanceof Double) {
+        return wrapped;
+      } else if (wrapped instanceof Boolean) {
+        l = ((Boolean) wrapped) ? 1 : 0;
+      } else if (wrapped instanceof Character) {
+        l = ((Character) wrapped).charValue();
+      } else {
+        l = ((Number) wrapped).longValue();
+      }
+    } else {
+      l = System.identityHashCode(val);
+    }
+    if (type == BinaryDtrace.TYPE_DOUBLE) {
+      return Double.valueOf(l);
+    } else {
+      return Long.valueOf(l);
+    }
+  }
+
+  /**
+   * Returns the elements of a string array, as printed by {@link StringInfo#getStringList}. A
+   * nonsensical element makes the whole array missing, as it does when Daikon reads the text.
+   */
+  private static @Nullable Object binaryStringArray(@Nullable List<?> strs) {
+    if (strs == null) {
+      return null;
+    } else if (NonsensicalList.isNonsensicalList(strs)) {
+      return nonsenseValue;
+    }
+    @Nullable String[] result = new @Nullable String[strs.size()];
+    for (int i = 0; i < result.length; i++) {
+      Object elt = strs.get(i);
+      if (elt instanceof NonsensicalObject || elt instanceof NonsensicalList) {
+        return null;
+      }
+      result[i] = (String) elt;
+    }
+    return result;
+  }
+
   /**
    * Prints the method's return value and all relevant variables. Uses the tree of
    * DaikonVariableInfo objects.
@@ -215,14 +502,14 @@ public class DTraceWriter extends DaikonWriter {
     }
   }
 
+
   // traverse from the traversal pattern data structure and recurse
   private void traverseValue(
       @GuardSatisfied DTraceWriter this, MethodInfo mi, DaikonVariableInfo curInfo, Object val) {
 
     if (curInfo.dTraceShouldPrint()) {
       if (!(curInfo instanceof StaticObjInfo)) {
-        outFile.println(curInfo.getName());
-        outFile.println(curInfo.getDTraceValueString(val));
+        printVariable(curInfo, val);
       }
 
       if (debug_vars) {
@@ -352,6 +639,96 @@ public class DTraceWriter extends DaikonWriter {
     }
   }
 
+  /**
+   * Returns a method handle that reads the given field, wrapping a primitive value as {@link
+   * #getValue} does. For an instance field its type is (Object)Object, taking the object whose
+   * field is read; for a static field its type is ()Object. The access checks and the dispatch on
+   * the type of the field are done once, here, rather than each time the field is read.
+   *
+   * @param classField the field to read
+   * @return a method handle that reads classField
+   */
+  public static MethodHandle getter(Field classField) {
+    if (!classField.isAccessible()) classField.setAccessible(true);
+
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      MethodHandle getter = lookup.unreflectGetter(classField);
+      Class<?> fieldType = classField.getType();
+      if (fieldType.isPrimitive()) {
+        Class<?> wrapType = primitiveWrappers.get(fieldType);
+        getter =
+            MethodHandles.filterReturnValue(
+                getter,
+                lookup.findConstructor(wrapType, MethodType.methodType(void.class, fieldType)));
+      }
+      if (Modifier.isStatic(classField.getModifiers())) {
+        return getter.asType(MethodType.methodType(Object.class));
+      } else {
+        return getter.asType(MethodType.methodType(Object.class, Object.class));
+      }
+    } catch (IllegalAccessException e) {
+      throw new Error(e);
+    } catch (NoSuchMethodException e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * Like {@link #getFieldValues(Field, List)}, but reads the field with a method handle returned by
+   * {@link #getter}.
+   */
+  public static List<Object> getFieldValues(MethodHandle getter, List<Object> theObjects) {
+    if (theObjects == null || theObjects instanceof NonsensicalList) {
+      return nonsenseList;
+    }
+
+    List<Object> fieldVals = new ArrayList<Object>(theObjects.size());
+
+    for (Object theObj : theObjects) {
+      if (theObj == null) {
+        fieldVals.add(nonsenseValue);
+      } else {
+        fieldVals.add(getValue(getter, theObj));
+      }
+    }
+
+    return fieldVals;
+  }
+
+  /**
+   * Like {@link #getValue(Field, Object)}, but reads the field with a method handle returned by
+   * {@link #getter}.
+   */
+  public static Object getValue(MethodHandle getter, Object theObj) {
+    // if we don't have a real object, return NonsensicalValue
+    if ((theObj == null) || (theObj instanceof NonsensicalObject)) {
+      return nonsenseValue;
+    }
+
+    try {
+      return (Object) getter.invokeExact(theObj);
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * Like {@link #getStaticValue(Field)}, but reads the field with a method handle returned by
+   * {@link #getter}. The caller must check that the class of the field is initialized.
+   */
+  public static Object getStaticValue(MethodHandle getter) {
+    try {
+      return (Object) getter.invokeExact();
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new Error(e);
+    }
+  }
+
   /**
    * Return a List derived from an aray.
    *
@@ -1,6 +1,8 @@
 package daikon.chicory;
 
+import daikon.Chicory;
 import daikon.dcomp.DCRuntime;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.EnumSet;
@@ -33,6 +35,15 @@ public class FieldInfo extends DaikonVariableInfo {
   /** whether or not this field is an outer this variable */
   private boolean is_outer_this;
 
+  /**
+   * Reads this field; see {@link DTraceWriter#getter}. Made the first time the field is traced, so
+   * that later reads need no reflective lookups or access checks.
+   */
+  private @MonotonicNonNull MethodHandle getter = null;
+
+  /** True once the class that declares this static field is known to be initialized. */
+  private boolean class_initialized = false;
+
   /**
    * Class that gets the tags for fields. Used by DynComp. Accessed only by methods
    * DCRuntime.get_field_tag and DCRuntime.get_field_tag_refs_only.
@@ -106,15 +117,27 @@ public class FieldInfo extends DaikonVariableInfo {
   @Override
   @SuppressWarnings("unchecked")
   public Object getMyValFromParentVal(Object val) {
+    MethodHandle getter = this.getter;
+    if (getter == null) {
+      getter = DTraceWriter.getter(field);
+      this.getter = getter;
+    }
     if (isArray) {
       @SuppressWarnings("unchecked")
       List<Object> valAsList = (List<Object>) val;
-      return DTraceWriter.getFieldValues(field, valAsList);
+      return DTraceWriter.getFieldValues(getter, valAsList);
     } else {
-      if (Modifier.isStatic(field.getModifiers())) {
-        return DTraceWriter.getStaticValue(field);
+      if (is_static) {
+        if (Chicory.checkStaticInit && !class_initialized) {
+          // don't force initialization!
+          if (!Runtime.isInitialized(field.getDeclaringClass().getName())) {
+            return NonsensicalObject.getInstance();
+          }
+          class_initialized = true;
+        }
+        return DTraceWriter.getStaticValue(getter);
       } else {
-        return DTraceWriter.getValue(field, val);
+        return DTraceWriter.getValue(getter, val);
       }
     }
   }
@@ -1195,6 +1195,8 @@ class Instrument extends InstructionListUtils implements ClassFileTransformer {
       return true;
     }
     if (classname.equals("daikon/PptTopLevel$PptType")) return true;
+    // Used to write binary traces.
+    if (classname.startsWith("daikon/BinaryDtrace")) return true;
     if (classname.startsWith("org/plumelib/bcelutil")) return true;
     if (classname.startsWith("daikon/util")) return true;
     return false;
@@ -1,11 +1,13 @@
 package daikon.chicory;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -20,8 +22,10 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
@@ -92,7 +96,7 @@ public class Runtime {
   static long dtraceLimit = Long.MAX_VALUE;
 
   /** Number of records printed to date. */
-  static long printedRecords = 0;
+  static final AtomicLong printedRecords = new AtomicLong();
 
   /** Terminate the program when the dtrace limit is reached. */
   static boolean dtraceLimitTerminate = false;
@@ -108,6 +112,33 @@ public class Runtime {
   /** True if no dtrace is being generated. */
   static boolean no_dtrace = false;
 
+  /**
+   * If true, each thread buffers its own records and call stack in a {@link ThreadBuffer} instead
+   * of holding the lock on Runtime.class while it writes them. Set from Chicory's {@code
+   * --thread-buffers} option, for textual traces only.
+   */
+  static boolean thread_buffers = false;
+
+  /**
+   * If positive, the dtrace file is compressed and written by a background thread, and this many
+   * bytes may wait for it. Set from Chicory's {@code --async-dtrace} options before the dtrace file
+   * is opened.
+   */
+  static long async_dtrace_limit = 0;
+
+  /** What to do when async_dtrace_limit bytes are waiting for the background thread. */
+  static AsyncDtraceStream.WhenFull async_dtrace_when_full = AsyncDtraceStream.WhenFull.BLOCK;
+
+  /** The stream that hands the dtrace output to the background thread, or null if there is none. */
+  static @Nullable AsyncDtraceStream dtrace_async = null;
+
+  /**
+   * The nonces of invocations whose entries were not traced because the background thread had
+   * fallen behind, so that their exits are not traced either. Only used when not sampling.
+   */
+  private static final @GuardedBy("Runtime.class") Set<Integer> dropped_nonces =
+      new HashSet<Integer>();
+
   static String method_indent = "";
 
   /** Decl writer setup for writing to the trace file. */
@@ -118,6 +149,13 @@ public class Runtime {
   // Set in ChicoryPremain.premain().
   static @GuardedBy("Runtime.class") DTraceWriter dtrace_writer;
 
+  /**
+   * Holds the declarations printed by decl_writer until they are written to a binary trace. Null
+   * if the trace is textual, in which case decl_writer prints directly to dtrace.
+   */
+  // Set in ChicoryPremain.premain().
+  static @Nullable ByteArrayOutputStream decl_buffer = null;
+
   /**
    * Which static initializers have been run. Each element of the Set is a fully qualified class
    * name.
@@ -125,13 +163,12 @@ public class Runtime {
   private static Set<String> initSet = new HashSet<String>();
 
   /** Class of information about each active call. */
-  private static class CallInfo {
+  static class CallInfo {
     /** nonce of call */
     int nonce;
     /** whether or not the call was captured on enter */
     boolean captured;
 
-    @Holding("Runtime.class")
     public CallInfo(int nonce, boolean captured) {
       this.nonce = nonce;
       this.captured = captured;
@@ -149,6 +186,20 @@ public class Runtime {
    */
   public static int sample_start = 0;
 
+  /**
+   * If positive, each call of a method is recorded with probability min(1, sample_target / n),
+   * where n is the number of calls of the method so far. The first sample_target calls are all
+   * recorded; after n calls, about sample_target * (1 + ln(n / sample_target)) have been. Takes
+   * precedence over sample_start.
+   */
+  public static int sample_target = 0;
+
+  /**
+   * Decides which calls are recorded when sample_target is positive. Seeded, so that the same
+   * calls are recorded each time a deterministic program is run.
+   */
+  private static final Random sample_random = new Random(20261018L);
+
   // Constructor
   private Runtime() {
     throw new Error("Do not create instances of Runtime");
@@ -204,7 +255,16 @@ public class Runtime {
    * @param mi_index index in methods of the MethodInfo for this method
    * @param args array of arguments to method
    */
-  public static synchronized void enter(
+  public static void enter(@Nullable Object obj, int nonce, int mi_index, Object[] args) {
+    if (thread_buffers) {
+      enterBuffered(obj, nonce, mi_index, args);
+    } else {
+      enterSynchronized(obj, nonce, mi_index, args);
+    }
+  }
+
+  /** Implements {@link #enter} while holding the lock on Runtime.class. */
+  private static synchronized void enterSynchronized(
       @Nullable Object obj, int nonce, int mi_index, Object[] args) {
 
     MethodInfo mi = null;
@@ -242,19 +302,9 @@ public class Runtime {
       mi.call_cnt++;
 
       // If sampling, check to see if we are capturing this sample
-      boolean capture = true;
-      if (sample_start > 0) {
-        if (mi.call_cnt <= sample_start) {
-          // nothing to do
-        } else if (mi.call_cnt <= (sample_start * 10)) {
-          capture = (mi.call_cnt % 10) == 0;
-        } else if (mi.call_cnt <= (sample_start * 100)) {
-          capture = (mi.call_cnt % 100) == 0;
-        } else if (mi.call_cnt <= (sample_start * 1000)) {
-          capture = (mi.call_cnt % 1000) == 0;
-        } else {
-          capture = (mi.call_cnt % 10000) == 0;
-        }
+      boolean capture;
+      if (sampling()) {
+        capture = isSampled(mi.call_cnt) && admit(nonce, dropped_nonces);
         Thread t = Thread.currentThread();
         Deque<CallInfo> callstack = thread_to_callstack.get(t);
         if (callstack == null) {
@@ -262,6 +312,8 @@ public class Runtime {
           thread_to_callstack.put(t, callstack);
         }
         callstack.push(new CallInfo(nonce, capture));
+      } else {
+        capture = admit(nonce, dropped_nonces);
       }
 
       if (capture) {
@@ -294,7 +346,22 @@ public class Runtime {
    * @param ret_val return value of method, or null if method is void
    * @param exitLineNum the line number at which this method exited
    */
-  public static synchronized void exit(
+  public static void exit(
+      @Nullable Object obj,
+      int nonce,
+      int mi_index,
+      Object[] args,
+      Object ret_val,
+      int exitLineNum) {
+    if (thread_buffers) {
+      exitBuffered(obj, nonce, mi_index, args, ret_val, exitLineNum);
+    } else {
+      exitSynchronized(obj, nonce, mi_index, args, ret_val, exitLineNum);
+    }
+  }
+
+  /** Implements {@link #exit} while holding the lock on Runtime.class. */
+  private static synchronized void exitSynchronized(
       @Nullable Object obj,
       int nonce,
       int mi_index,
@@ -332,8 +399,13 @@ public class Runtime {
         process_new_classes();
       }
 
+      // Skip this call if it was not traced at entry to the method
+      if (!dropped_nonces.isEmpty() && dropped_nonces.remove(nonce)) {
+        return;
+      }
+
       // Skip this call if it was not sampled at entry to the method
-      if (sample_start > 0) {
+      if (sampling()) {
         CallInfo ci = null;
         @SuppressWarnings("nullness") // map: key was put in map by enter()
         @NonNull Deque<CallInfo> callstack = thread_to_callstack.get(Thread.currentThread());
@@ -372,6 +444,150 @@ public class Runtime {
     }
   }
 
+  /**
+   * Implements {@link #enter} when each thread buffers its own records. Only the first call of each
+   * method in each thread takes a global lock, to write the declarations of new classes.
+   */
+  private static void enterBuffered(@Nullable Object obj, int nonce, int mi_index, Object[] args) {
+    ThreadBuffer buffer = ThreadBuffer.get();
+
+    // Ignore this call if this thread is already processing a dtrace record
+    if (buffer.in_dtrace) return;
+
+    // Note that we are processing a dtrace record until we return
+    buffer.in_dtrace = true;
+    try {
+      MethodInfo mi = buffer.method(mi_index);
+
+      // If sampling, check to see if we are capturing this sample.  The
+      // counts are shared by all threads.
+      boolean capture;
+      if (sampling()) {
+        synchronized (mi) {
+          mi.call_cnt++;
+          capture = isSampled(mi.call_cnt) && admit(nonce, buffer.dropped_nonces);
+          if (capture) {
+            mi.capture_cnt++;
+          }
+        }
+        buffer.callstack.push(new CallInfo(nonce, capture));
+      } else {
+        capture = admit(nonce, buffer.dropped_nonces);
+      }
+
+      if (capture) {
+        if (mi.member == null) {
+          buffer.dtrace_writer.clinitEntry(mi.class_info.class_name + ".<clinit>:::ENTER", nonce);
+        } else {
+          buffer.dtrace_writer.methodEntry(mi, nonce, obj, args);
+        }
+        buffer.end_record();
+        checkRecordLimit();
+      }
+    } finally {
+      buffer.in_dtrace = false;
+    }
+  }
+
+  /** Implements {@link #exit} when each thread buffers its own records. */
+  private static void exitBuffered(
+      @Nullable Object obj,
+      int nonce,
+      int mi_index,
+      Object[] args,
+      Object ret_val,
+      int exitLineNum) {
+    ThreadBuffer buffer = ThreadBuffer.get();
+
+    // Ignore this call if this thread is already processing a dtrace record
+    if (buffer.in_dtrace) return;
+
+    // Note that we are processing a dtrace record until we return
+    buffer.in_dtrace = true;
+    try {
+      MethodInfo mi = buffer.method(mi_index);
+
+      // Skip this call if it was not traced at entry to the method
+      if (!buffer.dropped_nonces.isEmpty() && buffer.dropped_nonces.remove(nonce)) {
+        return;
+      }
+
+      // Skip this call if it was not sampled at entry to the method
+      if (sampling()) {
+        CallInfo ci = null;
+        while (!buffer.callstack.isEmpty()) {
+          ci = buffer.callstack.pop();
+          if (ci.nonce == nonce) {
+            break;
+          }
+        }
+        if (ci == null) {
+          System.out.printf("no enter for exit %s%n", mi);
+          return;
+        } else if (!ci.captured) {
+          return;
+        }
+      }
+
+      if (mi.member == null) {
+        buffer.dtrace_writer.clinitExit(
+            mi.class_info.class_name + ".<clinit>:::EXIT" + exitLineNum, nonce);
+      } else {
+        buffer.dtrace_writer.methodExit(mi, nonce, obj, args, ret_val, exitLineNum);
+      }
+      buffer.end_record();
+      checkRecordLimit();
+    } finally {
+      buffer.in_dtrace = false;
+    }
+  }
+
+  /**
+   * Returns true if an invocation can be traced, and false if it is skipped because the background
+   * thread that writes the dtrace file has fallen behind. See {@link AsyncDtraceStream#admit}. If
+   * it is skipped and Chicory is not sampling, its nonce is added to dropped so that its exit is
+   * skipped too; when sampling, the call stack records that instead.
+   *
+   * @param nonce nonce of the invocation
+   * @param dropped the nonces of the skipped invocations of the current thread
+   */
+  private static boolean admit(int nonce, Set<Integer> dropped) {
+    if (dtrace_async == null || dtrace_async.admit()) {
+      return true;
+    }
+    if (!sampling()) {
+      dropped.add(nonce);
+    }
+    return false;
+  }
+
+  /** Returns true if only some calls of each method are recorded. */
+  private static boolean sampling() {
+    return sample_start > 0 || sample_target > 0;
+  }
+
+  /**
+   * Returns true if the given call of a method is recorded when sampling. See {@link
+   * #sample_start} and {@link #sample_target}.
+   *
+   * @param call_cnt the number of calls of the method, including this one
+   */
+  private static boolean isSampled(int call_cnt) {
+    if (sample_target > 0) {
+      return call_cnt <= sample_target || sample_random.nextInt(call_cnt) < sample_target;
+    } else if (call_cnt <= sample_start) {
+      return true;
+    } else if (call_cnt <= (sample_start * 10)) {
+      return (call_cnt % 10) == 0;
+    } else if (call_cnt <= (sample_start * 100)) {
+      return (call_cnt % 100) == 0;
+    } else if (call_cnt <= (sample_start * 1000)) {
+      return (call_cnt % 1000) == 0;
+    } else {
+      return (call_cnt % 10000) == 0;
+    }
+  }
+
   /**
    * Checks the in_dtrace flag by looking back up the stack trace. Throws an exception if there is a
    * discrepancy.
@@ -425,6 +641,7 @@ public class Runtime {
    * them from that list.
    */
   @Holding("Runtime.class")
+  @SuppressWarnings("lock") // non-final field
   public static void process_new_classes() {
 
     // Processing of the new_classes list must be
@@ -444,10 +661,6 @@ public class Runtime {
       }
 
       if (debug) System.out.println("processing class " + class_info.class_name);
-      if (first_class) {
-        decl_writer.printHeaderInfo(class_info.class_name);
-        first_class = false;
-      }
       class_info.initViaReflection();
       // class_info.dump (System.out);
 
@@ -457,13 +670,42 @@ public class Runtime {
         mi.traversalExit = RootInfo.exit_process(mi, Runtime.nesting_depth);
       }
 
-      decl_writer.printDeclClass(class_info, comp_info);
+      if (thread_buffers) {
+        // The writer thread writes the buffered records of other threads to dtrace meanwhile, so
+        // hold its lock to keep them out of the middle of the declarations.
+        synchronized (dtrace) {
+          printDecls(class_info);
+        }
+      } else {
+        printDecls(class_info);
+      }
+      if (decl_buffer != null) {
+        try {
+          dtrace_writer.writeDecls(decl_buffer.toString("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+          throw new Error(e);
+        }
+        decl_buffer.reset();
+      }
+    }
+  }
+
+  /** Prints the declarations of a class, preceded by the header if it is the first class. */
+  @Holding("Runtime.class")
+  private static void printDecls(ClassInfo class_info) {
+    if (first_class) {
+      decl_writer.printHeaderInfo(class_info.class_name);
+      first_class = false;
     }
+    decl_writer.printDeclClass(class_info, comp_info);
   }
 
-  /** Increment the number of records that have been printed. */
+  /**
+   * Increment the number of records that have been printed. With thread buffers, the limit on the
+   * number of records is checked by {@link #checkRecordLimit} once the record is buffered.
+   */
   public static void incrementRecords() {
-    printedRecords++;
+    long records = printedRecords.incrementAndGet();
 
     // This should only print a percentage if dtraceLimit is not its
     // default value.
@@ -471,7 +713,17 @@ public class Runtime {
     //     System.out.printf("printed=%d, percent printed=%f%n", printedRecords,
     //                       (float)(100.0*(float)printedRecords/(float)dtraceLimit));
 
-    if (printedRecords >= dtraceLimit) {
+    if (records >= dtraceLimit && !thread_buffers) {
+      noMoreOutput();
+    }
+  }
+
+  /**
+   * With thread buffers, stops the output once the limit on the number of records is reached. Other
+   * threads may buffer a few more records before the output is stopped, and those are written too.
+   */
+  private static void checkRecordLimit() {
+    if (printedRecords.get() >= dtraceLimit && !dtrace_closed) {
       noMoreOutput();
     }
   }
@@ -496,12 +748,20 @@ public class Runtime {
     // is not effectively final, this would unfortunately mask that error.
     final @GuardedBy("<self>") PrintStream dtrace = Runtime.dtrace;
 
+    if (thread_buffers) {
+      ThreadBuffer.flush_all();
+    }
+
     synchronized (dtrace) {
       // The shutdown hook is synchronized on this, so close it up
       // ourselves, lest the call to System.exit cause deadlock.
-      dtrace.println();
-      dtrace.println("# EOF (added by no_more_output)");
-      dtrace.close();
+      if (decl_buffer != null) {
+        dtrace_writer.closeBinary();
+      } else {
+        dtrace.println();
+        dtrace.println("# EOF (added by no_more_output)");
+        dtrace.close();
+      }
 
       // Don't set dtrace to null, because if we continue running, there will
       // be many attempts to synchronize on it.  (Is that a performance
@@ -510,9 +770,10 @@ public class Runtime {
       dtrace_closed = true;
 
       if (dtraceLimitTerminate) {
-        System.out.println("Printed " + printedRecords + " records to dtrace file.  Exiting.");
+        System.out.println(
+            "Printed " + printedRecords.get() + " records to dtrace file.  Exiting.");
         throw new TerminationMessage(
-            "Printed " + printedRecords + " records to dtrace file.  Exiting.");
+            "Printed " + printedRecords.get() + " records to dtrace file.  Exiting.");
         // System.exit(1);
       } else {
         // By default, no special output if the system continues to run.
@@ -547,7 +808,7 @@ public class Runtime {
     }
 
     try {
-      dtrace = new PrintStream(daikonSocket.getOutputStream());
+      dtrace = newDtraceStream(daikonSocket.getOutputStream());
     } catch (IOException e) {
       System.out.println("IOException connecting to Daikon : " + e.getMessage() + ". Exiting");
       System.exit(1);
@@ -590,7 +851,7 @@ public class Runtime {
 
       // 8192 is the buffer size in BufferedReader
       BufferedOutputStream bos = new BufferedOutputStream(os, 8192);
-      dtrace = new PrintStream(bos);
+      dtrace = newDtraceStream(bos);
     } catch (Exception e) {
       e.printStackTrace();
       throw new Error(e);
@@ -603,6 +864,18 @@ public class Runtime {
     // System.out.printf("exited daikon.chicory.Runtime.setDtrace(%s, %b)%n", filename, append);
   }
 
+  /**
+   * Returns the stream to which the dtrace output is printed. If async_dtrace_limit is positive, it
+   * hands its output to a background thread that writes it to os.
+   */
+  private static PrintStream newDtraceStream(OutputStream os) {
+    if (async_dtrace_limit > 0) {
+      dtrace_async = new AsyncDtraceStream(os, async_dtrace_limit, async_dtrace_when_full);
+      return new PrintStream(dtrace_async);
+    }
+    return new PrintStream(os);
+  }
+
   /**
    * If the current data trace file is not yet set, then set it. The value of the DTRACEFILE
    * environment variable is used; if that environment variable is not set, then the argument to
@@ -640,26 +913,41 @@ public class Runtime {
               @Override
               @SuppressWarnings("lock") // non-final field
               public void run() {
+                if (thread_buffers && !dtrace_closed) {
+                  ThreadBuffer.flush_all();
+                }
                 if (!dtrace_closed) {
                   // When the program being instrumented exits, the buffers
                   // of the "dtrace" (PrintStream) object are not flushed,
                   // so we miss the tail of the file.
 
                   synchronized (Runtime.dtrace) {
-                    dtrace.println();
-                    // These are for debugging, I assume. -MDE
-                    for (Pattern p : ppt_omit_pattern) {
-                      dtrace.println("# ppt-omit-pattern: " + p);
-                    }
-                    for (Pattern p : ppt_select_pattern) {
-                      dtrace.println("# ppt-select-pattern: " + p);
+                    if (decl_buffer != null) {
+                      // A binary trace ends with its own end-of-file record.
+                      dtrace_writer.closeBinary();
+                    } else {
+                      dtrace.println();
+                      // These are for debugging, I assume. -MDE
+                      for (Pattern p : ppt_omit_pattern) {
+                        dtrace.println("# ppt-omit-pattern: " + p);
+                      }
+                      for (Pattern p : ppt_select_pattern) {
+                        dtrace.println("# ppt-select-pattern: " + p);
+                      }
+                      // This lets us know we didn't lose any data.
+                      dtrace.println("# EOF (added by Runtime.addShutdownHook)");
+                      dtrace.close();
                     }
-                    // This lets us know we didn't lose any data.
-                    dtrace.println("# EOF (added by Runtime.addShutdownHook)");
-                    dtrace.close();
                   }
                 }
 
+                if (dtrace_async != null && dtrace_async.dropped() > 0) {
+                  System.out.printf(
+                      "Chicory warning: %d invocations were not traced because the dtrace file"
+                          + " was not written fast enough%n",
+                      dtrace_async.dropped());
+                }
+
                 if (chicoryLoaderInstantiationError) {
                   // Warning messages have already been printed.
                 } else if (SharedData.all_classes.size() == 0) {
@@ -668,7 +956,7 @@ public class Runtime {
                     System.out.println(
                         "Check the --ppt-select-pattern and --ppt-omit-pattern options");
                   }
-                } else if (printedRecords == 0) {
+                } else if (printedRecords.get() == 0) {
                   System.out.println("Chicory warning: no records were printed");
                 }
               }
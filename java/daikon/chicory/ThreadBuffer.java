@@ -0,0 +1,245 @@
+package daikon.chicory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.checkerframework.checker.lock.qual.GuardedBy;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The trace records of one thread, used when Chicory's {@code --thread-buffers} option is given.
+ * Each thread writes its records with its own {@link DTraceWriter} into its own buffer, and keeps
+ * its own call stack, so instrumented threads do not contend on a global lock. A background
+ * thread writes the buffered records to the dtrace file. The records of different threads are
+ * interleaved in the file, but each record is written whole, the records of each thread are in
+ * the order they were made, and the nonce of each record identifies its invocation.
+ */
+final class ThreadBuffer {
+
+  /** The number of buffered bytes at which a thread hands its records to the writer thread. */
+  static final int FLUSH_SIZE = 64 * 1024;
+
+  /** How often, in milliseconds, the writer thread collects records from idle threads. */
+  static final long SWEEP_MILLIS = 100;
+
+  /** The buffer of the current thread. */
+  private static final ThreadLocal<ThreadBuffer> current =
+      new ThreadLocal<ThreadBuffer>() {
+        @Override
+        protected ThreadBuffer initialValue() {
+          ThreadBuffer buffer = new ThreadBuffer();
+          all_buffers.add(buffer);
+          start_writer();
+          return buffer;
+        }
+      };
+
+  /** Every thread's buffer, so that the writer thread can collect records from idle threads. */
+  private static final ConcurrentLinkedQueue<ThreadBuffer> all_buffers =
+      new ConcurrentLinkedQueue<ThreadBuffer>();
+
+  /** Records handed to the writer thread, in the order in which they are to be written. */
+  private static final @GuardedBy("ThreadBuffer.class") Deque<byte[]> queue =
+      new ArrayDeque<byte[]>();
+
+  /** The number of flushes requested by {@link #flush_all}. */
+  private static @GuardedBy("ThreadBuffer.class") long flushes_requested = 0;
+
+  /** The number of flushes requested by {@link #flush_all} that the writer thread has done. */
+  private static @GuardedBy("ThreadBuffer.class") long flushes_done = 0;
+
+  /** The thread that writes records to the dtrace file, or null if it has not been started. */
+  private static @GuardedBy("ThreadBuffer.class") @Nullable Thread writer = null;
+
+  /** The thread whose records are buffered. */
+  final Thread thread = Thread.currentThread();
+
+  /**
+   * True if this thread is writing a record, so that instrumented methods it calls (such as pure
+   * methods) must not write records. The per-thread equivalent of Runtime.in_dtrace.
+   */
+  boolean in_dtrace = false;
+
+  /** Stack of this thread's active methods, used when sampling. */
+  final Deque<Runtime.CallInfo> callstack = new ArrayDeque<Runtime.CallInfo>();
+
+  /** The nonces of this thread's invocations whose entries were not traced. See Runtime.admit. */
+  final Set<Integer> dropped_nonces = new HashSet<Integer>();
+
+  /**
+   * The MethodInfos this thread has used, indexed like SharedData.methods. Each was read after
+   * the declarations of its class were written, while holding the lock on Runtime.class.
+   */
+  private MethodInfo[] methods = new MethodInfo[0];
+
+  /** The record being written by this thread. */
+  private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+  /** Writes the records of this thread into {@link #record}. */
+  final DTraceWriter dtrace_writer = new DTraceWriter(new PrintStream(record));
+
+  /** The complete records of this thread that have not been handed to the writer thread. */
+  private final @GuardedBy("this") ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+  private ThreadBuffer() {}
+
+  /** Returns the buffer of the current thread. */
+  static ThreadBuffer get() {
+    return current.get();
+  }
+
+  /**
+   * Returns the MethodInfo at the given index of SharedData.methods, processing any new classes
+   * first if this thread has not used it before.
+   */
+  MethodInfo method(int mi_index) {
+    if (mi_index < methods.length && methods[mi_index] != null) {
+      return methods[mi_index];
+    }
+    MethodInfo mi;
+    synchronized (Runtime.class) {
+      Runtime.process_new_classes();
+      synchronized (SharedData.methods) {
+        mi = SharedData.methods.get(mi_index);
+      }
+    }
+    if (mi_index >= methods.length) {
+      MethodInfo[] grown = new MethodInfo[Math.max(mi_index + 1, 2 * methods.length)];
+      System.arraycopy(methods, 0, grown, 0, methods.length);
+      methods = grown;
+    }
+    methods[mi_index] = mi;
+    return mi;
+  }
+
+  /**
+   * Adds the record written by {@link #dtrace_writer} since the last call to the complete records
+   * of this thread, and hands them to the writer thread if there are enough of them.
+   */
+  void end_record() {
+    byte[] chunk = null;
+    synchronized (this) {
+      pending.write(record.toByteArray(), 0, record.size());
+      if (pending.size() >= FLUSH_SIZE) {
+        chunk = pending.toByteArray();
+        pending.reset();
+      }
+    }
+    record.reset();
+    if (chunk != null) {
+      synchronized (ThreadBuffer.class) {
+        queue.add(chunk);
+        ThreadBuffer.class.notifyAll();
+      }
+    }
+  }
+
+  /** Removes and returns the complete records of this thread, or null if there are none. */
+  private synchronized byte @Nullable [] take_pending() {
+    if (pending.size() == 0) {
+      return null;
+    }
+    byte[] result = pending.toByteArray();
+    pending.reset();
+    return result;
+  }
+
+  /** Starts the writer thread, if it has not been started. */
+  private static synchronized void start_writer() {
+    if (writer != null) {
+      return;
+    }
+    writer =
+        new Thread("chicory-trace-writer") {
+          @Override
+          public void run() {
+            write_records();
+          }
+        };
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Waits until every record made so far by any thread has been written to the dtrace file (or
+   * dropped, if it was closed). Records made by other threads while this runs may or may not be
+   * written.
+   */
+  static synchronized void flush_all() {
+    if (writer == null) {
+      return;
+    }
+    long request = ++flushes_requested;
+    ThreadBuffer.class.notifyAll();
+    while (flushes_done < request) {
+      try {
+        ThreadBuffer.class.wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * The body of the writer thread. It is the only thread that writes records to the dtrace file,
+   * so the records of each thread are written in order.
+   */
+  private static void write_records() {
+    while (true) {
+      byte[] chunk;
+      synchronized (ThreadBuffer.class) {
+        if (queue.isEmpty() && flushes_done == flushes_requested) {
+          try {
+            ThreadBuffer.class.wait(SWEEP_MILLIS);
+          } catch (InterruptedException e) {
+            // Keep going: the records must still be written.
+          }
+        }
+        if (queue.isEmpty()) {
+          collect_pending();
+        }
+        if (queue.isEmpty()) {
+          flushes_done = flushes_requested;
+          ThreadBuffer.class.notifyAll();
+          continue;
+        }
+        chunk = queue.remove();
+      }
+      write(chunk);
+    }
+  }
+
+  /**
+   * Moves the complete records of every thread to the queue, and forgets the buffers of threads
+   * that have ended.
+   */
+  private static void collect_pending() {
+    for (Iterator<ThreadBuffer> i = all_buffers.iterator(); i.hasNext(); ) {
+      ThreadBuffer buffer = i.next();
+      boolean alive = buffer.thread.isAlive();
+      byte[] chunk = buffer.take_pending();
+      if (chunk != null) {
+        queue.add(chunk);
+      }
+      if (!alive) {
+        i.remove();
+      }
+    }
+  }
+
+  /** Writes records to the dtrace file, unless it has been closed. */
+  @SuppressWarnings("lock") // non-final field
+  private static void write(byte[] chunk) {
+    synchronized (Runtime.dtrace) {
+      if (!Runtime.dtrace_closed) {
+        Runtime.dtrace.write(chunk, 0, chunk.length);
+      }
+    }
+  }
+}
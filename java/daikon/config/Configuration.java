@@ -52,6 +52,16 @@ public final class Configuration implements Serializable {
 
   private static volatile @NonNull Configuration instance = new Configuration();
 
+  /**
+   * Discards the settings recorded by the singleton. Only for tests that run Daikon more than once
+   * in one JVM: each run saves the recorded settings in the files that it writes, and reading such
+   * a file records them again, so otherwise they accumulate from run to run. The values of the
+   * configuration options themselves are not changed.
+   */
+  public static void resetInstance() {
+    instance = new Configuration();
+  }
+
   /**
    * This used to read a file containing all of the configurable options so that when the options
    * were saved, they would reflect not only those options specified, but the default values as
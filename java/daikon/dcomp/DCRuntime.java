@@ -14,7 +14,6 @@ import daikon.chicory.RootInfo;
 import daikon.chicory.StaticObjInfo;
 import daikon.chicory.StringInfo;
 import daikon.chicory.ThisObjInfo;
-import daikon.util.WeakIdentityHashMap;
 import java.io.PrintWriter;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
@@ -120,9 +119,12 @@ public final class DCRuntime {
   private static Map<Thread, ThreadData> thread_to_data =
       new ConcurrentHashMap<Thread, ThreadData>();
 
-  /** Map from each object to the tags used for each primitive value in the object. */
-  public static WeakIdentityHashMap<Object, Object[]> field_map =
-      new WeakIdentityHashMap<Object, Object[]>();
+  /**
+   * Map from each object to the tags used for each primitive value in the object. It is striped so
+   * that the threads of the target program can use it at once.
+   */
+  public static StripedWeakIdentityMap<Object[]> field_map =
+      new StripedWeakIdentityMap<Object[]>();
 
   /** List of all classes encountered. These are the classes that will have comparability output. */
   private static List<ClassInfo> all_classes = new ArrayList<ClassInfo>();
@@ -857,8 +859,7 @@ public final class DCRuntime {
     // If none has been allocated, allocate the space and associate it with
     // the array
     if (obj_tags == null) {
-      obj_tags = new Object[length];
-      field_map.put(arr_ref, obj_tags);
+      obj_tags = field_map.getOrPut(arr_ref, new Object[length]);
     }
 
     // Pop the tag off of the stack and assign it into the tag storage for
@@ -2620,14 +2621,18 @@ public final class DCRuntime {
       Class<?> obj_class = obj.getClass();
       int fcnt = num_prim_fields(obj.getClass());
       assert field_num < fcnt : obj.getClass() + " " + field_num + " " + fcnt;
-      obj_tags = new Object[fcnt];
-      field_map.put(obj, obj_tags);
+      obj_tags = field_map.getOrPut(obj, new Object[fcnt]);
       if (debug_primitive.enabled()) debug_primitive.log("push_field_tag: Created tag storage%n");
-      Throwable stack_trace = new Throwable();
-      if (debug) stack_trace.fillInStackTrace();
-      Object tag =
-          new UninitFieldTag(obj.getClass().getName() + ":uninit-field" + field_num, stack_trace);
-      obj_tags[field_num] = tag;
+      // Another thread may have created the storage and set the tag since the lookup above.
+      Object tag = obj_tags[field_num];
+      if (tag == null) {
+        Throwable stack_trace = new Throwable();
+        if (debug) stack_trace.fillInStackTrace();
+        tag =
+            new UninitFieldTag(
+                obj.getClass().getName() + ":uninit-field" + field_num, stack_trace);
+        obj_tags[field_num] = tag;
+      }
       td.tag_stack.push(tag);
       if (debug_primitive.enabled()) {
         debug_primitive.log(
@@ -2654,8 +2659,7 @@ public final class DCRuntime {
       Class<?> obj_class = obj.getClass();
       int fcnt = num_prim_fields(obj.getClass());
       assert field_num < fcnt : obj.getClass() + " " + field_num + " " + fcnt;
-      obj_tags = new Object[fcnt];
-      field_map.put(obj, obj_tags);
+      obj_tags = field_map.getOrPut(obj, new Object[fcnt]);
       debug_primitive.log("pop_field_tag: Created tag storage%n");
     }
 
@@ -2845,10 +2849,10 @@ public final class DCRuntime {
       }
     } else {
       int length = Array.getLength(arr_ref);
-      obj_tags = new Object[length];
-      field_map.put(arr_ref, obj_tags);
-      Object tag = new UninitArrayElem();
-      obj_tags[index] = tag;
+      obj_tags = field_map.getOrPut(arr_ref, new Object[length]);
+      // Another thread may have created the storage and set the tag since the lookup above.
+      Object tag = obj_tags[index];
+      if (tag == null) obj_tags[index] = tag = new UninitArrayElem();
       td.tag_stack.push(tag);
       if (debug_primitive.enabled()) {
         debug_primitive.log("arrayload null-ok %s[%d] = null%n", arr_ref, index);
@@ -0,0 +1,111 @@
+package daikon.dcomp;
+
+import daikon.util.WeakIdentityHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A map from objects, compared by identity and referenced weakly, to values, that can be used by
+ * several threads at once. The keys are divided among {@link #STRIPES} {@link
+ * WeakIdentityHashMap}s by their identity hash code, each with its own lock, so that threads that
+ * look up different objects rarely wait for each other.
+ *
+ * <p>DynComp uses it for the tags of the primitive fields and array elements of each object
+ * ({@link DCRuntime#field_map}) and for the union-find entry of each object ({@link
+ * TagEntry#object_map}). Both are consulted on every primitive field access of an instrumented
+ * program, by whichever of its threads makes the access.
+ */
+public final class StripedWeakIdentityMap<V> {
+
+  /** The number of stripes. A power of two. */
+  static final int STRIPES = 64;
+
+  /** The stripes. Each is guarded by its own lock. */
+  private final WeakIdentityHashMap<Object, V>[] stripes;
+
+  /** Creates an empty map. */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public StripedWeakIdentityMap() {
+    stripes = (WeakIdentityHashMap<Object, V>[]) new WeakIdentityHashMap[STRIPES];
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new WeakIdentityHashMap<Object, V>();
+    }
+  }
+
+  /** Returns the stripe that holds the given key. */
+  private WeakIdentityHashMap<Object, V> stripe(Object key) {
+    int h = System.identityHashCode(key);
+    // Identity hash codes are often multiples of 8; use the higher bits too.
+    h ^= (h >>> 16);
+    h ^= (h >>> 7);
+    return stripes[h & (STRIPES - 1)];
+  }
+
+  /** Returns the value for the given object, or null if it has none. */
+  public @Nullable V get(Object key) {
+    WeakIdentityHashMap<Object, V> stripe = stripe(key);
+    synchronized (stripe) {
+      return stripe.get(key);
+    }
+  }
+
+  /** Returns true if the given object has a value. */
+  public boolean containsKey(Object key) {
+    WeakIdentityHashMap<Object, V> stripe = stripe(key);
+    synchronized (stripe) {
+      return stripe.containsKey(key);
+    }
+  }
+
+  /** Sets the value for the given object. */
+  public void put(Object key, V value) {
+    WeakIdentityHashMap<Object, V> stripe = stripe(key);
+    synchronized (stripe) {
+      stripe.put(key, value);
+    }
+  }
+
+  /**
+   * Returns the value for the given object. If it has none, it is given the specified value, which
+   * is returned. Unlike a call to {@link #get} followed by a call to {@link #put}, two threads that
+   * do this for the same object get the same value.
+   *
+   * @param key the object
+   * @param value the value to give it if it has none
+   * @return the value of key after the call
+   */
+  public V getOrPut(Object key, V value) {
+    WeakIdentityHashMap<Object, V> stripe = stripe(key);
+    synchronized (stripe) {
+      V old = stripe.get(key);
+      if (old != null) {
+        return old;
+      }
+      stripe.put(key, value);
+      return value;
+    }
+  }
+
+  /** Returns the number of objects that have values. */
+  public int size() {
+    int result = 0;
+    for (WeakIdentityHashMap<Object, V> stripe : stripes) {
+      synchronized (stripe) {
+        result += stripe.size();
+      }
+    }
+    return result;
+  }
+
+  /** Returns the objects that have values, in no particular order. */
+  public List<Object> keys() {
+    List<Object> result = new ArrayList<Object>();
+    for (WeakIdentityHashMap<Object, V> stripe : stripes) {
+      synchronized (stripe) {
+        result.addAll(stripe.keySet());
+      }
+    }
+    return result;
+  }
+}
@@ -2,7 +2,6 @@ package daikon.dcomp;
 
 import daikon.DynComp;
 import daikon.chicory.DaikonVariableInfo;
-import daikon.util.WeakIdentityHashMap;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -13,6 +12,11 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 /**
  * Union/Find datastructure for Objects without the ranking optimization. All references to the
  * Objects are weak so that they will be removed from the sets when no longer referenced.
+ *
+ * <p>The threads of the target program may use it at once. Entries are looked up in a striped map,
+ * and merges of sets are serialized by a lock on this class. Finds are not locked: path
+ * compression only ever makes an entry point to one of its ancestors, which remains in the same
+ * set.
  */
 
 /* TagEntry now implements tracing, which means that if A trace-points to B,
@@ -39,8 +43,8 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 class TagEntry extends WeakReference<Object> {
 
   /** Maps each object to its entry in the Union-Find datastructure. */
-  public static final WeakIdentityHashMap<Object, TagEntry> object_map =
-      new WeakIdentityHashMap<Object, TagEntry>();
+  public static final StripedWeakIdentityMap<TagEntry> object_map =
+      new StripedWeakIdentityMap<TagEntry>();
 
   // private static SimpleLog debug = new SimpleLog(false);
 
@@ -76,12 +80,12 @@ class TagEntry extends WeakReference<Object> {
     // System.out.printf("Made %s with parent p%s%n", this, this.parent);
   }
 
-  /** Creates a set that only contains obj. */
+  /**
+   * Creates a set that only contains obj. If another thread has just created an entry for obj,
+   * returns that entry instead.
+   */
   public static TagEntry create(Object obj) {
-    assert !object_map.containsKey(obj);
-    TagEntry entry = new TagEntry(obj);
-    object_map.put(obj, entry);
-    return entry;
+    return object_map.getOrPut(obj, new TagEntry(obj));
   }
 
   /**
@@ -93,17 +97,26 @@ class TagEntry extends WeakReference<Object> {
     // debug.log("union of '%s' and '%s'%n", obj1, obj2);
 
     TagEntry o1 = get_entry(obj1), o2 = get_entry(obj2);
-    TagEntry r1 = o1.find(), r2 = o2.find();
 
-    // if TRACING_ENABLED?
+    // Most unions are of objects that are already in the same set; those need no lock.
+    if (o1.find() == o2.find()) {
+      return;
+    }
+
+    synchronized (TagEntry.class) {
+      // Find the roots again, in case another thread merged these sets.
+      TagEntry r1 = o1.find(), r2 = o2.find();
 
-    if (r1 != r2) {
-      r2.parent = r1;
-      if (DynComp.trace_file != null) {
-        o1.rootMe();
-        o2.rootMe();
-        o2.tracer = o1;
-        o2.trace_loc = generateTraceString();
+      // if TRACING_ENABLED?
+
+      if (r1 != r2) {
+        r2.parent = r1;
+        if (DynComp.trace_file != null) {
+          o1.rootMe();
+          o2.rootMe();
+          o2.tracer = o1;
+          o2.trace_loc = generateTraceString();
+        }
       }
     }
   }
@@ -170,9 +183,10 @@ class TagEntry extends WeakReference<Object> {
     while (tag.parent != null) tag = tag.parent;
     TagEntry top = tag;
 
-    // Set everyone to point to the top
+    // Set everyone to point to the top.  Stop at the top, which another thread may have just
+    // added to a larger set.
     tag = this;
-    while (tag.parent != null) {
+    while (tag != top && tag.parent != null) {
       TagEntry next = tag.parent;
       tag.parent = top;
       tag = next;
@@ -260,7 +274,7 @@ class TagEntry extends WeakReference<Object> {
 
     /* Fill sets from object_map by placing every object in an ArrayList
      * whose key is its root. */
-    for (Object obj : object_map.keySet()) {
+    for (Object obj : object_map.keys()) {
       Object rep = find(obj);
       List<Object> set = sets.get(rep);
       if (set == null) {
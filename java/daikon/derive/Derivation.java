@@ -5,7 +5,9 @@ import daikon.ValueTuple;
 import daikon.VarInfo;
 import java.io.Serializable;
 import java.util.logging.Logger;
+import org.checkerframework.checker.lock.qual.GuardSatisfied;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
@@ -68,6 +70,77 @@ public abstract class Derivation implements Serializable, Cloneable {
   // MISSING_NONSENSICAL, not MISSING_FLOW.
   public abstract ValueAndModified computeValueAndModified(ValueTuple full_vt);
 
+  /** The bases of this derivation, or null if not yet needed by computeValueAndModifiedMemo. */
+  private transient VarInfo @Nullable [] memo_bases = null;
+
+  /** The values of the bases when memo_result was computed. */
+  private transient @Nullable Object @Nullable [] memo_values = null;
+
+  /** The modification bits of the bases when memo_result was computed. */
+  private transient int @Nullable [] memo_mods = null;
+
+  /** The result last returned by computeValueAndModifiedMemo, or null if none. */
+  private transient @Nullable ValueAndModified memo_result = null;
+
+  /**
+   * Like {@link #computeValueAndModified}, but returns the previous result if every base has the
+   * same value (the same interned object) and the same modification bit as when it was computed.
+   * Successive samples at a program point often repeat the values of some variables, so this
+   * avoids repeating the derivation, and the allocation and interning of its value, for each of
+   * them. A derivation is a function of the values and modification bits of its bases, so the
+   * result is the same.
+   *
+   * @param full_vt the set of values in a program point that will be used to derive the value
+   * @return a pair of: the derived value and whether the variable counts as modified
+   */
+  public ValueAndModified computeValueAndModifiedMemo(ValueTuple full_vt) {
+    VarInfo[] bases = memo_bases;
+    if (bases == null) {
+      bases = getBases();
+      memo_bases = bases;
+      memo_values = new Object[bases.length];
+      memo_mods = new int[bases.length];
+    }
+    @Nullable Object[] values = memo_values;
+    int[] mods = memo_mods;
+    assert values != null && mods != null : "@AssumeAssertion(nullness): set with memo_bases";
+
+    ValueAndModified result = memo_result;
+    if (result != null) {
+      boolean same = true;
+      for (int i = 0; i < bases.length; i++) {
+        if (bases[i].getValueOrNull(full_vt) != values[i]
+            || bases[i].getModified(full_vt) != mods[i]) {
+          same = false;
+          break;
+        }
+      }
+      if (same) {
+        return result;
+      }
+    }
+
+    result = computeValueAndModified(full_vt);
+    for (int i = 0; i < bases.length; i++) {
+      values[i] = bases[i].getValueOrNull(full_vt);
+      mods[i] = bases[i].getModified(full_vt);
+    }
+    memo_result = result;
+    return result;
+  }
+
+  /** Returns a copy of this derivation, which may be given other bases by switchVars. */
+  @SideEffectFree
+  @Override
+  protected Derivation clone(@GuardSatisfied Derivation this) throws CloneNotSupportedException {
+    Derivation result = (Derivation) super.clone();
+    result.memo_bases = null;
+    result.memo_values = null;
+    result.memo_mods = null;
+    result.memo_result = null;
+    return result;
+  }
+
   /**
    * Get the VarInfo that this would represent. However, the VarInfo can't be used to obtain values
    * without further modification -- use computeValueAndModified() for this.
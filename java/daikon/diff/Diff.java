@@ -2,6 +2,8 @@ package daikon.diff;
 
 import daikon.Daikon;
 import daikon.FileIO;
+import daikon.InvFile;
+import daikon.LazyPptMap;
 import daikon.Ppt;
 import daikon.PptConditional;
 import daikon.PptMap;
@@ -26,6 +28,7 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
@@ -37,6 +40,7 @@ import org.checkerframework.dataflow.qual.Pure;
 import org.plumelib.util.CollectionsPlume;
 import org.plumelib.util.OrderedPairIterator;
 import org.plumelib.util.Pair;
+import org.plumelib.util.RegexUtil;
 import org.plumelib.util.UtilPlume;
 
 /**
@@ -100,6 +104,9 @@ public final class Diff {
   private boolean examineAllPpts;
   private boolean ignoreNumberedExits;
 
+  /** Regular expression that ppts must match to be compared, or null to compare all ppts. */
+  private @Nullable Pattern pptSelect = null;
+
   public Diff() {
     this(false, false);
   }
@@ -178,6 +185,7 @@ public final class Diff {
     @ClassGetName String invSortComparator1Classname = null;
     @ClassGetName String invSortComparator2Classname = null;
     @ClassGetName String invPairComparatorClassname = null;
+    Pattern pptSelect = null;
 
     boolean optionSelected = false;
 
@@ -192,6 +200,7 @@ public final class Diff {
           new LongOpt(INV_PAIR_COMPARATOR_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(IGNORE_UNJUSTIFIED_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(IGNORE_NUMBERED_EXITS_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
+          new LongOpt(Daikon.ppt_regexp_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
         };
 
     Getopt g =
@@ -244,6 +253,24 @@ public final class Diff {
           } else if (IGNORE_NUMBERED_EXITS_SWITCH.equals(optionName)) {
             ignoreNumberedExits = true;
             break;
+          } else if (Daikon.ppt_regexp_SWITCH.equals(optionName)) {
+            if (pptSelect != null) {
+              throw new Error(
+                  "multiple --"
+                      + Daikon.ppt_regexp_SWITCH
+                      + " regular expressions supplied on command line");
+            }
+            String regexpString = Daikon.getOptarg(g);
+            if (!RegexUtil.isRegex(regexpString)) {
+              throw new Daikon.UserError(
+                  "Bad regexp "
+                      + regexpString
+                      + " for "
+                      + Daikon.ppt_regexp_SWITCH
+                      + ": "
+                      + RegexUtil.regexError(regexpString));
+            }
+            pptSelect = Pattern.compile(RegexUtil.asRegex(regexpString));
           } else {
             throw new RuntimeException("Unknown long option received: " + optionName);
           }
@@ -352,6 +379,7 @@ public final class Diff {
             invSortComparator2Classname,
             invPairComparatorClassname,
             defaultComparator);
+    diff.pptSelect = pptSelect;
 
     if ((!(diff.invSortComparator1
             .getClass()
@@ -568,8 +596,21 @@ public final class Diff {
     // finished; return (and end program)
   }
 
-  /** Reads an InvMap from a file that contains a serialized InvMap or PptMap. */
+  /**
+   * Reads an InvMap from a file that contains a serialized InvMap or PptMap, or that is an indexed
+   * invariant file. From an indexed file, only the program points that are compared are read.
+   */
   private InvMap readInvMap(File file) throws IOException, ClassNotFoundException {
+    if (InvFile.is_inv_file(file)) {
+      PptMap pptMap = FileIO.read_serialized_pptmap(file, false, pptSelect);
+      try {
+        return convertToInvMap(pptMap);
+      } finally {
+        if (pptMap instanceof LazyPptMap) {
+          ((LazyPptMap) pptMap).close();
+        }
+      }
+    }
     Object o = UtilPlume.readObject(file);
     if (o instanceof InvMap) {
       return (InvMap) o;
@@ -585,7 +626,8 @@ public final class Diff {
    * and it allows us to more easily manipulate the contents. The InvMap contains exactly the
    * elements contained in the PptMap. Conditional program points are also added as keys. Filtering
    * is done when creating the pair tree. The ppts in the InvMap must be sorted, but the invariants
-   * need not be sorted.
+   * need not be sorted. If a ppt selection pattern was given, only the matching ppts are read from
+   * the PptMap.
    */
   public InvMap convertToInvMap(PptMap pptMap) {
     InvMap map = new InvMap();
@@ -593,7 +635,13 @@ public final class Diff {
     // Created sorted set of top level ppts, possibly including
     // conditional ppts
     SortedSet<PptTopLevel> ppts = new TreeSet<PptTopLevel>(PPT_COMPARATOR);
-    ppts.addAll(pptMap.asCollection());
+    for (String name : pptMap.nameStringSet()) {
+      if (pptSelect == null || pptSelect.matcher(name).find()) {
+        PptTopLevel ppt = pptMap.get(name);
+        assert ppt != null : "@AssumeAssertion(nullness): name is a key of pptMap";
+        ppts.add(ppt);
+      }
+    }
 
     for (PptTopLevel ppt : ppts) {
       if (ignoreNumberedExits && ppt.ppt_name.isNumberedExitPoint()) {
@@ -385,19 +385,25 @@ public final /*(at)Interned*/ class Equality extends Invariant {
    *     quite wrong to leave variables in the same equality set when one is missing and the other
    *     is not. Its possible we should go farther and break out of the equality set any variable
    *     that is missingOutOfBounds (JHP).
+   *     <p>A set with a single variable cannot be split, so only its number of samples is updated.
+   *     A set that is not split returns an immutable empty list, to avoid allocating a list per
+   *     set per sample.
    */
   public List<VarInfo> add(ValueTuple vt, int count) {
     // Need to handle specially if leader is missing.
     VarInfo leader = leader();
-    Object leaderValue = leader.getValueOrNull(vt);
-    int leaderMod = leader.getModified(vt);
-    boolean leaderOutOfBounds = leader.missingOutOfBounds();
     if (leader.isMissing(vt)) {
     } else {
       numSamples += count;
     }
+    if (vars.size() == 1) {
+      return Collections.emptyList();
+    }
+    Object leaderValue = leader.getValueOrNull(vt);
+    int leaderMod = leader.getModified(vt);
+    boolean leaderOutOfBounds = leader.missingOutOfBounds();
 
-    List<VarInfo> result = new ArrayList<VarInfo>();
+    List<VarInfo> result = Collections.emptyList();
     if (debug.isLoggable(Level.FINE)) {
       debug.fine("Doing add at " + this.ppt.parent.name() + " for " + this);
     }
@@ -448,6 +454,9 @@ public final /*(at)Interned*/ class Equality extends Invariant {
                 + "]");
       }
 
+      if (result.isEmpty()) {
+        result = new ArrayList<VarInfo>();
+      }
       result.add(vi);
       i.remove();
     }
@@ -9,6 +9,7 @@ import daikon.PptSlice;
 import daikon.PptSlice1;
 import daikon.PptSlice2;
 import daikon.PrintInvariants;
+import daikon.Profile;
 import daikon.ValueTuple;
 import daikon.VarComparability;
 import daikon.VarComparabilityImplicit;
@@ -20,6 +21,7 @@ import daikon.inv.unary.OneOf;
 import daikon.inv.unary.UnaryInvariant;
 import daikon.simplify.LemmaStack;
 import daikon.simplify.SimpUtil;
+import daikon.suppress.NIS;
 import daikon.suppress.NISuppressionSet;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -472,6 +474,13 @@ public abstract class Invariant implements Serializable, Cloneable // but don't
    * that we can track when this happens.
    */
   public void falsify(@NonPrototype Invariant this) {
+    if (!falsified) {
+      NIS.FalsificationLog falsification_log = ppt.parent.falsification_log;
+      if (falsification_log != null) {
+        falsification_log.add(this);
+      }
+      Profile.invariant_falsified(this);
+    }
     falsified = true;
     if (logOn()) log("Destroyed %s", format());
   }
@@ -1875,6 +1884,7 @@ public abstract class Invariant implements Serializable, Cloneable // but don't
       // Avoid creating the message if the check succeeds
       assert inv.ppt != null : "invariant class " + inv.getClass();
     }
+    Profile.invariant_created(inv);
     return inv;
   }
 
@@ -3,6 +3,7 @@ package daikon.inv;
 import daikon.ProglangType;
 import daikon.VarInfo;
 import java.io.Serializable;
+import java.util.Arrays;
 import org.plumelib.util.LimitedSizeIntSet;
 import org.plumelib.util.UtilPlume;
 
@@ -13,7 +14,8 @@ import org.plumelib.util.UtilPlume;
 /**
  * ValueSet stores a set of values. The implementation only stores integers. When adding a value,
  * for efficiency its hash code is added rather than the value itself. If the set size exceeds a
- * specified limit, then its rep is nulled.
+ * specified limit, then its rep is nulled. Storage for the values is allocated as they are added,
+ * so a variable with few distinct values uses little memory.
  *
  * <p>This class is used for efficient justification tests.
  *
@@ -34,16 +36,23 @@ public abstract class ValueSet extends LimitedSizeIntSet implements Serializable
   // We are Serializable, so we specify a version to allow changes to
   // method signatures without breaking serialization.  If you add or
   // remove fields, you should change this number to the current date.
-  static final long serialVersionUID = 20020122L;
+  static final long serialVersionUID = 20261018L;
+
+  /** The number of values stored before the set is full and its rep is nulled. */
+  private final int max_values;
 
   public ValueSet(int max_values) {
-    super(max_values);
+    super(Math.min(max_values, INITIAL_CAPACITY));
+    this.max_values = max_values;
   }
 
   // There is one ValueSet per variable (not one per slice or invariant),
-  // so pre-allocating an array with 44 slots should not be a problem.  If
-  // it is, then change LimitedSizeIntSet to optionally not pre-allocate
-  // the entire array.
+  // and most variables take only a few distinct values, so the array of
+  // values starts small and grows as values are added, rather than being
+  // pre-allocated by LimitedSizeIntSet with room for max_values values.
+  /** The number of values for which room is allocated when the set is created. */
+  static final int INITIAL_CAPACITY = 4;
+
   /**
    * The number 44 comes from the fact that .9^44 &lt; .01. So, if the confidence limit is .01 and
    * the probability of a given event is set at .1, then 44 values is enough to demonstrate that
@@ -75,6 +84,37 @@ public abstract class ValueSet extends LimitedSizeIntSet implements Serializable
   /** Add the specified object (really, its hashcode) to the set. */
   public abstract void add(Object v1);
 
+  /**
+   * Makes room for at least the given number of values, up to max_values. LimitedSizeIntSet nulls
+   * the rep when its array is full, so the array must be grown before it would be.
+   */
+  private void ensure_capacity(int capacity) {
+    if (values != null && values.length < capacity && values.length < max_values) {
+      values = Arrays.copyOf(values, Math.min(max_values, Math.max(capacity, 2 * values.length)));
+    }
+  }
+
+  @Override
+  public void add(int elt) {
+    if (values != null && size() == values.length && !contains(elt)) {
+      ensure_capacity(size() + 1);
+    }
+    super.add(elt);
+  }
+
+  @Override
+  public void addAll(LimitedSizeIntSet s) {
+    if (s.repNulled()) {
+      ensure_capacity(max_values);
+    }
+    super.addAll(s);
+  }
+
+  @Override
+  public int maxSize() {
+    return repNulled() ? super.maxSize() : max_values + 1;
+  }
+
   /** Add stats from the specified value set. */
   protected abstract void add_stats(ValueSet other);
 
@@ -1,5 +1,6 @@
 package daikon.inv.unary.scalar;
 
+import daikon.Global;
 import daikon.PptSlice;
 import daikon.VarInfo;
 import daikon.inv.Invariant;
@@ -167,7 +168,11 @@ public class NonModulus extends SingleScalar {
   // XXX have to deal with flowing this; maybe it should live at all ppts?
   @Override
   public InvariantStatus add_modified(long value, int count) {
-    if (elements.add(Intern.internedLong(value))
+    Long interned;
+    synchronized (Global.intern_lock) {
+      interned = Intern.internedLong(value);
+    }
+    if (elements.add(interned)
         && results_accurate
         && (!no_result_yet)
         && (MathPlume.modPositive(value, modulus) == remainder)) results_accurate = false;
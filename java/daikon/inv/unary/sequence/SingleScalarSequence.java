@@ -1,5 +1,6 @@
 package daikon.inv.unary.sequence;
 
+import daikon.Global;
 import daikon.PptSlice;
 import daikon.VarInfo;
 import daikon.inv.InvariantStatus;
@@ -7,7 +8,6 @@ import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.interning.qual.Interned;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
 import org.checkerframework.checker.nullness.qual.Raw;
-import org.plumelib.util.Intern;
 import typequals.prototype.qual.Prototype;
 
 /** Abstract base class for invariants over one variable of type {@code long[]}. */
@@ -52,8 +52,8 @@ public abstract class SingleScalarSequence extends SingleSequence {
   public InvariantStatus add(@Interned Object val, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    assert Intern.isInterned(val) : "not interned: " + val + "/" + val.getClass();
-    assert Intern.isInterned(val);
+    assert Global.isInterned(val) : "not interned: " + val + "/" + val.getClass();
+    assert Global.isInterned(val);
     // System.out.println("SingleScalarSequence.add(" + Arrays.toString(value) + ", " + modified +
     // ", " + count + ")");
     long[] value = (long[]) val;
@@ -70,7 +70,7 @@ public abstract class SingleScalarSequence extends SingleSequence {
   public InvariantStatus check(@Interned Object val, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    assert Intern.isInterned(val);
+    assert Global.isInterned(val);
     long[] value = (long[]) val;
     if (value == null) {
       return InvariantStatus.NO_CHANGE;
@@ -1,5 +1,6 @@
 package daikon.inv.unary.stringsequence;
 
+import daikon.Global;
 import daikon.PptSlice;
 import daikon.inv.DiscardInfo;
 import daikon.inv.Invariant;
@@ -142,7 +143,9 @@ public class CommonStringSequence extends SingleStringSequence {
     if (a == null) {
       return InvariantStatus.FALSIFIED;
     } else if (intersect == null) {
-      intersect = Intern.intern(a);
+      synchronized (Global.intern_lock) {
+        intersect = Intern.intern(a);
+      }
       return InvariantStatus.NO_CHANGE;
     } else {
       @Interned String[] tmp = new @Interned String[intersect.length];
@@ -157,7 +160,9 @@ public class CommonStringSequence extends SingleStringSequence {
       if (size == 0) {
         return InvariantStatus.FALSIFIED;
       }
-      intersect = Intern.intern(ArraysPlume.subarray(tmp, 0, size));
+      synchronized (Global.intern_lock) {
+        intersect = Intern.intern(ArraysPlume.subarray(tmp, 0, size));
+      }
     }
     elts++;
     return InvariantStatus.NO_CHANGE;
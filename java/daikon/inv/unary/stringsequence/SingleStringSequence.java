@@ -1,5 +1,6 @@
 package daikon.inv.unary.stringsequence;
 
+import daikon.Global;
 import daikon.PptSlice;
 import daikon.VarInfo;
 import daikon.inv.InvariantStatus;
@@ -8,7 +9,6 @@ import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.interning.qual.Interned;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
 import org.checkerframework.checker.nullness.qual.Raw;
-import org.plumelib.util.Intern;
 import typequals.prototype.qual.Prototype;
 
 /** Abstract base class for invariants over one variable of type {@code String[]}. */
@@ -46,7 +46,7 @@ public abstract class SingleStringSequence extends UnaryInvariant {
   public InvariantStatus add(@Interned Object val, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    assert Intern.isInterned(val);
+    assert Global.isInterned(val);
     // System.out.println("SingleStringSequence.add(" + Arrays.toString(value) + ", " + modified +
     // ", " + count + ")");
     @Interned String[] value = (@Interned String[]) val;
@@ -63,7 +63,7 @@ public abstract class SingleStringSequence extends UnaryInvariant {
   public InvariantStatus check(@Interned Object val, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    assert Intern.isInterned(val);
+    assert Global.isInterned(val);
     @Interned String[] value = (@Interned String[]) val;
     if (value == null) {
       return InvariantStatus.NO_CHANGE;
@@ -0,0 +1,253 @@
+package daikon.simplify;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A cache of the answers Simplify gives to queries, so that a query that was already answered with
+ * the same assumptions is not sent to Simplify again. A query is identified by a digest of its
+ * formula, of the set of formulas on the {@link LemmaStack} (their order does not matter), and of
+ * everything else Simplify is given: the universal background and the limits on its effort.
+ *
+ * <p>Only definite answers (valid or invalid) are cached, not those on which Simplify gave up. The
+ * least recently used entries are evicted when the cache is full. If {@link #dkconfig_file} is
+ * set, the cache is read from that file when it is first used and written back by {@link #save},
+ * so that later runs over unchanged program points need not start Simplify at all. The cache is
+ * disabled unless {@link #dkconfig_size} is positive.
+ */
+public final class CheckCache {
+
+  /**
+   * Integer. The largest number of Simplify answers that are cached; the least recently used ones
+   * are evicted. A value of 0 disables the cache, so that every query is sent to Simplify. When the
+   * cache is enabled, Simplify is started only when a query is not in the cache, so a missing
+   * Simplify is reported then rather than before the first query.
+   */
+  public static int dkconfig_size = 0;
+
+  /**
+   * String. If non-null, the cache of Simplify answers is read from this file before the first
+   * query and written back to it after the Simplify queries are done, so that it persists between
+   * runs. The file is created if it does not exist. Has no effect unless {@link #dkconfig_size} is
+   * positive.
+   */
+  public static @Nullable String dkconfig_file = null;
+
+  /** The first line of a cache file. */
+  private static final String HEADER = "# Daikon Simplify answer cache, version 1";
+
+  /**
+   * The cached answers, from the digest of a query to whether it is valid, from the least recently
+   * used to the most recently used. Null until first used, or after {@link #clear}.
+   */
+  private static @Nullable LinkedHashMap<String, Boolean> answers = null;
+
+  /** The file from which answers was read, or null if it was not read from a file. */
+  private static @Nullable String answers_file = null;
+
+  /** True if answers has changed since it was read or last saved. */
+  private static boolean modified = false;
+
+  /**
+   * The digest of everything given to Simplify besides the lemmas and the query, or null if not yet
+   * computed.
+   */
+  private static byte @MonotonicNonNull [] context = null;
+
+  private CheckCache() {
+    throw new Error("do not instantiate");
+  }
+
+  /** Returns true if answers are cached. */
+  public static boolean enabled() {
+    return dkconfig_size > 0;
+  }
+
+  /**
+   * Returns the key under which the answer to a query is cached.
+   *
+   * @param assumptions the lemmas that Simplify assumes
+   * @param query the formula whose validity is checked
+   * @return the hexadecimal digest of the query and its assumptions
+   */
+  public static String key(List<Lemma> assumptions, String query) {
+    // The digests of the assumptions are added, so that their order does not matter.
+    long sum_hi = 0;
+    long sum_lo = 0;
+    for (Lemma lem : assumptions) {
+      long[] digest = lem.formula_digest;
+      if (digest == null) {
+        byte[] bytes = sha256(lem.formula);
+        digest = new long[] {toLong(bytes, 0), toLong(bytes, 8)};
+        lem.formula_digest = digest;
+      }
+      sum_hi += digest[0];
+      sum_lo += digest[1];
+    }
+    MessageDigest md = newDigest();
+    md.update(context());
+    md.update(
+        (assumptions.size() + " " + sum_hi + " " + sum_lo + " " + query.length() + " ")
+            .getBytes(UTF_8));
+    md.update(query.getBytes(UTF_8));
+    return toHex(md.digest());
+  }
+
+  /**
+   * Returns the cached answer to a query.
+   *
+   * @param key the key returned by {@link #key}
+   * @return true if the query is valid, false if it is invalid, or null if no answer is cached
+   */
+  public static synchronized @Nullable Boolean get(String key) {
+    return answers().get(key);
+  }
+
+  /**
+   * Caches the answer to a query.
+   *
+   * @param key the key returned by {@link #key}
+   * @param valid true if Simplify says that the query is valid
+   */
+  public static synchronized void put(String key, boolean valid) {
+    answers().put(key, valid);
+    modified = true;
+  }
+
+  /**
+   * Discards the cached answers without saving them. The next query reads the cache from {@link
+   * #dkconfig_file} again, and the cache takes its size from {@link #dkconfig_size} again.
+   */
+  public static synchronized void clear() {
+    answers = null;
+    answers_file = null;
+    modified = false;
+  }
+
+  /**
+   * Writes the cache to {@link #dkconfig_file}, if it is set and the cache changed. The file is
+   * replaced atomically, so that a run that is killed while writing does not corrupt it.
+   */
+  public static synchronized void save() {
+    if (dkconfig_file == null || answers == null || !modified) {
+      return;
+    }
+    File file = new File(dkconfig_file);
+    try {
+      File tmp =
+          File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+      try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tmp.toPath(), UTF_8))) {
+        out.println(HEADER);
+        for (Map.Entry<String, Boolean> entry : answers.entrySet()) {
+          out.println(entry.getKey() + (entry.getValue() ? " T" : " F"));
+        }
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      modified = false;
+    } catch (IOException e) {
+      System.err.println("Could not write Simplify cache " + file + ": " + e);
+    }
+  }
+
+  /** Returns the cached answers, reading them from {@link #dkconfig_file} on first use. */
+  private static LinkedHashMap<String, Boolean> answers() {
+    if (answers != null && !changed(dkconfig_file, answers_file)) {
+      return answers;
+    }
+    final int size = dkconfig_size;
+    answers =
+        new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+          static final long serialVersionUID = 20261018L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > size;
+          }
+        };
+    answers_file = dkconfig_file;
+    modified = false;
+    if (dkconfig_file != null && new File(dkconfig_file).exists()) {
+      try (BufferedReader in = Files.newBufferedReader(new File(dkconfig_file).toPath(), UTF_8)) {
+        String line = in.readLine();
+        if (!HEADER.equals(line)) {
+          System.err.println("Ignoring Simplify cache " + dkconfig_file + " with unknown format");
+          return answers;
+        }
+        while ((line = in.readLine()) != null) {
+          int space = line.indexOf(' ');
+          if (space != -1) {
+            answers.put(line.substring(0, space), line.endsWith(" T"));
+          }
+        }
+      } catch (IOException e) {
+        System.err.println("Could not read Simplify cache " + dkconfig_file + ": " + e);
+      }
+    }
+    return answers;
+  }
+
+  /** Returns true if the two file names differ. */
+  private static boolean changed(@Nullable String file1, @Nullable String file2) {
+    return (file1 == null) ? (file2 != null) : !file1.equals(file2);
+  }
+
+  /** Returns the digest of everything given to Simplify besides the lemmas and the query. */
+  private static synchronized byte[] context() {
+    if (context == null) {
+      context =
+          sha256(
+              SessionManager.proverBackground()
+                  + " "
+                  + Session.dkconfig_simplify_max_iterations
+                  + " "
+                  + Session.dkconfig_simplify_timeout);
+    }
+    return context;
+  }
+
+  /** Returns the SHA-256 digest of a string. */
+  private static byte[] sha256(String s) {
+    return newDigest().digest(s.getBytes(UTF_8));
+  }
+
+  /** Returns a new SHA-256 digest. */
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new Error("SHA-256 is not available", e);
+    }
+  }
+
+  /** Returns the 8 bytes starting at the given offset, as a long. */
+  private static long toLong(byte[] bytes, int offset) {
+    long result = 0;
+    for (int i = offset; i < offset + 8; i++) {
+      result = (result << 8) | (bytes[i] & 0xff);
+    }
+    return result;
+  }
+
+  /** Returns the bytes as a hexadecimal string. */
+  private static String toHex(byte[] bytes) {
+    StringBuilder result = new StringBuilder(2 * bytes.length);
+    for (byte b : bytes) {
+      result.append(Character.forDigit((b >> 4) & 0xf, 16));
+      result.append(Character.forDigit(b & 0xf, 16));
+    }
+    return result.toString();
+  }
+}
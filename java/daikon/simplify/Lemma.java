@@ -18,6 +18,9 @@ public class Lemma implements Comparable<Lemma> {
   public String summary;
   public String formula;
 
+  /** The first 128 bits of the digest of formula, computed by {@link CheckCache} when needed. */
+  /* package */ volatile long @Nullable [] formula_digest = null;
+
   public Lemma(String summary, String formula) {
     this.summary = summary;
     this.formula = formula;
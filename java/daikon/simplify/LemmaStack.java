@@ -11,6 +11,7 @@ import java.util.Stack;
 import java.util.TreeSet;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.Raw;
 
 /**
@@ -48,13 +49,28 @@ public class LemmaStack {
   public static boolean dkconfig_synchronous_errors = false;
 
   private Stack<Lemma> lemmas;
-  private SessionManager session;
+
+  /**
+   * The lemmas that Simplify assumes, in the order it was told them. Usually the same as lemmas,
+   * but only some of them while the assumptions behind a result are minimized. Answers are cached
+   * under these lemmas, and a restarted Simplify is told them.
+   */
+  private final List<Lemma> assumed = new ArrayList<Lemma>();
+
+  /**
+   * The Simplify process, or null if it has not been started yet. When answers are cached, Simplify
+   * is started only when a query is not in the cache, and is then told every assumed lemma.
+   */
+  private @Nullable SessionManager session = null;
 
   /** Tell Simplify to assume a lemma, which should already be on our stack. */
   private void assume(
       @UnknownInitialization(LemmaStack.class) @Raw(LemmaStack.class) LemmaStack this, Lemma lemma)
       throws TimeoutException {
-    session.request(new CmdAssume(lemma.formula));
+    if (session != null) {
+      session.request(new CmdAssume(lemma.formula));
+    }
+    assumed.add(lemma);
   }
 
   /** Assume a list of lemmas. */
@@ -69,6 +85,10 @@ public class LemmaStack {
 
   /** Pop a lemma off Simplify's stack. */
   private void unAssume() {
+    assumed.remove(assumed.size() - 1);
+    if (session == null) {
+      return;
+    }
     try {
       session.request(CmdUndoAssume.single);
     } catch (TimeoutException e) {
@@ -103,7 +123,9 @@ public class LemmaStack {
       throws SimplifyError {
     startProver();
     try {
-      assumeAll(lemmas);
+      for (Lemma lem : assumed) {
+        session.request(new CmdAssume(lem.formula));
+      }
     } catch (TimeoutException e) {
       throw new SimplifyError("Simplify restart timed out");
     }
@@ -111,7 +133,9 @@ public class LemmaStack {
 
   @SuppressWarnings("JdkObsolete")
   public LemmaStack() throws SimplifyError {
-    startProver();
+    if (!useCache()) {
+      startProver();
+    }
     lemmas = new Stack<Lemma>();
     if (daikon.inv.Invariant.dkconfig_simplify_define_predicates) pushLemmas(Lemma.lemmasList());
   }
@@ -159,15 +183,35 @@ public class LemmaStack {
     }
   }
 
+  /**
+   * Returns true if answers from Simplify are looked up in, and added to, the {@link CheckCache}.
+   * They are not when errors are synchronous, since then every lemma must be sent to Simplify as
+   * soon as it is pushed.
+   */
+  private static boolean useCache() {
+    return CheckCache.enabled() && !dkconfig_synchronous_errors;
+  }
+
   /**
    * Ask Simplify whether a string is a valid statement, given our assumptions. Returns 'T' if
    * Simplify says yes, 'F' if Simplify says no, or '?' if we have to kill Simplify because it won't
-   * answer.
+   * answer. If the answer is cached, Simplify is not asked.
    */
   private char checkString(
       @UnknownInitialization(LemmaStack.class) @Raw(LemmaStack.class) LemmaStack this, String str)
       throws SimplifyError {
     SimpUtil.assert_well_formed(str);
+    String key = null;
+    if (useCache()) {
+      key = CheckCache.key(assumed, str);
+      Boolean cached = CheckCache.get(key);
+      if (cached != null) {
+        return cached ? 'T' : 'F';
+      }
+      if (session == null) {
+        restartProver();
+      }
+    }
     CmdCheck cc = new CmdCheck(str);
     try {
       session.request(cc);
@@ -176,6 +220,9 @@ public class LemmaStack {
       return '?';
     }
     if (cc.unknown) return '?';
+    if (key != null) {
+      CheckCache.put(key, cc.valid);
+    }
     return cc.valid ? 'T' : 'F';
   }
 
@@ -368,6 +415,8 @@ public class LemmaStack {
       assumeAll(lemmas);
     } catch (TimeoutException e) {
       System.err.println("Minimzation timed out");
+      assumed.clear();
+      assumed.addAll(lemmas);
       restartProver();
       return lemmas;
     }
@@ -477,11 +526,11 @@ public class LemmaStack {
   private static SortedSet<Long> ints_seen = new TreeSet<Long>();
 
   /** Keep track that we've seen this number in formulas, for the sake of pushOrdering. */
-  public static void noticeInt(long i) {
+  public static synchronized void noticeInt(long i) {
     ints_seen.add(i);
   }
 
-  public static void clearInts() {
+  public static synchronized void clearInts() {
     ints_seen = new TreeSet<Long>();
   }
 
@@ -523,6 +572,10 @@ public class LemmaStack {
     // effectively final.  If a bug exists whereby this.session
     // is not effectively final, this would unfortunately mask that error.
     final SessionManager session = this.session;
+    if (session == null) {
+      return;
+    }
+    this.session = null;
     session.session_done();
     synchronized (session) {
       session.notifyAll();
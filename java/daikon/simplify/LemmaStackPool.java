@@ -0,0 +1,76 @@
+package daikon.simplify;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A pool of LemmaStacks, each with its own Simplify process, so that several threads can use
+ * Simplify at once. A thread takes a LemmaStack, uses it to check one set of lemmas, clears it,
+ * and releases it for the next user, or discards it if it could not be cleared. A new LemmaStack
+ * is started only when all the others are in use, so there are never more Simplify processes than
+ * threads using the pool.
+ */
+public final class LemmaStackPool {
+
+  /** The LemmaStacks that are not in use. */
+  private final Deque<LemmaStack> idle = new ArrayDeque<LemmaStack>();
+
+  /** Every LemmaStack started by this pool and not discarded. */
+  private final List<LemmaStack> started = new ArrayList<LemmaStack>();
+
+  /**
+   * Creates an empty pool.
+   *
+   * @param sessions the largest number of threads that will use the pool at once
+   */
+  public LemmaStackPool(int sessions) {
+    SessionManager.allowConcurrentSessions(sessions);
+  }
+
+  /**
+   * Returns a LemmaStack that no other thread is using, starting a new Simplify process if none is
+   * idle.
+   *
+   * @return a LemmaStack, to be passed to {@link #release} or {@link #discard} when done
+   * @throws SimplifyError if Simplify could not be started
+   */
+  public LemmaStack take() throws SimplifyError {
+    synchronized (this) {
+      if (!idle.isEmpty()) {
+        return idle.pop();
+      }
+    }
+    LemmaStack result = new LemmaStack();
+    synchronized (this) {
+      started.add(result);
+    }
+    return result;
+  }
+
+  /** Returns a LemmaStack, obtained from {@link #take}, to the pool. */
+  public synchronized void release(LemmaStack stack) {
+    idle.push(stack);
+  }
+
+  /**
+   * Removes from the pool a LemmaStack, obtained from {@link #take}, that cannot be used again
+   * because its Simplify process failed or its stack was not cleared, and stops its process.
+   */
+  public void discard(LemmaStack stack) {
+    synchronized (this) {
+      started.remove(stack);
+    }
+    stack.closeSession();
+  }
+
+  /** Stops the Simplify process of every LemmaStack in the pool. */
+  public synchronized void close() {
+    for (LemmaStack stack : started) {
+      stack.closeSession();
+    }
+    started.clear();
+    idle.clear();
+  }
+}
@@ -99,7 +99,7 @@ public class SessionManager {
 
   private static @MonotonicNonNull String prover_background = null;
 
-  private static String proverBackground() {
+  /* package */ static String proverBackground() {
     if (prover_background == null) {
       try {
         StringBuilder result = new StringBuilder("");
@@ -136,13 +136,25 @@ public class SessionManager {
 
   public static int prover_instantiate_count = 0;
 
+  /**
+   * The largest number of Simplify processes used at once, which raises the limit on the number of
+   * times Simplify is started. See {@link LemmaStackPool}.
+   */
+  private static int concurrent_sessions = 1;
+
+  /** Allows the given number of Simplify processes to be used at once. */
+  /* package */ static synchronized void allowConcurrentSessions(int sessions) {
+    concurrent_sessions = Math.max(concurrent_sessions, sessions);
+  }
+
   // Start up simplify, and send the universal backgound.
   // Is successful exactly when return != null.
-  public static @Nullable SessionManager attemptProverStartup() {
+  // Synchronized because several threads may start Simplify processes at once.
+  public static synchronized @Nullable SessionManager attemptProverStartup() {
     SessionManager prover;
 
     // Limit ourselves to a few tries
-    if (prover_instantiate_count > 5) {
+    if (prover_instantiate_count > 4 + concurrent_sessions) {
       return null;
     }
 
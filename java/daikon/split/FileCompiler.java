@@ -1,15 +1,37 @@
 package daikon.split;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.Daikon;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecuteResultHandler;
 import org.apache.commons.exec.DefaultExecutor;
@@ -18,12 +40,15 @@ import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.PumpStreamHandler;
 import org.checkerframework.checker.index.qual.Positive;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.regex.qual.Regex;
 import org.checkerframework.common.value.qual.MinLen;
 
 /**
  * This class has method {@link #compileFiles(List)} that compiles Java source files. It invokes a
- * user-specified external command, such as {@code javac} or {@code jikes}.
+ * user-specified external command, such as {@code javac} or {@code jikes}. If {@link
+ * #useInProcessCompiler} was called and the command is {@code javac}, it instead runs the Java
+ * compiler of this JVM, and may cache the class files it produces.
  */
 public final class FileCompiler {
 
@@ -38,6 +63,10 @@ public final class FileCompiler {
   private String @MinLen(1) [] compiler;
   /** Time limit for compilation jobs. */
   private long timeLimit;
+  /** True if javac is run in this JVM rather than in a new process. */
+  private boolean inProcess = false;
+  /** The directory of cached class files, or null if they are not cached. */
+  private @Nullable File cacheDir = null;
 
   static {
     try {
@@ -103,6 +132,21 @@ public final class FileCompiler {
     this(compiler.trim().split(" +"), timeLimit);
   }
 
+  /**
+   * Makes {@link #compileFiles} run the Java compiler of this JVM, through the javax.tools API,
+   * if the compiler command is {@code javac} and this JVM has a Java compiler. The arguments of
+   * the command are passed to that compiler, but the time limit does not apply. The class files
+   * are written next to their sources, as by the {@code javac} command.
+   *
+   * @param cacheDir if non-null, a directory in which compiled classes are cached, keyed by a
+   *     digest of their source, the compiler arguments, and the versions of Java and Daikon. A file
+   *     whose classes are in the cache is not compiled again. The directory is created if needed.
+   */
+  public void useInProcessCompiler(@Nullable String cacheDir) {
+    this.inProcess = true;
+    this.cacheDir = (cacheDir == null) ? null : new File(cacheDir);
+  }
+
   /**
    * Compiles the files given by fileNames. Returns the error output.
    *
@@ -114,6 +158,13 @@ public final class FileCompiler {
 
     // System.out.printf("compileFiles: %s%n", fileNames);
 
+    if (inProcess && compiler[0].endsWith("javac")) {
+      JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+      if (javac != null) {
+        return compile_in_process(javac, fileNames);
+      }
+    }
+
     // Start a process to compile all of the files (in one command)
     String compile_errors = compile_source(fileNames);
 
@@ -246,6 +297,263 @@ public final class FileCompiler {
     }
   }
 
+  /**
+   * Compiles the files with the given Java compiler, in one batch, and writes their class files
+   * next to them. Files whose classes are in the cache are not compiled.
+   *
+   * @param javac the Java compiler of this JVM
+   * @param fileNames the paths of the Java source to be compiled as Strings
+   * @return the error messages from compiling the files, in the format used by javac
+   */
+  private String compile_in_process(JavaCompiler javac, List<String> fileNames)
+      throws IOException {
+    if (fileNames.size() == 0) {
+      throw new Error("no files to compile were provided");
+    }
+    List<String> options = Arrays.asList(compiler).subList(1, compiler.length);
+
+    // The cache key of each file to be compiled, if there is a cache.
+    Map<String, String> keys = new HashMap<String, String>();
+    List<String> toCompile = new ArrayList<String>();
+    for (String fileName : fileNames) {
+      fileName = fileName.trim();
+      if (cacheDir != null) {
+        String key = cacheKey(fileName, options);
+        keys.put(fileName, key);
+        if (copyFromCache(key, fileName)) {
+          continue;
+        }
+      }
+      toCompile.add(fileName);
+    }
+    if (toCompile.isEmpty()) {
+      return "";
+    }
+
+    StringBuilder errors = new StringBuilder();
+    Set<String> failed = compile_batch(javac, options, toCompile, keys, errors);
+
+    // Once one file has an error, javac does not generate code for the files it has not yet
+    // generated, so compile again those that had no errors but have no class file.  Unlike
+    // recompile_without_errors, this does not need to parse the error messages.
+    List<String> retry = new ArrayList<String>();
+    for (String fileName : toCompile) {
+      if (!failed.contains(fileName) && !fileExists(getClassFilePath(fileName))) {
+        retry.add(fileName);
+      }
+    }
+    if (retry.size() > 0) {
+      compile_batch(javac, options, retry, keys, errors);
+    }
+    return errors.toString();
+  }
+
+  /**
+   * Compiles the files with the given Java compiler, in one batch, and writes the class files that
+   * it produces next to their sources and to the cache.
+   *
+   * @param javac the Java compiler of this JVM
+   * @param options the arguments of the compiler command
+   * @param fileNames the paths of the Java source to be compiled as Strings
+   * @param keys the cache key of each file, if there is a cache
+   * @param errors to which the error messages are appended
+   * @return the files that have errors
+   */
+  private Set<String> compile_batch(
+      JavaCompiler javac,
+      List<String> options,
+      List<String> fileNames,
+      Map<String, String> keys,
+      StringBuilder errors)
+      throws IOException {
+    Set<String> failed = new HashSet<String>();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+    StandardJavaFileManager standardManager =
+        javac.getStandardFileManager(diagnostics, null, UTF_8);
+    ClassFileCollector fileManager = new ClassFileCollector(standardManager);
+    Map<URI, String> sourceNames = new HashMap<URI, String>();
+    List<JavaFileObject> sources = new ArrayList<JavaFileObject>();
+    for (JavaFileObject source : standardManager.getJavaFileObjectsFromStrings(fileNames)) {
+      sourceNames.put(source.toUri(), source.getName());
+      sources.add(source);
+    }
+    try {
+      javac.getTask(null, fileManager, diagnostics, options, null, sources).call();
+    } catch (IllegalArgumentException e) {
+      // An invalid compiler argument.
+      errors.append(e.getMessage()).append(System.lineSeparator());
+      failed.addAll(fileNames);
+      return failed;
+    } finally {
+      fileManager.close();
+    }
+
+    for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+      if (d.getKind() != Diagnostic.Kind.ERROR) {
+        continue;
+      }
+      JavaFileObject source = d.getSource();
+      String fileName = (source == null) ? null : sourceNames.get(source.toUri());
+      if (fileName == null) {
+        errors.append("error: ");
+      } else {
+        failed.add(fileName);
+        errors.append(fileName + ":" + d.getLineNumber() + ": error: ");
+      }
+      errors.append(d.getMessage(null)).append(System.lineSeparator());
+    }
+
+    for (Map.Entry<URI, Map<String, byte[]>> entry : fileManager.classFiles.entrySet()) {
+      String fileName = sourceNames.get(entry.getKey());
+      if (fileName == null || failed.contains(fileName)) {
+        continue;
+      }
+      File dir = new File(fileName).getAbsoluteFile().getParentFile();
+      for (Map.Entry<String, byte[]> classFile : entry.getValue().entrySet()) {
+        Files.write(new File(dir, classFile.getKey()).toPath(), classFile.getValue());
+      }
+      String key = keys.get(fileName);
+      if (key != null) {
+        saveToCache(key, entry.getValue());
+      }
+    }
+    return failed;
+  }
+
+  /**
+   * A file manager that keeps in memory the class files written by the compiler, instead of
+   * writing them to disk.
+   */
+  private static class ClassFileCollector
+      extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+    /**
+     * The class files written by the compiler, from the URI of the source file they were compiled
+     * from to a map from the name of each class file (without directory) to its contents.
+     */
+    final Map<URI, Map<String, byte[]>> classFiles = new LinkedHashMap<URI, Map<String, byte[]>>();
+
+    /**
+     * Creates a ClassFileCollector.
+     *
+     * @param fileManager the file manager that reads the source files and the classpath
+     */
+    ClassFileCollector(StandardJavaFileManager fileManager) {
+      super(fileManager);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(
+        Location location,
+        final String className,
+        JavaFileObject.Kind kind,
+        @Nullable FileObject sibling)
+        throws IOException {
+      if (kind != JavaFileObject.Kind.CLASS || sibling == null) {
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+      }
+      Map<String, byte[]> outputs = classFiles.get(sibling.toUri());
+      if (outputs == null) {
+        outputs = new LinkedHashMap<String, byte[]>();
+        classFiles.put(sibling.toUri(), outputs);
+      }
+      final Map<String, byte[]> sourceOutputs = outputs;
+      final String classFileName = className.substring(className.lastIndexOf('.') + 1) + ".class";
+      return new SimpleJavaFileObject(
+          URI.create("memory:///" + className.replace('.', '/') + ".class"), kind) {
+        @Override
+        public OutputStream openOutputStream() {
+          return new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+              sourceOutputs.put(classFileName, toByteArray());
+            }
+          };
+        }
+      };
+    }
+  }
+
+  /**
+   * Returns the key under which the class files compiled from a source file are cached.
+   *
+   * @param fileName the path of the source file
+   * @param options the arguments of the compiler command
+   * @return the hexadecimal digest of the source and of everything else that affects compilation
+   */
+  private static String cacheKey(String fileName, List<String> options) throws IOException {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new Error("SHA-256 is not available", e);
+    }
+    String context =
+        System.getProperty("java.version") + " " + Daikon.release_version + " " + options + "\n";
+    md.update(context.getBytes(UTF_8));
+    md.update(Files.readAllBytes(new File(fileName).toPath()));
+    StringBuilder result = new StringBuilder();
+    for (byte b : md.digest()) {
+      result.append(Character.forDigit((b >> 4) & 0xf, 16));
+      result.append(Character.forDigit(b & 0xf, 16));
+    }
+    return result.toString();
+  }
+
+  /**
+   * Copies the cached class files with the given key next to the given source file.
+   *
+   * @param key the cache key of the source file
+   * @param fileName the path of the source file
+   * @return true if the class files were in the cache
+   */
+  private boolean copyFromCache(String key, String fileName) throws IOException {
+    assert cacheDir != null;
+    File[] cached = new File(cacheDir, key).listFiles();
+    if (cached == null || cached.length == 0) {
+      return false;
+    }
+    File dir = new File(fileName).getAbsoluteFile().getParentFile();
+    for (File classFile : cached) {
+      Files.copy(
+          classFile.toPath(),
+          new File(dir, classFile.getName()).toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    }
+    return true;
+  }
+
+  /**
+   * Adds class files to the cache. They are written to a new directory, which is then renamed, so
+   * that an interrupted or concurrent run never sees an incomplete entry.
+   *
+   * @param key the cache key of the source file that they were compiled from
+   * @param classFiles a map from the name of each class file to its contents
+   */
+  private void saveToCache(String key, Map<String, byte[]> classFiles) {
+    assert cacheDir != null;
+    File entry = new File(cacheDir, key);
+    if (entry.isDirectory()) {
+      return;
+    }
+    try {
+      Files.createDirectories(cacheDir.toPath());
+      File tmp = Files.createTempDirectory(cacheDir.toPath(), key).toFile();
+      for (Map.Entry<String, byte[]> classFile : classFiles.entrySet()) {
+        Files.write(new File(tmp, classFile.getKey()).toPath(), classFile.getValue());
+      }
+      if (!tmp.renameTo(entry)) {
+        // Another run cached the same classes first.
+        for (String name : classFiles.keySet()) {
+          new File(tmp, name).delete();
+        }
+        tmp.delete();
+      }
+    } catch (IOException e) {
+      System.err.println("Could not cache compiled classes in " + cacheDir + ": " + e);
+    }
+  }
+
   /**
    * Return the file path to where a class file for a source file at sourceFilePath would be
    * generated.
@@ -17,6 +17,7 @@ import daikon.suppress.NIS;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -76,6 +77,16 @@ public class PptSplitter implements Serializable {
    */
   public static boolean dkconfig_suppressSplitterErrors = true;
 
+  /**
+   * Integer. If greater than 1, the samples of a program point that has splitters are buffered, and
+   * are given to its conditional program points this many at a time: each splitter is evaluated
+   * over the whole batch, then each conditional program point is given its share of the batch in
+   * one pass. This keeps the state of one conditional program point in the cache while it
+   * processes its samples. Each conditional program point sees the same samples in the same order
+   * as when this is 0, which gives each sample to the conditional program points as it is read.
+   */
+  public static int dkconfig_batch_size = 0;
+
   /** General debug tracer. */
   public static final Logger debug = Logger.getLogger("daikon.split.PptSplitter");
 
@@ -141,6 +152,31 @@ public class PptSplitter implements Serializable {
     ppts = new PptTopLevel[] {exit1, exit2};
   }
 
+  /**
+   * Restores the splitters, which are not serialized, after this has been read from a checkpoint.
+   * The splitter is the element of prototypes that created the conditional program points.
+   *
+   * @param prototypes the prototype splitters for the parent program point
+   */
+  public void restore_splitter(Splitter @Nullable [] prototypes) {
+    if (!(ppts[0] instanceof PptConditional)) {
+      // split over exit points; no splitter is required
+      return;
+    }
+    if (prototypes != null) {
+      for (Splitter prototype : prototypes) {
+        if (((PptConditional) ppts[0]).created_by(prototype)) {
+          splitter = prototype;
+          for (PptTopLevel ppt : ppts) {
+            ((PptConditional) ppt).restore_splitter(prototype);
+          }
+          return;
+        }
+      }
+    }
+    throw new Error("No splitter found for " + ppts[0].name());
+  }
+
   /** Returns true if the splitter is valid at this point, false otherwise. */
   public boolean splitter_valid() {
 
@@ -168,6 +204,18 @@ public class PptSplitter implements Serializable {
     // efficient way to do this would be better.
     ppt_cond.get_missingOutOfBounds(parent, vt);
 
+    add_sample(ppt_cond, vt, count);
+  }
+
+  /** Adds the sample to the given conditional ppt of the split. */
+  @SuppressWarnings("flowexpr.parse.error") // private field
+  @RequiresNonNull({
+    "NIS.suppressor_map",
+    "NIS.suppressor_map_suppression_count",
+    "NIS.all_suppressions"
+  })
+  private void add_sample(PptConditional ppt_cond, ValueTuple vt, int count) {
+
     // Add the point
     ppt_cond.add_bottom_up(vt, count);
 
@@ -210,6 +258,131 @@ public class PptSplitter implements Serializable {
     return ((PptConditional) ppts[splitter_test ? 0 : 1]);
   }
 
+  /**
+   * Samples of one program point that have not yet been given to its splitters. Used when {@link
+   * #dkconfig_batch_size} is greater than 1.
+   */
+  public static final class SampleBatch {
+
+    /** The program point whose samples these are. */
+    private final PptTopLevel parent;
+
+    /** The buffered samples, in the order in which they were read. */
+    private final List<ValueTuple> samples = new ArrayList<ValueTuple>();
+
+    /** The count of each buffered sample. */
+    private int[] counts = new int[16];
+
+    /**
+     * For each buffered sample, the indices of the variables that it makes missing out of bounds
+     * in a conditional program point (see {@link PptTopLevel#get_missingOutOfBounds}), or null if
+     * there are none. They are found when the sample is buffered, because the variables of the
+     * parent may become missing out of bounds on later samples.
+     */
+    private final List<int @Nullable []> missing_out_of_bounds = new ArrayList<int @Nullable []>();
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param parent the program point whose samples are buffered
+     */
+    public SampleBatch(PptTopLevel parent) {
+      this.parent = parent;
+    }
+
+    /** Returns the number of buffered samples. */
+    public int size() {
+      return samples.size();
+    }
+
+    /**
+     * Buffers a sample.
+     *
+     * @param vt the sample
+     * @param count the number of times the sample was seen
+     */
+    public void add(ValueTuple vt, int count) {
+      int n = samples.size();
+      if (n == counts.length) {
+        counts = Arrays.copyOf(counts, 2 * n);
+      }
+      counts[n] = count;
+      samples.add(vt);
+
+      int[] missing = null;
+      int num_missing = 0;
+      for (int ii = 0; ii < parent.var_infos.length; ii++) {
+        if (parent.var_infos[ii].missingOutOfBounds()
+            && vt.getModified(parent.var_infos[ii]) == ValueTuple.MISSING_NONSENSICAL) {
+          if (missing == null) {
+            missing = new int[parent.var_infos.length];
+          }
+          missing[num_missing++] = ii;
+        }
+      }
+      missing_out_of_bounds.add((missing == null) ? null : Arrays.copyOf(missing, num_missing));
+    }
+
+    /**
+     * Gives the buffered samples to the conditional program points of the splitters, and empties
+     * the batch. Each splitter is evaluated over every sample first; then the samples for which it
+     * is true are given to one of its conditional program points, and those for which it is false
+     * to the other. A sample on which the splitter throws an exception is given to neither.
+     *
+     * @param splitters the splitters of the parent program point
+     */
+    @SuppressWarnings("flowexpr.parse.error") // private field
+    @RequiresNonNull({
+      "NIS.suppressor_map",
+      "NIS.suppressor_map_suppression_count",
+      "NIS.all_suppressions"
+    })
+    public void flush(List<PptSplitter> splitters) {
+      int n = samples.size();
+      if (n == 0) {
+        return;
+      }
+      BitSet tested = new BitSet(n);
+      BitSet result = new BitSet(n);
+      for (PptSplitter ppt_split : splitters) {
+        assert ppt_split.ppts.length == 2;
+        Splitter splitter = ((PptConditional) ppt_split.ppts[0]).splitter;
+        tested.clear();
+        result.clear();
+        for (int i = 0; i < n; i++) {
+          try {
+            if (splitter.test(samples.get(i))) {
+              result.set(i);
+            }
+            tested.set(i);
+          } catch (Throwable e) {
+            // As in choose_conditional, don't put the sample on either side of the split.
+          }
+        }
+        for (int side = 0; side < 2; side++) {
+          PptConditional ppt_cond = (PptConditional) ppt_split.ppts[side];
+          boolean want = (side == 0);
+          for (int i = tested.nextSetBit(0); i >= 0; i = tested.nextSetBit(i + 1)) {
+            if (result.get(i) != want) {
+              continue;
+            }
+            int[] missing = missing_out_of_bounds.get(i);
+            if (missing != null) {
+              for (int ii : missing) {
+                VarInfo vi = ppt_cond.var_infos[ii];
+                assert vi.derived != null : "@AssumeAssertion(nullness)";
+                vi.derived.missing_array_bounds = true;
+              }
+            }
+            ppt_split.add_sample(ppt_cond, samples.get(i), counts[i]);
+          }
+        }
+      }
+      samples.clear();
+      missing_out_of_bounds.clear();
+    }
+  }
+
   /** Adds implication invariants based on the invariants found on each side of the split. */
   @SuppressWarnings("flowexpr.parse.error") // private field
   @RequiresNonNull({"parent.equality_view", "NIS.all_suppressions", "NIS.suppressor_map"})
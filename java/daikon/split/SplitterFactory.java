@@ -15,6 +15,7 @@ import java.util.regex.Pattern;
 import jtb.ParseException;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import org.checkerframework.checker.regex.qual.Regex;
 import org.checkerframework.checker.signature.qual.BinaryName;
@@ -60,6 +61,20 @@ public class SplitterFactory {
    */
   public static int dkconfig_compile_timeout = 20;
 
+  /**
+   * Boolean. If true and {@code daikon.split.SplitterFactory.compiler} runs javac, Splitters are
+   * compiled by the Java compiler of the JVM that runs Daikon, all at once, rather than by starting
+   * a new process. The options given to javac are still used, but the timeout is not.
+   */
+  public static boolean dkconfig_compile_in_process = true;
+
+  /**
+   * String. If non-null, and Splitters are compiled in process, the directory in which compiled
+   * Splitters are cached, so that later runs that use the same {@code .spinfo} files need not
+   * compile them again. The directory is created if it does not exist.
+   */
+  public static @Nullable String dkconfig_compile_cache = null;
+
   private static @MonotonicNonNull FileCompiler fileCompiler; // lazily initialized
 
   /**
@@ -248,6 +263,9 @@ public class SplitterFactory {
     // is specified in milliseconds.
     if (fileCompiler == null) {
       fileCompiler = new FileCompiler(dkconfig_compiler, 1000 * (long) dkconfig_compile_timeout);
+      if (dkconfig_compile_in_process) {
+        fileCompiler.useInProcessCompiler(dkconfig_compile_cache);
+      }
     }
     return fileCompiler.compileFiles(fileNames);
   }
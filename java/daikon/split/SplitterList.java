@@ -60,6 +60,11 @@ public abstract class SplitterList {
     }
   }
 
+  /** Removes the splitters associated with the program point pptname. */
+  public static void remove(String pptname) {
+    ppt_splitters.remove(pptname);
+  }
+
   // This is only used by the debugging output in SplitterList.put().
   public static String formatSplitters(Splitter[] splits) {
     if (splits == null) return "null";
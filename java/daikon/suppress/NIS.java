@@ -4,8 +4,10 @@ import daikon.Daikon;
 import daikon.Debug;
 import daikon.PptSlice;
 import daikon.PptTopLevel;
+import daikon.Profile;
 import daikon.ValueTuple;
 import daikon.VarComparability;
+import daikon.VarComparabilityImplicit;
 import daikon.VarInfo;
 import daikon.inv.Invariant;
 import daikon.inv.InvariantStatus;
@@ -13,6 +15,8 @@ import daikon.inv.ValueSet;
 import daikon.inv.binary.BinaryInvariant;
 import daikon.inv.binary.twoScalar.IntEqual;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -79,7 +83,8 @@ public class NIS {
   /**
    * Boolean. If true, use antecedent method for NIS processing. If false, use falsified method for
    * processing falsified invariants for NISuppressions. Note this flag is for internal use only and
-   * is controlled by NIS.dkconfig_suppression_processor.
+   * is controlled by NIS.dkconfig_suppression_processor. When the hybrid method is used, the choice
+   * is made for each sample; see {@link #antecedent_method()}.
    */
   public static boolean antecedent_method = true;
 
@@ -151,19 +156,138 @@ public class NIS {
   public @MonotonicNonNull static List<@Prototype Invariant> suppressor_proto_invs;
 
   /**
-   * List of invariants that are unsuppressed by the current sample. The {@link #falsified} and
-   * {@link #process_falsified_invs} methods add created invariants to this list. This list is
-   * cleared by {@link #apply_samples}.
+   * The state of the sample that a thread is currently applying to a program point. Samples for
+   * different program points may be processed concurrently (see {@link
+   * daikon.FileIO#dkconfig_inference_threads}), so this state is kept per thread.
    */
-  public static List<Invariant> new_invs = new ArrayList<Invariant>();
+  static final class SampleState {
+    /**
+     * List of invariants that are unsuppressed by the current sample. The {@link #falsified} and
+     * {@link #process_falsified_invs} methods add created invariants to this list. This list is
+     * cleared by {@link #apply_samples}.
+     */
+    final List<Invariant> new_invs = new ArrayList<Invariant>();
+
+    /**
+     * List of invariants that are unsuppressed and then falsified by the current sample. This list
+     * is cleared at the beginning of apply_samples() and falsified invariants are added as the
+     * current sample is applied to invariants in new_invs. The list is only used when the falsified
+     * method is used for processing suppressions.
+     */
+    final List<Invariant> newly_falsified = new ArrayList<Invariant>();
+
+    /** True until the current sample has been applied once to the newly created invariants. */
+    boolean first_pass_with_sample = true;
+
+    /** The choice of the hybrid method for the current sample; see {@link #antecedent_method()}. */
+    boolean antecedent_method = NIS.antecedent_method;
+  }
 
   /**
-   * List of invariants that are unsuppressed and then falsified by the current sample. This list is
-   * cleared at the beginning of apply_samples() and falsified invariants are added as the current
-   * sample is applied to invariants in new_invs. The list is only used when the falsified method is
-   * used for processing suppressions.
+   * The invariants of a program point that are falsified by the sample being added to it, grouped
+   * by class. {@link PptTopLevel#add_bottom_up} creates a log for each sample and {@link
+   * Invariant#falsify} adds to it, so {@link #process_falsified_invs} can find the falsified
+   * invariants without examining every invariant of the program point.
    */
-  public static List<Invariant> newly_falsified = new ArrayList<Invariant>();
+  public static final class FalsificationLog {
+    /** The falsified invariants, grouped by class. */
+    final Map<Class<? extends Invariant>, List<Invariant>> by_class =
+        new LinkedHashMap<Class<? extends Invariant>, List<Invariant>>();
+
+    /** Records that inv has been falsified. */
+    public void add(Invariant inv) {
+      List<Invariant> invs = by_class.get(inv.getClass());
+      if (invs == null) {
+        invs = new ArrayList<Invariant>();
+        by_class.put(inv.getClass(), invs);
+      }
+      invs.add(inv);
+    }
+
+    /**
+     * Removes the invariants that are no longer in their slice, such as those that {@link
+     * daikon.DynamicConstants} falsified in a new slice and discarded before adding the slice to
+     * the program point.
+     */
+    void remove_discarded() {
+      for (Iterator<List<Invariant>> i = by_class.values().iterator(); i.hasNext(); ) {
+        List<Invariant> invs = i.next();
+        for (ListIterator<Invariant> j = invs.listIterator(); j.hasNext(); ) {
+          Invariant inv = j.next();
+          if (!inv.is_false() || !inv.ppt.invs.contains(inv)) {
+            j.remove();
+          }
+        }
+        if (invs.isEmpty()) {
+          i.remove();
+        }
+      }
+    }
+
+    /** Returns true if this and other contain the same invariants, regardless of order. */
+    boolean same_invariants(FalsificationLog other) {
+      if (!by_class.keySet().equals(other.by_class.keySet())) {
+        return false;
+      }
+      for (Map.Entry<Class<? extends Invariant>, List<Invariant>> e : by_class.entrySet()) {
+        List<Invariant> other_invs = other.by_class.get(e.getKey());
+        if (other_invs.size() != e.getValue().size()) {
+          return false;
+        }
+        Set<Invariant> invs = Collections.newSetFromMap(new IdentityHashMap<Invariant, Boolean>());
+        invs.addAll(e.getValue());
+        if (!invs.containsAll(other_invs)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns a log of the falsified invariants of ppt that have not been removed, found by
+     * examining every invariant of ppt.
+     */
+    static FalsificationLog scan(PptTopLevel ppt) {
+      FalsificationLog result = new FalsificationLog();
+      for (Iterator<Invariant> i = ppt.invariants_iterator(); i.hasNext(); ) {
+        Invariant inv = i.next();
+        if (inv.is_false()) {
+          result.add(inv);
+        }
+      }
+      return result;
+    }
+
+    /** Returns the number of falsified invariants that are suppressors. */
+    @RequiresNonNull("NIS.suppressor_map")
+    int suppressor_count() {
+      int result = 0;
+      for (Map.Entry<Class<? extends Invariant>, List<Invariant>> e : by_class.entrySet()) {
+        if (suppressor_map.containsKey(e.getKey())) {
+          result += e.getValue().size();
+        }
+      }
+      return result;
+    }
+  }
+
+  /** The sample state of each thread. */
+  private static final ThreadLocal<SampleState> sample_state =
+      new ThreadLocal<SampleState>() {
+        @Override
+        protected SampleState initialValue() {
+          return new SampleState();
+        }
+      };
+
+  /**
+   * Returns true if the antecedent method is used to process suppressions for the current sample,
+   * false if the falsified method is used. With the hybrid method, this is decided for each sample
+   * by {@link #process_falsified_invs}.
+   */
+  public static boolean antecedent_method() {
+    return hybrid_method ? sample_state.get().antecedent_method : antecedent_method;
+  }
 
   // Statistics that are kept during processing.  Some of these are kept
   // and/or make sense for some approaches and not for others
@@ -302,7 +426,7 @@ public class NIS {
   @RequiresNonNull("suppressor_map")
   public static void falsified(Invariant inv) {
 
-    if (!dkconfig_enabled || antecedent_method) {
+    if (!dkconfig_enabled || antecedent_method()) {
       return;
     }
 
@@ -327,11 +451,12 @@ public class NIS {
       return;
     }
 
+    SampleState state = sample_state.get();
     long startTime = 0;
     // Count the number of falsified invariants that are antecedents
     if (keep_stats) {
       startTime = System.nanoTime();
-      if (PptTopLevel.first_pass_with_sample && suppressor_map.containsKey(inv.getClass())) {
+      if (state.first_pass_with_sample && suppressor_map.containsKey(inv.getClass())) {
         false_invs++;
       }
     }
@@ -342,7 +467,7 @@ public class NIS {
       if (debug.isLoggable(Level.FINE)) {
         debug.fine("processing suppression set " + ss + " over falsified inv " + inv.format());
       }
-      ss.falsified(inv, new_invs);
+      ss.falsified(inv, state.new_invs);
       suppressions_processed += ss.suppression_set.length;
     }
 
@@ -358,8 +483,14 @@ public class NIS {
    *
    * <p>Clears the new_invs list after processing. Currently this routine checks to insure that the
    * newly falsified invariant is not itself a possible NI suppressor.
+   *
+   * @return true if the sample falsified some of the newly created invariants. They may unsuppress
+   *     other invariants, so the caller should remove them and call this again.
    */
-  public static void apply_samples(ValueTuple vt, int count) {
+  public static boolean apply_samples(ValueTuple vt, int count) {
+    SampleState state = sample_state.get();
+    List<Invariant> new_invs = state.new_invs;
+    List<Invariant> newly_falsified = state.newly_falsified;
     newly_falsified.clear();
 
     if (NIS.debug.isLoggable(Level.FINE)) {
@@ -389,7 +520,7 @@ public class NIS {
       if (!missing) {
         InvariantStatus result = inv.add_sample(vt, count);
         if (result == InvariantStatus.FALSIFIED) {
-          if (NIS.antecedent_method) {
+          if (antecedent_method()) {
             throw new Error(
                 "inv "
                     + inv.format()
@@ -411,7 +542,7 @@ public class NIS {
       inv.ppt.addInvariant(inv);
       if (Debug.logOn()) inv.log("%s added to slice", inv.format());
 
-      if (NIS.antecedent_method) created_invs_cnt++;
+      if (antecedent_method()) created_invs_cnt++;
     }
 
     // Make a second pass through the new invariants and make sure that
@@ -425,12 +556,17 @@ public class NIS {
       if (inv.is_ni_suppressed()) {
         still_suppressed_cnt++;
         inv.log("removed, still suppressed in second pass");
+        Profile.invariant_suppressed(inv.ppt.parent, inv.getClass());
         inv.ppt.invs.remove(inv);
         i.remove();
       }
     }
 
     new_invs.clear();
+
+    // The next pass (if any) applies the same sample again.
+    state.first_pass_with_sample = newly_falsified.isEmpty();
+    return !newly_falsified.isEmpty();
   }
 
   /** Clears the current NIS statistics and enables the keeping of statistics. */
@@ -515,38 +651,49 @@ public class NIS {
   })
   public static void process_falsified_invs(PptTopLevel ppt, ValueTuple vt) {
 
+    // The falsified invariants.  Outside add_bottom_up there is no log, so find them.
+    FalsificationLog falsified = ppt.falsification_log;
+    if (falsified == null) {
+      falsified = FalsificationLog.scan(ppt);
+    } else {
+      falsified.remove_discarded();
+      if (Debug.dkconfig_internal_check) {
+        FalsificationLog scanned = FalsificationLog.scan(ppt);
+        assert falsified.same_invariants(scanned)
+            : "falsification log " + falsified.by_class + " != " + scanned.by_class + " at " + ppt;
+      }
+    }
+
     // if using the hybrid method, need to know the number of falsified suppressor
     // invariants before deciding which method to use
     if (NIS.hybrid_method) {
       int count = 0;
-      for (Iterator<Invariant> i = ppt.invariants_iterator(); i.hasNext(); ) {
-        Invariant inv = i.next();
+      for (Map.Entry<Class<? extends Invariant>, List<Invariant>> e :
+          falsified.by_class.entrySet()) {
+        Integer map_count = suppressor_map_suppression_count.get(e.getKey());
+        for (Invariant inv : e.getValue()) {
 
-        if (NIS.dkconfig_skip_hashcode_type) {
+          if (NIS.dkconfig_skip_hashcode_type) {
 
-          boolean hashFound = false;
+            boolean hashFound = false;
 
-          for (VarInfo vi : inv.ppt.var_infos) {
-            if (vi.file_rep_type.isHashcode()) {
-              hashFound = true;
+            for (VarInfo vi : inv.ppt.var_infos) {
+              if (vi.file_rep_type.isHashcode()) {
+                hashFound = true;
+              }
             }
-          }
 
-          if (hashFound) {
-            continue;
+            if (hashFound) {
+              continue;
+            }
           }
-        }
 
-        if (inv.is_false()) {
           false_cnts++;
 
-          if (suppressor_map.containsKey(inv.getClass())) {
+          if (map_count != null) {
 
             // use the following count update when splitting the hybrid method by the
             // number of total suppressions associated with the falsified invariants
-            @SuppressWarnings("nullness") // map:  same keys in suppressor_map and
-            // suppressor_map_suppression_count
-            int map_count = suppressor_map_suppression_count.get(inv.getClass());
             count += map_count;
             suppressions_processed_falsified += map_count;
           }
@@ -554,13 +701,13 @@ public class NIS {
       }
 
       if (count > NIS.dkconfig_hybrid_threshhold) {
-        antecedent_method = true;
+        sample_state.get().antecedent_method = true;
       } else {
-        antecedent_method = false;
+        sample_state.get().antecedent_method = false;
       }
     }
 
-    if (!dkconfig_enabled || !antecedent_method) {
+    if (!dkconfig_enabled || !antecedent_method()) {
       return;
     }
 
@@ -576,15 +723,7 @@ public class NIS {
     }
 
     // If there are no falsified invariants that are suppressors, there is nothing to do
-    int false_cnt = 0;
-    int inv_cnt = 0;
-    for (Iterator<Invariant> i = ppt.invariants_iterator(); i.hasNext(); ) {
-      Invariant inv = i.next();
-      if (inv.is_false() && suppressor_map.containsKey(inv.getClass())) false_cnt++;
-      inv_cnt++;
-    }
-
-    // System.out.printf("Invariants for ppt %s: %d%n", ppt, inv_cnt);
+    int false_cnt = falsified.suppressor_count();
     if (false_cnt == 0) {
       return;
     }
@@ -596,14 +735,35 @@ public class NIS {
 
     if (debugAnt.isLoggable(Level.FINE)) ppt.debug_invs(debugAnt);
 
-    // Find all antecedents and organize them by their variables comparability
+    // Only antecedents that are comparable to a falsified suppressor can create newly
+    // unsuppressed invariants; the others are removed below.  If an always-comparable
+    // suppressor was falsified, every set of antecedents is needed.
+    Set<VarComparability> false_comps = new LinkedHashSet<VarComparability>();
+    for (Map.Entry<Class<? extends Invariant>, List<Invariant>> e :
+        falsified.by_class.entrySet()) {
+      if (suppressor_map.containsKey(e.getKey())) {
+        for (Invariant inv : e.getValue()) {
+          VarComparability vc = inv.get_comparability();
+          if (vc.alwaysComparable()) {
+            false_comps = null;
+            break;
+          }
+          false_comps.add(vc);
+        }
+      }
+      if (false_comps == null) {
+        break;
+      }
+    }
+
+    // Find the antecedents and organize them by their variables comparability
     Map<VarComparability, Antecedents> comp_ants =
         new LinkedHashMap<VarComparability, Antecedents>();
-    store_antecedents_by_comparability(ppt.views_iterator(), comp_ants);
+    store_antecedents_by_comparability(ppt.views_iterator(), comp_ants, false_comps);
 
     if (ppt.constants != null) {
       store_antecedents_by_comparability(
-          ppt.constants.create_constant_invs().iterator(), comp_ants);
+          ppt.constants.create_constant_invs().iterator(), comp_ants, false_comps);
     }
 
     if (debugAnt.isLoggable(Level.FINE)) {
@@ -685,6 +845,8 @@ public class NIS {
           "Found " + unsuppressed_invs.size() + " unsuppressed invariants: " + unsuppressed_invs);
     }
 
+    List<Invariant> new_invs = sample_state.get().new_invs;
+
     // Create each new unsuppressed invariant that is not still suppressed
     // by a different suppression.  Skip any that will be falsified by
     // the sample.  Checking the sample is faster than checking suppression
@@ -800,10 +962,29 @@ public class NIS {
   @RequiresNonNull("suppressor_map")
   static void store_antecedents_by_comparability(
       Iterator<PptSlice> slice_iterator, Map<VarComparability, Antecedents> comp_ants) {
+    store_antecedents_by_comparability(slice_iterator, comp_ants, null);
+  }
+
+  /**
+   * Like {@link #store_antecedents_by_comparability(Iterator, Map)}, but if comps is non-null,
+   * skips each slice whose comparability is neither always-comparable nor in comps.
+   */
+  @RequiresNonNull("suppressor_map")
+  static void store_antecedents_by_comparability(
+      Iterator<PptSlice> slice_iterator,
+      Map<VarComparability, Antecedents> comp_ants,
+      @Nullable Set<VarComparability> comps) {
 
     for (Iterator<PptSlice> i = slice_iterator; i.hasNext(); ) {
       PptSlice slice = i.next();
 
+      if (comps != null) {
+        VarComparability vc = slice_comparability(slice);
+        if (!vc.alwaysComparable() && !comps.contains(vc)) {
+          continue;
+        }
+      }
+
       if (NIS.dkconfig_skip_hashcode_type) {
 
         boolean hashFound = false;
@@ -840,6 +1021,19 @@ public class NIS {
     }
   }
 
+  /**
+   * Returns the comparability of the invariants in slice, as {@link Invariant#get_comparability}
+   * does.
+   */
+  static VarComparability slice_comparability(PptSlice slice) {
+    for (VarInfo vi : slice.var_infos) {
+      if (!vi.comparability.alwaysComparable()) {
+        return vi.comparability;
+      }
+    }
+    return VarComparabilityImplicit.unknown;
+  }
+
   /**
    * Processes each slice in slice_iterator and fills the specified map with a list of all of the
    * antecedent invariants for each class. @return the number of false antecedents found
@@ -879,6 +1073,7 @@ public class NIS {
         Invariant inv = j.next();
         if (inv.is_ni_suppressed()) {
           inv.log("Removed because suppressed %s", inv.format());
+          Profile.invariant_suppressed(ppt, inv.getClass());
           j.remove();
         }
       }
@@ -336,7 +336,7 @@ public class NISuppressionSet implements Iterable<NISuppression> {
     // falsification removed the last valid suppression.  In that case we
     // need to instantiate the suppressee.
     for (int i = 0; i < suppression_set.length; i++) {
-      if (suppression_set[i].invalidated()) {
+      if (suppression_set[i].invalidated(ppt, vis, inv)) {
 
         Invariant v = suppression_set[i].suppressee.instantiate(vis, ppt);
         if (v != null) new_invs.add(v);
@@ -0,0 +1,139 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.*;
+import daikon.tools.DtraceToBinary;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.*;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.checker.nullness.qual.RequiresNonNull;
+
+/** Tests that a trace converted to the binary format yields the same samples as the original. */
+public class BinaryDtraceTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(BinaryDtraceTest.class));
+  }
+
+  public BinaryDtraceTest(String name) {
+    super(name);
+  }
+
+  /** Records each sample as a string, in the order the samples are read. */
+  static class RecordingProcessor extends FileIO.Processor {
+    List<String> samples = new ArrayList<String>();
+
+    @RequiresNonNull("FileIO.data_trace_state")
+    @Override
+    public void process_sample(
+        PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {
+      samples.add(
+          ppt.name()
+              + " "
+              + nonce
+              + " "
+              + Arrays.deepToString(vt.vals)
+              + " "
+              + Arrays.toString(vt.mods));
+    }
+  }
+
+  /** Returns the URL string for the specified test trace. */
+  private static String find(String file) {
+    String file1 = "daikon/test/dtracediff/" + file;
+    @SuppressWarnings("nullness") // system class loader exists
+    URL input_file_location = ClassLoader.getSystemResource(file1);
+    if (input_file_location == null) {
+      throw new Error("Cannot find " + file1);
+    }
+    return input_file_location.toExternalForm();
+  }
+
+  /** Returns the samples read from the given traces, in one run. */
+  private static List<String> read_samples(String... filenames) throws IOException {
+    FileIO.resetNewDeclFormat();
+    RecordingProcessor processor = new RecordingProcessor();
+    FileIO.read_data_trace_files(Arrays.asList(filenames), new PptMap(), processor, false);
+    return processor.samples;
+  }
+
+  /** Converts the named trace to binary (compressed or not) and compares the samples. */
+  private static void check_round_trip(String file, boolean gzip) throws IOException {
+    String text = find(file);
+    File binary = File.createTempFile("BinaryDtraceTest", gzip ? ".dtrace.gz" : ".dtrace");
+    try {
+      DtraceToBinary.convert(Collections.singletonList(text), binary.getPath());
+      assertTrue(BinaryDtrace.is_binary_dtrace(binary.getPath()));
+      List<String> expected = read_samples(text);
+      assertFalse(expected.isEmpty());
+      assertEquals(expected, read_samples(binary.getPath()));
+    } finally {
+      binary.delete();
+    }
+  }
+
+  @Override
+  protected void setUp() {
+    // Other tests may leave ppt and variable filters set.
+    Daikon.ppt_regexp = null;
+    Daikon.ppt_omit_regexp = null;
+    Daikon.var_regexp = null;
+    Daikon.var_omit_regexp = null;
+  }
+
+  @Override
+  protected void tearDown() {
+    // Tests that run Daikon on traces in the other declaration format follow this one.
+    FileIO.resetNewDeclFormat();
+  }
+
+  public void test_round_trip() throws IOException {
+    check_round_trip("AllTypes.dtrace.gz", true);
+    check_round_trip("AllTypes.dtrace.gz", false);
+    check_round_trip("Hanoi.dtrace.gz", true);
+    check_round_trip("Hanoi.dtrace.gz", false);
+  }
+
+  /**
+   * The mod bits of the first samples of a file depend on the values that the previous file ended
+   * with, just as for textual traces.
+   */
+  public void test_two_files() throws IOException {
+    // The trace ends with the values that it starts with.
+    String trace =
+        "decl-version 2.0\nvar-comparability none\n\n"
+            + "ppt P.m(int,int):::ENTER\nppt-type enter\n"
+            + "variable x\n  var-kind variable\n  rep-type int\n  dec-type int\n"
+            + "variable y\n  var-kind variable\n  rep-type int\n  dec-type int\n\n"
+            + "P.m(int,int):::ENTER\nx\n7\n1\ny\n1\n1\n\n"
+            + "P.m(int,int):::ENTER\nx\n7\n1\ny\n2\n1\n\n"
+            + "P.m(int,int):::ENTER\nx\n7\n1\ny\n1\n1\n\n";
+    File text = File.createTempFile("BinaryDtraceTest", ".dtrace");
+    File binary = File.createTempFile("BinaryDtraceTest", ".dtrace.gz");
+    // Without add_changed, a value is modified only if it differs from the previous value of its
+    // variable, so the mod bits show which values the history holds.
+    FileIO.dkconfig_add_changed = false;
+    try {
+      Files.write(text.toPath(), trace.getBytes(UTF_8));
+      DtraceToBinary.convert(Collections.singletonList(text.getPath()), binary.getPath());
+      List<String> once = read_samples(text.getPath());
+      List<String> expected = read_samples(text.getPath(), text.getPath());
+      assertEquals(2 * once.size(), expected.size());
+      assertFalse(once.equals(expected.subList(once.size(), expected.size())));
+      assertEquals(expected, read_samples(binary.getPath(), binary.getPath()));
+    } finally {
+      FileIO.dkconfig_add_changed = true;
+      text.delete();
+      binary.delete();
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.simplify.CheckCache;
+import daikon.simplify.Lemma;
+import daikon.simplify.LemmaStack;
+import daikon.simplify.SimplifyError;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.*;
+
+/**
+ * Tests {@link CheckCache}, and that a {@link LemmaStack} uses it correctly. The LemmaStack tests
+ * put in the cache the answer to every query they make, so Simplify is never started; a query
+ * whose answer was not cached fails the test unless Simplify is installed.
+ */
+public class CheckCacheTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(CheckCacheTest.class));
+  }
+
+  public CheckCacheTest(String name) {
+    super(name);
+  }
+
+  @Override
+  protected void setUp() {
+    CheckCache.dkconfig_size = 1000;
+    CheckCache.dkconfig_file = null;
+    CheckCache.clear();
+  }
+
+  @Override
+  protected void tearDown() {
+    CheckCache.dkconfig_size = 0;
+    CheckCache.dkconfig_file = null;
+    CheckCache.clear();
+  }
+
+  private static final Lemma X1 = new Lemma("x == 1", "(EQ x 1)");
+  private static final Lemma Y2 = new Lemma("y == 2", "(EQ y 2)");
+  private static final Lemma X2 = new Lemma("x == 2", "(EQ x 2)");
+  private static final Lemma Z3 = new Lemma("z == 3", "(EQ z 3)");
+
+  /** The lemmas of the LemmaStack tests, of which only X1 and X2 contradict each other. */
+  private static final List<Lemma> LEMMAS = Arrays.asList(X1, Y2, X2, Z3);
+
+  /** The query that asks whether the assumptions are contradictory. */
+  private static final String CONTRADICTION = "(OR)";
+
+  public void test_key() {
+    String key = CheckCache.key(Arrays.asList(X1, Y2, Z3), "(EQ z 3)");
+    assertEquals(key, CheckCache.key(Arrays.asList(Z3, X1, Y2), "(EQ z 3)"));
+    assertEquals(key, CheckCache.key(Arrays.asList(Y2, Z3, X1), "(EQ z 3)"));
+    assertFalse(key.equals(CheckCache.key(Arrays.asList(X1, Y2), "(EQ z 3)")));
+    assertFalse(key.equals(CheckCache.key(Arrays.asList(X1, Y2, X2), "(EQ z 3)")));
+    assertFalse(key.equals(CheckCache.key(Arrays.asList(X1, Y2, Z3), "(EQ z 4)")));
+    assertFalse(key.equals(CheckCache.key(Collections.<Lemma>emptyList(), "(EQ z 3)")));
+  }
+
+  public void test_eviction() {
+    CheckCache.dkconfig_size = 2;
+    CheckCache.clear();
+    CheckCache.put("a", true);
+    CheckCache.put("b", false);
+    // Using "a" makes "b" the least recently used answer.
+    assertEquals(Boolean.TRUE, CheckCache.get("a"));
+    CheckCache.put("c", true);
+    assertNull(CheckCache.get("b"));
+    assertEquals(Boolean.TRUE, CheckCache.get("a"));
+    assertEquals(Boolean.TRUE, CheckCache.get("c"));
+  }
+
+  public void test_file() throws IOException {
+    File file = File.createTempFile("CheckCacheTest", ".cache");
+    file.delete();
+    try {
+      CheckCache.dkconfig_file = file.getPath();
+      CheckCache.clear();
+      assertNull(CheckCache.get("a"));
+      CheckCache.put("a", true);
+      CheckCache.put("b", false);
+      CheckCache.save();
+      assertTrue(file.exists());
+
+      CheckCache.clear();
+      assertEquals(Boolean.TRUE, CheckCache.get("a"));
+      assertEquals(Boolean.FALSE, CheckCache.get("b"));
+      assertNull(CheckCache.get("c"));
+
+      // A file that is not a cache is ignored, and replaced when the cache is saved.
+      Files.write(file.toPath(), Arrays.asList("a T", "c T"), UTF_8);
+      CheckCache.clear();
+      assertNull(CheckCache.get("a"));
+      CheckCache.put("c", false);
+      CheckCache.save();
+      CheckCache.clear();
+      assertNull(CheckCache.get("a"));
+      assertEquals(Boolean.FALSE, CheckCache.get("c"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  /** Returns every subset of the given lemmas. */
+  private static List<List<Lemma>> subsets(List<Lemma> lemmas) {
+    List<List<Lemma>> result = new ArrayList<List<Lemma>>();
+    for (int bits = 0; bits < (1 << lemmas.size()); bits++) {
+      List<Lemma> subset = new ArrayList<Lemma>();
+      for (int i = 0; i < lemmas.size(); i++) {
+        if ((bits & (1 << i)) != 0) {
+          subset.add(lemmas.get(i));
+        }
+      }
+      result.add(subset);
+    }
+    return result;
+  }
+
+  /** Caches the answers to the contradiction query and to query, for every subset of LEMMAS. */
+  private static void cache_answers(Lemma query) {
+    for (List<Lemma> subset : subsets(LEMMAS)) {
+      boolean contradictory = subset.contains(X1) && subset.contains(X2);
+      CheckCache.put(CheckCache.key(subset, CONTRADICTION), contradictory);
+      CheckCache.put(
+          CheckCache.key(subset, query.formula), contradictory || subset.contains(query));
+    }
+  }
+
+  public void test_minimize_contradiction() throws SimplifyError {
+    cache_answers(Z3);
+    LemmaStack stack = new LemmaStack();
+    try {
+      stack.pushLemmas(LEMMAS);
+      assertEquals('T', stack.checkForContradiction());
+      assertEquals(Arrays.asList(X1, X2), stack.minimizeContradiction());
+      // Minimizing leaves all the lemmas assumed.
+      assertEquals('T', stack.checkForContradiction());
+
+      stack.removeContradiction();
+      assertEquals('F', stack.checkForContradiction());
+      assertEquals('T', stack.checkLemma(Z3));
+      assertEquals(Arrays.asList(Z3), stack.minimizeProof(Z3));
+      stack.clear();
+      assertEquals('F', stack.checkLemma(Z3));
+    } finally {
+      stack.closeSession();
+    }
+  }
+
+  public void test_minimize_proof() throws SimplifyError {
+    cache_answers(Y2);
+    LemmaStack stack = new LemmaStack();
+    try {
+      stack.pushLemmas(Arrays.asList(Z3, X1, Y2));
+      assertEquals('T', stack.checkLemma(Y2));
+      assertEquals(Arrays.asList(Y2), stack.minimizeProof(Y2));
+      int mark = stack.markLevel();
+      stack.pushLemma(X2);
+      assertEquals(Arrays.asList(X1, X2), stack.minimizeContradiction());
+      stack.popToMark(mark);
+      assertEquals('F', stack.checkForContradiction());
+    } finally {
+      stack.closeSession();
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package daikon.test;
+
+import daikon.FileIO;
+import daikon.PptMap;
+import daikon.split.Splitter;
+import daikon.split.SplitterList;
+import daikon.tools.DtraceToBinary;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.*;
+
+/**
+ * Tests that resuming from a checkpoint ({@code --checkpoint} and {@code --resume}) gives the same
+ * invariants as reading all of the data trace files in one run.
+ */
+public class CheckpointTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(CheckpointTest.class));
+  }
+
+  public CheckpointTest(String name) {
+    super(name);
+  }
+
+  /** Files to delete after each test. */
+  private File dir;
+
+  /**
+   * Two generated traces of the same method. They are short, so that each has invariants that the
+   * other falsifies.
+   */
+  private File trace_a;
+
+  private File trace_b;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = File.createTempFile("CheckpointTest", "");
+    dir.delete();
+    dir.mkdir();
+    trace_a = new File(dir, "a.dtrace");
+    trace_b = new File(dir, "b.dtrace");
+    Common.writeGeneratedTrace(trace_a, 1, 8);
+    Common.writeGeneratedTrace(trace_b, 2, 8);
+  }
+
+  @Override
+  protected void tearDown() {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  /** Runs Daikon with the given arguments, and returns the invariants it writes to file name. */
+  private String invariants(String name, String... args) {
+    File inv = new File(dir, name);
+    String[] all_args = new String[args.length + 3];
+    all_args[0] = "--no_text_output";
+    all_args[1] = "-o";
+    all_args[2] = inv.getPath();
+    System.arraycopy(args, 0, all_args, 3, args.length);
+    Common.runDaikon(all_args);
+    return Common.printInvariants(inv.getPath());
+  }
+
+  public void test_resume() {
+    String expected = invariants("all.inv", trace_a.getPath(), trace_b.getPath());
+    String a_only = invariants("a.inv", trace_a.getPath());
+    assertFalse(expected.equals(a_only));
+    assertFalse(expected.equals(invariants("b.inv", trace_b.getPath())));
+
+    File checkpoint = new File(dir, "a.checkpoint");
+    String checkpointed =
+        invariants("checkpointed.inv", "--checkpoint", checkpoint.getPath(), trace_a.getPath());
+    assertTrue(checkpoint.exists());
+    // Writing a checkpoint does not change the invariants of the run.
+    assertEquals(a_only, checkpointed);
+
+    assertEquals(
+        expected,
+        invariants("resumed.inv", "--resume", checkpoint.getPath(), trace_b.getPath()));
+  }
+
+  public void test_resume_twice() throws IOException {
+    File trace_c = new File(dir, "c.dtrace");
+    Common.writeGeneratedTrace(trace_c, 3, 8);
+    String expected =
+        invariants("all.inv", trace_a.getPath(), trace_b.getPath(), trace_c.getPath());
+
+    File checkpoint_a = new File(dir, "a.checkpoint");
+    File checkpoint_ab = new File(dir, "ab.checkpoint");
+    invariants("a.inv", "--checkpoint", checkpoint_a.getPath(), trace_a.getPath());
+    invariants(
+        "ab.inv",
+        "--resume",
+        checkpoint_a.getPath(),
+        "--checkpoint",
+        checkpoint_ab.getPath(),
+        trace_b.getPath());
+    assertEquals(
+        expected,
+        invariants("abc.inv", "--resume", checkpoint_ab.getPath(), trace_c.getPath()));
+  }
+
+  /** The splitters of conditional program points are not saved, and are restored on resume. */
+  public void test_resume_with_splitter() {
+    SplitterList.put(Common.GENERATED_METHOD, new Splitter[] {new Common.NegativeSplitter()});
+    try {
+      String expected = invariants("all.inv", trace_a.getPath(), trace_b.getPath());
+      assertTrue(expected, expected.contains(":::ENTER;condition=\"x < 0\""));
+      File checkpoint = new File(dir, "a.checkpoint");
+      invariants("a.inv", "--checkpoint", checkpoint.getPath(), trace_a.getPath());
+      assertEquals(
+          expected,
+          invariants("resumed.inv", "--resume", checkpoint.getPath(), trace_b.getPath()));
+    } finally {
+      SplitterList.remove(Common.GENERATED_METHOD);
+    }
+  }
+
+  /** Returns the samples read from the given traces into all_ppts. */
+  private static List<String> read_samples(PptMap all_ppts, String... files) throws IOException {
+    BinaryDtraceTest.RecordingProcessor processor = new BinaryDtraceTest.RecordingProcessor();
+    FileIO.read_data_trace_files(Arrays.asList(files), all_ppts, processor, false);
+    return processor.samples;
+  }
+
+  /**
+   * Resumes with a trace that starts with the values that the checkpointed trace ends with. With
+   * add_changed off, the mod bits of its first samples depend on the values saved in the
+   * checkpoint.
+   */
+  private void check_repeated_values(boolean binary) throws IOException {
+    File first = new File(dir, "first.dtrace");
+    File second = new File(dir, "second.dtrace");
+    // The same seed gives the same first call.
+    Common.writeGeneratedTrace(first, 4, 1);
+    Common.writeGeneratedTrace(second, 4, 8);
+    if (binary) {
+      File first_binary = new File(dir, "first-binary.dtrace");
+      File second_binary = new File(dir, "second-binary.dtrace");
+      DtraceToBinary.convert(Collections.singletonList(first.getPath()), first_binary.getPath());
+      DtraceToBinary.convert(Collections.singletonList(second.getPath()), second_binary.getPath());
+      first = first_binary;
+      second = second_binary;
+    }
+    FileIO.dkconfig_add_changed = false;
+    try {
+      FileIO.resetNewDeclFormat();
+      List<String> expected = read_samples(new PptMap(), first.getPath(), second.getPath());
+      List<String> first_samples = read_samples(new PptMap(), first.getPath());
+      List<String> fresh = read_samples(new PptMap(), second.getPath());
+      expected = expected.subList(first_samples.size(), expected.size());
+      assertFalse(expected.equals(fresh));
+
+      PptMap all_ppts = new PptMap();
+      read_samples(all_ppts, first.getPath());
+      File checkpoint = new File(dir, "first.checkpoint");
+      FileIO.write_checkpoint(all_ppts, checkpoint);
+      // The program points read from the checkpoint are new objects, as in another run.
+      assertEquals(expected, read_samples(FileIO.read_checkpoint(checkpoint), second.getPath()));
+    } finally {
+      FileIO.dkconfig_add_changed = true;
+      FileIO.resetNewDeclFormat();
+    }
+  }
+
+  public void test_resume_repeated_values() throws IOException {
+    check_repeated_values(false);
+  }
+
+  public void test_resume_repeated_values_binary() throws IOException {
+    check_repeated_values(true);
+  }
+}
@@ -1,8 +1,26 @@
 package daikon.test;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import daikon.*;
+import daikon.config.Configuration;
+import daikon.inv.DummyInvariant;
+import daikon.inv.Invariant;
+import daikon.split.Splitter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 /** A collection of useful helper methods that are common to many different individual tests. */
 public class Common {
@@ -65,4 +83,221 @@ public class Common {
     PptTopLevel ppt = new PptTopLevel(pptname, vars);
     return ppt;
   }
+
+  /** Returns the file of the given resource, such as "daikon/test/dtracediff/Hanoi.dtrace.gz". */
+  public static File resourceFile(String resource) {
+    @SuppressWarnings("nullness") // system class loader exists
+    URL url = ClassLoader.getSystemResource(resource);
+    if (url == null) {
+      throw new Error("Cannot find " + resource);
+    }
+    try {
+      return new File(url.toURI());
+    } catch (URISyntaxException e) {
+      throw new Error("Bad resource URL " + url, e);
+    }
+  }
+
+  /** The program point name of the method in traces written by {@link #writeGeneratedTrace}. */
+  public static final String GENERATED_METHOD = "Gen.f(int,int[])";
+
+  /** Appends the declaration of one program point of {@link #GENERATED_METHOD} to decls. */
+  private static void declareGenerated(StringBuilder decls, String kind, String type) {
+    decls.append("ppt " + GENERATED_METHOD + ":::" + kind + "\n");
+    decls.append("ppt-type " + type + "\n");
+    decls.append("variable x\n  var-kind variable\n  rep-type int\n  dec-type int\n");
+    decls.append("  flags is_param\n");
+    decls.append("variable a\n  var-kind variable\n  rep-type hashcode\n  dec-type int[]\n");
+    decls.append("  flags is_param\n");
+    decls.append("variable a[..]\n  var-kind array\n  enclosing-var a\n  array 1\n");
+    decls.append("  rep-type int[]\n  dec-type int[]\n");
+    if (!type.equals("enter")) {
+      decls.append("variable return\n  var-kind return\n  rep-type int\n  dec-type int\n");
+    }
+    decls.append("\n");
+  }
+
+  /**
+   * Writes a data trace, including its declarations, of calls to {@link #GENERATED_METHOD}. Each
+   * call gets a pseudo-random x and array a, which the same seed always repeats. A call with a
+   * negative x returns -1 at exit 10; any other call returns a[x] at exit 12, or 0 if x is not an
+   * index of a, so that the derived variable a[x] is sometimes missing.
+   *
+   * @param file the file to write
+   * @param seed the seed of the values
+   * @param calls the number of calls in the trace
+   */
+  public static void writeGeneratedTrace(File file, long seed, int calls) throws IOException {
+    StringBuilder trace = new StringBuilder();
+    trace.append("decl-version 2.0\nvar-comparability none\n\n");
+    declareGenerated(trace, "ENTER", "enter");
+    declareGenerated(trace, "EXIT10", "subexit");
+    declareGenerated(trace, "EXIT12", "subexit");
+    Random random = new Random(seed);
+    for (int nonce = 1; nonce <= calls; nonce++) {
+      int x = random.nextInt(9) - 4;
+      int[] a = new int[random.nextInt(5)];
+      for (int i = 0; i < a.length; i++) {
+        a[i] = random.nextInt(8) - 2;
+      }
+      String values =
+          String.format(
+              "this_invocation_nonce\n%d\nx\n%d\n1\na\n%d\n1\na[..]\n%s\n1\n",
+              nonce, x, 1000 + nonce, Arrays.toString(a).replace(",", ""));
+      trace.append(GENERATED_METHOD + ":::ENTER\n" + values + "\n");
+      if (x < 0) {
+        trace.append(GENERATED_METHOD + ":::EXIT10\n" + values + "return\n-1\n1\n\n");
+      } else {
+        int result = (x < a.length) ? a[x] : 0;
+        trace.append(GENERATED_METHOD + ":::EXIT12\n" + values);
+        trace.append("return\n" + result + "\n1\n\n");
+      }
+    }
+    Files.write(file.toPath(), trace.toString().getBytes(UTF_8));
+  }
+
+  /**
+   * Splits the samples of a program point on whether x is negative, as in the traces written by
+   * {@link #writeGeneratedTrace}.
+   */
+  public static final class NegativeSplitter extends Splitter {
+    static final long serialVersionUID = 20261018L;
+
+    private @Nullable VarInfo x_varinfo;
+
+    /** Create a prototype (factory) splitter. */
+    public NegativeSplitter() {}
+
+    private NegativeSplitter(Ppt ppt) {
+      x_varinfo = ppt.find_var_by_name("x");
+      instantiated = true;
+    }
+
+    @Override
+    public Splitter instantiateSplitter(Ppt ppt) {
+      return new NegativeSplitter(ppt);
+    }
+
+    @Override
+    public boolean valid() {
+      return x_varinfo != null;
+    }
+
+    @Override
+    @SuppressWarnings("nullness") // valid() is checked before test()
+    public boolean test(ValueTuple vt) {
+      return x_varinfo.getIntValue(vt) < 0;
+    }
+
+    @Override
+    public String condition() {
+      return "x < 0";
+    }
+
+    @Override
+    public @Nullable DummyInvariant getDummyInvariant() {
+      return null;
+    }
+  }
+
+  /**
+   * Reads data trace files, in this process, into a new PptMap, as Daikon does before it
+   * post-processes the program points. Configuration options are not reset afterward. The
+   * declaration format of the files stays set, since formatting the invariants depends on it; the
+   * caller resets it with {@link FileIO#resetNewDeclFormat}.
+   */
+  public static PptMap readTraces(String... files) throws IOException {
+    Daikon.cleanup();
+    FileIO.resetNewDeclFormat();
+    Daikon.setup_proto_invs();
+    Daikon.setup_NISuppression();
+    PptMap all_ppts = new PptMap();
+    Daikon.all_ppts = all_ppts;
+    Daikon.isInferencing = true;
+    try {
+      FileIO.read_data_trace_files(Arrays.asList(files), all_ppts);
+    } finally {
+      Daikon.isInferencing = false;
+    }
+    return all_ppts;
+  }
+
+  /**
+   * Returns the number of samples and the invariants of every program point in all_ppts,
+   * including the conditional ones, in a form that tests can compare.
+   */
+  public static String formatInvariants(PptMap all_ppts) {
+    StringBuilder result = new StringBuilder();
+    for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
+      result.append(formatInvariants(ppt));
+    }
+    return result.toString();
+  }
+
+  /** Returns the number of samples and the invariants of ppt, sorted by their formatted text. */
+  public static String formatInvariants(PptTopLevel ppt) {
+    List<String> invs = new ArrayList<String>();
+    for (Invariant inv : ppt.getInvariants()) {
+      invs.add(inv.format());
+    }
+    Collections.sort(invs);
+    StringBuilder result = new StringBuilder();
+    result.append(ppt.name() + ": " + ppt.num_samples() + " samples\n");
+    for (String inv : invs) {
+      result.append("  " + inv + "\n");
+    }
+    return result.toString();
+  }
+
+  /**
+   * Runs Daikon, in this process, with the given command-line arguments and returns what it prints
+   * to standard output. Configuration options set by the arguments are not reset afterward, but the
+   * settings that the run recorded (see {@link Configuration#resetInstance}) are discarded. {@link
+   * Daikon#all_ppts} holds the program points of the run.
+   */
+  public static String runDaikon(String... args) {
+    PrintStream old_out = System.out;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      System.setOut(new PrintStream(bytes, true, "UTF-8"));
+      Daikon.mainHelper(args);
+      System.out.flush();
+      return bytes.toString("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new Error(e);
+    } finally {
+      System.setOut(old_out);
+      Daikon.cleanup();
+      FileIO.resetNewDeclFormat();
+      Configuration.resetInstance();
+    }
+  }
+
+  /**
+   * Runs PrintInvariants, in this process, with the given command-line arguments and returns what
+   * it prints. PrintInvariants closes its output stream, so the output goes through a temporary
+   * file rather than a redirected System.out.
+   */
+  public static String printInvariants(String... args) {
+    File output = null;
+    try {
+      output = File.createTempFile("printInvariants", ".txt");
+      String[] all_args = new String[args.length + 2];
+      all_args[0] = "--output";
+      all_args[1] = output.getPath();
+      System.arraycopy(args, 0, all_args, 2, args.length);
+      PrintInvariants.mainHelper(all_args);
+      return new String(Files.readAllBytes(output.toPath()), UTF_8);
+    } catch (IOException e) {
+      throw new Error(e);
+    } catch (ClassNotFoundException e) {
+      throw new Error(e);
+    } finally {
+      if (output != null) {
+        output.delete();
+      }
+      FileIO.resetNewDeclFormat();
+      Configuration.resetInstance();
+    }
+  }
 }
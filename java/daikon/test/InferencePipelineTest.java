@@ -0,0 +1,163 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.*;
+import daikon.split.Splitter;
+import daikon.split.SplitterList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.*;
+
+/**
+ * Tests that processing samples in several threads ({@link FileIO#dkconfig_inference_threads})
+ * gives the same invariants as processing them in the thread that reads the data trace.
+ */
+public class InferencePipelineTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(InferencePipelineTest.class));
+  }
+
+  public InferencePipelineTest(String name) {
+    super(name);
+  }
+
+  /** Files to delete after each test. */
+  private File dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = File.createTempFile("InferencePipelineTest", "");
+    dir.delete();
+    dir.mkdir();
+  }
+
+  @Override
+  protected void tearDown() {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+    FileIO.dkconfig_inference_threads = 1;
+    FileIO.dkconfig_ignore_missing_enter = false;
+    FileIO.resetNewDeclFormat();
+  }
+
+  /**
+   * Reads trace with the given number of inference threads, and returns the samples and invariants
+   * of its program points.
+   */
+  private String invariants(String trace, int threads) throws IOException {
+    FileIO.dkconfig_inference_threads = threads;
+    try {
+      return Common.formatInvariants(Common.readTraces(trace));
+    } finally {
+      FileIO.dkconfig_inference_threads = 1;
+    }
+  }
+
+  /**
+   * Checks that trace gives the same invariants with one inference thread as with several.
+   *
+   * @return the invariants
+   */
+  private String check_same(String trace) throws IOException {
+    String expected = invariants(trace, 1);
+    assertTrue(expected, expected.contains(" == "));
+    assertEquals(expected, invariants(trace, 2));
+    assertEquals(expected, invariants(trace, 4));
+    return expected;
+  }
+
+  /** Returns a generated trace with the given number of calls, without the given records. */
+  private File generated_trace(int calls, String... omitted) throws IOException {
+    File trace = new File(dir, "gen.dtrace");
+    Common.writeGeneratedTrace(trace, 5, calls);
+    String text = new String(Files.readAllBytes(trace.toPath()), UTF_8);
+    List<String> records = new ArrayList<String>();
+    for (String record : text.split("\n\n")) {
+      boolean omit = false;
+      for (String prefix : omitted) {
+        omit |= (record + "\n").startsWith(prefix);
+      }
+      if (!omit) {
+        records.add(record);
+      }
+    }
+    Files.write(trace.toPath(), (String.join("\n\n", records) + "\n").getBytes(UTF_8));
+    return trace;
+  }
+
+  /** Returns the start of the record of a procedure entry or exit. */
+  private static String record(String kind, int nonce) {
+    return Common.GENERATED_METHOD + ":::" + kind + "\nthis_invocation_nonce\n" + nonce + "\n";
+  }
+
+  public void test_hanoi() throws IOException {
+    check_same(Common.resourceFile("daikon/test/dtracediff/Hanoi.dtrace.gz").getPath());
+  }
+
+  /** Enough samples that the reader has to wait for the workers. */
+  public void test_long_trace() throws IOException {
+    check_same(generated_trace(3000).getPath());
+  }
+
+  public void test_conditional() throws IOException {
+    SplitterList.put(Common.GENERATED_METHOD, new Splitter[] {new Common.NegativeSplitter()});
+    try {
+      String printed = check_same(generated_trace(300).getPath());
+      assertTrue(printed, printed.contains(":::ENTER;condition=\"x < 0\": "));
+    } finally {
+      SplitterList.remove(Common.GENERATED_METHOD);
+    }
+  }
+
+  /** Entries without exits, and exits without entries, are matched by the reading thread. */
+  public void test_unmatched() throws IOException {
+    // Each call exits at line 10 or at line 12.
+    File trace =
+        generated_trace(
+            300,
+            record("ENTER", 3),
+            record("ENTER", 150),
+            record("EXIT10", 7),
+            record("EXIT12", 7),
+            record("EXIT10", 200),
+            record("EXIT12", 200));
+    FileIO.dkconfig_ignore_missing_enter = true;
+    check_same(trace.getPath());
+  }
+
+  /** Returns true if an inference worker thread is alive. */
+  private static boolean workers_alive() {
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      if (t.isAlive() && t.getName().startsWith("daikon-inference-")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** An error while reading stops the workers, and a later run is not affected. */
+  public void test_abort() throws IOException, InterruptedException {
+    String expected = invariants(generated_trace(300).getPath(), 1);
+    // An exit without an entry is an error unless ignore_missing_enter is set.
+    String bad = generated_trace(3000, record("ENTER", 2000)).getPath();
+    try {
+      invariants(bad, 4);
+      fail("no error for an exit without an entry");
+    } catch (Daikon.UserError e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("nonce 2000"));
+    }
+    for (int i = 0; i < 50 && workers_alive(); i++) {
+      Thread.sleep(100);
+    }
+    assertFalse(workers_alive());
+    assertEquals(expected, invariants(generated_trace(300).getPath(), 4));
+  }
+}
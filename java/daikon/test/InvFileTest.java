@@ -0,0 +1,142 @@
+package daikon.test;
+
+import daikon.*;
+import daikon.derive.binary.SequenceScalarSubsequence;
+import daikon.tools.InvToIndexed;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Set;
+import junit.framework.*;
+
+/**
+ * Tests that the indexed invariant file format ({@link InvFile}) yields the same invariants as a
+ * serialized PptMap, whether it is written by Daikon or converted by {@link InvToIndexed}.
+ */
+public class InvFileTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(InvFileTest.class));
+  }
+
+  public InvFileTest(String name) {
+    super(name);
+  }
+
+  /** Files to delete after each test. */
+  private File dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = File.createTempFile("InvFileTest", "");
+    dir.delete();
+    dir.mkdir();
+  }
+
+  @Override
+  protected void tearDown() {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+    FileIO.dkconfig_indexed_inv_files = false;
+    SequenceScalarSubsequence.dkconfig_enabled = false;
+  }
+
+  /** Returns the path of the given test trace. */
+  private static String trace(String name) {
+    return Common.resourceFile("daikon/test/dtracediff/" + name).getPath();
+  }
+
+  /** Runs Daikon on trace and writes the invariants to a file with the given name. */
+  private File write_inv(String trace, String name, boolean indexed) {
+    File inv = new File(dir, name);
+    FileIO.dkconfig_indexed_inv_files = indexed;
+    try {
+      Common.runDaikon("--no_text_output", "-o", inv.getPath(), trace);
+    } finally {
+      FileIO.dkconfig_indexed_inv_files = false;
+    }
+    return inv;
+  }
+
+  /**
+   * Checks that the invariants of trace print the same from a serialized file, from an indexed
+   * file, and from the serialized file converted to the indexed format.
+   *
+   * @return the printed invariants
+   */
+  private String check_round_trip(String trace) throws IOException {
+    File serialized = write_inv(trace, "serialized.inv.gz", false);
+    File indexed = write_inv(trace, "indexed.inv", true);
+    File converted = new File(dir, "converted.inv");
+    InvToIndexed.convert(serialized, converted);
+    assertFalse(InvFile.is_inv_file(serialized));
+    assertTrue(InvFile.is_inv_file(indexed));
+    assertTrue(InvFile.is_inv_file(converted));
+
+    String expected = Common.printInvariants(serialized.getPath());
+    assertTrue(expected.contains("==========="));
+    assertEquals(expected, Common.printInvariants(indexed.getPath()));
+    assertEquals(expected, Common.printInvariants(converted.getPath()));
+    return expected;
+  }
+
+  public void test_round_trip() throws IOException {
+    check_round_trip(trace("Hanoi.dtrace.gz"));
+  }
+
+  /**
+   * The implications of a combined exit point refer to invariants of the numbered exit points,
+   * which are in other records of an indexed file. With subsequences, some of them are obvious
+   * only if those references lead to the invariants of the numbered exit points that were read.
+   */
+  public void test_round_trip_implications() throws IOException {
+    SequenceScalarSubsequence.dkconfig_enabled = true;
+    String printed = check_round_trip(trace("StackAr-top.dtrace.gz"));
+    assertTrue(printed.contains("(this.topOfStack == -1)  ==>  "));
+  }
+
+  public void test_read_ppt() throws IOException {
+    File indexed = write_inv(trace("Hanoi.dtrace.gz"), "indexed.inv", true);
+    String enter = "six170.Hanoi.moveDisk(int, int):::ENTER";
+    String object = "six170.Hanoi:::OBJECT";
+    try (InvFile inv_file = new InvFile(indexed)) {
+      Set<String> names = inv_file.ppt_names();
+      assertTrue(names.contains(enter));
+      assertTrue(names.contains(object));
+      assertFalse(inv_file.is_read(enter));
+      assertTrue(inv_file.with_ancestors(Collections.singleton(enter)).contains(object));
+
+      PptTopLevel ppt = inv_file.read_ppt(enter);
+      assertNotNull(ppt);
+      assertEquals(enter, ppt.name());
+      assertTrue(ppt.num_samples() > 0);
+      assertTrue(inv_file.is_read(enter));
+      assertFalse(inv_file.is_read(object));
+      assertSame(ppt, inv_file.read_ppt(enter));
+      assertNull(inv_file.read_ppt("no such program point"));
+
+      PptMap map = inv_file.read_map();
+      assertEquals(names.size(), map.size());
+      assertSame(ppt, map.get(enter));
+      assertFalse(ppt.parents.isEmpty());
+    }
+  }
+
+  public void test_bad_version() throws IOException {
+    File indexed = write_inv(trace("Hanoi-truncated.dtrace.gz"), "indexed.inv", true);
+    try (RandomAccessFile raf = new RandomAccessFile(indexed, "rw")) {
+      raf.seek(4);
+      raf.writeInt(InvFile.VERSION + 1);
+    }
+    try {
+      new InvFile(indexed).close();
+      fail("read a file with a different version");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("version"));
+    }
+  }
+}
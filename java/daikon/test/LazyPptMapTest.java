@@ -0,0 +1,188 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.*;
+import daikon.split.Splitter;
+import daikon.split.SplitterList;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import junit.framework.*;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Tests that a {@link LazyPptMap} reads only the program points that are asked for, and otherwise
+ * behaves like the PptMap read from the same indexed invariant file.
+ */
+public class LazyPptMapTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(LazyPptMapTest.class));
+  }
+
+  public LazyPptMapTest(String name) {
+    super(name);
+  }
+
+  private static final String ENTER = Common.GENERATED_METHOD + ":::ENTER";
+  private static final String EXIT = Common.GENERATED_METHOD + ":::EXIT";
+  private static final String EXIT10 = Common.GENERATED_METHOD + ":::EXIT10";
+  private static final String EXIT12 = Common.GENERATED_METHOD + ":::EXIT12";
+
+  /** An unsampled program point: its method is declared but never called. */
+  private static final String UNCALLED = "Gen.g(int,int[]):::ENTER";
+
+  /**
+   * An indexed invariant file of a generated trace, with conditional program points. The tests only
+   * read it, so it is written once, by the first test.
+   */
+  private static @Nullable File inv;
+
+  @Override
+  protected void setUp() throws IOException {
+    if (inv != null) {
+      return;
+    }
+    File trace = File.createTempFile("LazyPptMapTest", ".dtrace");
+    File decls = File.createTempFile("LazyPptMapTest", ".decls");
+    File file = File.createTempFile("LazyPptMapTest", ".inv");
+    file.deleteOnExit();
+    try {
+      Common.writeGeneratedTrace(decls, 0, 0);
+      String text = new String(Files.readAllBytes(decls.toPath()), UTF_8);
+      Files.write(decls.toPath(), text.replace("Gen.f(", "Gen.g(").getBytes(UTF_8));
+      Common.writeGeneratedTrace(trace, 3, 200);
+      SplitterList.put(Common.GENERATED_METHOD, new Splitter[] {new Common.NegativeSplitter()});
+      FileIO.dkconfig_indexed_inv_files = true;
+      Common.runDaikon("--no_text_output", "-o", file.getPath(), decls.getPath(), trace.getPath());
+      inv = file;
+    } finally {
+      FileIO.dkconfig_indexed_inv_files = false;
+      SplitterList.remove(Common.GENERATED_METHOD);
+      trace.delete();
+      decls.delete();
+    }
+  }
+
+  /** Returns the names of the program points that iter returns, in order. */
+  private static List<String> names(Iterator<PptTopLevel> iter) {
+    List<String> result = new ArrayList<String>();
+    while (iter.hasNext()) {
+      result.add(iter.next().name());
+    }
+    return result;
+  }
+
+  public void test_get() throws IOException {
+    InvFile inv_file = new InvFile(inv);
+    try (LazyPptMap map = inv_file.lazy_map(inv_file.ppt_names())) {
+      assertEquals(inv_file.ppt_names().size(), map.size());
+      assertTrue(map.containsName(EXIT10));
+      for (String name : inv_file.ppt_names()) {
+        assertFalse(name, inv_file.is_read(name));
+      }
+
+      PptTopLevel exit10 = map.get(EXIT10);
+      assertNotNull(exit10);
+      assertTrue(exit10.has_splitters());
+      Set<String> ancestors = inv_file.with_ancestors(Collections.singleton(EXIT10));
+      assertTrue(ancestors.contains(EXIT));
+      assertFalse(ancestors.contains(EXIT12));
+      assertFalse(ancestors.contains(UNCALLED));
+      for (String name : inv_file.ppt_names()) {
+        assertEquals(name, ancestors.contains(name), inv_file.is_read(name));
+      }
+      assertEquals(1, exit10.parents.size());
+      assertSame(map.get(EXIT), exit10.parents.get(0).parent);
+
+      assertNull(map.get("no such program point"));
+      assertFalse(map.containsName("no such program point"));
+    }
+  }
+
+  public void test_iterators() throws IOException {
+    PptMap expected;
+    try (InvFile inv_file = new InvFile(inv)) {
+      expected = inv_file.read_map();
+    }
+    InvFile inv_file = new InvFile(inv);
+    try (LazyPptMap map = inv_file.lazy_map(inv_file.ppt_names())) {
+      List<String> all_names = names(expected.ppt_all_iterator());
+      assertTrue(all_names.size() > expected.size());
+      assertTrue(all_names.contains(EXIT10 + ";condition=\"x < 0\""));
+      assertEquals(names(expected.pptIterator()), names(map.pptIterator()));
+      assertEquals(all_names, names(map.ppt_all_iterator()));
+    }
+    inv_file = new InvFile(inv);
+    try (LazyPptMap map = inv_file.lazy_map(inv_file.ppt_names())) {
+      // Reading part of the map first does not change the order.
+      map.get(EXIT12);
+      assertEquals(names(expected.ppt_all_iterator()), names(map.ppt_all_iterator()));
+    }
+  }
+
+  public void test_remove_unsampled() throws IOException {
+    PptMap expected;
+    try (InvFile inv_file = new InvFile(inv)) {
+      expected = inv_file.read_map();
+    }
+    expected.removeUnsampled();
+    InvFile inv_file = new InvFile(inv);
+    try (LazyPptMap map = inv_file.lazy_map(inv_file.ppt_names())) {
+      assertTrue(map.containsName(UNCALLED));
+      map.removeUnsampled();
+      assertFalse(map.containsName(UNCALLED));
+      assertFalse(expected.containsName(UNCALLED));
+      assertEquals(expected.size(), map.size());
+      assertEquals(names(expected.pptIterator()), names(map.pptIterator()));
+    }
+  }
+
+  public void test_write_replace() throws IOException, ClassNotFoundException {
+    InvFile inv_file = new InvFile(inv);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (LazyPptMap map = inv_file.lazy_map(inv_file.ppt_names())) {
+      map.get(EXIT10);
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(map);
+      }
+    }
+    PptMap copy;
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      copy = (PptMap) in.readObject();
+    }
+    assertEquals(PptMap.class, copy.getClass());
+    try (InvFile expected = new InvFile(inv)) {
+      assertEquals(expected.ppt_names(), new HashSet<String>(copy.nameStringSet()));
+      assertEquals(names(expected.read_map().ppt_all_iterator()), names(copy.ppt_all_iterator()));
+    }
+  }
+
+  public void test_close() throws IOException {
+    InvFile inv_file = new InvFile(inv);
+    LazyPptMap map = inv_file.lazy_map(inv_file.ppt_names());
+    assertNotNull(map.get(ENTER));
+    map.close();
+    // Program points that were read are still available; the others cannot be read.
+    assertNotNull(map.get(ENTER));
+    try {
+      map.get(EXIT10);
+      fail("read a program point after the map was closed");
+    } catch (Error e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(EXIT10));
+    }
+  }
+}
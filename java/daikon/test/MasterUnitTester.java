@@ -59,6 +59,7 @@ public class MasterUnitTester extends TestCase {
               daikon.test.inv.unary.sequence.OneOfSequenceTester.class,
               daikon.test.LinearTernaryCoreTest.class,
               daikon.test.ModBitTrackerTest.class,
+              daikon.test.SliceMapTest.class,
               daikon.test.ProglangTypeTest.class,
               daikon.test.VarComparabilityTest.class,
               daikon.test.VarInfoNameTest.class,
@@ -66,6 +67,15 @@ public class MasterUnitTester extends TestCase {
               daikon.test.TestQuant.class,
               daikon.test.TestAnnotate.class,
               daikon.test.DtraceDiffTester.class,
+              daikon.test.BinaryDtraceTest.class,
+              daikon.test.ProfileTest.class,
+              daikon.test.CheckCacheTest.class,
+              daikon.test.InvFileTest.class,
+              daikon.test.LazyPptMapTest.class,
+              daikon.test.CheckpointTest.class,
+              daikon.test.InferencePipelineTest.class,
+              daikon.test.SplitBatchTest.class,
+              daikon.test.split.FileCompilerTest.class,
               daikon.test.InstructionUtilsTest.class,
               daikon.test.KillerInstructionTests.class,
               daikon.test.DSForestTest.class,
@@ -4,6 +4,7 @@ import daikon.*;
 import java.util.BitSet;
 import java.util.Random;
 import junit.framework.*;
+import org.plumelib.util.UtilPlume;
 
 public class ModBitTrackerTest extends TestCase {
 
@@ -47,14 +48,24 @@ public class ModBitTrackerTest extends TestCase {
   }
 
   private void checkModBitTracker(ModBitTracker mbt, BitSet[] bitsets) {
+    checkModBitTracker(mbt, bitsets, bitsets[0].size());
+  }
+
+  private void checkModBitTracker(ModBitTracker mbt, BitSet[] bitsets, int numsamples) {
     int numvars = bitsets.length;
-    int numsamples = bitsets[0].size();
 
     assert mbt.num_vars() == numvars;
     assert mbt.num_samples() == numsamples;
 
     for (int i = 0; i < numvars; i++) {
       assert bitsets[i].equals(mbt.get(i));
+      assert mbt.cardinality(i) == bitsets[i].cardinality();
+    }
+    for (int i = 0; i + 2 < numvars; i++) {
+      assert mbt.intersection_cardinality(i, i + 1)
+          == UtilPlume.intersectionCardinality(bitsets[i], bitsets[i + 1]);
+      assert mbt.intersection_cardinality(i, i + 1, i + 2)
+          == UtilPlume.intersectionCardinality(bitsets[i], bitsets[i + 1], bitsets[i + 2]);
     }
   }
 
@@ -118,4 +129,32 @@ public class ModBitTrackerTest extends TestCase {
     oneModBitTrackerTest(5, 10, 0.0);
     oneModBitTrackerTest(100, 1000, 5.0);
   }
+
+  // Variables whose modbits change rarely, as in most traces, added with
+  // counts greater than 1.
+  public void testLongRuns() {
+    int numvars = 6;
+    int numsamples = 100000;
+    BitSet[] bitsets = new BitSet[numvars];
+    for (int var = 0; var < numvars; var++) {
+      bitsets[var] = new BitSet(numsamples);
+    }
+    ModBitTracker mbt = new ModBitTracker(numvars);
+    Object[] vals = new Object[numvars];
+    int[] mods = new int[numvars];
+    ValueTuple vt = ValueTuple.makeUninterned(vals, mods);
+    int sampleno = 0;
+    while (sampleno < numsamples) {
+      int count = 1 + r.nextInt(1000);
+      for (int var = 0; var < numvars; var++) {
+        boolean present = (var == 0) || (r.nextInt(var + 1) != 0);
+        mods[var] = booleanToModBit(present);
+        bitsets[var].set(sampleno, sampleno + count, present);
+      }
+      mbt.add(vt, count);
+      sampleno += count;
+    }
+    assert mbt.num_samples() == sampleno;
+    checkModBitTracker(mbt, bitsets, sampleno);
+  }
 }
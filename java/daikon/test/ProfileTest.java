@@ -0,0 +1,112 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import junit.framework.*;
+
+/** Tests the JSON written by {@link Profile}. */
+public class ProfileTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(ProfileTest.class));
+  }
+
+  public ProfileTest(String name) {
+    super(name);
+  }
+
+  /** Returns the number in the first {@code "key": number} pair at or after index from of json. */
+  private static long number(String json, String key, int from) {
+    Matcher m = Pattern.compile("\"" + key + "\": (-?[0-9]+)").matcher(json);
+    assertTrue("no " + key + " in " + json, m.find(from));
+    return Long.parseLong(m.group(1));
+  }
+
+  /** Returns the index of the JSON object that is the value of key, failing if there is none. */
+  private static int object(String json, String key) {
+    int result = json.indexOf("\"" + key + "\": {");
+    assertTrue("no " + key + " in " + json, result >= 0);
+    return result;
+  }
+
+  /** Checks that the brackets and braces of json, outside strings, are balanced. */
+  private static void check_balanced(String json) {
+    StringBuilder open = new StringBuilder();
+    boolean in_string = false;
+    for (int i = 0; i < json.length(); i++) {
+      char c = json.charAt(i);
+      if (in_string) {
+        if (c == '\\') {
+          i++;
+        } else if (c == '"') {
+          in_string = false;
+        }
+      } else if (c == '"') {
+        in_string = true;
+      } else if (c == '{' || c == '[') {
+        open.append(c);
+      } else if (c == '}' || c == ']') {
+        assertTrue(json, open.length() > 0);
+        assertEquals(json, (c == '}') ? '{' : '[', open.charAt(open.length() - 1));
+        open.setLength(open.length() - 1);
+      }
+    }
+    assertFalse(json, in_string);
+    assertEquals(json, 0, open.length());
+  }
+
+  public void test_profile_output() throws IOException {
+    File json_file = File.createTempFile("ProfileTest", ".json");
+    File inv_file = File.createTempFile("ProfileTest", ".inv");
+    try {
+      Common.runDaikon(
+          "--profile",
+          json_file.getPath(),
+          "--no_text_output",
+          "-o",
+          inv_file.getPath(),
+          Common.resourceFile("daikon/test/dtracediff/Hanoi.dtrace.gz").getPath());
+      assertFalse(Profile.enabled);
+      String json = new String(Files.readAllBytes(json_file.toPath()), UTF_8);
+      check_balanced(json);
+
+      assertTrue(number(json, "wall_ns", 0) > 0);
+      for (Profile.Phase phase : Profile.Phase.values()) {
+        object(json, phase.name().toLowerCase());
+      }
+      assertEquals(1, number(json, "calls", object(json, "trace_read")));
+      // Each sample is processed by one call at its leaf program point.
+      int add_bottom_up = object(json, "add_bottom_up");
+      long samples = number(json, "samples", add_bottom_up);
+      assertTrue(samples > 0);
+      assertEquals(samples, number(json, "calls", add_bottom_up));
+
+      // The program points are in name order, and together saw at least the leaf samples.
+      Matcher m =
+          Pattern.compile("\\{\"name\": \"([^\"]*)\", \"samples\": ([0-9]+)").matcher(json);
+      int from = json.indexOf("\"ppts\": [");
+      assertTrue(from >= 0);
+      String previous = "";
+      long ppt_samples = 0;
+      while (m.find(from)) {
+        assertTrue(previous.compareTo(m.group(1)) < 0);
+        previous = m.group(1);
+        ppt_samples += Long.parseLong(m.group(2));
+        from = m.end();
+      }
+      assertTrue(ppt_samples >= samples);
+      assertTrue(json, json.contains("\"invariant_classes\": {\"daikon.inv."));
+      assertTrue(json, json.contains("\"created\": "));
+    } finally {
+      json_file.delete();
+      inv_file.delete();
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package daikon.test;
+
+import daikon.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.*;
+
+/** Tests SliceMap against a LinkedHashMap keyed by lists of varinfo indices. */
+public class SliceMapTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(SliceMapTest.class));
+  }
+
+  public SliceMapTest(String name) {
+    super(name);
+  }
+
+  private Random r = new Random(20261018L);
+
+  private static final int NUM_VARS = 12;
+
+  private VarInfo[] vars = new VarInfo[NUM_VARS];
+
+  private PptTopLevel ppt;
+
+  @Override
+  protected void setUp() {
+    for (int i = 0; i < NUM_VARS; i++) {
+      vars[i] = Common.makeIntVarInfo("x" + i);
+    }
+    ppt = Common.makePptTopLevel("SliceMapTest.test:::ENTER", vars);
+  }
+
+  /** Returns a new slice over 1 to 3 distinct random variables, in varinfo_index order. */
+  private PptSlice random_slice() {
+    int a = r.nextInt(NUM_VARS - 2);
+    int b = a + 1 + r.nextInt(NUM_VARS - a - 2);
+    int c = b + 1 + r.nextInt(NUM_VARS - b - 1);
+    switch (r.nextInt(3)) {
+      case 0:
+        return new PptSlice1(ppt, new VarInfo[] {vars[a]});
+      case 1:
+        return new PptSlice2(ppt, new VarInfo[] {vars[a], vars[b]});
+      default:
+        return new PptSlice3(ppt, new VarInfo[] {vars[a], vars[b], vars[c]});
+    }
+  }
+
+  private static List<Integer> index(VarInfo[] vis) {
+    List<Integer> result = new ArrayList<Integer>();
+    for (VarInfo vi : vis) {
+      result.add(vi.varinfo_index);
+    }
+    return result;
+  }
+
+  private static void assert_same(Map<List<Integer>, PptSlice> expected, SliceMap actual) {
+    actual.repCheck();
+    assertEquals(expected.size(), actual.size());
+    assertEquals(
+        new ArrayList<PptSlice>(expected.values()), new ArrayList<PptSlice>(actual.values()));
+    for (PptSlice slice : expected.values()) {
+      assertSame(slice, actual.get(slice.var_infos));
+    }
+  }
+
+  public void test_keys() {
+    assertTrue(SliceMap.key(0) != SliceMap.key(0, 0));
+    assertTrue(SliceMap.key(0, 1) != SliceMap.key(1, 0));
+    assertTrue(SliceMap.key(1, 2) != SliceMap.key(1, 2, 0));
+    assertEquals(SliceMap.key(3, 4, 5), SliceMap.key(new VarInfo[] {vars[3], vars[4], vars[5]}));
+  }
+
+  public void test_random_operations() {
+    Map<List<Integer>, PptSlice> expected = new LinkedHashMap<List<Integer>, PptSlice>();
+    SliceMap actual = new SliceMap();
+    for (int step = 0; step < 5000; step++) {
+      int op = r.nextInt(10);
+      if (op < 5) {
+        PptSlice slice = random_slice();
+        List<Integer> key = index(slice.var_infos);
+        if (!expected.containsKey(key)) {
+          expected.put(key, slice);
+          assertNull(actual.put(slice));
+        }
+      } else if (op < 8) {
+        PptSlice slice = random_slice();
+        assertSame(expected.remove(index(slice.var_infos)), actual.remove(slice.var_infos));
+      } else {
+        // Remove some slices through the iterators.
+        Iterator<PptSlice> ei = expected.values().iterator();
+        Iterator<PptSlice> ai = actual.values().iterator();
+        while (ei.hasNext()) {
+          assertTrue(ai.hasNext());
+          PptSlice slice = ei.next();
+          assertSame(slice, ai.next());
+          if (r.nextInt(4) == 0) {
+            ei.remove();
+            ai.remove();
+          }
+        }
+        assertFalse(ai.hasNext());
+      }
+      assert_same(expected, actual);
+    }
+  }
+}
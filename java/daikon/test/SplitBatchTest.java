@@ -0,0 +1,173 @@
+package daikon.test;
+
+import daikon.*;
+import daikon.inv.DummyInvariant;
+import daikon.split.PptSplitter;
+import daikon.split.Splitter;
+import daikon.split.SplitterList;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import junit.framework.*;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.plumelib.util.Intern;
+
+/**
+ * Tests that giving samples to conditional program points in batches ({@link
+ * PptSplitter#dkconfig_batch_size}) gives the same invariants as giving them one at a time.
+ */
+public class SplitBatchTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(SplitBatchTest.class));
+  }
+
+  public SplitBatchTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Splits the samples of a program point on whether a[x] is positive. It throws an exception on
+   * the samples for which x is not an index of a, which are then on neither side of the split.
+   */
+  public static final class ElementSplitter extends Splitter {
+    static final long serialVersionUID = 20261018L;
+
+    private @Nullable VarInfo x_varinfo;
+
+    private @Nullable VarInfo a_varinfo;
+
+    /** Create a prototype (factory) splitter. */
+    public ElementSplitter() {}
+
+    private ElementSplitter(Ppt ppt) {
+      x_varinfo = ppt.find_var_by_name("x");
+      a_varinfo = ppt.find_var_by_name("a[]");
+      instantiated = true;
+    }
+
+    @Override
+    public Splitter instantiateSplitter(Ppt ppt) {
+      return new ElementSplitter(ppt);
+    }
+
+    @Override
+    public boolean valid() {
+      return x_varinfo != null && a_varinfo != null;
+    }
+
+    @Override
+    @SuppressWarnings("nullness") // valid() is checked before test()
+    public boolean test(ValueTuple vt) {
+      long[] a = (long[]) vt.getValue(a_varinfo);
+      return a[(int) x_varinfo.getIntValue(vt)] > 0;
+    }
+
+    @Override
+    public String condition() {
+      return "a[x] > 0";
+    }
+
+    @Override
+    public @Nullable DummyInvariant getDummyInvariant() {
+      return null;
+    }
+  }
+
+  /**
+   * A leaf program point of the generated method. The samples given to it below need not match
+   * the exit, so that both splitters see samples on both of their sides.
+   */
+  private static final String EXIT12 = Common.GENERATED_METHOD + ":::EXIT12";
+
+  /** The declarations of the generated method; deleted after each test. */
+  private File decls;
+
+  @Override
+  protected void setUp() throws IOException {
+    decls = File.createTempFile("SplitBatchTest", ".decls");
+    Common.writeGeneratedTrace(decls, 0, 0);
+    SplitterList.put(
+        Common.GENERATED_METHOD,
+        new Splitter[] {new Common.NegativeSplitter(), new ElementSplitter()});
+  }
+
+  @Override
+  protected void tearDown() {
+    SplitterList.remove(Common.GENERATED_METHOD);
+    PptSplitter.dkconfig_batch_size = 0;
+    FileIO.resetNewDeclFormat();
+    decls.delete();
+  }
+
+  /** Returns the variable of ppt with the given name. */
+  private static VarInfo var(PptTopLevel ppt, String name) {
+    VarInfo result = ppt.find_var_by_name(name);
+    assertNotNull(name, result);
+    return result;
+  }
+
+  /**
+   * Gives samples to a newly read program point, one at a time, with the given batch size. Returns
+   * the samples and invariants of its conditional program points.
+   */
+  private String invariants(int batch_size, int samples) throws IOException {
+    PptTopLevel ppt = Common.readTraces(decls.getPath()).get(EXIT12);
+    assertNotNull(ppt);
+    assertTrue(ppt.has_splitters());
+    VarInfo[] x = {var(ppt, "x"), var(ppt, "orig(x)")};
+    VarInfo[] a = {var(ppt, "a"), var(ppt, "orig(a)")};
+    VarInfo[] a_elts = {var(ppt, "a[]"), var(ppt, "orig(a[])")};
+    VarInfo ret = var(ppt, "return");
+
+    PptSplitter.dkconfig_batch_size = batch_size;
+    try {
+      Random random = new Random(7);
+      for (int nonce = 1; nonce <= samples; nonce++) {
+        int x_val = random.nextInt(9) - 4;
+        long[] elts = new long[random.nextInt(5)];
+        for (int i = 0; i < elts.length; i++) {
+          elts[i] = random.nextInt(8) - 2;
+        }
+        long ret_val = (x_val < 0) ? -1 : (x_val < elts.length) ? elts[x_val] : 0;
+
+        @Nullable Object[] vals = new @Nullable Object[ppt.var_infos.length];
+        int[] mods = new int[vals.length];
+        for (int i = 0; i < 2; i++) {
+          vals[x[i].value_index] = Intern.internedLong(x_val);
+          vals[a[i].value_index] = Intern.internedLong(1000 + nonce);
+          vals[a_elts[i].value_index] = Intern.intern(elts);
+        }
+        vals[ret.value_index] = Intern.internedLong(ret_val);
+        for (int i = 0; i < mods.length; i++) {
+          mods[i] = ValueTuple.MODIFIED;
+        }
+        // As FileIO does before it gives a sample to a program point.
+        FileIO.compute_derived_variables(ppt, vals, mods);
+        ppt.add_bottom_up(new ValueTuple(vals, mods), 1);
+      }
+      ppt.flush_split_batch();
+    } finally {
+      PptSplitter.dkconfig_batch_size = 0;
+    }
+
+    StringBuilder result = new StringBuilder();
+    for (PptConditional ppt_cond : ppt.cond_iterable()) {
+      result.append(Common.formatInvariants(ppt_cond));
+    }
+    return result.toString();
+  }
+
+  public void test_batches() throws IOException {
+    // An odd number of samples, so that the last batch is partial for every batch size tested.
+    String expected = invariants(0, 301);
+    assertTrue(expected, expected.contains(":::EXIT12;condition=\"x < 0\": "));
+    assertTrue(expected, expected.contains(":::EXIT12;condition=\"a[x] > 0\": "));
+    assertTrue(expected, expected.contains(":::EXIT12;condition=\"not(a[x] > 0)\": "));
+    // Batches of 2 and 16, and one batch flushed only after the last sample.
+    assertEquals(expected, invariants(2, 301));
+    assertEquals(expected, invariants(16, 301));
+    assertEquals(expected, invariants(1000, 301));
+  }
+}
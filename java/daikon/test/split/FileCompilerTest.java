@@ -0,0 +1,135 @@
+package daikon.test.split;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.split.FileCompiler;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import junit.framework.*;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Tests compiling splitter sources with the Java compiler of this JVM ({@link
+ * FileCompiler#useInProcessCompiler}), and the cache of their class files.
+ */
+public class FileCompilerTest extends TestCase {
+
+  public static void main(String[] args) {
+    daikon.LogHelper.setupLogs(daikon.LogHelper.INFO);
+    junit.textui.TestRunner.run(new TestSuite(FileCompilerTest.class));
+  }
+
+  public FileCompilerTest(String name) {
+    super(name);
+  }
+
+  /** The directory of the source files; deleted after each test. */
+  private File dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = Files.createTempDirectory("FileCompilerTest").toFile();
+  }
+
+  @Override
+  protected void tearDown() {
+    delete(dir);
+  }
+
+  /** Deletes a file, or a directory and its contents. */
+  private static void delete(File file) {
+    File[] contents = file.listFiles();
+    if (contents != null) {
+      for (File f : contents) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+
+  /** Writes a source file in dir, and returns its path. */
+  private String source(String name, String text) throws IOException {
+    File file = new File(dir, name + ".java");
+    Files.write(file.toPath(), text.getBytes(UTF_8));
+    return file.getPath();
+  }
+
+  /** Returns the class file that is written for the given class. */
+  private File class_file(String name) {
+    return new File(dir, name + ".class");
+  }
+
+  /**
+   * Returns a FileCompiler that runs javac in this JVM with the given options, caching classes in
+   * cache if it is non-null.
+   */
+  private static FileCompiler compiler(String options, @Nullable File cache) {
+    FileCompiler result = new FileCompiler("javac " + options, 60000);
+    result.useInProcessCompiler((cache == null) ? null : cache.getPath());
+    return result;
+  }
+
+  public void test_errors() throws IOException {
+    String good1 = source("Good1", "public class Good1 { int f() { return 1; } }");
+    String bad = source("Bad", "public class Bad {\n  int f() {\n    return \"one\";\n  }\n}\n");
+    String good2 = source("Good2", "public class Good2 { class Inner {} }");
+    String errors = compiler("-nowarn", null).compileFiles(Arrays.asList(good1, bad, good2));
+
+    // Each error names the file and line, as javac's own messages do.
+    assertTrue(errors, errors.startsWith(bad + ":3: error: "));
+    assertFalse(errors, errors.contains(good1));
+    assertFalse(errors, errors.contains(good2));
+    assertFalse(class_file("Bad").exists());
+    assertTrue(class_file("Good1").exists());
+    // javac generates no code after the file with an error, so Good2 is compiled on the retry.
+    assertTrue(class_file("Good2").exists());
+    assertTrue(class_file("Good2$Inner").exists());
+  }
+
+  public void test_all_bad() throws IOException {
+    String bad1 = source("Bad1", "public class Bad1 { int f() { return g(); } }");
+    String bad2 = source("Bad2", "public class Bad2 extends NoSuchClass {}");
+    String errors = compiler("-nowarn", null).compileFiles(Arrays.asList(bad1, bad2));
+    assertTrue(errors, errors.contains(bad1 + ":1: error: "));
+    assertTrue(errors, errors.contains(bad2 + ":1: error: "));
+    assertFalse(class_file("Bad1").exists());
+    assertFalse(class_file("Bad2").exists());
+  }
+
+  public void test_cache() throws IOException {
+    File cache = new File(dir, "cache");
+    String good = source("Good", "public class Good { int f() { return 1; } }");
+    assertEquals("", compiler("-nowarn", cache).compileFiles(Arrays.asList(good)));
+    assertTrue(class_file("Good").exists());
+    File[] entries = cache.listFiles();
+    assertNotNull(entries);
+    assertEquals(1, entries.length);
+
+    // Mark the cached class, so that a copy from the cache can be told from a compiled class.
+    byte[] marker = "cached".getBytes(UTF_8);
+    Files.write(new File(entries[0], "Good.class").toPath(), marker);
+
+    // A hit copies the cached class instead of compiling.
+    class_file("Good").delete();
+    assertEquals("", compiler("-nowarn", cache).compileFiles(Arrays.asList(good)));
+    assertTrue(Arrays.equals(marker, Files.readAllBytes(class_file("Good").toPath())));
+
+    // Other compiler options miss.
+    assertEquals("", compiler("-nowarn -g", cache).compileFiles(Arrays.asList(good)));
+    assertFalse(Arrays.equals(marker, Files.readAllBytes(class_file("Good").toPath())));
+    assertEquals(2, cache.listFiles().length);
+
+    // A changed source misses.
+    source("Good", "public class Good { int f() { return 2; } }");
+    assertEquals("", compiler("-nowarn", cache).compileFiles(Arrays.asList(good)));
+    assertFalse(Arrays.equals(marker, Files.readAllBytes(class_file("Good").toPath())));
+    assertEquals(3, cache.listFiles().length);
+
+    // A file with errors is not cached.
+    String bad = source("Bad", "public class Bad extends NoSuchClass {}");
+    assertFalse("".equals(compiler("-nowarn", cache).compileFiles(Arrays.asList(bad))));
+    assertEquals(3, cache.listFiles().length);
+  }
+}
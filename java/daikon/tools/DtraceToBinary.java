@@ -0,0 +1,211 @@
+package daikon.tools;
+
+import daikon.BinaryDtrace;
+import daikon.FileIO;
+import daikon.PptMap;
+import daikon.PptTopLevel;
+import daikon.ProglangType;
+import daikon.ValueTuple;
+import daikon.VarInfo;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.plumelib.util.UtilPlume;
+
+/**
+ * Converts a textual data trace to the binary format of {@link daikon.BinaryDtrace}. Declarations
+ * are copied verbatim; each sample is parsed by {@link FileIO} and written as a binary record.
+ * Daikon reads the result wherever it reads a {@code .dtrace} file, and passes its samples to the
+ * same {@link FileIO.Processor} callbacks as the original. Invoke it like:
+ *
+ * <pre>
+ *   java daikon.tools.DtraceToBinary [decls-file ...] dtrace-file output-file
+ * </pre>
+ *
+ * The output is gzipped if its name ends in ".gz".
+ */
+public class DtraceToBinary {
+
+  private static String usage =
+      UtilPlume.joinLines(
+          "Usage: DtraceToBinary [DECLS-FILE ...] DTRACE-FILE OUTPUT-FILE",
+          "Converts the data trace (and any separate declaration files) to the binary",
+          "data trace format.  OUTPUT-FILE is gzipped if its name ends in \".gz\".");
+
+  public static void main(String[] args) {
+    try {
+      mainHelper(args);
+    } catch (daikon.Daikon.DaikonTerminationException e) {
+      daikon.Daikon.handleDaikonTerminationException(e);
+    }
+  }
+
+  /**
+   * This does the work of {@link #main(String[])}, but it never calls System.exit, so it is
+   * appropriate to be called progrmmatically.
+   *
+   * @param args command-line arguments, like those of {@link #main}
+   */
+  public static void mainHelper(final String[] args) {
+    if (args.length < 2) {
+      throw new daikon.Daikon.UserError(usage);
+    }
+    List<String> inputs = Arrays.asList(args).subList(0, args.length - 1);
+    String output = args[args.length - 1];
+    try {
+      convert(inputs, output);
+    } catch (IOException e) {
+      throw new Error("Problem converting to " + output, e);
+    }
+  }
+
+  /** Converts the textual trace files, in order, into a single binary trace file. */
+  public static void convert(List<String> inputs, String output) throws IOException {
+    FileIO.resetNewDeclFormat();
+    PptMap ppts = new PptMap();
+    OutputStream os = new FileOutputStream(output);
+    if (output.endsWith(".gz")) {
+      os = new GZIPOutputStream(os);
+    }
+    try (BinaryDtrace.Writer writer = new BinaryDtrace.Writer(os)) {
+      for (String input : inputs) {
+        convert_file(input, ppts, writer);
+      }
+    }
+  }
+
+  /** Copies the declarations and samples of one textual trace file to the writer. */
+  private static void convert_file(String input, PptMap ppts, BinaryDtrace.Writer writer)
+      throws IOException {
+    FileIO.ParseState state = new FileIO.ParseState(input, false, true, ppts);
+    RecordingReader reader = new RecordingReader(state.reader);
+    state.reader = reader;
+
+    // Declaration records not yet written to the output.
+    StringBuilder decls = new StringBuilder();
+    while (true) {
+      reader.clear();
+      FileIO.read_data_trace_record_setstate(state);
+      switch (state.rtype) {
+        case DECL:
+        case DECL_VERSION:
+        case COMPARABILITY:
+        case LIST_IMPLEMENTORS:
+        case INPUT_LANGUAGE:
+          decls.append(reader.recorded().trim());
+          decls.append(System.lineSeparator());
+          decls.append(System.lineSeparator());
+          break;
+        case SAMPLE:
+          if (decls.length() > 0) {
+            writer.write_decls(decls.toString());
+            decls.setLength(0);
+          }
+          @SuppressWarnings("nullness") // dependent: state.rtype is SAMPLE
+          PptTopLevel ppt = state.ppt;
+          @SuppressWarnings("nullness") // dependent: state.rtype is SAMPLE
+          ValueTuple vt = state.vt;
+          write_sample(writer, ppt, vt, state.nonce);
+          break;
+        case EOF:
+        case TRUNCATED:
+          if (decls.length() > 0) {
+            writer.write_decls(decls.toString());
+          }
+          return;
+        default:
+          // Comments and other records are not copied.
+          break;
+      }
+    }
+  }
+
+  /** Writes the trace variables of vt, defining the ppt first if necessary. */
+  private static void write_sample(
+      BinaryDtrace.Writer writer, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce)
+      throws IOException {
+    List<VarInfo> trace_vars = new ArrayList<VarInfo>();
+    for (VarInfo vi : ppt.var_infos) {
+      if (!vi.is_static_constant && vi.value_index < ppt.num_tracevars) {
+        trace_vars.add(vi);
+      }
+    }
+
+    int id = writer.ppt_id(ppt.name());
+    if (id == -1) {
+      List<String> names = new ArrayList<String>();
+      List<ProglangType> types = new ArrayList<ProglangType>();
+      for (VarInfo vi : trace_vars) {
+        names.add(vi.str_name());
+        types.add(vi.rep_type);
+      }
+      id = writer.define_ppt(ppt.name(), names, types);
+    }
+
+    @Nullable Object[] vals = new @Nullable Object[trace_vars.size()];
+    int[] mods = new int[trace_vars.size()];
+    for (int i = 0; i < vals.length; i++) {
+      VarInfo vi = trace_vars.get(i);
+      vals[i] = vt.vals[vi.value_index];
+      mods[i] = vt.mods[vi.value_index];
+    }
+    writer.write_sample(id, nonce, vals, mods);
+  }
+
+  /**
+   * A reader that remembers the lines read since the last call to {@link #clear}, so that the text
+   * of declaration records can be copied to the output. Text that is re-read after {@link #reset}
+   * is recorded only once.
+   */
+  static class RecordingReader extends LineNumberReader {
+
+    /** The lines read since the last call to {@link #clear}. */
+    private final StringBuilder recorded = new StringBuilder();
+
+    /** The length of {@link #recorded} when {@link #mark} was last called. */
+    private int marked_length = 0;
+
+    RecordingReader(java.io.Reader in) {
+      super(in);
+    }
+
+    /** Forgets the lines recorded so far. */
+    void clear() {
+      recorded.setLength(0);
+      marked_length = 0;
+    }
+
+    /** Returns the lines recorded since the last call to {@link #clear}. */
+    String recorded() {
+      return recorded.toString();
+    }
+
+    @Override
+    public @Nullable String readLine() throws IOException {
+      String line = super.readLine();
+      if (line != null) {
+        recorded.append(line);
+        recorded.append(System.lineSeparator());
+      }
+      return line;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+      super.mark(readAheadLimit);
+      marked_length = recorded.length();
+    }
+
+    @Override
+    public void reset() throws IOException {
+      super.reset();
+      recorded.setLength(marked_length);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package daikon.tools;
+
+import daikon.FileIO;
+import daikon.InvFile;
+import daikon.PptMap;
+import java.io.File;
+import java.io.IOException;
+import org.plumelib.util.UtilPlume;
+
+/**
+ * Converts an invariant file to the indexed format of {@link daikon.InvFile}. The input may be in
+ * any format that {@link FileIO#read_serialized_pptmap} reads, such as a serialized PptMap written
+ * by an earlier version of Daikon. The configuration saved in the input is saved in the output.
+ * Invoke it like:
+ *
+ * <pre>
+ *   java daikon.tools.InvToIndexed input.inv.gz output.inv
+ * </pre>
+ *
+ * The output is not gzipped, because its records are compressed individually.
+ */
+public class InvToIndexed {
+
+  private static String usage =
+      UtilPlume.joinLines(
+          "Usage: InvToIndexed INPUT-INV-FILE OUTPUT-INV-FILE",
+          "Converts the invariant file to the indexed format, whose program points",
+          "can be read one at a time.");
+
+  public static void main(String[] args) {
+    try {
+      mainHelper(args);
+    } catch (daikon.Daikon.DaikonTerminationException e) {
+      daikon.Daikon.handleDaikonTerminationException(e);
+    }
+  }
+
+  /**
+   * This does the work of {@link #main(String[])}, but it never calls System.exit, so it is
+   * appropriate to be called progrmmatically.
+   *
+   * @param args command-line arguments, like those of {@link #main}
+   */
+  public static void mainHelper(final String[] args) {
+    if (args.length != 2) {
+      throw new daikon.Daikon.UserError(usage);
+    }
+    try {
+      convert(new File(args[0]), new File(args[1]));
+    } catch (IOException e) {
+      throw new Error("Problem converting " + args[0] + " to " + args[1], e);
+    }
+  }
+
+  /** Reads the invariant file input and writes it to output in the indexed format. */
+  public static void convert(File input, File output) throws IOException {
+    PptMap ppts = FileIO.read_serialized_pptmap(input, true);
+    InvFile.write(ppts, output);
+  }
+}
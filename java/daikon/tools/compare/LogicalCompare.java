@@ -28,6 +28,7 @@ import daikon.inv.unary.sequence.EltUpperBoundFloat;
 import daikon.inv.unary.string.OneOfString;
 import daikon.simplify.InvariantLemma;
 import daikon.simplify.Lemma;
+import daikon.simplify.CheckCache;
 import daikon.simplify.LemmaStack;
 import daikon.simplify.SimplifyError;
 import gnu.getopt.*;
@@ -793,6 +794,7 @@ public class LogicalCompare {
       comparePpts(
           app_enter_ppt, test_enter_ppt,
           app_exit_ppt, test_exit_ppt);
+      CheckCache.save();
     } else if (num_args == 2) {
       startProver();
 
@@ -839,6 +841,7 @@ public class LogicalCompare {
             app_enter_ppt, test_enter_ppt,
             app_exit_ppt, test_exit_ppt);
       }
+      CheckCache.save();
     } else {
       throw new Daikon.UserError("Too many arguments" + Global.lineSep + usage);
     }
@@ -0,0 +1,73 @@
+package daikon.bench;
+
+import daikon.PptTopLevel;
+import daikon.ValueTuple;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link PptTopLevel#add_bottom_up}, in samples per second, for program points with
+ * different numbers of variables. Each iteration starts with a new program point, so the
+ * measurement includes the first samples (which instantiate and falsify most invariants) as well as
+ * the later ones (which check the surviving invariants).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class AddBottomUpBenchmark {
+
+  /** The number of distinct samples, which are given to the program point in turn. */
+  static final int SAMPLES = 4096;
+
+  /** The number of variables of the program point. */
+  @Param({"4", "12", "24"})
+  public int width;
+
+  /** A directory for the declaration file. */
+  private File dir;
+
+  /** The samples. */
+  private ValueTuple[] samples;
+
+  /** The program point. */
+  private PptTopLevel ppt;
+
+  /** The index of the next sample. */
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup_trial() throws IOException {
+    Fixtures.init_daikon();
+    dir = Fixtures.temp_dir();
+    samples = Fixtures.samples(width, SAMPLES);
+  }
+
+  @Setup(Level.Iteration)
+  public void setup_iteration() throws IOException {
+    ppt = Fixtures.scalar_ppt(dir, width);
+    next = 0;
+  }
+
+  @Benchmark
+  public Object add_bottom_up() {
+    ValueTuple vt = samples[next];
+    next = (next + 1) % SAMPLES;
+    return ppt.add_bottom_up(vt, 1);
+  }
+}
@@ -0,0 +1,299 @@
+package daikon.bench;
+
+import daikon.Daikon;
+import daikon.FileIO;
+import daikon.PptMap;
+import daikon.PptTopLevel;
+import daikon.ValueTuple;
+import daikon.config.Configuration;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Random;
+import org.plumelib.util.Intern;
+
+/**
+ * Synthetic inputs for the benchmarks. The declaration and data trace files are generated from a
+ * fixed seed, so every run of a benchmark sees the same input, and nothing outside the Daikon
+ * build is needed.
+ *
+ * <p>Each generated procedure {@code bench.C.mN} has {@code width} int parameters, an int array,
+ * and an int return value. Some parameters are equal to, or linear functions of, others, so the
+ * samples produce a mix of equality sets, true invariants, and falsified invariants.
+ */
+public final class Fixtures {
+
+  /** The seed of every generated input. */
+  static final long SEED = 20261018L;
+
+  private Fixtures() {
+    throw new Error("do not instantiate");
+  }
+
+  /** Sets up Daikon's global state as Daikon.mainHelper does before reading any files. */
+  public static synchronized void init_daikon() {
+    if (Daikon.proto_invs.isEmpty()) {
+      Configuration.getInstance().apply("daikon.Daikon.quiet = true");
+      Daikon.setup_proto_invs();
+      Daikon.setup_NISuppression();
+    }
+  }
+
+  /** Returns the name of the given procedure, including its signature. */
+  static String method_name(int method, int width) {
+    StringBuilder result = new StringBuilder("bench.C.m" + method + "(");
+    for (int i = 0; i < width; i++) {
+      result.append(i == 0 ? "int" : ",int");
+    }
+    return result.append(")").toString();
+  }
+
+  /** Returns the name of the program point of the entry to the given procedure. */
+  static String enter_name(int method, int width) {
+    return method_name(method, width) + ":::ENTER";
+  }
+
+  /** Returns the name of the program point of the exit from the given procedure. */
+  static String exit_name(int method, int width) {
+    return method_name(method, width) + ":::EXIT1";
+  }
+
+  /**
+   * Writes a declaration file for the given number of procedures.
+   *
+   * @param file the file to write
+   * @param methods the number of procedures
+   * @param width the number of int parameters of each procedure
+   */
+  public static void write_decls(File file, int methods, int width) throws IOException {
+    try (PrintWriter out = writer(file)) {
+      out.println("decl-version 2.0");
+      out.println("var-comparability none");
+      out.println();
+      for (int m = 0; m < methods; m++) {
+        out.println("ppt " + enter_name(m, width));
+        out.println("  ppt-type enter");
+        write_params(out, width);
+        out.println();
+        out.println("ppt " + exit_name(m, width));
+        out.println("  ppt-type subexit");
+        write_params(out, width);
+        write_var(out, "return", "int", null);
+        out.println();
+      }
+    }
+  }
+
+  /** Writes the declarations of the parameters of a procedure. */
+  private static void write_params(PrintWriter out, int width) {
+    for (int i = 0; i < width; i++) {
+      write_var(out, "p" + i, "int", "is_param");
+    }
+    out.println("  variable a");
+    out.println("    var-kind variable");
+    out.println("    rep-type hashcode");
+    out.println("    dec-type int[]");
+    out.println("    flags is_param non_null");
+    out.println("  variable a[..]");
+    out.println("    var-kind array");
+    out.println("    enclosing-var a");
+    out.println("    array 1");
+    out.println("    rep-type int[]");
+    out.println("    dec-type int[]");
+  }
+
+  /** Writes the declaration of a scalar variable. */
+  private static void write_var(PrintWriter out, String name, String type, String flags) {
+    out.println("  variable " + name);
+    out.println("    var-kind variable");
+    out.println("    rep-type " + type);
+    out.println("    dec-type " + type);
+    if (flags != null) {
+      out.println("    flags " + flags);
+    }
+  }
+
+  /**
+   * Writes a data trace file with the given number of calls, spread over the procedures of a
+   * declaration file written by {@link #write_decls}.
+   *
+   * @param file the file to write
+   * @param methods the number of procedures
+   * @param width the number of int parameters of each procedure
+   * @param calls the number of calls; each produces an entry and an exit sample
+   */
+  public static void write_dtrace(File file, int methods, int width, int calls)
+      throws IOException {
+    Random random = new Random(SEED);
+    try (PrintWriter out = writer(file)) {
+      for (int call = 0; call < calls; call++) {
+        int method = random.nextInt(methods);
+        long[] params = params(random, width);
+        int length = random.nextInt(6);
+        StringBuilder array = new StringBuilder("[");
+        long elt = random.nextInt(10);
+        for (int i = 0; i < length; i++) {
+          array.append(i == 0 ? "" : " ").append(elt);
+          elt += random.nextInt(5);
+        }
+        array.append("]");
+        for (boolean exit : new boolean[] {false, true}) {
+          out.println(exit ? exit_name(method, width) : enter_name(method, width));
+          out.println("this_invocation_nonce");
+          out.println(call);
+          for (int i = 0; i < width; i++) {
+            write_value(out, "p" + i, Long.toString(params[i]));
+          }
+          write_value(out, "a", Integer.toString(1000 + call));
+          write_value(out, "a[..]", array.toString());
+          if (exit) {
+            write_value(out, "return", Long.toString(params[0] + length));
+          }
+          out.println();
+        }
+      }
+    }
+  }
+
+  /** Writes the value of a variable in a sample. */
+  private static void write_value(PrintWriter out, String name, String value) {
+    out.println(name);
+    out.println(value);
+    out.println(1);
+  }
+
+  /**
+   * Returns the values of the parameters of one call. Every third parameter equals the first, the
+   * parameters after those are linear functions of the first, and the rest are random.
+   */
+  private static long[] params(Random random, int width) {
+    long[] result = new long[width];
+    long base = random.nextInt(100);
+    for (int i = 0; i < width; i++) {
+      switch (i % 3) {
+        case 0:
+          result[i] = base;
+          break;
+        case 1:
+          result[i] = 2 * base + i;
+          break;
+        default:
+          result[i] = random.nextInt(1000);
+          break;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a program point with the given number of int variables, read from a generated
+   * declaration file. It is a leaf of the program point hierarchy and has no derived variables, so a
+   * sample from {@link #samples} can be given directly to {@link PptTopLevel#add_bottom_up}.
+   *
+   * @param dir a directory for the declaration file
+   * @param width the number of int variables
+   */
+  public static PptTopLevel scalar_ppt(File dir, int width) throws IOException {
+    init_daikon();
+    File decls = new File(dir, "scalar-" + width + ".decls");
+    String name = "bench.Scalars" + width + ":::POINT";
+    try (PrintWriter out = writer(decls)) {
+      out.println("decl-version 2.0");
+      out.println("var-comparability none");
+      out.println();
+      out.println("ppt " + name);
+      out.println("  ppt-type point");
+      for (int i = 0; i < width; i++) {
+        write_var(out, "p" + i, "int", null);
+      }
+    }
+    PptMap all_ppts = FileIO.read_declaration_files(Collections.singleton(decls));
+    PptTopLevel ppt = all_ppts.get(name);
+    if (ppt == null || ppt.var_infos.length != width) {
+      throw new Error("Unexpected program point for " + decls + ": " + ppt);
+    }
+    return ppt;
+  }
+
+  /**
+   * Returns samples for a program point returned by {@link #scalar_ppt}.
+   *
+   * @param width the number of int parameters
+   * @param count the number of samples
+   */
+  public static ValueTuple[] samples(int width, int count) {
+    Random random = new Random(SEED);
+    ValueTuple[] result = new ValueTuple[count];
+    int[] mods = new int[width];
+    for (int i = 0; i < width; i++) {
+      mods[i] = ValueTuple.MODIFIED;
+    }
+    for (int s = 0; s < count; s++) {
+      long[] params = params(random, width);
+      Object[] vals = new Object[width];
+      for (int i = 0; i < width; i++) {
+        vals[i] = Intern.internedLong(params[i]);
+      }
+      result[s] = new ValueTuple(vals, mods.clone());
+    }
+    return result;
+  }
+
+  /**
+   * Runs Daikon on a generated trace and returns the resulting invariant file.
+   *
+   * @param dir a directory for the generated files
+   * @param methods the number of procedures
+   * @param width the number of int parameters of each procedure
+   * @param calls the number of calls
+   */
+  public static File inferred_invariants(File dir, int methods, int width, int calls)
+      throws IOException {
+    File decls = new File(dir, "bench.decls");
+    File dtrace = new File(dir, "bench.dtrace");
+    File inv = new File(dir, "bench.inv.gz");
+    write_decls(decls, methods, width);
+    write_dtrace(dtrace, methods, width, calls);
+    Daikon.mainHelper(
+        new String[] {
+          "--no_text_output",
+          "--config_option",
+          "daikon.Daikon.quiet=true",
+          "-o",
+          inv.getPath(),
+          decls.getPath(),
+          dtrace.getPath()
+        });
+    return inv;
+  }
+
+  /** Returns a new temporary directory, deleted when the JVM exits. */
+  public static File temp_dir() throws IOException {
+    final File dir = Files.createTempDirectory("daikon-bench").toFile();
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread() {
+              @Override
+              public void run() {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                  for (File f : files) {
+                    f.delete();
+                  }
+                }
+                dir.delete();
+              }
+            });
+    return dir;
+  }
+
+  /** Returns a writer for the given file. */
+  private static PrintWriter writer(File file) throws IOException {
+    return new PrintWriter(
+        new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)));
+  }
+}
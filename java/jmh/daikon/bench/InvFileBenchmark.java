@@ -0,0 +1,63 @@
+package daikon.bench;
+
+import daikon.FileIO;
+import daikon.PptMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing and reading a {@code .inv} file, in both the indexed and the plain serialized
+ * format (see {@link FileIO#dkconfig_indexed_inv_files}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class InvFileBenchmark {
+
+  /** If true, use the indexed format; otherwise, the plain serialized format. */
+  @Param({"true", "false"})
+  public boolean indexed;
+
+  /** The invariants. */
+  private PptMap all_ppts;
+
+  /** The file that is written and read. */
+  private File inv;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    File dir = Fixtures.temp_dir();
+    File inferred = Fixtures.inferred_invariants(dir, 20, 6, 20000);
+    all_ppts = FileIO.read_serialized_pptmap(inferred, true);
+    FileIO.dkconfig_indexed_inv_files = indexed;
+    inv = new File(dir, "round-trip.inv.gz");
+    FileIO.write_serialized_pptmap(all_ppts, inv);
+  }
+
+  @Benchmark
+  public long write() throws IOException {
+    FileIO.write_serialized_pptmap(all_ppts, inv);
+    return inv.length();
+  }
+
+  @Benchmark
+  public PptMap read() throws IOException {
+    return FileIO.read_serialized_pptmap(inv, false);
+  }
+}
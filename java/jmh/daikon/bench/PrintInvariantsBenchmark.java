@@ -0,0 +1,56 @@
+package daikon.bench;
+
+import daikon.FileIO;
+import daikon.PptMap;
+import daikon.PptTopLevel;
+import daikon.PrintInvariants;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures filtering and formatting the invariants of every program point, as PrintInvariants
+ * does for its default output format.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class PrintInvariantsBenchmark {
+
+  /** The invariants. */
+  private PptMap all_ppts;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    File dir = Fixtures.temp_dir();
+    File inferred = Fixtures.inferred_invariants(dir, 20, 6, 20000);
+    all_ppts = FileIO.read_serialized_pptmap(inferred, true);
+  }
+
+  @Benchmark
+  public int print() {
+    StringWriter text = new StringWriter();
+    PrintWriter out = new PrintWriter(text);
+    for (PptTopLevel ppt : all_ppts.pptIterable()) {
+      PrintInvariants.print_invariants_maybe(ppt, out, all_ppts);
+    }
+    out.flush();
+    return text.getBuffer().length();
+  }
+}
@@ -0,0 +1,93 @@
+package daikon.bench;
+
+import daikon.DynamicConstants;
+import daikon.PptSliceEquality;
+import daikon.PptTopLevel;
+import daikon.ValueTuple;
+import daikon.suppress.NIS;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parts of {@link PptTopLevel#add_bottom_up} that every sample goes through, in
+ * samples per second: adding the sample to the equality sets ({@link PptSliceEquality#add}), to the
+ * dynamic constants ({@link DynamicConstants#add}), and creating invariants that are no longer
+ * suppressed ({@link NIS#process_falsified_invs}).
+ *
+ * <p>Before the measurement, the program point has seen every sample, so the equality sets and
+ * constants are stable and no invariant is falsified; the measurement is the steady-state cost of a
+ * sample.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class SampleComponentsBenchmark {
+
+  /** The number of distinct samples, which are given to the program point in turn. */
+  static final int SAMPLES = 1024;
+
+  /** The number of variables of the program point. */
+  @Param({"4", "12", "24"})
+  public int width;
+
+  /** The samples. */
+  private ValueTuple[] samples;
+
+  /** The program point. */
+  private PptTopLevel ppt;
+
+  /** The index of the next sample. */
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    Fixtures.init_daikon();
+    samples = Fixtures.samples(width, SAMPLES);
+    ppt = Fixtures.scalar_ppt(Fixtures.temp_dir(), width);
+    for (ValueTuple vt : samples) {
+      ppt.add_bottom_up(vt, 1);
+    }
+    if (ppt.equality_view == null || ppt.constants == null) {
+      throw new Error("Equality sets and dynamic constants must be enabled");
+    }
+    // As within add_bottom_up, the falsified invariants are recorded as they are falsified.
+    ppt.falsification_log = new NIS.FalsificationLog();
+  }
+
+  /** Returns the next sample. */
+  private ValueTuple next_sample() {
+    ValueTuple vt = samples[next];
+    next = (next + 1) % SAMPLES;
+    return vt;
+  }
+
+  @Benchmark
+  public Object equality_add() {
+    return ppt.equality_view.add(next_sample(), 1);
+  }
+
+  @Benchmark
+  public void dynamic_constants_add() {
+    ppt.constants.add(next_sample(), 1);
+  }
+
+  @Benchmark
+  public void process_falsified_invs() {
+    NIS.process_falsified_invs(ppt, next_sample());
+  }
+}
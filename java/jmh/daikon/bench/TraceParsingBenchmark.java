@@ -0,0 +1,87 @@
+package daikon.bench;
+
+import daikon.FileIO;
+import daikon.PptMap;
+import daikon.PptTopLevel;
+import daikon.ValueTuple;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast {@link FileIO} parses a data trace file, in samples per second. The samples are
+ * parsed and interned but not given to their program points.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class TraceParsingBenchmark {
+
+  /** The number of procedures in the trace. */
+  static final int METHODS = 20;
+
+  /** The number of calls in the trace; each is two samples. */
+  static final int CALLS = 20000;
+
+  /** The number of int parameters of each procedure. */
+  @Param({"4", "32"})
+  public int width;
+
+  /** The data trace file. */
+  private File dtrace;
+
+  /** The program points declared for the trace. */
+  private PptMap all_ppts;
+
+  /** Counts the samples, without processing them. */
+  static class CountingProcessor extends FileIO.Processor {
+    /** The number of samples read. */
+    int samples = 0;
+
+    @Override
+    public void process_sample(
+        PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {
+      samples++;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    Fixtures.init_daikon();
+    File dir = Fixtures.temp_dir();
+    File decls = new File(dir, "bench.decls");
+    dtrace = new File(dir, "bench.dtrace");
+    Fixtures.write_decls(decls, METHODS, width);
+    Fixtures.write_dtrace(dtrace, METHODS, width, CALLS);
+    all_ppts = FileIO.read_declaration_files(Collections.singleton(decls));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(2 * CALLS)
+  public int parse() throws IOException {
+    CountingProcessor processor = new CountingProcessor();
+    FileIO.read_data_trace_file(dtrace.getPath(), all_ppts, processor, false, false);
+    if (processor.samples != 2 * CALLS) {
+      throw new Error("Read " + processor.samples + " samples, expected " + 2 * CALLS);
+    }
+    return processor.samples;
+  }
+}
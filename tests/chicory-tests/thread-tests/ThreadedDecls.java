@@ -0,0 +1,155 @@
+/**
+ * Worker threads call traced methods while the main thread loads classes with long declarations,
+ * so that with --thread-buffers the records of the workers are written while the declarations
+ * are printed.
+ */
+public class ThreadedDecls {
+
+  static final int WORKERS = 4;
+  static final int CALLS = 5000;
+
+  static class Counter {
+    int count;
+
+    int add(int x) {
+      count += x;
+      return count;
+    }
+  }
+
+  static class Worker extends Thread {
+    final Counter counter = new Counter();
+
+    @Override
+    public void run() {
+      for (int i = 0; i < CALLS; i++) {
+        counter.add(i % 3);
+      }
+    }
+  }
+
+  static class Late0 {
+    int f0, f1, f2, f3, f4, f5, f6, f7, f8, f9, f10, f11, f12, f13, f14, f15, f16, f17, f18, f19;
+
+    Late0(int x) {
+      f0 = x;
+      f19 = -x;
+    }
+
+    int sum(int a, int b) {
+      return f0 + f19 + a + b;
+    }
+  }
+
+  static class Late1 {
+    int f0, f1, f2, f3, f4, f5, f6, f7, f8, f9, f10, f11, f12, f13, f14, f15, f16, f17, f18, f19;
+
+    Late1(int x) {
+      f0 = x;
+      f19 = -x;
+    }
+
+    int sum(int a, int b) {
+      return f0 + f19 + a + b;
+    }
+  }
+
+  static class Late2 {
+    int f0, f1, f2, f3, f4, f5, f6, f7, f8, f9, f10, f11, f12, f13, f14, f15, f16, f17, f18, f19;
+
+    Late2(int x) {
+      f0 = x;
+      f19 = -x;
+    }
+
+    int sum(int a, int b) {
+      return f0 + f19 + a + b;
+    }
+  }
+
+  static class Late3 {
+    int f0, f1, f2, f3, f4, f5, f6, f7, f8, f9, f10, f11, f12, f13, f14, f15, f16, f17, f18, f19;
+
+    Late3(int x) {
+      f0 = x;
+      f19 = -x;
+    }
+
+    int sum(int a, int b) {
+      return f0 + f19 + a + b;
+    }
+  }
+
+  static class Late4 {
+    int f0, f1, f2, f3, f4, f5, f6, f7, f8, f9, f10, f11, f12, f13, f14, f15, f16, f17, f18, f19;
+
+    Late4(int x) {
+      f0 = x;
+      f19 = -x;
+    }
+
+    int sum(int a, int b) {
+      return f0 + f19 + a + b;
+    }
+  }
+
+  static class Late5 {
+    int f0, f1, f2, f3, f4, f5, f6, f7, f8, f9, f10, f11, f12, f13, f14, f15, f16, f17, f18, f19;
+
+    Late5(int x) {
+      f0 = x;
+      f19 = -x;
+    }
+
+    int sum(int a, int b) {
+      return f0 + f19 + a + b;
+    }
+  }
+
+  static class Late6 {
+    int f0, f1, f2, f3, f4, f5, f6, f7, f8, f9, f10, f11, f12, f13, f14, f15, f16, f17, f18, f19;
+
+    Late6(int x) {
+      f0 = x;
+      f19 = -x;
+    }
+
+    int sum(int a, int b) {
+      return f0 + f19 + a + b;
+    }
+  }
+
+  static class Late7 {
+    int f0, f1, f2, f3, f4, f5, f6, f7, f8, f9, f10, f11, f12, f13, f14, f15, f16, f17, f18, f19;
+
+    Late7(int x) {
+      f0 = x;
+      f19 = -x;
+    }
+
+    int sum(int a, int b) {
+      return f0 + f19 + a + b;
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    Worker[] workers = new Worker[WORKERS];
+    for (int i = 0; i < WORKERS; i++) {
+      workers[i] = new Worker();
+      workers[i].start();
+    }
+    int sum = 0;
+    sum += new Late0(1).sum(0, 2);
+    sum += new Late1(2).sum(1, 3);
+    sum += new Late2(3).sum(2, 4);
+    sum += new Late3(4).sum(3, 5);
+    sum += new Late4(5).sum(4, 6);
+    sum += new Late5(6).sum(5, 7);
+    sum += new Late6(7).sum(6, 8);
+    sum += new Late7(8).sum(7, 9);
+    for (Worker worker : workers) {
+      worker.join();
+    }
+    System.out.println(sum);
+  }
+}